@@ -41,17 +41,21 @@ public abstract class CrailBufferedInputStream extends InputStream {
 	private RingBuffer<CrailBuffer> readySlices;
 	private RingBuffer<CrailBuffer> pendingSlices;
 	private RingBuffer<Future<CrailResult>> pendingFutures;	
+	private RingBuffer<Long> pendingTimes;
 	private RingBuffer<CrailBuffer> freeSlices;
-	private RingBuffer<CrailBuffer> tmpSlices;
 	private long position;
 	private boolean open;
 	private CrailBufferedStatistics statistics;
 	private int actualSliceSize;
+	private int sliceCount;
 	private long capacity;
+	private ReadAheadWindow readAhead;
+	private CrailBuffer positionalBuffer;
 	
 	public abstract CrailInputStream getStream() throws Exception;
 	public abstract void putStream() throws Exception;
 	
+	//queueDepth is the initial prefetch window, it adapts to the access pattern up to crail.readahead.max
 	CrailBufferedInputStream(CrailStore fs, int queueDepth, long capacity) throws Exception {
 		this.fs = fs;
 		this.position = 0;
@@ -61,36 +65,28 @@ public abstract class CrailBufferedInputStream extends InputStream {
 		this.statistics = new CrailBufferedStatistics("buffered/in");
 		
 		this.actualSliceSize = Math.min(CrailConstants.BUFFER_SIZE, CrailConstants.SLICE_SIZE);
-		int allocationSize = queueDepth*actualSliceSize;
+		int maxDepth = Math.max(queueDepth, CrailConstants.READAHEAD_MAX / actualSliceSize);
+		this.readAhead = new ReadAheadWindow(queueDepth, maxDepth, actualSliceSize);
 		this.originalBuffers = new LinkedList<CrailBuffer>();
-		this.readySlices = new RingBuffer<CrailBuffer>(queueDepth);
-		this.pendingSlices = new RingBuffer<CrailBuffer>(queueDepth);
-		this.freeSlices = new RingBuffer<CrailBuffer>(queueDepth);
-		this.pendingFutures = new RingBuffer<Future<CrailResult>>(queueDepth);
-		this.tmpSlices = new RingBuffer<CrailBuffer>(queueDepth);
+		this.readySlices = new RingBuffer<CrailBuffer>(maxDepth);
+		this.pendingSlices = new RingBuffer<CrailBuffer>(maxDepth);
+		this.freeSlices = new RingBuffer<CrailBuffer>(maxDepth);
+		this.pendingFutures = new RingBuffer<Future<CrailResult>>(maxDepth);
+		this.pendingTimes = new RingBuffer<Long>(maxDepth);
+		this.sliceCount = 0;
+		this.positionalBuffer = null;
 		
-		for (int currentSize = 0; currentSize < allocationSize; currentSize += CrailConstants.BUFFER_SIZE){
-			CrailBuffer buffer = fs.allocateBuffer();
-			originalBuffers.add(buffer);
-		}
-		for (CrailBuffer buffer : originalBuffers){
-			while(buffer.hasRemaining()){
-				buffer.limit(buffer.position() + actualSliceSize);
-				CrailBuffer slice = buffer.slice();
-				slice.clear();
-				freeSlices.add(slice);
-				if (freeSlices.size() >= queueDepth){
-					break;
-				}
-				
-				int newpos = buffer.position() + actualSliceSize;
-				buffer.clear();
-				buffer.position(newpos);
-			}			
+		while (sliceCount < readAhead.getWindow()){
+			allocateSlices();
 		}
 		this.open = true;
 	}
 	
+	//streams which can provide a second stream on the same data serve positional reads without seeking
+	CrailInputStream getPositionalStream() throws Exception {
+		return null;
+	}
+	
 	public final int read() throws IOException {
 		int ret = read(tmpByteBuf);
 		return (ret <= 0) ? -1 : (tmpByteBuf[0] & 0xff);
@@ -100,7 +96,31 @@ public abstract class CrailBufferedInputStream extends InputStream {
         return read(b, 0, b.length);
     }	
 
+	//positional reads neither move the stream nor disturb the prefetch window
 	public final int read(long position, byte[] buffer, int offset, int length) throws IOException {
+		try {
+			if (buffer == null) {
+				throw new NullPointerException();
+			} else if (offset < 0 || length < 0 || length > buffer.length - offset) {
+				throw new IndexOutOfBoundsException("off " + offset + ", len " + length + ", length " + buffer.length);
+			} else if (!open) { 
+				throw new IOException("strem closed");
+			} else if (length == 0) {
+				return 0;
+			}
+			
+			int nread = readBuffered(position, buffer, offset, length);
+			if (nread > 0){
+				return nread;
+			}
+			CrailInputStream stream = getPositionalStream();
+			if (stream != null){
+				return readPositional(stream, position, buffer, offset, length);
+			}
+		} catch (Exception e) {
+			throw new IOException(e);
+		}
+		
 		long oldPos = position();
 		int nread = -1;
 		try {
@@ -299,6 +319,10 @@ public abstract class CrailBufferedInputStream extends InputStream {
 				future.get();
 			}
 			
+			if (positionalBuffer != null){
+				fs.freeBuffer(positionalBuffer);
+				positionalBuffer = null;
+			}
 			while(!originalBuffers.isEmpty()){
 				CrailBuffer buffer = originalBuffers.remove();
 				fs.freeBuffer(buffer);
@@ -341,45 +365,36 @@ public abstract class CrailBufferedInputStream extends InputStream {
 			long endPosition = startPosition + (readySlices.size() + pendingSlices.size())*actualSliceSize;
 			if (pos >= startPosition && pos < endPosition){
 				long currentPosition = startPosition;
-				tmpSlices.clear();
-				while(!freeSlices.isEmpty()){
-					tmpSlices.add(freeSlices.poll());
-				}
 				while(!readySlices.isEmpty() && pos >= currentPosition + actualSliceSize){
 					currentPosition += actualSliceSize;
-					tmpSlices.add(readySlices.poll());
+					recycleSlice(readySlices.poll());
 				}
 				while(!pendingFutures.isEmpty() && pos >= currentPosition + actualSliceSize){
 					Future<CrailResult> future = pendingFutures.poll();
 					future.get();
+					pendingTimes.poll();
 					currentPosition += actualSliceSize;
-					tmpSlices.add(pendingSlices.poll());
-				}
-				while(!tmpSlices.isEmpty()){
-					triggerRead(tmpSlices.poll());
+					recycleSlice(pendingSlices.poll());
 				}
+				fillWindow();
 				this.position = pos;				
 				CrailBuffer slice = getSlice(true);
 				long bufPosition = pos - currentPosition;
 				slice.position((int) bufPosition);
 			} else {
+				readAhead.seek(position, pos);
 				long sliceStart = CrailUtils.bufferStartAddress(pos, actualSliceSize);
-				getStream().seek(sliceStart);
-				tmpSlices.clear();
-				while(!freeSlices.isEmpty()){
-					tmpSlices.add(freeSlices.poll());
-				}				
 				while(!readySlices.isEmpty()){
-					tmpSlices.add(readySlices.poll());
+					recycleSlice(readySlices.poll());
 				}
 				while(!pendingFutures.isEmpty()){
 					Future<CrailResult> future = pendingFutures.poll();
 					future.get();
-					tmpSlices.add(pendingSlices.poll());
+					pendingTimes.poll();
+					recycleSlice(pendingSlices.poll());
 				}
-				while(!tmpSlices.isEmpty()){
-					triggerRead(tmpSlices.poll());
-				}				
+				getStream().seek(sliceStart);
+				fillWindow();
 				this.position = pos;				
 				CrailBuffer slice = getSlice(true);
 				long bufPosition = pos - sliceStart;
@@ -414,25 +429,27 @@ public abstract class CrailBufferedInputStream extends InputStream {
 	private CrailBuffer getSlice(boolean blocking) throws Exception {
 		CrailBuffer slice = readySlices.peek();
 		if (slice == null){
-			Future<CrailResult> future = pendingFutures.peek();
-			if (future == null){
-				tmpSlices.clear();
-				while(!freeSlices.isEmpty()){
-					tmpSlices.add(freeSlices.poll());
-				}
-				while(!tmpSlices.isEmpty()){
-					triggerRead(tmpSlices.poll());
-				}
-				future = pendingFutures.peek();
+			if (pendingFutures.isEmpty()){
+				fillWindow();
 			}
+			Future<CrailResult> future = pendingFutures.peek();
 			if (future != null){
 				statistics.incTotalOps();
-				if (blocking){
+				boolean stalled = false;
+				if (blocking && !future.isDone()){
+					long start = System.nanoTime();
 					future.get();
+					readAhead.stall(System.nanoTime() - start);
+					stalled = true;
 				}
 				if (future.isDone()){
 					future = pendingFutures.poll();
-					statistics.incNonBlockingOps();
+					readAhead.complete(pendingTimes.poll(), System.nanoTime(), stalled);
+					if (stalled){
+						statistics.incBlockingOps();
+					} else {
+						statistics.incNonBlockingOps();
+					}
 					slice = pendingSlices.poll();
 					slice.flip();
 					readySlices.add(slice);
@@ -450,23 +467,123 @@ public abstract class CrailBufferedInputStream extends InputStream {
 		CrailBuffer slice = readySlices.peek();
 		if (slice != null && slice.remaining() == 0){
 			slice = readySlices.poll();
-			triggerRead(slice);
+			recycleSlice(slice);
+			readAhead.consume(System.nanoTime());
+			fillWindow();
 		}		
 	}
 	
-	private void triggerRead(CrailBuffer slice) throws Exception {
+	//issues reads until the prefetch window is full, the slice pool grows on demand
+	private void fillWindow() throws Exception {
+		while (readySlices.size() + pendingSlices.size() < readAhead.getWindow()){
+			if (freeSlices.isEmpty()){
+				allocateSlices();
+			}
+			if (!triggerRead(freeSlices.poll())){
+				break;
+			}
+		}
+	}
+	
+	//returns false if the slice could not be read because the stream is at its end
+	private boolean triggerRead(CrailBuffer slice) throws Exception {
 		slice.clear();
 		CrailInputStream inputStream = getStream();
 		if (inputStream != null){
 			Future<CrailResult> future = inputStream.read(slice);
+			putStream();
 			if (future != null){
 				pendingSlices.add(slice);
 				pendingFutures.add(future);
+				pendingTimes.add(System.nanoTime());
+				return true;
+			}
+		}
+		freeSlices.add(slice);
+		return false;
+	}
+	
+	private void recycleSlice(CrailBuffer slice){
+		slice.clear();
+		freeSlices.add(slice);
+	}
+	
+	//carves one more buffer into slices, never more slices than the largest window
+	private void allocateSlices() throws Exception {
+		CrailBuffer buffer = fs.allocateBuffer();
+		originalBuffers.add(buffer);
+		while(buffer.hasRemaining() && sliceCount < readAhead.getMaxWindow()){
+			buffer.limit(buffer.position() + actualSliceSize);
+			CrailBuffer slice = buffer.slice();
+			slice.clear();
+			freeSlices.add(slice);
+			sliceCount++;
+			
+			int newpos = buffer.position() + actualSliceSize;
+			buffer.clear();
+			buffer.position(newpos);
+		}
+	}
+	
+	//copies prefetched data without consuming it, returns 0 if the position is not prefetched
+	private int readBuffered(long pos, byte[] buf, int off, int len) throws Exception {
+		long sliceStart = CrailUtils.bufferStartAddress(position, actualSliceSize);
+		int ready = readySlices.size();
+		int total = ready + pendingSlices.size();
+		int sumLen = 0;
+		for (int i = 0; i < total && len > 0; i++, sliceStart += actualSliceSize){
+			if (pos >= sliceStart + actualSliceSize){
+				continue;
+			} else if (pos < sliceStart){
+				break;
+			}
+			CrailBuffer slice = null;
+			int dataLength = 0;
+			if (i < ready){
+				slice = readySlices.get(i);
+				dataLength = slice.limit();
 			} else {
-				freeSlices.add(slice);
+				pendingFutures.get(i - ready).get();
+				slice = pendingSlices.get(i - ready);
+				dataLength = slice.position();
 			}
-			putStream();
+			int sliceOffset = (int) (pos - sliceStart);
+			if (sliceOffset >= dataLength){
+				break;
+			}
+			int bufferRemaining = Math.min(len, dataLength - sliceOffset);
+			ByteBuffer data = slice.getByteBuffer().duplicate();
+			data.limit(sliceOffset + bufferRemaining);
+			data.position(sliceOffset);
+			data.get(buf, off, bufferRemaining);
+			pos += bufferRemaining;
+			off += bufferRemaining;
+			len -= bufferRemaining;
+			sumLen += bufferRemaining;
 		}
+		return sumLen;
 	}
 	
+	private int readPositional(CrailInputStream stream, long pos, byte[] buf, int off, int len) throws Exception {
+		if (pos >= capacity){
+			return -1;
+		}
+		if (positionalBuffer == null){
+			positionalBuffer = fs.allocateBuffer();
+		}
+		stream.seek(pos);
+		positionalBuffer.clear();
+		positionalBuffer.limit(Math.min(len, positionalBuffer.capacity()));
+		Future<CrailResult> future = stream.read(positionalBuffer);
+		if (future == null){
+			return -1;
+		}
+		int nread = (int) future.get().getLen();
+		if (nread <= 0){
+			return -1;
+		}
+		positionalBuffer.position(0);
+		positionalBuffer.get(buf, off, nread);
+		return nread;
+	}
 }
@@ -47,11 +47,18 @@ public class CrailBufferedOutputStream extends OutputStream {
 	private boolean open;
 	private CrailBufferedStatistics statistics;
 	private int actualSliceSize;
+	private int sliceCount;
+	private int maxSlices;
 
 	private CrailImmediateOperation noOp;
 	private ByteBuffer tmpBoundaryBuffer;
-	private byte[] tmpByteBuf; 
 	
+	/*
+	 * Writes are collected into slices and written behind the application. Slices of completed
+	 * writes are reused, the pool grows on demand until crail.writebehind.max bytes are in flight,
+	 * only then a writer waits for the oldest write to complete. With the default of 0 the pool
+	 * stays at the buffer allocated up front.
+	 */
 	CrailBufferedOutputStream(CrailFile file, long writeHint) throws Exception {
 		this.crailFS = file.getFileSystem();
 		this.file = file;
@@ -61,29 +68,17 @@ public class CrailBufferedOutputStream extends OutputStream {
 		
 		int allocationSize = Math.max(CrailConstants.BUFFER_SIZE, CrailConstants.SLICE_SIZE);
 		this.actualSliceSize = Math.min(CrailConstants.BUFFER_SIZE, CrailConstants.SLICE_SIZE);
-		int sliceCount = allocationSize / actualSliceSize;		
+		int initialSlices = allocationSize / actualSliceSize;		
+		this.maxSlices = Math.max(initialSlices, CrailConstants.WRITEBEHIND_MAX / actualSliceSize);
+		this.sliceCount = 0;
 		this.originalBuffers = new LinkedList<CrailBuffer>();
-		this.readySlices = new RingBuffer<CrailBuffer>(sliceCount);
-		this.pendingSlices = new RingBuffer<CrailBuffer>(sliceCount);
-		this.pendingFutures = new RingBuffer<Future<CrailResult>>(sliceCount);
+		this.readySlices = new RingBuffer<CrailBuffer>(maxSlices);
+		this.pendingSlices = new RingBuffer<CrailBuffer>(maxSlices);
+		this.pendingFutures = new RingBuffer<Future<CrailResult>>(maxSlices);
 		
-		for (int currentSize = 0; currentSize < allocationSize; currentSize += CrailConstants.BUFFER_SIZE){
-			CrailBuffer buffer = crailFS.allocateBuffer();
-			originalBuffers.add(buffer);
+		while (sliceCount < initialSlices){
+			allocateSlices();
 		}
-		for (CrailBuffer buffer : originalBuffers){
-			while(buffer.hasRemaining()){
-				buffer.limit(buffer.position() + actualSliceSize);
-				CrailBuffer slice = buffer.slice();
-				slice.clear();
-				readySlices.add(slice);
-				
-				int newpos = buffer.position() + actualSliceSize;
-				buffer.clear();
-				buffer.position(newpos);
-			}
-		}
-		this.tmpByteBuf = new byte[1];
 		this.tmpBoundaryBuffer = ByteBuffer.allocate(8);
 		this.noOp = new CrailImmediateOperation(0);
 		this.position = 0;
@@ -91,8 +86,17 @@ public class CrailBufferedOutputStream extends OutputStream {
 	}
 	
 	public final void write(int dataBuf) throws IOException {
-		tmpByteBuf[0] = (byte) dataBuf;
-		this.write(tmpByteBuf);
+		try {
+			if (!open) {
+				throw new IOException("stream closed");
+			}
+			CrailBuffer slice = getSlice();
+			slice.put((byte) dataBuf);
+			position++;
+			syncSlice();
+		} catch (Exception e) {
+			throw new IOException(e);
+		}
 	}
 	
 	public final void write(byte[] dataBuf) throws IOException {
@@ -228,23 +232,18 @@ public class CrailBufferedOutputStream extends OutputStream {
 		} 
 		
 		try {
-			while(!readySlices.isEmpty()){
-				CrailBuffer slice = readySlices.poll();
-				if (slice.position() > 0){
-					slice.flip();
-					Future<CrailResult> future = outputStream().write(slice);
-					pendingSlices.add(slice);
-					pendingFutures.add(future);					
-				}
+			CrailBuffer slice = readySlices.peek();
+			if (slice != null && slice.position() > 0){
+				writeSlice(readySlices.poll());
 			}
 	
+			//the writes stay pending here as well, their slices are recycled once they complete
 			if (pendingFutures.isEmpty()){
 				return noOp;
 			} else {
 				CrailPurgeOperation purgeOp = new CrailPurgeOperation();
-				while(!pendingFutures.isEmpty()){
-					Future<CrailResult> future = pendingFutures.poll();
-					purgeOp.add(future);
+				for (int i = 0; i < pendingFutures.size(); i++){
+					purgeOp.add(pendingFutures.get(i));
 				}		
 				return purgeOp;
 			}
@@ -264,14 +263,9 @@ public class CrailBufferedOutputStream extends OutputStream {
 				return;
 			}
 			
-			while(!readySlices.isEmpty()){
-				CrailBuffer slice = readySlices.poll();
-				if (slice.position() > 0){
-					slice.flip();
-					Future<CrailResult> future = outputStream().write(slice);
-					pendingSlices.add(slice);
-					pendingFutures.add(future);					
-				}
+			CrailBuffer slice = readySlices.peek();
+			if (slice != null && slice.position() > 0){
+				writeSlice(readySlices.poll());
 			}
 			
 			while(!pendingFutures.isEmpty()){
@@ -308,13 +302,17 @@ public class CrailBufferedOutputStream extends OutputStream {
 	private CrailBuffer getSlice() throws Exception {
 		CrailBuffer slice = readySlices.peek();
 		if (slice == null){
+			reclaimSlices();
+			if (readySlices.isEmpty() && sliceCount < maxSlices){
+				allocateSlices();
+			}
+			slice = readySlices.peek();
+		}
+		if (slice == null){
+			//budget exhausted, wait for the oldest write
 			Future<CrailResult> future = pendingFutures.poll();
 			statistics.incTotalOps();
-			if (future.isDone()){
-				statistics.incNonBlockingOps();
-			} else {
-				statistics.incBlockingOps();
-			}
+			statistics.incBlockingOps();
 			future.get();
 			slice = pendingSlices.poll();
 			slice.clear();
@@ -326,11 +324,46 @@ public class CrailBufferedOutputStream extends OutputStream {
 	private void syncSlice() throws Exception {
 		CrailBuffer slice = readySlices.peek();
 		if (slice != null && slice.remaining() == 0){
-			slice = readySlices.poll();
-			slice.flip();
-			Future<CrailResult> future = outputStream().write(slice);
-			pendingSlices.add(slice);
-			pendingFutures.add(future);
+			writeSlice(readySlices.poll());
+		}
+	}
+	
+	private void writeSlice(CrailBuffer slice) throws Exception {
+		slice.flip();
+		Future<CrailResult> future = outputStream().write(slice);
+		pendingSlices.add(slice);
+		pendingFutures.add(future);
+	}
+	
+	//writes complete in order, slices of completed writes go back to the pool without waiting
+	private void reclaimSlices() throws Exception {
+		Future<CrailResult> future = pendingFutures.peek();
+		while (future != null && future.isDone()){
+			future = pendingFutures.poll();
+			future.get();
+			statistics.incTotalOps();
+			statistics.incNonBlockingOps();
+			CrailBuffer slice = pendingSlices.poll();
+			slice.clear();
+			readySlices.add(slice);
+			future = pendingFutures.peek();
+		}
+	}
+	
+	//carves one more buffer into slices, never more slices than the write-behind budget allows
+	private void allocateSlices() throws Exception {
+		CrailBuffer buffer = crailFS.allocateBuffer();
+		originalBuffers.add(buffer);
+		while(buffer.hasRemaining() && sliceCount < maxSlices){
+			buffer.limit(buffer.position() + actualSliceSize);
+			CrailBuffer slice = buffer.slice();
+			slice.clear();
+			readySlices.add(slice);
+			sliceCount++;
+			
+			int newpos = buffer.position() + actualSliceSize;
+			buffer.clear();
+			buffer.position(newpos);
 		}
 	}
 	
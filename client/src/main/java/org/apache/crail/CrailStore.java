@@ -37,7 +37,9 @@ public abstract class CrailStore {
 	public abstract Upcoming<CrailNode> lookup(String path) throws Exception;
 	public abstract Upcoming<CrailNode> rename(String srcPath, String dstPath) throws Exception;
 	public abstract Upcoming<CrailNode> delete(String path, boolean recursive) throws Exception;
+	public abstract CrailBatch batch() throws Exception;
 	public abstract CrailBuffer allocateBuffer() throws Exception;
+	public abstract CrailBuffer allocateBuffer(int size) throws Exception;
 	public abstract void freeBuffer(CrailBuffer buffer) throws Exception;
 	public abstract CrailStatistics getStatistics();
 	public abstract CrailLocationClass getLocationClass();
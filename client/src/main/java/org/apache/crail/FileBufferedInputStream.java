@@ -24,11 +24,15 @@ import java.io.IOException;
 import org.apache.crail.conf.CrailConstants;
 
 class FileBufferedInputStream extends CrailBufferedInputStream {
+	private CrailFile file;
 	private CrailInputStream inputStream;
+	private CrailInputStream positionalStream;
 	
 	FileBufferedInputStream(CrailFile file, long readHint) throws Exception {
 		super(file.getFileSystem(), Math.max(CrailConstants.BUFFER_SIZE, CrailConstants.SLICE_SIZE)/Math.min(CrailConstants.BUFFER_SIZE, CrailConstants.SLICE_SIZE), file.getCapacity());
+		this.file = file;
 		this.inputStream = file.getDirectInputStream(readHint);
+		this.positionalStream = null;
 	}
 
 	@Override
@@ -40,12 +44,23 @@ class FileBufferedInputStream extends CrailBufferedInputStream {
 	public void putStream() throws Exception {
 		
 	}
+	
+	@Override
+	CrailInputStream getPositionalStream() throws Exception {
+		if (positionalStream == null){
+			positionalStream = file.getDirectInputStream(0);
+		}
+		return positionalStream;
+	}
 
 	@Override
 	public void close() throws IOException {
 		super.close();
 		try {
 			inputStream.close();
+			if (positionalStream != null){
+				positionalStream.close();
+			}
 		} catch(Exception e){
 			throw new IOException(e);
 		}
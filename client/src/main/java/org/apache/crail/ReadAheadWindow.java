@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2015-2018, IBM Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.crail;
+
+/*
+ * Decides how many slices a buffered input stream keeps in flight. For sequential access the
+ * window has to cover the storage latency at the rate the application consumes slices, that is
+ * latency divided by the time the application spends on one slice. After a seek the window is
+ * also bounded by the amount of data the application reads before seeking again, random and
+ * strided readers therefore do not prefetch data they are going to skip.
+ *
+ * Latency samples are exact when the reader had to wait for a slice, otherwise they are only
+ * an upper bound and may only lower the estimate. Both estimates are moving averages.
+ */
+class ReadAheadWindow {
+	public enum Pattern {
+		SEQUENTIAL, STRIDED, RANDOM
+	}
+	
+	private static final double WEIGHT = 0.25;
+	
+	private final int maxWindow;
+	private final int sliceSize;
+	private int window;
+	private Pattern pattern;
+	
+	//nanoseconds from issuing a slice read until the data is available
+	private double latency;
+	//nanoseconds the application spends on one slice, time waiting for data not included
+	private double interval;
+	private long lastConsumed;
+	private long stallTime;
+	
+	//bytes read between two seeks
+	private double runLength;
+	private long runStart;
+	private long stride;
+	private long sequentialBytes;
+	
+	ReadAheadWindow(int initialWindow, int maxWindow, int sliceSize){
+		this.maxWindow = Math.max(maxWindow, 1);
+		this.sliceSize = sliceSize;
+		this.window = Math.min(Math.max(initialWindow, 1), this.maxWindow);
+		this.pattern = Pattern.SEQUENTIAL;
+		this.latency = 0;
+		this.interval = 0;
+		this.lastConsumed = System.nanoTime();
+		this.stallTime = 0;
+		this.runLength = 0;
+		this.runStart = 0;
+		this.stride = 0;
+		this.sequentialBytes = 0;
+	}
+	
+	int getWindow(){
+		return window;
+	}
+	
+	int getMaxWindow(){
+		return maxWindow;
+	}
+	
+	Pattern getPattern(){
+		return pattern;
+	}
+	
+	//a slice read issued at issueTime is available, stalled if the reader had to wait for it
+	void complete(long issueTime, long now, boolean stalled){
+		double sample = now - issueTime;
+		if (latency == 0){
+			latency = sample;
+		} else if (stalled || sample < latency){
+			latency += WEIGHT*(sample - latency);
+		}
+	}
+	
+	void stall(long time){
+		stallTime += time;
+	}
+	
+	//the application is done with a slice
+	void consume(long now){
+		double sample = now - lastConsumed - stallTime;
+		lastConsumed = now;
+		stallTime = 0;
+		if (sample > 0){
+			interval = interval == 0 ? sample : interval + WEIGHT*(sample - interval);
+		}
+		sequentialBytes += sliceSize;
+		if (pattern != Pattern.SEQUENTIAL && sequentialBytes >= ((long) maxWindow)*sliceSize){
+			pattern = Pattern.SEQUENTIAL;
+		}
+		update();
+	}
+	
+	//the application moved from position from to position to, outside of the prefetched range
+	void seek(long from, long to){
+		double run = Math.max(from - runStart, 1);
+		runLength = runLength == 0 ? run : runLength + WEIGHT*(run - runLength);
+		long distance = to - from;
+		if (distance > 0 && stride > 0 && Math.abs(distance - stride) < sliceSize){
+			pattern = Pattern.STRIDED;
+		} else {
+			pattern = Pattern.RANDOM;
+		}
+		stride = distance;
+		runStart = to;
+		sequentialBytes = 0;
+		lastConsumed = System.nanoTime();
+		stallTime = 0;
+		update();
+	}
+	
+	//windows grow at once when the reader falls behind, but only shrink one slice at a time
+	private void update(){
+		int target = window;
+		if (latency > 0 && interval > 0){
+			target = (int) Math.ceil(latency / interval) + 1;
+		}
+		if (pattern != Pattern.SEQUENTIAL){
+			target = Math.min(target, (int) Math.ceil(runLength / sliceSize));
+		}
+		target = Math.min(Math.max(target, 1), maxWindow);
+		if (target < window){
+			window--;
+		} else {
+			window = target;
+		}
+	}
+}
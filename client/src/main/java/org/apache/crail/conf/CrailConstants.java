@@ -42,6 +42,10 @@ public class CrailConstants {
 	public static final String CACHE_LIMIT_KEY = "crail.cachelimit";
 	public static long CACHE_LIMIT = 1073741824;
 	
+	//bytes the buffer cache may allocate outside of the mapped cache once that is used up
+	public static final String CACHE_DIRECT_LIMIT_KEY = "crail.cachedirectlimit";
+	public static long CACHE_DIRECT_LIMIT = 1073741824;
+	
 	public static final String CACHE_PATH_KEY = "crail.cachepath";
 	public static String CACHE_PATH = "/home/stu/craildata/cache";	
 	
@@ -69,6 +73,15 @@ public class CrailConstants {
 	public static final String SLICE_SIZE_KEY = "crail.slicesize";
 	public static int SLICE_SIZE = 524288;		
 	
+	//upper bound of the adaptive prefetch window of a buffered input stream [bytes]
+	public static final String READAHEAD_MAX_KEY = "crail.readahead.max";
+	public static int READAHEAD_MAX = 8388608;
+	
+	//bytes a buffered output stream may have in flight before a writer has to wait for storage,
+	//0 disables write-behind beyond the buffer a stream allocates up front
+	public static final String WRITEBEHIND_MAX_KEY = "crail.writebehind.max";
+	public static int WRITEBEHIND_MAX = 0;
+	
 	public static final String SINGLETON_KEY = "crail.singleton";
 	public static boolean SINGLETON = false;	
 	
@@ -92,6 +105,21 @@ public class CrailConstants {
 	public static final String CLIENT_BLOCKCACHE_ENABLE_KEY = "crail.client.blockcache.enable";
 	public static boolean CLIENT_BLOCKCACHE_ENABLE = false;
 	
+	//files for which the client keeps block metadata, least recently used files are dropped
+	public static final String CLIENT_BLOCKCACHE_SIZE_KEY = "crail.client.blockcache.size";
+	public static int CLIENT_BLOCKCACHE_SIZE = 1024;
+	
+	//lookups are served from the client for this many milliseconds, 0 disables the lookup cache
+	public static final String CLIENT_LOOKUPCACHE_LEASE_KEY = "crail.client.lookupcache.lease";
+	public static long CLIENT_LOOKUPCACHE_LEASE = 0;
+	
+	public static final String CLIENT_LOOKUPCACHE_SIZE_KEY = "crail.client.lookupcache.size";
+	public static int CLIENT_LOOKUPCACHE_SIZE = 1024;
+	
+	//bytes of file data cached by the client for files opened in read mode, 0 disables the cache
+	public static final String CLIENT_DATACACHE_LIMIT_KEY = "crail.client.datacache.limit";
+	public static long CLIENT_DATACACHE_LIMIT = 0;
+	
 	//namenode interface
 	public static final String NAMENODE_ADDRESS_KEY = "crail.namenode.address";
 	public static String NAMENODE_ADDRESS = "";
@@ -111,6 +139,36 @@ public class CrailConstants {
 	public static final String NAMENODE_LOG_KEY = "crail.namenode.log";
 	public static String NAMENODE_LOG = "";		
 	
+	//sizes the batched rpc messages on both ends, clients, datanodes and the namenode must use the same value
+	public static final String NAMENODE_BATCH_SIZE_KEY = "crail.namenode.batchsize";
+	public static int NAMENODE_BATCH_SIZE = 16;	
+	
+	public static final String NAMENODE_BLOCK_WINDOW_KEY = "crail.namenode.blockwindow";
+	public static int NAMENODE_BLOCK_WINDOW = 16;	
+	
+	//storageClass:extentSize pairs, data files of these classes are packed into extents
+	public static final String NAMENODE_SMALLOBJECTS_KEY = "crail.namenode.smallobjects";
+	public static String NAMENODE_SMALLOBJECTS = "";
+	
+	//none, interval, batch
+	public static final String NAMENODE_LOG_SYNC_KEY = "crail.namenode.log.sync";
+	public static String NAMENODE_LOG_SYNC = "none";
+	
+	public static final String NAMENODE_LOG_SYNC_INTERVAL_KEY = "crail.namenode.log.syncinterval";
+	public static long NAMENODE_LOG_SYNC_INTERVAL = 100;
+	
+	public static final String NAMENODE_LOG_BUFFER_KEY = "crail.namenode.log.buffersize";
+	public static int NAMENODE_LOG_BUFFER = 1048576;
+	
+	public static final String NAMENODE_LOG_CHECKPOINT_SIZE_KEY = "crail.namenode.log.checkpointsize";
+	public static long NAMENODE_LOG_CHECKPOINT_SIZE = 67108864;
+	
+	public static final String NAMENODE_LOG_SEGMENT_SIZE_KEY = "crail.namenode.log.segmentsize";
+	public static int NAMENODE_LOG_SEGMENT_SIZE = 67108864;
+	
+	public static final String NAMENODE_LOG_REPLAY_THREADS_KEY = "crail.namenode.log.replaythreads";
+	public static int NAMENODE_LOG_REPLAY_THREADS = 4;
+	
 	//storage interface
 	public static final String STORAGE_TYPES_KEY = "crail.storage.types";
 	public static String STORAGE_TYPES = "org.apache.crail.storage.tcp.TcpStorageTier";		
@@ -138,6 +196,9 @@ public class CrailConstants {
 		if (conf.get(CACHE_LIMIT_KEY) != null) {
 			CACHE_LIMIT = Long.parseLong(conf.get(CACHE_LIMIT_KEY));
 		}			
+		if (conf.get(CACHE_DIRECT_LIMIT_KEY) != null) {
+			CACHE_DIRECT_LIMIT = Long.parseLong(conf.get(CACHE_DIRECT_LIMIT_KEY));
+		}
 		if (conf.get(CACHE_PATH_KEY) != null) {
 			CACHE_PATH = conf.get(CACHE_PATH_KEY);
 		}
@@ -165,6 +226,12 @@ public class CrailConstants {
 		if (conf.get(SLICE_SIZE_KEY) != null) {
 			SLICE_SIZE = Integer.parseInt(conf.get(SLICE_SIZE_KEY));
 		}			
+		if (conf.get(READAHEAD_MAX_KEY) != null) {
+			READAHEAD_MAX = Integer.parseInt(conf.get(READAHEAD_MAX_KEY));
+		}
+		if (conf.get(WRITEBEHIND_MAX_KEY) != null) {
+			WRITEBEHIND_MAX = Integer.parseInt(conf.get(WRITEBEHIND_MAX_KEY));
+		}
 		if (conf.get(CrailConstants.SINGLETON_KEY) != null) {
 			SINGLETON = conf.getBoolean(CrailConstants.SINGLETON_KEY, false);
 		}	
@@ -185,6 +252,18 @@ public class CrailConstants {
 		}
 		if (conf.get(CLIENT_BLOCKCACHE_ENABLE_KEY) != null) {
 			CLIENT_BLOCKCACHE_ENABLE = conf.getBoolean(CLIENT_BLOCKCACHE_ENABLE_KEY,false);
+		}
+		if (conf.get(CLIENT_BLOCKCACHE_SIZE_KEY) != null) {
+			CLIENT_BLOCKCACHE_SIZE = Integer.parseInt(conf.get(CLIENT_BLOCKCACHE_SIZE_KEY));
+		}
+		if (conf.get(CLIENT_LOOKUPCACHE_LEASE_KEY) != null) {
+			CLIENT_LOOKUPCACHE_LEASE = Long.parseLong(conf.get(CLIENT_LOOKUPCACHE_LEASE_KEY));
+		}
+		if (conf.get(CLIENT_LOOKUPCACHE_SIZE_KEY) != null) {
+			CLIENT_LOOKUPCACHE_SIZE = Integer.parseInt(conf.get(CLIENT_LOOKUPCACHE_SIZE_KEY));
+		}
+		if (conf.get(CLIENT_DATACACHE_LIMIT_KEY) != null) {
+			CLIENT_DATACACHE_LIMIT = Long.parseLong(conf.get(CLIENT_DATACACHE_LIMIT_KEY));
 		}
 			//namenode interface
 		if (conf.get(NAMENODE_ADDRESS_KEY) != null) {
@@ -202,6 +281,33 @@ public class CrailConstants {
 		if (conf.get(NAMENODE_LOG_KEY) != null) {
 			NAMENODE_LOG = conf.get(NAMENODE_LOG_KEY);
 		}		
+		if (conf.get(NAMENODE_BATCH_SIZE_KEY) != null) {
+			NAMENODE_BATCH_SIZE = Integer.parseInt(conf.get(NAMENODE_BATCH_SIZE_KEY));
+		}		
+		if (conf.get(NAMENODE_BLOCK_WINDOW_KEY) != null) {
+			NAMENODE_BLOCK_WINDOW = Integer.parseInt(conf.get(NAMENODE_BLOCK_WINDOW_KEY));
+		}		
+		if (conf.get(NAMENODE_SMALLOBJECTS_KEY) != null) {
+			NAMENODE_SMALLOBJECTS = conf.get(NAMENODE_SMALLOBJECTS_KEY);
+		}		
+		if (conf.get(NAMENODE_LOG_SYNC_KEY) != null) {
+			NAMENODE_LOG_SYNC = conf.get(NAMENODE_LOG_SYNC_KEY);
+		}
+		if (conf.get(NAMENODE_LOG_SYNC_INTERVAL_KEY) != null) {
+			NAMENODE_LOG_SYNC_INTERVAL = Long.parseLong(conf.get(NAMENODE_LOG_SYNC_INTERVAL_KEY));
+		}
+		if (conf.get(NAMENODE_LOG_BUFFER_KEY) != null) {
+			NAMENODE_LOG_BUFFER = Integer.parseInt(conf.get(NAMENODE_LOG_BUFFER_KEY));
+		}
+		if (conf.get(NAMENODE_LOG_CHECKPOINT_SIZE_KEY) != null) {
+			NAMENODE_LOG_CHECKPOINT_SIZE = Long.parseLong(conf.get(NAMENODE_LOG_CHECKPOINT_SIZE_KEY));
+		}
+		if (conf.get(NAMENODE_LOG_SEGMENT_SIZE_KEY) != null) {
+			NAMENODE_LOG_SEGMENT_SIZE = Integer.parseInt(conf.get(NAMENODE_LOG_SEGMENT_SIZE_KEY));
+		}
+		if (conf.get(NAMENODE_LOG_REPLAY_THREADS_KEY) != null) {
+			NAMENODE_LOG_REPLAY_THREADS = Integer.parseInt(conf.get(NAMENODE_LOG_REPLAY_THREADS_KEY));
+		}
 		
 		//storage interface
 		if (conf.get(STORAGE_TYPES_KEY) != null) {
@@ -226,6 +332,7 @@ public class CrailConstants {
 		LOG.info(TOKEN_EXPIRATION_KEY + " " + TOKEN_EXPIRATION);
 		LOG.info(BLOCK_SIZE_KEY + " " + BLOCK_SIZE);
 		LOG.info(CACHE_LIMIT_KEY + " " + CACHE_LIMIT);
+		LOG.info(CACHE_DIRECT_LIMIT_KEY + " " + CACHE_DIRECT_LIMIT);
 		LOG.info(CACHE_PATH_KEY + " " + CACHE_PATH);
 		LOG.info(USER_KEY + " " + USER);
 		LOG.info(SHADOW_REPLICATION_KEY + " " + SHADOW_REPLICATION);
@@ -235,6 +342,8 @@ public class CrailConstants {
 		LOG.info(DATA_TIMEOUT_KEY + " " + DATA_TIMEOUT);
 		LOG.info(BUFFER_SIZE_KEY + " " + BUFFER_SIZE);
 		LOG.info(SLICE_SIZE_KEY + " " + SLICE_SIZE);		
+		LOG.info(READAHEAD_MAX_KEY + " " + READAHEAD_MAX);
+		LOG.info(WRITEBEHIND_MAX_KEY + " " + WRITEBEHIND_MAX);
 		LOG.info(SINGLETON_KEY + " " + SINGLETON);
 		LOG.info(REGION_SIZE_KEY + " " + REGION_SIZE);
 		LOG.info(DIRECTORY_RECORD_KEY + " " + DIRECTORY_RECORD);
@@ -246,11 +355,24 @@ public class CrailConstants {
 		LOG.info(NAMENODE_FILEBLOCKS_KEY + " " + NAMENODE_FILEBLOCKS);
 		LOG.info(NAMENODE_RPC_TYPE_KEY + " " + NAMENODE_RPC_TYPE);
 		LOG.info(NAMENODE_LOG_KEY + " " + NAMENODE_LOG);
+		LOG.info(NAMENODE_BATCH_SIZE_KEY + " " + NAMENODE_BATCH_SIZE);
+		LOG.info(NAMENODE_BLOCK_WINDOW_KEY + " " + NAMENODE_BLOCK_WINDOW);
+		LOG.info(NAMENODE_SMALLOBJECTS_KEY + " " + NAMENODE_SMALLOBJECTS);
+		LOG.info(NAMENODE_LOG_SYNC_KEY + " " + NAMENODE_LOG_SYNC);
+		LOG.info(NAMENODE_LOG_SYNC_INTERVAL_KEY + " " + NAMENODE_LOG_SYNC_INTERVAL);
+		LOG.info(NAMENODE_LOG_BUFFER_KEY + " " + NAMENODE_LOG_BUFFER);
+		LOG.info(NAMENODE_LOG_CHECKPOINT_SIZE_KEY + " " + NAMENODE_LOG_CHECKPOINT_SIZE);
+		LOG.info(NAMENODE_LOG_SEGMENT_SIZE_KEY + " " + NAMENODE_LOG_SEGMENT_SIZE);
+		LOG.info(NAMENODE_LOG_REPLAY_THREADS_KEY + " " + NAMENODE_LOG_REPLAY_THREADS);
 		LOG.info(STORAGE_TYPES_KEY + " " + STORAGE_TYPES);
 		LOG.info(STORAGE_CLASSES_KEY + " " + STORAGE_CLASSES);
 		LOG.info(STORAGE_ROOTCLASS_KEY + " " + STORAGE_ROOTCLASS);
 		LOG.info(STORAGE_KEEPALIVE_KEY + " " + STORAGE_KEEPALIVE);
 		LOG.info(CLIENT_BLOCKCACHE_ENABLE_KEY + " "+ CLIENT_BLOCKCACHE_ENABLE);
+		LOG.info(CLIENT_BLOCKCACHE_SIZE_KEY + " " + CLIENT_BLOCKCACHE_SIZE);
+		LOG.info(CLIENT_LOOKUPCACHE_LEASE_KEY + " " + CLIENT_LOOKUPCACHE_LEASE);
+		LOG.info(CLIENT_LOOKUPCACHE_SIZE_KEY + " " + CLIENT_LOOKUPCACHE_SIZE);
+		LOG.info(CLIENT_DATACACHE_LIMIT_KEY + " " + CLIENT_DATACACHE_LIMIT);
 	}
 	
 	public static void verify() throws IOException {
@@ -263,6 +385,30 @@ public class CrailConstants {
 		if (CrailConstants.STORAGE_CLASSES < CrailUtils.getStorageClasses(STORAGE_TYPES)){
 			throw new IOException("crail.storage.classes cannot be smaller than the number of storage types " + CrailUtils.getStorageClasses(STORAGE_TYPES));
 		}		
+		if (CrailConstants.NAMENODE_BATCH_SIZE <= 0){
+			throw new IOException("crail.namenode.batchsize must be larger than 0");
+		}
+		if (CrailConstants.NAMENODE_BLOCK_WINDOW <= 0){
+			throw new IOException("crail.namenode.blockwindow must be larger than 0");
+		}
+		if (!CrailConstants.NAMENODE_LOG_SYNC.equalsIgnoreCase("none") && !CrailConstants.NAMENODE_LOG_SYNC.equalsIgnoreCase("interval") && !CrailConstants.NAMENODE_LOG_SYNC.equalsIgnoreCase("batch")){
+			throw new IOException("crail.namenode.log.sync must be one of none, interval or batch");
+		}
+		if (CrailConstants.NAMENODE_LOG_SYNC_INTERVAL <= 0){
+			throw new IOException("crail.namenode.log.syncinterval must be larger than 0");
+		}
+		if (CrailConstants.NAMENODE_LOG_BUFFER < 4096){
+			throw new IOException("crail.namenode.log.buffersize must be at least 4096");
+		}
+		if (CrailConstants.NAMENODE_LOG_CHECKPOINT_SIZE < 0){
+			throw new IOException("crail.namenode.log.checkpointsize must not be negative");
+		}
+		if (CrailConstants.NAMENODE_LOG_SEGMENT_SIZE < 4096){
+			throw new IOException("crail.namenode.log.segmentsize must be at least 4096");
+		}
+		if (CrailConstants.NAMENODE_LOG_REPLAY_THREADS <= 0){
+			throw new IOException("crail.namenode.log.replaythreads must be larger than 0");
+		}
 		
 	}
 }
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2015-2018, IBM Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.crail.core;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.crail.CrailBatch;
+import org.apache.crail.CrailLocationClass;
+import org.apache.crail.CrailNode;
+import org.apache.crail.CrailNodeType;
+import org.apache.crail.CrailStorageClass;
+import org.apache.crail.Upcoming;
+import org.apache.crail.conf.CrailConstants;
+import org.apache.crail.metadata.FileName;
+import org.apache.crail.rpc.RpcBatch;
+import org.apache.crail.rpc.RpcBatchOp;
+import org.apache.crail.rpc.RpcConnection;
+import org.apache.crail.rpc.RpcCreateFile;
+import org.apache.crail.rpc.RpcDeleteFile;
+import org.apache.crail.rpc.RpcErrors;
+import org.apache.crail.rpc.RpcFuture;
+import org.apache.crail.rpc.RpcGetFile;
+import org.apache.crail.rpc.RpcResponse;
+import org.apache.crail.utils.CrailUtils;
+import org.slf4j.Logger;
+
+//collects metadata operations and ships them to the namenode in batches of up to crail.namenode.batchsize, 
+//a batch is issued when full, on flush, or when one of its futures is waited on
+class CoreBatch implements CrailBatch {
+	private static final Logger LOG = CrailUtils.getLogger();
+	
+	private CoreDataStore fs;
+	private RpcConnection rpcConnection;
+	private CoreBatchOperation currentBatch;
+	
+	public CoreBatch(CoreDataStore fs, RpcConnection rpcConnection){
+		this.fs = fs;
+		this.rpcConnection = rpcConnection;
+		this.currentBatch = new CoreBatchOperation(rpcConnection);
+	}
+
+	@Override
+	public Upcoming<CrailNode> create(String path, CrailNodeType type, CrailStorageClass storageClass, CrailLocationClass locationClass, boolean enumerable) throws Exception {
+		FileName name = new FileName(path);
+		
+		if (CrailConstants.DEBUG){
+			LOG.info("batch/createNode: name " + path + ", type " + type + ", storageAffinity " + storageClass + ", locationAffinity " + locationClass);
+		}
+		
+		Future<RpcCreateFile> fileRes = add(RpcBatchOp.createFile(name, type, storageClass.value(), locationClass.value(), enumerable));
+		return new CreateNodeFuture(fs, path, type, fileRes);
+	}
+
+	@Override
+	public Upcoming<CrailNode> lookup(String path) throws Exception {
+		FileName name = new FileName(path);
+		
+		if (CrailConstants.DEBUG){
+			LOG.info("batch/lookupNode: path " + path);
+		}
+		
+		Future<RpcGetFile> fileRes = add(RpcBatchOp.getFile(name, false));
+		return new LookupNodeFuture(fs, path, fileRes);
+	}
+
+	@Override
+	public Upcoming<CrailNode> delete(String path, boolean recursive) throws Exception {
+		FileName name = new FileName(path);
+		
+		if (CrailConstants.DEBUG){
+			LOG.info("batch/delete: name " + path + ", recursive " + recursive);
+		}
+		
+		Future<RpcDeleteFile> fileRes = add(RpcBatchOp.removeFile(name, recursive));
+		return new DeleteNodeFuture(fs, path, recursive, fileRes);
+	}
+
+	@Override
+	public void flush() throws Exception {
+		if (currentBatch.size() > 0){
+			currentBatch.issue();
+			currentBatch = new CoreBatchOperation(rpcConnection);
+		}
+	}
+	
+	private <T extends RpcResponse> Future<T> add(RpcBatchOp op) throws Exception {
+		Future<T> future = currentBatch.add(op);
+		if (currentBatch.size() >= CrailConstants.NAMENODE_BATCH_SIZE){
+			flush();
+		}
+		return future;
+	}
+}
+
+class CoreBatchOperation {
+	private RpcConnection rpcConnection;
+	private ArrayList<RpcBatchOp> ops;
+	private RpcFuture<RpcBatch> rpcFuture;
+	
+	public CoreBatchOperation(RpcConnection rpcConnection){
+		this.rpcConnection = rpcConnection;
+		this.ops = new ArrayList<RpcBatchOp>(CrailConstants.NAMENODE_BATCH_SIZE);
+		this.rpcFuture = null;
+	}
+	
+	<T extends RpcResponse> Future<T> add(RpcBatchOp op) {
+		ops.add(op);
+		return new BatchEntryFuture<T>(this, ops.size() - 1);
+	}
+	
+	int size(){
+		return ops.size();
+	}
+	
+	synchronized RpcFuture<RpcBatch> issue() throws IOException {
+		if (rpcFuture == null){
+			rpcFuture = rpcConnection.batch(ops.toArray(new RpcBatchOp[ops.size()]));
+		}
+		return rpcFuture;
+	}
+	
+	synchronized boolean isIssued(){
+		return rpcFuture != null;
+	}
+}
+
+class BatchEntryFuture<T extends RpcResponse> implements Future<T> {
+	private CoreBatchOperation batch;
+	private int index;
+	
+	public BatchEntryFuture(CoreBatchOperation batch, int index){
+		this.batch = batch;
+		this.index = index;
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return false;
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return false;
+	}
+
+	@Override
+	public boolean isDone() {
+		try {
+			return batch.isIssued() && batch.issue().isDone();
+		} catch (IOException e) {
+			return true;
+		}
+	}
+
+	@Override
+	public T get() throws InterruptedException, ExecutionException {
+		try {
+			return getResponse(batch.issue().get());
+		} catch (IOException e) {
+			throw new ExecutionException(e);
+		}
+	}
+
+	@Override
+	public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		try {
+			return getResponse(batch.issue().get(timeout, unit));
+		} catch (IOException e) {
+			throw new ExecutionException(e);
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	private T getResponse(RpcBatch batchRes) throws ExecutionException {
+		if (batchRes.getError() != RpcErrors.ERR_OK){
+			throw new ExecutionException(new IOException("batch: " + RpcErrors.messages[batchRes.getError()]));
+		}
+		if (index >= batchRes.getCount()){
+			throw new ExecutionException(new IOException("batch: " + RpcErrors.messages[RpcErrors.ERR_UNKNOWN] + ", missing response " + index));
+		}
+		RpcResponse response = batchRes.getResponse(index);
+		if (response.getError() == RpcErrors.ERR_INVALID_RPC_CMD){
+			throw new ExecutionException(new IOException("batch: " + RpcErrors.messages[RpcErrors.ERR_INVALID_RPC_CMD] + ", response " + index));
+		}
+		return (T) response;
+	}
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2015-2018, IBM Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.crail.core;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.crail.metadata.BlockInfo;
+import org.apache.crail.rpc.RpcConnection;
+import org.apache.crail.rpc.RpcErrors;
+import org.apache.crail.rpc.RpcFuture;
+import org.apache.crail.rpc.RpcGetBlock;
+import org.apache.crail.rpc.RpcGetBlocks;
+
+/*
+ * View on a single block of a getBlocks response. The namenode may return fewer blocks 
+ * than requested, in that case the missing block is fetched with a regular getBlock call.
+ */
+class CoreBlockFuture implements RpcFuture<RpcGetBlock>, RpcGetBlock {
+	private RpcConnection namenodeClientRpc;
+	private RpcFuture<RpcGetBlocks> blocksFuture;
+	private RpcFuture<RpcGetBlock> blockFuture;
+	private int index;
+	private long fd;
+	private long token;
+	private long position;
+	private long capacity;
+	private BlockInfo blockInfo;
+	private boolean prefetched;
+	
+	public CoreBlockFuture(RpcConnection namenodeClientRpc, RpcFuture<RpcGetBlocks> blocksFuture, int index, long fd, long token, long position, long capacity) {
+		this.namenodeClientRpc = namenodeClientRpc;
+		this.blocksFuture = blocksFuture;
+		this.blockFuture = null;
+		this.index = index;
+		this.fd = fd;
+		this.token = token;
+		this.position = position;
+		this.capacity = capacity;
+		this.blockInfo = null;
+		this.prefetched = false;
+	}
+
+	@Override
+	public RpcGetBlock get() throws InterruptedException, ExecutionException {
+		if (blockFuture == null){
+			RpcGetBlocks blocks = blocksFuture.get();
+			if (contains(blocks)){
+				return this;
+			}
+			fallback();
+		}
+		return blockFuture.get();
+	}
+
+	@Override
+	public RpcGetBlock get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		if (blockFuture == null){
+			RpcGetBlocks blocks = blocksFuture.get(timeout, unit);
+			if (!blocksFuture.isDone()){
+				return this;
+			}
+			if (contains(blocks)){
+				return this;
+			}
+			fallback();
+		}
+		return blockFuture.get(timeout, unit);
+	}
+
+	@Override
+	public boolean isDone() {
+		if (blockFuture != null){
+			return blockFuture.isDone();
+		}
+		return blocksFuture.isDone();
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return false;
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return false;
+	}
+
+	@Override
+	public int getTicket() {
+		return blocksFuture.getTicket();
+	}
+
+	@Override
+	public boolean isPrefetched() {
+		return prefetched;
+	}
+
+	@Override
+	public void setPrefetched(boolean prefetched) {
+		this.prefetched = prefetched;
+	}
+
+	@Override
+	public short getError() {
+		return RpcErrors.ERR_OK;
+	}
+
+	@Override
+	public BlockInfo getBlockInfo() {
+		return blockInfo;
+	}
+
+	@Override
+	public void setBlockInfo(BlockInfo blockInfo) {
+		this.blockInfo = blockInfo;
+	}
+	
+	private boolean contains(RpcGetBlocks blocks) {
+		if (blockInfo != null){
+			return true;
+		}
+		if (blocks.getError() == RpcErrors.ERR_OK && index < blocks.getBlockCount()){
+			this.blockInfo = blocks.getBlockInfo(index);
+			return true;
+		}
+		return false;
+	}
+	
+	private void fallback() throws ExecutionException {
+		try {
+			this.blockFuture = namenodeClientRpc.getBlock(fd, token, position, capacity);
+			this.blockFuture.setPrefetched(prefetched);
+		} catch(Exception e){
+			throw new ExecutionException(e);
+		}
+	}
+}
@@ -21,6 +21,7 @@ package org.apache.crail.core;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -33,6 +34,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
+import org.apache.crail.CrailBatch;
 import org.apache.crail.CrailBlockLocation;
 import org.apache.crail.CrailBuffer;
 import org.apache.crail.CrailStore;
@@ -61,11 +63,14 @@ import org.apache.crail.rpc.RpcGetFile;
 import org.apache.crail.rpc.RpcGetLocation;
 import org.apache.crail.rpc.RpcPing;
 import org.apache.crail.rpc.RpcRenameFile;
+import org.apache.crail.rpc.RpcVoid;
 import org.apache.crail.storage.StorageClient;
 import org.apache.crail.utils.BlockCache;
 import org.apache.crail.utils.BufferCheckpoint;
 import org.apache.crail.utils.CrailUtils;
+import org.apache.crail.utils.DataCache;
 import org.apache.crail.utils.EndpointCache;
+import org.apache.crail.utils.LookupCache;
 import org.apache.crail.utils.NextBlockCache;
 import org.apache.crail.utils.BlockCache.FileBlockCache;
 import org.apache.crail.utils.NextBlockCache.FileNextBlockCache;
@@ -89,6 +94,8 @@ public class CoreDataStore extends CrailStore {
 	private BlockCache blockCache;
 	private NextBlockCache nextBlockCache;
 	private BufferCache bufferCache;
+	private DataCache dataCache;
+	private LookupCache lookupCache;
 	private BufferCheckpoint bufferCheckpoint;
 	private ConcurrentHashMap<String, String> locationMap;
 	
@@ -143,6 +150,8 @@ public class CoreDataStore extends CrailStore {
 		this.bufferCache = BufferCache.createInstance(CrailConstants.CACHE_IMPL);
 		this.blockCache = new BlockCache();
 		this.nextBlockCache = new NextBlockCache();
+		this.dataCache = new DataCache(bufferCache, CrailConstants.CLIENT_DATACACHE_LIMIT);
+		this.lookupCache = new LookupCache(CrailConstants.CLIENT_LOOKUPCACHE_LEASE, CrailConstants.CLIENT_LOOKUPCACHE_SIZE);
 		this.openInputStreams = new ConcurrentHashMap<Long, CoreInputStream>();
 		this.openOutputStreams = new ConcurrentHashMap<Long, CoreOutputStream>();
 		this.streamCounter = new AtomicLong(0);
@@ -159,6 +168,12 @@ public class CoreDataStore extends CrailStore {
 		this.streamStats = new CoreStreamStatistics();
 		statistics.addProvider(streamStats);
 		statistics.addProvider(bufferCache);
+		if (dataCache.isEnabled()){
+			statistics.addProvider(dataCache);
+		}
+		if (lookupCache.isEnabled()){
+			statistics.addProvider(lookupCache);
+		}
 		statistics.addProvider(datanodeEndpointCache);
 	}
 	
@@ -169,6 +184,7 @@ public class CoreDataStore extends CrailStore {
 			LOG.info("createNode: name " + path + ", type " + type + ", storageAffinity " + storageClass + ", locationAffinity " + locationClass);
 		}
 
+		lookupCache.remove(path);
 		RpcFuture<RpcCreateFile> fileRes = rpcConnection.createFile(name, type, storageClass.value(), locationClass.value(), enumerable);
 		return new CreateNodeFuture(this, path, type, fileRes);
 	}	
@@ -194,6 +210,8 @@ public class CoreDataStore extends CrailStore {
 
 		blockCache.remove(fileInfo.getFd());
 		nextBlockCache.remove(fileInfo.getFd());
+		dataCache.remove(fileInfo.getFd());
+		lookupCache.remove(path);
 		CoreNode node = CoreNode.create(this, fileInfo, path);
 		
 		BlockInfo fileBlock = fileRes.getFileBlock();
@@ -221,6 +239,13 @@ public class CoreDataStore extends CrailStore {
 			LOG.info("lookupDirectory: path " + path);
 		}
 		
+		if (lookupCache.isEnabled()){
+			LookupCache.Entry entry = lookupCache.get(path);
+			if (entry != null){
+				return new CachedNodeFuture(_cachedNode(entry, path));
+			}
+		}
+		
 		RpcFuture<RpcGetFile> fileRes = rpcConnection.getFile(name, false);
 		return new LookupNodeFuture(this, path, fileRes);
 	}	
@@ -243,12 +268,34 @@ public class CoreDataStore extends CrailStore {
 			}
 			BlockInfo fileBlock = fileRes.getFileBlock();
 			getBlockCache(fileInfo.getFd()).put(CoreSubOperation.createKey(fileInfo.getFd(), 0), fileBlock);
+			if (lookupCache.isEnabled() && fileInfo.getToken() == 0){
+				lookupCache.put(path, fileInfo);
+			}
 			
 			node = CoreNode.create(this, fileInfo, path);
 		} 
 		return node;
 	}	
 	
+	CoreNode _cachedNode(LookupCache.Entry entry, String path) {
+		FileInfo fileInfo = entry.getFileInfo();
+		if (CrailConstants.DEBUG){
+			LOG.info("lookup: name " + path + ", cached, fd " + fileInfo.getFd());
+		}
+		//block hints the namenode handed out within the last lease period are as fresh as the lease itself and
+		//stay shared with the open streams of the file, older ones are dropped and fetched again by fd
+		long horizon = System.currentTimeMillis() - CrailConstants.CLIENT_LOOKUPCACHE_LEASE;
+		FileBlockCache fileBlockCache = getBlockCache(fileInfo.getFd());
+		if (fileBlockCache.getValidated() < horizon){
+			fileBlockCache.clear();
+		}
+		FileNextBlockCache fileNextBlockCache = getNextBlockCache(fileInfo.getFd());
+		if (fileNextBlockCache.getValidated() < horizon){
+			fileNextBlockCache.clear();
+		}
+		return CoreNode.create(this, fileInfo, path);
+	}
+	
 
 	public Upcoming<CrailNode> rename(String src, String dst) throws Exception {
 		FileName srcPath = new FileName(src);
@@ -258,6 +305,8 @@ public class CoreDataStore extends CrailStore {
 			LOG.info("rename: srcname " + src + ", dstname " + dst);
 		}
 		
+		lookupCache.remove(src);
+		lookupCache.remove(dst);
 		RpcFuture<RpcRenameFile> renameRes = rpcConnection.renameFile(srcPath, dstPath);
 		return new RenameNodeFuture(this, src, dst, renameRes);
 	}
@@ -297,6 +346,9 @@ public class CoreDataStore extends CrailStore {
 		CoreSyncOperation syncOperationDst = getSyncOperation(dstDir, dstFile, dst, true);
 		
 		blockCache.remove(srcFile.getFd());
+		dataCache.remove(srcFile.getFd());
+		lookupCache.remove(src);
+		lookupCache.remove(dst);
 		
 		if (CrailConstants.DEBUG){
 			LOG.info("rename: srcname " + src + ", dstname " + dst + ", success");
@@ -315,6 +367,7 @@ public class CoreDataStore extends CrailStore {
 			LOG.info("delete: name " + path + ", recursive " + recursive);
 		}
 
+		lookupCache.remove(path);
 		RpcFuture<RpcDeleteFile> fileRes = rpcConnection.removeFile(name, recursive);
 		return new DeleteNodeFuture(this, path, recursive, fileRes);
 	}	
@@ -335,6 +388,8 @@ public class CoreDataStore extends CrailStore {
 		CoreSyncOperation syncOperation = getSyncOperation(dirInfo, fileInfo, path, false);
 		
 		blockCache.remove(fileInfo.getFd());
+		dataCache.remove(fileInfo.getFd());
+		lookupCache.remove(path);
 		
 		if (CrailConstants.DEBUG){
 			LOG.info("delete: name " + path + ", recursive " + recursive + ", success");
@@ -345,6 +400,10 @@ public class CoreDataStore extends CrailStore {
 		return node;
 	}	
 	
+	public CrailBatch batch() throws Exception {
+		return new CoreBatch(this, rpcConnection);
+	}
+	
 	public DirectoryInputStream listEntries(String name) throws Exception {
 		return _listEntries(name, CrailConstants.DIRECTORY_RANDOMIZE);
 	}
@@ -470,6 +529,16 @@ public class CoreDataStore extends CrailStore {
 		rpcConnection.dumpNameNode().get(CrailConstants.RPC_TIMEOUT, TimeUnit.MILLISECONDS);
 	}	
 	
+	//asks the namenode to move all blocks off the given datanode (or to stop doing so)
+	public void drainDataNode(String host, int port, boolean drain) throws Exception {
+		DataNodeInfo dnInfo = new DataNodeInfo(0, 0, 0, InetAddress.getByName(host).getAddress(), port);
+		RpcVoid res = rpcConnection.drainDataNode(dnInfo, drain).get(CrailConstants.RPC_TIMEOUT, TimeUnit.MILLISECONDS);
+		if (res.getError() != RpcErrors.ERR_OK) {
+			LOG.info("drainDataNode: " + RpcErrors.messages[res.getError()]);
+			throw new IOException(RpcErrors.messages[res.getError()]);
+		}
+	}
+	
 	public void ping() throws Exception {
 		RpcPing pingRes = rpcConnection.pingNameNode().get(CrailConstants.RPC_TIMEOUT, TimeUnit.MILLISECONDS);
 		if (pingRes.getError() != RpcErrors.ERR_OK) {
@@ -482,6 +551,10 @@ public class CoreDataStore extends CrailStore {
 		return this.bufferCache.getBuffer();
 	}
 	
+	public CrailBuffer allocateBuffer(int size) throws IOException {
+		return this.bufferCache.getBuffer(size);
+	}
+	
 	public void freeBuffer(CrailBuffer buffer) throws IOException {
 		this.bufferCache.putBuffer(buffer);
 	}	
@@ -531,6 +604,7 @@ public class CoreDataStore extends CrailStore {
 			stream.close();
 		}		
 	
+		dataCache.purge();
 		bufferCache.close();
 		datanodeEndpointCache.close();
 		rpcConnection.close();
@@ -540,6 +614,7 @@ public class CoreDataStore extends CrailStore {
 
 	public void closeFile(FileInfo fileInfo) throws Exception {
 		if (fileInfo.getToken() > 0){
+			invalidateFile(fileInfo.getFd());
 			rpcConnection.setFile(fileInfo, true).get(CrailConstants.RPC_TIMEOUT, TimeUnit.MILLISECONDS);				
 		}
 	}
@@ -548,9 +623,11 @@ public class CoreDataStore extends CrailStore {
 		return bufferCache;
 	}
 
-	public void purgeCache() {
+	public void purgeCache() throws IOException {
 		blockCache.purge();
 		nextBlockCache.purge();
+		dataCache.purge();
+		lookupCache.purge();
 	}
 
 	//-------------------------------------------------------------
@@ -624,6 +701,16 @@ public class CoreDataStore extends CrailStore {
 	FileNextBlockCache getNextBlockCache(long fd){
 		return nextBlockCache.getFileBlockCache(fd);
 	}	
+	
+	DataCache getDataCache(){
+		return dataCache;
+	}
+	
+	//a file changed by this client, cached data and lookups of it are stale
+	void invalidateFile(long fd) throws IOException {
+		dataCache.remove(fd);
+		lookupCache.remove(fd);
+	}
 
 	RpcConnection getNamenodeClientRpc() {
 		return rpcConnection;
@@ -47,6 +47,9 @@ public class CoreInputStream extends CoreStream implements CrailInputStream {
 		this.readHint = Math.max(0, Math.min(file.getCapacity(), readHint));
 		this.noOp = new CrailImmediateOperation(0);
 		this.open = true;
+		if (fs.getDataCache().isEnabled() && file.getType().isDataFile() && file.getFileInfo().getToken() == 0){
+			setDataCache(fs.getDataCache());
+		}
 		if (CrailConstants.DEBUG){
 			LOG.info("CoreInputStream: open, path  " + file.getPath() + ", fd " + file.getFd() + ", streamId " + streamId + ", isDir " + file.getType().isDirectory() + ", readHint " + this.readHint);
 		}
@@ -73,7 +76,7 @@ public class CoreInputStream extends CoreStream implements CrailInputStream {
 		inFlight.incrementAndGet();
 		CoreDataOperation future = dataOperation(dataBuf);
 		if (position() < readHint){
-			prefetchMetadata();
+			prefetchMetadata(readHint);
 		}	
 		if (future.isSynchronous()){
 			future.get();
@@ -124,6 +127,11 @@ public class CoreInputStream extends CoreStream implements CrailInputStream {
 		return future;
 	}	
 	
+	StorageFuture triggerv(StorageEndpoint endpoint, CrailBuffer[] buffers, BlockInfo[] blocks, long[] offsets, int count) throws Exception {
+		StorageFuture future = endpoint.readv(buffers, blocks, offsets, count);
+		return future;
+	}	
+	
 	void update(long newCapacity) {
 		inFlight.decrementAndGet();
 	}
@@ -19,6 +19,7 @@
 
 package org.apache.crail.core;
 
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
@@ -274,4 +275,14 @@ class NoOperation implements Future<Void> {
 	}
 }
 
+class CachedNodeFuture extends CoreMetaDataOperation<CrailNode, CrailNode> {
 
+	public CachedNodeFuture(CrailNode node) {
+		super(CompletableFuture.completedFuture(node));
+	}
+
+	@Override
+	CrailNode process(CrailNode node) throws Exception {
+		return node;
+	}
+}
@@ -63,7 +63,7 @@ public class CoreOutputStream extends CoreStream implements CrailOutputStream {
 		inFlight.incrementAndGet();
 		CoreDataOperation future = dataOperation(dataBuf);
 		if (position() < writeHint){
-			prefetchMetadata();
+			prefetchMetadata(writeHint);
 		} 	
 		if (future.isSynchronous()){
 			future.get();
@@ -108,6 +108,11 @@ public class CoreOutputStream extends CoreStream implements CrailOutputStream {
 		return dataFuture;		
 	}	
 	
+	StorageFuture triggerv(StorageEndpoint endpoint, CrailBuffer[] buffers, BlockInfo[] blocks, long[] offsets, int count) throws Exception {
+		StorageFuture dataFuture = endpoint.writev(buffers, blocks, offsets, count);
+		return dataFuture;		
+	}	
+	
 	synchronized void update(long newCapacity) {
 		inFlight.decrementAndGet();
 		setCapacity(newCapacity);
@@ -20,6 +20,7 @@
 package org.apache.crail.core;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.concurrent.Future;
@@ -33,10 +34,12 @@ import org.apache.crail.rpc.RpcConnection;
 import org.apache.crail.rpc.RpcErrors;
 import org.apache.crail.rpc.RpcFuture;
 import org.apache.crail.rpc.RpcGetBlock;
+import org.apache.crail.rpc.RpcGetBlocks;
 import org.apache.crail.storage.StorageEndpoint;
 import org.apache.crail.storage.StorageFuture;
 import org.apache.crail.utils.BufferCheckpoint;
 import org.apache.crail.utils.CrailUtils;
+import org.apache.crail.utils.DataCache;
 import org.apache.crail.utils.EndpointCache;
 import org.apache.crail.utils.BlockCache.FileBlockCache;
 import org.apache.crail.utils.NextBlockCache.FileNextBlockCache;
@@ -58,10 +61,21 @@ public abstract class CoreStream {
 	private long syncedCapacity;
 	private long streamId;
 	private CoreIOStatistics ioStats;
-	private HashMap<Integer, CoreSubOperation> blockMap;
+	private long prefetchLimit;
+	private HashMap<RpcFuture<RpcGetBlock>, CoreSubOperation> blockMap;
 	private LinkedList<RpcFuture<RpcGetBlock>> pendingBlocks;
+	//consecutive sub-operations of one data operation going to the same endpoint, sent as one vectored request,
+	//operations queued by separate read or write calls are not merged, and a vector carries at most one block
+	private StorageEndpoint vectorEndpoint;
+	private CoreSubOperation[] vectorOps;
+	private BlockInfo[] vectorBlocks;
+	private int vectorCount;
+	private long vectorLength;
+	//only set for streams reading files in read mode
+	private DataCache dataCache;
 	
 	abstract StorageFuture trigger(StorageEndpoint endpoint, CoreSubOperation opDesc, CrailBuffer buffer, BlockInfo block) throws Exception;
+	abstract StorageFuture triggerv(StorageEndpoint endpoint, CrailBuffer[] buffers, BlockInfo[] blocks, long[] offsets, int count) throws Exception;
 	abstract void update(long newCapacity);	
 	
 	CoreStream(CoreNode node, long streamId, long fileOffset) throws Exception {
@@ -79,36 +93,48 @@ public abstract class CoreStream {
 		this.streamId = streamId;
 		this.ioStats = new CoreIOStatistics("core");
 		
-		this.blockMap = new HashMap<Integer, CoreSubOperation>();
+		this.prefetchLimit = 0;
+		this.blockMap = new HashMap<RpcFuture<RpcGetBlock>, CoreSubOperation>();
 		this.pendingBlocks = new LinkedList<RpcFuture<RpcGetBlock>>();
+		this.vectorEndpoint = null;
+		this.vectorOps = new CoreSubOperation[0];
+		this.vectorBlocks = new BlockInfo[0];
+		this.vectorCount = 0;
+		this.vectorLength = 0;
+		this.dataCache = null;
 	}	
 	
 	final CoreDataOperation dataOperation(CrailBuffer dataBuf) throws Exception {
 		blockMap.clear();
 		pendingBlocks.clear();
+		clearVector();
 		CoreDataOperation multiOperation = new CoreDataOperation(this, dataBuf);
 		
 		//compute off, len for the fragments, start transfer or start RPC if block info is missing
 		while(multiOperation.remaining() > 0){
 			long blockRemaining = blockRemaining();
+			if (dataCache != null){
+				blockRemaining = Math.min(blockRemaining, DataCache.chunkRemaining(position));
+			}
 			int opLen = CrailUtils.minFileBuf(blockRemaining, multiOperation.remaining());	
 			CoreSubOperation subOperation = new CoreSubOperation(fileInfo.getFd(), position, multiOperation.getCurrentBufferPosition(), opLen);
 //			LOG.info("OpDesc: " + opDesc.toString());
 			ioStats.incTotalOps((long) opLen);
 			
-			if (blockCache.containsKey(subOperation.key())){
+			if (dataCache != null && readCached(multiOperation, subOperation, dataBuf)){
+				this.ioStats.incCachedOps();
+			} else if (blockCache.containsKey(subOperation.key())){
 				BlockInfo block = blockCache.get(subOperation.key());
-				StorageFuture subFuture = this.prepareAndTrigger(subOperation, dataBuf, block);
-				multiOperation.add(subFuture);
+				this.prepareOperation(multiOperation, subOperation, dataBuf, block);
 				this.ioStats.incCachedOps();
 			} else if (nextBlockCache.containsKey(subOperation.key())){
 				RpcFuture<RpcGetBlock> rpcFuture = nextBlockCache.get(subOperation.key());
-				blockMap.put(rpcFuture.getTicket(), subOperation);
+				blockMap.put(rpcFuture, subOperation);
 				pendingBlocks.add(rpcFuture);
 			} else {
 				this.syncedCapacity = fileInfo.getCapacity();
 				RpcFuture<RpcGetBlock> rpcFuture = namenodeClientRpc.getBlock(fileInfo.getFd(), fileInfo.getToken(), position, syncedCapacity);
-				blockMap.put(rpcFuture.getTicket(), subOperation);
+				blockMap.put(rpcFuture, subOperation);
 				pendingBlocks.add(rpcFuture);
 			}
 			
@@ -116,6 +142,9 @@ public abstract class CoreStream {
 			multiOperation.incProcessedLen(opLen);
 		}
 		
+		//start transfers for the known blocks before waiting on the namenode
+		flushVector(multiOperation, dataBuf);
+		
 		//wait for RPC results and start reads for those blocks as well
 		for (RpcFuture<RpcGetBlock> rpcFuture = pendingBlocks.poll(); rpcFuture != null; rpcFuture = pendingBlocks.poll()){
 			if (!rpcFuture.isDone()){
@@ -139,11 +168,11 @@ public abstract class CoreStream {
 				throw new IOException(RpcErrors.messages[getBlockRes.getError()]);
 			}				
 			BlockInfo block = getBlockRes.getBlockInfo();
-			CoreSubOperation subOperation = blockMap.get(rpcFuture.getTicket());
-			StorageFuture subFuture = prepareAndTrigger(subOperation, dataBuf, block);
-			multiOperation.add(subFuture);
+			CoreSubOperation subOperation = blockMap.get(rpcFuture);
+			prepareOperation(multiOperation, subOperation, dataBuf, block);
 			blockCache.put(subOperation.key(), block);
 		}
+		flushVector(multiOperation, dataBuf);
 		
 		if (!multiOperation.isProcessed()){
 			throw new IOException("Internal error, processed data != operation length");
@@ -154,8 +183,12 @@ public abstract class CoreStream {
 		return multiOperation;
 	}
 	
-	final void prefetchMetadata() throws Exception {
+	final void prefetchMetadata(long hint) throws Exception {
 		long key = CoreSubOperation.createKey(fileInfo.getFd(), position);
+		if (CrailConstants.NAMENODE_BLOCK_WINDOW > 1){
+			prefetchWindow(key, hint);
+			return;
+		}
 		if (blockCache.containsKey(key)){
 			return;
 		}
@@ -169,10 +202,39 @@ public abstract class CoreStream {
 		this.ioStats.incPrefetchedOps();
 	}
 	
+	//keeps a window of blocks ahead of the stream, fetched as one run per namenode round trip
+	private void prefetchWindow(long key, long hint) throws Exception {
+		long windowEnd = CrailUtils.nextBlockAddress(Math.min(key + CrailConstants.NAMENODE_BLOCK_WINDOW*CrailConstants.BLOCK_SIZE, hint));
+		long start = Math.max(key, prefetchLimit);
+		while (start < windowEnd && (blockCache.containsKey(start) || nextBlockCache.containsKey(start))){
+			start += CrailConstants.BLOCK_SIZE;
+		}
+		if (start >= windowEnd){
+			return;
+		}
+		
+		long runEnd = CrailUtils.nextBlockAddress(Math.min(start + CrailConstants.NAMENODE_BLOCK_WINDOW*CrailConstants.BLOCK_SIZE, hint));
+		int count = (int) ((runEnd - start) / CrailConstants.BLOCK_SIZE);
+		this.syncedCapacity = fileInfo.getCapacity();
+		RpcFuture<RpcGetBlocks> nextBlocks = namenodeClientRpc.getBlocks(fileInfo.getFd(), fileInfo.getToken(), start, syncedCapacity, count);
+		for (int i = 0; i < count; i++){
+			long blockStart = start + i*CrailConstants.BLOCK_SIZE;
+			CoreBlockFuture nextBlock = new CoreBlockFuture(namenodeClientRpc, nextBlocks, i, fileInfo.getFd(), fileInfo.getToken(), blockStart, syncedCapacity);
+			nextBlock.setPrefetched(true);
+			nextBlockCache.put(blockStart, nextBlock);
+		}
+		this.prefetchLimit = start + count*CrailConstants.BLOCK_SIZE;
+		this.ioStats.incPrefetchedOps();
+	}
+	
 	void seek(long pos) throws IOException {
 		long newOffset = Math.min(fileInfo.getCapacity(), Math.max(0, pos));
 		if (newOffset == pos){
 			this.position = newOffset;
+			//after a backward seek the window starts over, blocks still cached are skipped anyway
+			if (newOffset < prefetchLimit){
+				this.prefetchLimit = 0;
+			}
 		} else {
 			throw new IOException("seek position out of range, pos " + pos + ", fileCapacity " + fileInfo.getCapacity());
 		}
@@ -182,6 +244,7 @@ public abstract class CoreStream {
 		Future<Void> future = null;
 		if (fileInfo.getToken() > 0 && syncedCapacity < fileInfo.getCapacity()){
 			syncedCapacity = fileInfo.getCapacity();
+			fs.invalidateFile(fileInfo.getFd());
 			future = new SyncNodeFuture(namenodeClientRpc.setFile(fileInfo, false));	
 		} else {
 			future = new NoOperation();
@@ -190,6 +253,10 @@ public abstract class CoreStream {
 		return future;
 	}
 	
+	void setDataCache(DataCache dataCache) {
+		this.dataCache = dataCache;
+	}
+	
 	void updateIOStats() {
 		ioStats.setCapacity(fileInfo.getCapacity());
 	}
@@ -243,6 +310,120 @@ public abstract class CoreStream {
 		}
 	}
 
+	private void prepareOperation(CoreDataOperation multiOperation, CoreSubOperation opDesc, CrailBuffer dataBuf, BlockInfo block) throws Exception {
+		if (dataCache != null){
+			readThrough(multiOperation, opDesc, dataBuf, block);
+		} else {
+			prepareVector(multiOperation, opDesc, dataBuf, block);
+		}
+	}
+	
+	private boolean readCached(CoreDataOperation multiOperation, CoreSubOperation opDesc, CrailBuffer dataBuf) throws Exception {
+		DataCache.Entry entry = dataCache.get(fileInfo.getFd(), opDesc.getFileOffset(), opDesc.getLen(), fileInfo.getModificationTime());
+		if (entry == null){
+			return false;
+		}
+		multiOperation.add(dataCache.read(entry, bufferSlice(dataBuf, opDesc), opDesc.getFileOffset()));
+		return true;
+	}
+	
+	//reads the whole chunk into the data cache unless another reader is already doing so, then copies out of it
+	private void readThrough(CoreDataOperation multiOperation, CoreSubOperation opDesc, CrailBuffer dataBuf, BlockInfo block) throws Exception {
+		DataCache.Entry entry = dataCache.fill(fileInfo.getFd(), opDesc.getFileOffset(), opDesc.getLen(), fileInfo.getCapacity(), fileInfo.getModificationTime());
+		if (entry.claim()){
+			CoreSubOperation chunkOp = new CoreSubOperation(fileInfo.getFd(), entry.getOffset(), 0, entry.getLength());
+			try {
+				if (chunkOp.getBlockOffset() + chunkOp.getLen() > block.getLength()){
+					throw new IOException("operation exceeds block length " + block.getLength() + ", blockOffset " + chunkOp.getBlockOffset() + ", len " + chunkOp.getLen());
+				}
+				entry.setFuture(prepareAndTrigger(chunkOp, entry.getBuffer(), block));
+			} catch(Exception e){
+				dataCache.abort(entry, e);
+				throw e;
+			}
+		}
+		multiOperation.add(dataCache.read(entry, bufferSlice(dataBuf, opDesc), opDesc.getFileOffset()));
+	}
+	
+	private CrailBuffer bufferSlice(CrailBuffer dataBuf, CoreSubOperation opDesc){
+		dataBuf.clear();
+		dataBuf.position(opDesc.getBufferPosition());
+		dataBuf.limit(dataBuf.position() + opDesc.getLen());
+		return dataBuf.slice();
+	}
+	
+	private void prepareVector(CoreDataOperation multiOperation, CoreSubOperation opDesc, CrailBuffer dataBuf, BlockInfo block) throws Exception {
+		StorageEndpoint endpoint = null;
+		//small files may be packed into an extent shorter than a block
+		if (opDesc.getBlockOffset() + opDesc.getLen() > block.getLength()){
+			throw new IOException("operation exceeds block length " + block.getLength() + ", blockOffset " + opDesc.getBlockOffset() + ", len " + opDesc.getLen());
+		}
+		try {
+			endpoint = endpointCache.getDataEndpoint(block.getDnInfo());
+		} catch(IOException e){
+			LOG.info("ERROR: failed data operation");
+			removeFailedOps(opDesc, block);
+			throw e;
+		}
+		int maxSegments = endpoint.maxSegments();
+		if (maxSegments <= 1){
+			multiOperation.add(prepareAndTrigger(opDesc, dataBuf, block));
+			return;
+		}
+		if (vectorCount > 0 && (endpoint != vectorEndpoint || vectorCount >= maxSegments || vectorLength + opDesc.getLen() > CrailConstants.BLOCK_SIZE)){
+			flushVector(multiOperation, dataBuf);
+		}
+		if (vectorOps.length < maxSegments){
+			vectorOps = Arrays.copyOf(vectorOps, maxSegments);
+			vectorBlocks = Arrays.copyOf(vectorBlocks, maxSegments);
+		}
+		vectorEndpoint = endpoint;
+		vectorOps[vectorCount] = opDesc;
+		vectorBlocks[vectorCount] = block;
+		vectorCount++;
+		vectorLength += opDesc.getLen();
+	}
+	
+	private void flushVector(CoreDataOperation multiOperation, CrailBuffer dataBuf) throws Exception {
+		if (vectorCount == 1){
+			multiOperation.add(prepareAndTrigger(vectorOps[0], dataBuf, vectorBlocks[0]));
+		} else if (vectorCount > 1){
+			CrailBuffer[] buffers = new CrailBuffer[vectorCount];
+			BlockInfo[] blocks = Arrays.copyOf(vectorBlocks, vectorCount);
+			long[] offsets = new long[vectorCount];
+			for (int i = 0; i < vectorCount; i++){
+				dataBuf.clear();
+				dataBuf.position(vectorOps[i].getBufferPosition());
+				dataBuf.limit(dataBuf.position() + vectorOps[i].getLen());
+				buffers[i] = dataBuf.slice();
+				offsets[i] = vectorOps[i].getBlockOffset();
+			}
+			try {
+				StorageFuture subFuture = triggerv(vectorEndpoint, buffers, blocks, offsets, vectorCount);
+				multiOperation.add(subFuture);
+				for (int i = 0; i < vectorCount; i++){
+					incStats(vectorEndpoint.isLocal());
+				}
+			} catch(IOException e){
+				LOG.info("ERROR: failed vectored data operation");
+				for (int i = 0; i < vectorCount; i++){
+					removeFailedOps(vectorOps[i], vectorBlocks[i]);
+				}
+				e.printStackTrace();
+				throw e;
+			}
+		}
+		clearVector();
+	}
+	
+	private void clearVector(){
+		Arrays.fill(vectorOps, 0, vectorCount, null);
+		Arrays.fill(vectorBlocks, 0, vectorCount, null);
+		vectorEndpoint = null;
+		vectorCount = 0;
+		vectorLength = 0;
+	}
+
 	private void incStats(boolean isLocal){
 		if (CrailConstants.STATISTICS){
 			if (isLocal){
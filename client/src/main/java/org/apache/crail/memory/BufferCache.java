@@ -20,8 +20,12 @@
 package org.apache.crail.memory;
 
 import java.io.IOException;
+import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.crail.*;
@@ -30,9 +34,38 @@ import org.apache.crail.conf.CrailConstants;
 import org.apache.crail.utils.CrailUtils;
 import org.slf4j.Logger;
 
+/*
+ * Slab allocator for off-heap buffers. Buffer sizes are grouped into classes, powers of two
+ * times crail.buffersize down to 4KB and up to the region size. Each class keeps a magazine
+ * of free buffers per thread and a bounded depot of full magazines shared by all threads,
+ * buffers are taken from and returned to the own magazine without any locking. Only when
+ * both are empty a slab is carved out of the regions provided by the subclass and split into
+ * buffers of the class, which is the only step done under a lock. Slab sizes are multiples
+ * of crail.buffersize and slabs are carved back to back, so mixing classes leaves no gaps,
+ * the tail of a region too short for the next slab is split into buffers of smaller classes.
+ *
+ * Once the regions are used up buffers are allocated directly, up to crail.cachedirectlimit
+ * bytes, beyond that an allocation fails. Direct buffers returned while the depot of their
+ * class is full are dropped so their memory goes back to the OS, region memory stays mapped.
+ * The magazines of all threads are registered with their class, those of finished threads
+ * are returned to the depot by a sweep before new memory is used, at most once a second
+ * unless the regions are used up. Closing the cache drops the magazines of all threads.
+ */
 public abstract class BufferCache implements CrailStatistics.StatisticsProvider {
 	private static final Logger LOG = CrailUtils.getLogger();
-	private LinkedBlockingQueue<CrailBuffer> cache;
+	private static final int MIN_CLASS_SIZE = 4096;
+	private static final int MAX_MAGAZINE_SIZE = 64;
+	private static final int DEPOT_SIZE = 16;
+	private static final long SWEEP_INTERVAL = 1000;
+	
+	private SizeClass[] sizeClasses;
+	private Object regionLock;
+	private CrailBuffer currentRegion;
+	private long currentOffset;
+	//start and end address of every region, for telling region buffers from direct ones
+	private volatile long[] regionBounds;
+	private AtomicLong directBytes;
+	private AtomicLong lastSweep;
 	
 	private AtomicLong cacheGet;
 	private AtomicLong cachePut;
@@ -41,10 +74,27 @@ public abstract class BufferCache implements CrailStatistics.StatisticsProvider
 	private AtomicLong cacheMax;
 	
 	private AtomicLong cacheMissesMap;
-	private AtomicLong cacheMissesHeap;		
+	private AtomicLong cacheMissesHeap;
+	private AtomicLong cacheExhausted;
+	private AtomicLong cacheReleased;
 	
 	public BufferCache() throws IOException{
-		this.cache = new LinkedBlockingQueue<CrailBuffer>();
+		ArrayList<SizeClass> classes = new ArrayList<SizeClass>();
+		int size = CrailConstants.BUFFER_SIZE;
+		while (size / 2 >= MIN_CLASS_SIZE && (size / 2) * 2 == size){
+			size /= 2;
+		}
+		long maxSize = Math.max(CrailConstants.REGION_SIZE, CrailConstants.BUFFER_SIZE);
+		for (long current = size; current <= maxSize && current <= Integer.MAX_VALUE; current *= 2){
+			classes.add(new SizeClass((int) current));
+		}
+		this.sizeClasses = classes.toArray(new SizeClass[classes.size()]);
+		this.regionLock = new Object();
+		this.currentRegion = null;
+		this.currentOffset = 0;
+		this.regionBounds = new long[0];
+		this.directBytes = new AtomicLong(0);
+		this.lastSweep = new AtomicLong(System.currentTimeMillis());
 		
 		this.cacheGet = new AtomicLong(0);
 		this.cachePut = new AtomicLong(0);
@@ -53,7 +103,9 @@ public abstract class BufferCache implements CrailStatistics.StatisticsProvider
 		this.cacheMax = new AtomicLong(0);
 		
 		this.cacheMissesMap = new AtomicLong(0);
-		this.cacheMissesHeap = new AtomicLong(0);			
+		this.cacheMissesHeap = new AtomicLong(0);
+		this.cacheExhausted = new AtomicLong(0);
+		this.cacheReleased = new AtomicLong(0);
 	}
 	
 	@Override
@@ -63,7 +115,7 @@ public abstract class BufferCache implements CrailStatistics.StatisticsProvider
 
 	@Override
 	public String printStatistics() {
-		return "cacheGet " + cacheGet.get() + ", cachePut " + cachePut.get() + ", cacheMiss " + cacheMisses.get() + ", cacheSize " + cache.size() +  ", cacheMax " + cacheMax.get() + ", mapMiss " + cacheMissesMap.get() + ", mapHeap " + cacheMissesHeap.get();
+		return "cacheGet " + cacheGet.get() + ", cachePut " + cachePut.get() + ", cacheMiss " + cacheMisses.get() + ", cacheSize " + depotSize() +  ", cacheMax " + cacheMax.get() + ", mapMiss " + cacheMissesMap.get() + ", mapHeap " + cacheMissesHeap.get() + ", directBytes " + directBytes.get() + ", released " + cacheReleased.get() + ", exhausted " + cacheExhausted.get();
 	}
 	
 	public void resetStatistics(){
@@ -74,6 +126,8 @@ public abstract class BufferCache implements CrailStatistics.StatisticsProvider
 		this.cacheMax.set(0);
 		this.cacheMissesMap.set(0);
 		this.cacheMissesHeap.set(0);
+		this.cacheExhausted.set(0);
+		this.cacheReleased.set(0);
 	}	
 	
 	public void mergeStatistics(StatisticsProvider provider){
@@ -81,26 +135,23 @@ public abstract class BufferCache implements CrailStatistics.StatisticsProvider
 	}
 	
 	public CrailBuffer getBuffer() throws IOException {
+		return getBuffer(CrailConstants.BUFFER_SIZE);
+	}
+	
+	//returns a cleared buffer with a capacity of at least size bytes
+	public CrailBuffer getBuffer(int size) throws IOException {
 		cacheGet.incrementAndGet();
 		cacheOut.incrementAndGet();
 		cacheMax.updateAndGet(x -> Math.max(x, cacheOut.get()));
 		
-		CrailBuffer buffer = cache.poll();
-		if (buffer == null){
-			synchronized(this){
-				buffer = cache.poll();
-				if (buffer == null){
-					cacheMisses.incrementAndGet();
-					buffer = allocateBuffer();
-					if (buffer == null){
-						buffer = OffHeapBuffer.wrap(ByteBuffer.allocateDirect(CrailConstants.BUFFER_SIZE));
-						cacheMissesHeap.incrementAndGet();
-					} else {
-						cacheMissesMap.incrementAndGet();
-					}
-				}
-			}
-		} 
+		CrailBuffer buffer = null;
+		SizeClass sizeClass = classFor(size);
+		if (sizeClass != null){
+			buffer = sizeClass.get();
+		} else {
+			cacheMisses.incrementAndGet();
+			buffer = allocateDirect(size);
+		}
 		
 		buffer.clear();
 		return buffer;
@@ -110,19 +161,51 @@ public abstract class BufferCache implements CrailStatistics.StatisticsProvider
 		if (buffer != null){
 			cachePut.incrementAndGet();
 			cacheOut.decrementAndGet();
-			putBufferInternal(buffer);
+			//slices of a buffer go to the largest class they can hold
+			SizeClass sizeClass = floorClass(buffer.capacity());
+			if (sizeClass != null && buffer.capacity() <= sizeClasses[sizeClasses.length - 1].size){
+				sizeClass.put(buffer);
+			} else {
+				release(buffer, buffer.capacity());
+			}
 		}
 	}
 	
-	public void putBufferInternal(CrailBuffer buffer) throws IOException{
-		cache.add(buffer);
-	}	
-	
 	public void close(){
-		cache.clear();
+		for (SizeClass sizeClass : sizeClasses){
+			sizeClass.clear();
+		}
+		synchronized(regionLock){
+			currentRegion = null;
+		}
+		directBytes.set(0);
+	}
+	
+	//a region of crail.regionsize bytes to carve buffers from, or null if no more memory should be mapped
+	public CrailBuffer allocateRegion() throws IOException {
+		return allocateBuffer();
+	}
+	
+	/*
+	 * Interface of caches written before regions, a single buffer of crail.buffersize bytes or
+	 * null. Such a buffer is used as a small region and further buffers handed in through
+	 * putBufferInternal are kept like region memory. New caches implement allocateRegion.
+	 */
+	@Deprecated
+	public CrailBuffer allocateBuffer() throws IOException {
+		return null;
 	}
 	
-	public abstract CrailBuffer allocateBuffer() throws IOException;
+	@Deprecated
+	public void putBufferInternal(CrailBuffer buffer) throws IOException {
+		synchronized(regionLock){
+			addRegionBounds(buffer.address(), buffer.address() + buffer.capacity());
+		}
+		SizeClass sizeClass = floorClass(buffer.capacity());
+		if (sizeClass != null){
+			sizeClass.spill.add(buffer);
+		}
+	}
 
 	@SuppressWarnings("unchecked")
 	public static BufferCache createInstance(String name) throws Exception {
@@ -135,6 +218,326 @@ public abstract class BufferCache implements CrailStatistics.StatisticsProvider
 			throw new Exception("Cannot instantiate storage client of type " + name);
 		}
 		
-	}		
+	}
+	
+	//---------------
+	
+	private SizeClass classFor(int size){
+		for (int i = 0; i < sizeClasses.length; i++){
+			if (sizeClasses[i].size >= size){
+				return sizeClasses[i];
+			}
+		}
+		return null;
+	}
+	
+	private SizeClass floorClass(int capacity){
+		SizeClass floor = null;
+		for (int i = 0; i < sizeClasses.length && sizeClasses[i].size <= capacity; i++){
+			floor = sizeClasses[i];
+		}
+		return floor;
+	}
+	
+	private int depotSize(){
+		int size = 0;
+		for (SizeClass sizeClass : sizeClasses){
+			size += sizeClass.depotCount.get() * sizeClass.magazineSize + sizeClass.spill.size();
+		}
+		return size;
+	}
+	
+	//carves one slab, a multiple of crail.buffersize bytes, out of the current region, null once the regions are used up
+	private CrailBuffer carveSlab(int slabSize) throws IOException {
+		synchronized(regionLock){
+			if (currentRegion == null || currentOffset + slabSize > currentRegion.capacity()){
+				reclaimTail();
+				currentRegion = slabSize <= CrailConstants.REGION_SIZE ? allocateRegion() : null;
+				currentOffset = 0;
+				if (currentRegion == null){
+					return null;
+				}
+				addRegionBounds(currentRegion.address(), currentRegion.address() + currentRegion.capacity());
+				if (slabSize > currentRegion.capacity()){
+					reclaimTail();
+					currentRegion = null;
+					return null;
+				}
+			}
+			currentRegion.clear();
+			currentRegion.position((int) currentOffset);
+			currentRegion.limit((int) currentOffset + slabSize);
+			CrailBuffer slab = currentRegion.slice();
+			currentRegion.clear();
+			currentOffset += slabSize;
+			return slab;
+		}
+	}
+	
+	//splits what is left of the current region into buffers of the largest classes that fit, guarded by the region lock
+	private void reclaimTail(){
+		if (currentRegion == null){
+			return;
+		}
+		SizeClass sizeClass = floorClass((int) (currentRegion.capacity() - currentOffset));
+		while (sizeClass != null){
+			currentRegion.clear();
+			currentRegion.position((int) currentOffset);
+			currentRegion.limit((int) currentOffset + sizeClass.size);
+			sizeClass.spill.add(currentRegion.slice());
+			currentOffset += sizeClass.size;
+			sizeClass = floorClass((int) (currentRegion.capacity() - currentOffset));
+		}
+		currentRegion.clear();
+		currentOffset = currentRegion.capacity();
+	}
+	
+	//adjacent ranges are merged, buffers handed in one by one do not grow the bounds
+	private void addRegionBounds(long start, long end){
+		long[] bounds = regionBounds;
+		if (bounds.length > 0 && bounds[bounds.length - 1] == start){
+			bounds = Arrays.copyOf(bounds, bounds.length);
+			bounds[bounds.length - 1] = end;
+		} else {
+			bounds = Arrays.copyOf(bounds, bounds.length + 2);
+			bounds[bounds.length - 2] = start;
+			bounds[bounds.length - 1] = end;
+		}
+		regionBounds = bounds;
+	}
+	
+	//returns the magazines of finished threads to the depot, true if any buffers came back
+	private boolean sweepMagazines(boolean force){
+		long now = System.currentTimeMillis();
+		long last = lastSweep.get();
+		if (!force && now - last < SWEEP_INTERVAL){
+			return false;
+		}
+		if (!lastSweep.compareAndSet(last, now) && !force){
+			return false;
+		}
+		boolean returned = false;
+		for (SizeClass sizeClass : sizeClasses){
+			returned |= sizeClass.sweep();
+		}
+		return returned;
+	}
+	
+	private CrailBuffer allocateDirect(int size) throws IOException {
+		long current = directBytes.addAndGet(size);
+		if (current > CrailConstants.CACHE_DIRECT_LIMIT){
+			directBytes.addAndGet(-size);
+			cacheExhausted.incrementAndGet();
+			cacheOut.decrementAndGet();
+			throw new IOException("buffer cache exhausted, cachelimit " + CrailConstants.CACHE_LIMIT + ", directlimit " + CrailConstants.CACHE_DIRECT_LIMIT + ", direct bytes in use " + (current - size));
+		}
+		cacheMissesHeap.incrementAndGet();
+		return OffHeapBuffer.wrap(ByteBuffer.allocateDirect(size));
+	}
+	
+	private boolean isRegionBuffer(CrailBuffer buffer){
+		long[] bounds = regionBounds;
+		long address = buffer.address();
+		for (int i = 0; i < bounds.length; i += 2){
+			if (address >= bounds[i] && address < bounds[i + 1]){
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	//region buffers are kept in any case, direct buffers are left to the garbage collector
+	private void release(CrailBuffer buffer, int size){
+		if (isRegionBuffer(buffer)){
+			SizeClass sizeClass = floorClass(size);
+			if (sizeClass != null){
+				sizeClass.spill.add(buffer);
+			}
+		} else {
+			directBytes.addAndGet(-size);
+			cacheReleased.incrementAndGet();
+		}
+	}
+	
+	private static class Magazine {
+		final CrailBuffer[] buffers;
+		int count;
+		
+		Magazine(int size){
+			this.buffers = new CrailBuffer[size];
+			this.count = 0;
+		}
+	}
+	
+	//the magazine of one thread, only touched by other threads once the owner has finished
+	private static class MagazineHolder {
+		final WeakReference<Thread> owner;
+		Magazine magazine;
+		int generation;
+		
+		MagazineHolder(Magazine magazine, int generation){
+			this.owner = new WeakReference<Thread>(Thread.currentThread());
+			this.magazine = magazine;
+			this.generation = generation;
+		}
+		
+		boolean isOrphaned(){
+			Thread thread = owner.get();
+			return thread == null || !thread.isAlive();
+		}
+	}
+	
+	private class SizeClass {
+		final int size;
+		final int magazineSize;
+		final ThreadLocal<MagazineHolder> holder;
+		final ConcurrentLinkedQueue<MagazineHolder> holders;
+		//bumped on close, magazines of an older generation hold buffers of dropped regions
+		volatile int generation;
+		final ConcurrentLinkedQueue<Magazine> depot;
+		final AtomicInteger depotCount;
+		//region buffers which did not fit into the depot
+		final ConcurrentLinkedQueue<CrailBuffer> spill;
+		
+		SizeClass(int size){
+			this.size = size;
+			this.magazineSize = Math.max(1, Math.min(MAX_MAGAZINE_SIZE, 4 * CrailConstants.BUFFER_SIZE / size));
+			this.holders = new ConcurrentLinkedQueue<MagazineHolder>();
+			this.generation = 0;
+			this.holder = new ThreadLocal<MagazineHolder>(){
+				@Override
+				protected MagazineHolder initialValue() {
+					MagazineHolder own = new MagazineHolder(new Magazine(magazineSize), generation);
+					holders.add(own);
+					return own;
+				}
+			};
+			this.depot = new ConcurrentLinkedQueue<Magazine>();
+			this.depotCount = new AtomicInteger(0);
+			this.spill = new ConcurrentLinkedQueue<CrailBuffer>();
+		}
+		
+		CrailBuffer get() throws IOException {
+			MagazineHolder own = magazine();
+			Magazine current = own.magazine;
+			if (current.count > 0){
+				return pop(current);
+			}
+			CrailBuffer buffer = takeShared(own);
+			if (buffer == null && sweepMagazines(false)){
+				buffer = takeShared(own);
+			}
+			if (buffer != null){
+				return buffer;
+			}
+			
+			cacheMisses.incrementAndGet();
+			int slabSize = Math.max(size, CrailConstants.BUFFER_SIZE);
+			CrailBuffer slab = carveSlab(slabSize);
+			if (slab == null){
+				if (sweepMagazines(true)){
+					buffer = takeShared(own);
+					if (buffer != null){
+						return buffer;
+					}
+				}
+				return allocateDirect(size);
+			}
+			cacheMissesMap.incrementAndGet();
+			for (int offset = size; offset < slabSize; offset += size){
+				slab.clear();
+				slab.position(offset);
+				slab.limit(offset + size);
+				CrailBuffer slice = slab.slice();
+				if (current.count < magazineSize){
+					current.buffers[current.count++] = slice;
+				} else {
+					spill.add(slice);
+				}
+			}
+			slab.clear();
+			slab.limit(size);
+			return slab.slice();
+		}
+		
+		void put(CrailBuffer buffer){
+			MagazineHolder own = magazine();
+			Magazine current = own.magazine;
+			if (current.count == magazineSize){
+				if (returnToDepot(current)){
+					current = new Magazine(magazineSize);
+					own.magazine = current;
+				}
+			}
+			current.buffers[current.count++] = buffer;
+		}
+		
+		//drains the magazines of finished threads, true if any buffers went back to the depot
+		boolean sweep(){
+			boolean returned = false;
+			int current = generation;
+			for (MagazineHolder holder : holders){
+				//only the sweep which unlinks a holder drains it
+				if (holder.isOrphaned() && holders.remove(holder)){
+					if (holder.generation == current && holder.magazine.count > 0){
+						returned |= returnToDepot(holder.magazine);
+						holder.magazine = null;
+					}
+				}
+			}
+			return returned;
+		}
+		
+		void clear(){
+			generation++;
+			holders.clear();
+			depot.clear();
+			depotCount.set(0);
+			spill.clear();
+		}
+		
+		//the magazine of the calling thread, a fresh one after the cache was closed
+		private MagazineHolder magazine(){
+			MagazineHolder own = holder.get();
+			int current = generation;
+			if (own.generation != current){
+				own.magazine = new Magazine(magazineSize);
+				own.generation = current;
+				holders.add(own);
+			}
+			return own;
+		}
+		
+		//a full magazine goes to the depot if there is room, true if it did, otherwise its buffers are released and it is left empty
+		private boolean returnToDepot(Magazine magazine){
+			if (depotCount.incrementAndGet() <= DEPOT_SIZE){
+				depot.add(magazine);
+				return true;
+			}
+			depotCount.decrementAndGet();
+			for (int i = 0; i < magazine.count; i++){
+				release(magazine.buffers[i], size);
+				magazine.buffers[i] = null;
+			}
+			magazine.count = 0;
+			return false;
+		}
+		
+		//a buffer from the depot or the spill, a magazine taken from the depot becomes the own one
+		private CrailBuffer takeShared(MagazineHolder own){
+			Magazine full = depot.poll();
+			if (full != null){
+				depotCount.decrementAndGet();
+				own.magazine = full;
+				return pop(full);
+			}
+			return spill.poll();
+		}
+		
+		private CrailBuffer pop(Magazine current){
+			CrailBuffer buffer = current.buffers[--current.count];
+			current.buffers[current.count] = null;
+			return buffer;
+		}
+	}
 }
-
@@ -38,17 +38,14 @@ public class MappedBufferCache extends BufferCache {
 	private String directory;
 	private File dir;
 	private long allocationCount;
-	private long bufferCount;
 	private long currentRegion;	
 	
 	public MappedBufferCache() throws IOException {
 		super();
 		
 		this.allocationCount = CrailConstants.CACHE_LIMIT / CrailConstants.REGION_SIZE;
-		long _bufferSize = (long) CrailConstants.BUFFER_SIZE;
-		this.bufferCount = CrailConstants.REGION_SIZE / _bufferSize;
 		this.currentRegion = 0;
-		LOG.info("buffer cache, allocationCount " + allocationCount + ", bufferCount " + bufferCount);
+		LOG.info("buffer cache, allocationCount " + allocationCount + ", regionSize " + CrailConstants.REGION_SIZE);
 		
 		if (allocationCount > 0){
 			id = "" + System.currentTimeMillis();
@@ -76,11 +73,7 @@ public class MappedBufferCache extends BufferCache {
 		LOG.info("mapped client cache closed");
 	}
 	
-	public CrailBuffer allocateBuffer() throws IOException{
-		return allocateRegion();
-	}
-
-	private CrailBuffer allocateRegion() throws IOException {
+	public CrailBuffer allocateRegion() throws IOException {
 		if (currentRegion >= allocationCount){
 			return null;
 		}
@@ -94,25 +87,7 @@ public class MappedBufferCache extends BufferCache {
 		CrailBuffer mappedBuffer = OffHeapBuffer.wrap(_mappedBuffer);
 		randomFile.close();
 		channel.close();
-
-		CrailBuffer firstBuffer = slice(mappedBuffer, 0);
 		
-		for (int j = 1; j < bufferCount; j++) {
-			int position = j * CrailConstants.BUFFER_SIZE;
-			CrailBuffer sliceBuffer = slice(mappedBuffer, position);
-			this.putBufferInternal(sliceBuffer);
-		}
-		mappedBuffer.clear();
-		
-		return firstBuffer;
-	}
-	
-	private CrailBuffer slice(CrailBuffer mappedBuffer, int position){
-		int limit = position + CrailConstants.BUFFER_SIZE;
-		mappedBuffer.clear();
-		mappedBuffer.position(position);
-		mappedBuffer.limit(limit);
-		CrailBuffer buffer = mappedBuffer.slice();			
-		return buffer;
+		return mappedBuffer;
 	}
 }
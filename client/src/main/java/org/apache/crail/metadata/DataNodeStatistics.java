@@ -23,25 +23,29 @@ import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
 
 public class DataNodeStatistics {
-	public static final int CSIZE = 12;
+	public static final int CSIZE = 16;
 	
 	private long serviceId;
 	private int freeBlockCount;
+	private boolean draining;
 	
 	public DataNodeStatistics(){
 		this.serviceId = 0;
 		this.freeBlockCount = 0;
+		this.draining = false;
 	}
 	
 	public int write(ByteBuffer buffer){
 		buffer.putLong(serviceId);
 		buffer.putInt(freeBlockCount);
+		buffer.putInt(draining ? 1 : 0);
 		return CSIZE;
 	}
 	
 	public void update(ByteBuffer buffer) throws UnknownHostException {
 		this.serviceId = buffer.getLong();
 		this.freeBlockCount = buffer.getInt();
+		this.draining = buffer.getInt() == 1;
 	}
 
 	public int getFreeBlockCount() {
@@ -55,6 +59,7 @@ public class DataNodeStatistics {
 	public void setStatistics(DataNodeStatistics statistics) {
 		this.serviceId = statistics.getServiceId();
 		this.freeBlockCount = statistics.getFreeBlockCount();
+		this.draining = statistics.isDraining();
 	}
 
 	public void setServiceId(long serviceId) {
@@ -64,4 +69,13 @@ public class DataNodeStatistics {
 	public long getServiceId(){
 		return serviceId;
 	}
+	
+	//set by the namenode once the datanode has been asked to move its blocks elsewhere
+	public boolean isDraining(){
+		return draining;
+	}
+	
+	public void setDraining(boolean draining) {
+		this.draining = draining;
+	}
 }
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2015-2018, IBM Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.crail.rpc;
+
+import org.apache.crail.CrailNodeType;
+import org.apache.crail.metadata.FileName;
+
+public class RpcBatchOp {
+	public static final short OP_CREATE_FILE = 1;
+	public static final short OP_GET_FILE = 2;
+	public static final short OP_REMOVE_FILE = 3;
+	
+	private short op;
+	private FileName filename;
+	private CrailNodeType type;
+	private int storageClass;
+	private int locationClass;
+	private boolean enumerable;
+	private boolean writeable;
+	private boolean recursive;
+	
+	private RpcBatchOp(short op, FileName filename) {
+		this.op = op;
+		this.filename = filename;
+		this.type = CrailNodeType.DATAFILE;
+		this.storageClass = 0;
+		this.locationClass = 0;
+		this.enumerable = true;
+		this.writeable = false;
+		this.recursive = false;
+	}
+	
+	public static RpcBatchOp createFile(FileName filename, CrailNodeType type, int storageClass, int locationClass, boolean enumerable){
+		RpcBatchOp batchOp = new RpcBatchOp(OP_CREATE_FILE, filename);
+		batchOp.type = type;
+		batchOp.storageClass = storageClass;
+		batchOp.locationClass = locationClass;
+		batchOp.enumerable = enumerable;
+		return batchOp;
+	}
+	
+	public static RpcBatchOp getFile(FileName filename, boolean writeable){
+		RpcBatchOp batchOp = new RpcBatchOp(OP_GET_FILE, filename);
+		batchOp.writeable = writeable;
+		return batchOp;
+	}
+	
+	public static RpcBatchOp removeFile(FileName filename, boolean recursive){
+		RpcBatchOp batchOp = new RpcBatchOp(OP_REMOVE_FILE, filename);
+		batchOp.recursive = recursive;
+		return batchOp;
+	}
+
+	public short getOp() {
+		return op;
+	}
+
+	public FileName getFileName() {
+		return filename;
+	}
+
+	public CrailNodeType getFileType() {
+		return type;
+	}
+
+	public int getStorageClass() {
+		return storageClass;
+	}
+
+	public int getLocationClass() {
+		return locationClass;
+	}
+
+	public boolean isEnumerable() {
+		return enumerable;
+	}
+
+	public boolean isWriteable() {
+		return writeable;
+	}
+
+	public boolean isRecursive() {
+		return recursive;
+	}
+}
@@ -46,14 +46,29 @@ public interface RpcConnection {
 	public abstract RpcFuture<RpcGetBlock> getBlock(long fd,
 			long token, long position, long capacity) throws IOException;
 
+	public abstract RpcFuture<RpcGetBlocks> getBlocks(long fd,
+			long token, long position, long capacity, int count) throws IOException;
+
 	public abstract RpcFuture<RpcGetLocation> getLocation(
 			FileName fileName, long position) throws IOException;
 
 	public abstract RpcFuture<RpcVoid> setBlock(BlockInfo blockInfo)
 			throws Exception;
 
+	public abstract RpcFuture<RpcVoid> setBlocks(BlockInfo[] blockInfo, int offset, int count)
+			throws Exception;
+
 	public abstract RpcFuture<RpcGetDataNode> getDataNode(
-			DataNodeInfo dnInfo) throws Exception;
+			DataNodeInfo dnInfo, int inFlight) throws Exception;
+
+	public abstract RpcFuture<RpcVoid> drainDataNode(
+			DataNodeInfo dnInfo, boolean drain) throws Exception;
+
+	public abstract RpcFuture<RpcMigrateBlocks> migrateBlocks(
+			DataNodeInfo dnInfo, long[] fds, int[] indices, int count) throws Exception;
+
+	public abstract RpcFuture<RpcBatch> batch(RpcBatchOp[] ops)
+			throws IOException;
 
 	public abstract RpcFuture<RpcVoid> dumpNameNode()
 			throws Exception;
@@ -37,6 +37,8 @@ public class RpcDispatcher implements RpcConnection {
 	private int setBlockIndex;
 	private int getDataNodeIndex;
 	private int dumpNameNodeIndex;
+	private int drainDataNodeIndex;
+	private int migrateBlocksIndex;
 
 	public RpcDispatcher(ConcurrentLinkedQueue<RpcConnection> connectionList) {
 		connections = new RpcConnection[connectionList.size()];
@@ -46,6 +48,8 @@ public class RpcDispatcher implements RpcConnection {
 		this.setBlockIndex = 0;
 		this.getDataNodeIndex = 0;
 		this.dumpNameNodeIndex = 0;
+		this.drainDataNodeIndex = 0;
+		this.migrateBlocksIndex = 0;
 	}
 
 	@Override
@@ -102,6 +106,13 @@ public class RpcDispatcher implements RpcConnection {
 		return connections[index].getBlock(fd, token, position, capacity);
 	}
 
+	@Override
+	public RpcFuture<RpcGetBlocks> getBlocks(long fd, long token, long position,
+			long capacity, int count) throws IOException {
+		int index = computeIndex(fd);
+		return connections[index].getBlocks(fd, token, position, capacity, count);
+	}
+
 	@Override
 	public RpcFuture<RpcGetLocation> getLocation(FileName fileName,
 			long position) throws IOException {
@@ -119,20 +130,53 @@ public class RpcDispatcher implements RpcConnection {
 	}
 
 	@Override
-	public RpcFuture<RpcGetDataNode> getDataNode(DataNodeInfo dnInfo)
+	public RpcFuture<RpcVoid> setBlocks(BlockInfo[] blockInfo, int offset, int count) throws Exception {
+		RpcFuture<RpcVoid> res = connections[setBlockIndex].setBlocks(blockInfo, offset, count);
+		setBlockIndex = (setBlockIndex + 1) % connections.length;
+		return res;
+	}
+
+	@Override
+	public RpcFuture<RpcGetDataNode> getDataNode(DataNodeInfo dnInfo, int inFlight)
 			throws Exception {
 //		LOG.info("issuing get datanode on index " + getDataNodeIndex);
-		RpcFuture<RpcGetDataNode> res = connections[getDataNodeIndex].getDataNode(dnInfo);
+		RpcFuture<RpcGetDataNode> res = connections[getDataNodeIndex].getDataNode(dnInfo, inFlight);
 		getDataNodeIndex = (getDataNodeIndex + 1) % connections.length;
 		return res;
 	}
 
+	@Override
+	public RpcFuture<RpcBatch> batch(RpcBatchOp[] ops) throws IOException {
+		int index = computeIndex(ops[0].getFileName().getComponent(0));
+		for (int i = 1; i < ops.length; i++){
+			if (computeIndex(ops[i].getFileName().getComponent(0)) != index){
+				throw new IOException("Batch not supported across namenode domains");
+			}
+		}
+		return connections[index].batch(ops);
+	}
+
 	@Override
 	public RpcFuture<RpcVoid> dumpNameNode() throws Exception {
 		dumpNameNodeIndex = (dumpNameNodeIndex + 1) % connections.length;
 		return connections[dumpNameNodeIndex].dumpNameNode();
 	}
 
+	@Override
+	public RpcFuture<RpcVoid> drainDataNode(DataNodeInfo dnInfo, boolean drain) throws Exception {
+		drainDataNodeIndex = (drainDataNodeIndex + 1) % connections.length;
+		return connections[drainDataNodeIndex].drainDataNode(dnInfo, drain);
+	}
+
+	@Override
+	public RpcFuture<RpcMigrateBlocks> migrateBlocks(DataNodeInfo dnInfo, long[] fds, int[] indices, int count) throws Exception {
+		//copied blocks have to be reported to the namenode that handed them out, only a new round moves on
+		if (count == 0){
+			migrateBlocksIndex = (migrateBlocksIndex + 1) % connections.length;
+		}
+		return connections[migrateBlocksIndex].migrateBlocks(dnInfo, fds, indices, count);
+	}
+
 	@Override
 	public RpcFuture<RpcPing> pingNameNode() throws Exception {
 		return connections[0].pingNameNode();
@@ -34,5 +34,21 @@ public interface StorageEndpoint{
 
 	public abstract void close() throws IOException, InterruptedException;
 	
+	//vectored I/O, segment i transfers buffers[i].remaining() bytes at offset remoteOffsets[i] of block remoteMrs[i]. 
+	//A vector carries at most maxSegments() segments and at most one block worth of data.
+	public default int maxSegments() {
+		return 1;
+	}
+	
+	public default StorageFuture writev(CrailBuffer[] buffers, BlockInfo[] remoteMrs, long[] remoteOffsets, int count) throws IOException, 
+			InterruptedException {
+		throw new IOException("vectored write not supported by " + getClass().getName());
+	}
+	
+	public default StorageFuture readv(CrailBuffer[] buffers, BlockInfo[] remoteMrs, long[] remoteOffsets, int count) throws IOException, 
+			InterruptedException {
+		throw new IOException("vectored read not supported by " + getClass().getName());
+	}
+	
 	public abstract boolean isLocal();
 }
@@ -106,6 +106,17 @@ public class CrailFsck {
 		fs.close();
 	}
 
+	public void drainDataNode(String datanode, boolean drain) throws Exception {
+		System.out.println((drain ? "drainDataNode" : "undrainDataNode") + ", datanode " + datanode);
+		CrailConfiguration conf = new CrailConfiguration();
+		CoreDataStore fs = new CoreDataStore(conf);
+		String[] address = datanode.split(":");
+		for (int i = 0; i < CrailUtils.getNameNodeList().size(); i++) {
+			fs.drainDataNode(address[0], Integer.parseInt(address[1]), drain);
+		}
+		fs.close();
+	}
+
 	public void directoryDump(String filename, boolean randomize) throws Exception {
 		CrailConfiguration conf = new CrailConfiguration();
 		CrailConstants.updateConstants(conf);
@@ -182,13 +193,15 @@ public class CrailFsck {
 		boolean randomize = false;	
 		int storageClass = 0;
 		int locationClass = 0;		
+		String datanode = "localhost:50020";
 		
-		Option typeOption = Option.builder("t").desc("type of experiment [getLocations|directoryDump|namenodeDump|blockStatistics|ping|createDirectory]").hasArg().build();
+		Option typeOption = Option.builder("t").desc("type of experiment [getLocations|directoryDump|namenodeDump|blockStatistics|ping|createDirectory|drainDataNode|undrainDataNode]").hasArg().build();
 		Option fileOption = Option.builder("f").desc("filename").hasArg().build();
 		Option offsetOption = Option.builder("y").desc("offset into the file").hasArg().build();
 		Option lengthOption = Option.builder("l").desc("length of the file [bytes]").hasArg().build();
 		Option storageOption = Option.builder("c").desc("storageClass for file [1..n]").hasArg().build();
 		Option locationOption = Option.builder("p").desc("locationClass for file [1..n]").hasArg().build();		
+		Option datanodeOption = Option.builder("d").desc("datanode address [host:port]").hasArg().build();
 		
 		Options options = new Options();
 		options.addOption(typeOption);
@@ -197,6 +210,7 @@ public class CrailFsck {
 		options.addOption(lengthOption);
 		options.addOption(storageOption);
 		options.addOption(locationOption);		
+		options.addOption(datanodeOption);
 		
 		CommandLineParser parser = new DefaultParser();
 		CommandLine line = parser.parse(options, Arrays.copyOfRange(args, 0, args.length));
@@ -218,6 +232,9 @@ public class CrailFsck {
 		if (line.hasOption(locationOption.getOpt())) {
 			locationClass = Integer.parseInt(line.getOptionValue(locationOption.getOpt()));
 		}			
+		if (line.hasOption(datanodeOption.getOpt())) {
+			datanode = line.getOptionValue(datanodeOption.getOpt());
+		}
 		
 		CrailFsck fsck = new CrailFsck();
 		if (type.equals("getLocations")){
@@ -232,6 +249,10 @@ public class CrailFsck {
 			fsck.ping();
 		} else if (type.equals("createDirectory")){
 			fsck.createDirectory(filename, storageClass, locationClass);
+		} else if (type.equals("drainDataNode")){
+			fsck.drainDataNode(datanode, true);
+		} else if (type.equals("undrainDataNode")){
+			fsck.drainDataNode(datanode, false);
 		} else {
 			HelpFormatter formatter = new HelpFormatter();
 			formatter.printHelp("crail fsck", options);
@@ -19,50 +19,61 @@
 
 package org.apache.crail.utils;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.crail.conf.CrailConstants;
 import org.apache.crail.metadata.BlockInfo;
 
 public class BlockCache {
-	private ConcurrentHashMap<Long, FileBlockCache> blockCache;
+	//files in LRU order, at most crail.client.blockcache.size of them are kept
+	private LinkedHashMap<Long, FileBlockCache> blockCache;
 	
 	public BlockCache(){
-		this.blockCache = new ConcurrentHashMap<Long, FileBlockCache>();  
+		this.blockCache = new LinkedHashMap<Long, FileBlockCache>(16, 0.75f, true){
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, FileBlockCache> eldest) {
+				return size() > CrailConstants.CLIENT_BLOCKCACHE_SIZE;
+			}
+		};
 	}
 	
-	public FileBlockCache getFileBlockCache(long fd){
+	public synchronized FileBlockCache getFileBlockCache(long fd){
 		FileBlockCache fileBlockCache = blockCache.get(fd);
 		if (fileBlockCache == null){
 			fileBlockCache = new FileBlockCache(fd);
-			FileBlockCache oldFileBlockCache = blockCache.putIfAbsent(fd, fileBlockCache);
-			if (oldFileBlockCache != null){
-				fileBlockCache = oldFileBlockCache;
-			}
+			blockCache.put(fd, fileBlockCache);
 		}
 		return fileBlockCache;
 	}
 	
-	public void remove(long fd) {
+	public synchronized void remove(long fd) {
 		blockCache.remove(fd);
 	}	
 	
-	public void purge() {
+	public synchronized void purge() {
 		blockCache.clear();
 	}
 
 	public static class FileBlockCache {
 		private long fd;
 		private ConcurrentHashMap<Long, BlockInfo> fileBlockCache;
+		//last time the namenode handed out a block of the file [ms]
+		private volatile long validated;
 		
 		public FileBlockCache(long fd){
 			this.fd = fd;
 			this.fileBlockCache = new ConcurrentHashMap<Long, BlockInfo>();
+			this.validated = 0;
 		}
 
 		public void put(long blockstart, BlockInfo block){
 			if(CrailConstants.CLIENT_BLOCKCACHE_ENABLE) {
 				this.fileBlockCache.put(blockstart, block);
+				this.validated = System.currentTimeMillis();
 			} // otherwise don't do anything
 		}
 		
@@ -77,5 +88,13 @@ public class BlockCache {
 		public long getFd() {
 			return fd;
 		}
+		
+		public long getValidated() {
+			return validated;
+		}
+		
+		public void clear() {
+			fileBlockCache.clear();
+		}
 	}
 }
@@ -0,0 +1,412 @@
+/*
+ * Copyright (C) 2015-2018, IBM Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.crail.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.crail.CrailBuffer;
+import org.apache.crail.CrailStatistics;
+import org.apache.crail.CrailStatistics.StatisticsProvider;
+import org.apache.crail.conf.CrailConstants;
+import org.apache.crail.memory.BufferCache;
+import org.apache.crail.storage.StorageFuture;
+import org.apache.crail.storage.StorageResult;
+
+/*
+ * Client side cache for the data of files opened in read mode. Files are cached in chunks
+ * of min(buffersize, blocksize) bytes held in buffers of the buffer cache, a chunk is
+ * only valid for the modification time it was read with. The first reader of a chunk
+ * reads it from storage into the cache, concurrent readers of the same chunk wait for
+ * that read instead of issuing their own. Chunks are evicted in LRU order once
+ * crail.client.datacache.limit bytes are cached, chunks still being read are skipped.
+ */
+public class DataCache implements CrailStatistics.StatisticsProvider {
+	private static final int LOADING = 0;
+	private static final int READY = 1;
+	private static final int FAILED = 2;
+	
+	private BufferCache bufferCache;
+	private long limit;
+	private long size;
+	private LinkedHashMap<ChunkKey, Entry> entries;
+	
+	private AtomicLong hits;
+	private AtomicLong misses;
+	private AtomicLong evictions;
+	private AtomicLong invalidations;
+	
+	public DataCache(BufferCache bufferCache, long limit){
+		this.bufferCache = bufferCache;
+		this.limit = limit;
+		this.size = 0;
+		this.entries = new LinkedHashMap<ChunkKey, Entry>(16, 0.75f, true);
+		
+		this.hits = new AtomicLong(0);
+		this.misses = new AtomicLong(0);
+		this.evictions = new AtomicLong(0);
+		this.invalidations = new AtomicLong(0);
+	}
+	
+	@Override
+	public String providerName() {
+		return "cache/data";
+	}
+
+	@Override
+	public String printStatistics() {
+		return "hits " + hits.get() + ", misses " + misses.get() + ", evictions " + evictions.get() + ", invalidations " + invalidations.get() + ", size " + size;
+	}
+	
+	public void mergeStatistics(StatisticsProvider provider){
+		
+	}
+
+	@Override
+	public void resetStatistics() {
+		this.hits.set(0);
+		this.misses.set(0);
+		this.evictions.set(0);
+		this.invalidations.set(0);
+	}
+	
+	public boolean isEnabled(){
+		return limit > 0;
+	}
+	
+	public static int chunkSize(){
+		return (int) Math.min(CrailConstants.BUFFER_SIZE, CrailConstants.BLOCK_SIZE);
+	}
+	
+	public static long chunkRemaining(long fileOffset){
+		return chunkSize() - (fileOffset % chunkSize());
+	}
+	
+	//returns the cached chunk holding [fileOffset, fileOffset + len), or null on a miss
+	public synchronized Entry get(long fd, long fileOffset, int len, long modificationTime) throws IOException {
+		Entry entry = entries.get(new ChunkKey(fd, fileOffset - (fileOffset % chunkSize())));
+		if (entry == null){
+			return null;
+		}
+		if (entry.modificationTime != modificationTime || entry.state == FAILED || fileOffset + len > entry.offset + entry.length){
+			removeEntry(entry);
+			invalidations.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		entry.refs++;
+		return entry;
+	}
+	
+	//same as get, but on a miss a new chunk of the file is added which the caller has to read from storage
+	public synchronized Entry fill(long fd, long fileOffset, int len, long capacity, long modificationTime) throws IOException {
+		Entry entry = get(fd, fileOffset, len, modificationTime);
+		if (entry != null){
+			return entry;
+		}
+		long offset = fileOffset - (fileOffset % chunkSize());
+		int length = (int) Math.min(chunkSize(), capacity - offset);
+		entry = new Entry(fd, offset, length, modificationTime, bufferCache.getBuffer(length));
+		entry.refs++;
+		entries.put(entry.key, entry);
+		size += entry.buffer.capacity();
+		misses.incrementAndGet();
+		evict();
+		return entry;
+	}
+	
+	public StorageFuture read(Entry entry, CrailBuffer buffer, long fileOffset){
+		return new ReadFuture(entry, buffer, (int) (fileOffset - entry.offset));
+	}
+	
+	//the caller could not start reading the chunk, readers waiting for it will fail
+	public synchronized void abort(Entry entry, Exception e) throws IOException {
+		entry.fail(e);
+		removeEntry(entry);
+		release(entry);
+	}
+	
+	public synchronized void remove(long fd) throws IOException {
+		ArrayList<Entry> removed = new ArrayList<Entry>();
+		for (Entry entry : entries.values()){
+			if (entry.key.fd == fd){
+				removed.add(entry);
+			}
+		}
+		for (Entry entry : removed){
+			removeEntry(entry);
+			invalidations.incrementAndGet();
+		}
+	}
+	
+	public synchronized void purge() throws IOException {
+		ArrayList<Entry> removed = new ArrayList<Entry>(entries.values());
+		for (Entry entry : removed){
+			removeEntry(entry);
+		}
+	}
+	
+	//---------------
+	
+	private synchronized void release(Entry entry) throws IOException {
+		entry.refs--;
+		freeEntry(entry);
+	}
+	
+	private void evict() throws IOException {
+		Iterator<Entry> iter = entries.values().iterator();
+		while (size > limit && iter.hasNext()){
+			Entry entry = iter.next();
+			if (entry.state == LOADING){
+				continue;
+			}
+			iter.remove();
+			size -= entry.buffer.capacity();
+			entry.removed = true;
+			freeEntry(entry);
+			evictions.incrementAndGet();
+		}
+	}
+	
+	private void removeEntry(Entry entry) throws IOException {
+		if (entry.removed){
+			return;
+		}
+		entries.remove(entry.key);
+		size -= entry.buffer.capacity();
+		entry.removed = true;
+		freeEntry(entry);
+	}
+	
+	//a chunk goes back to the buffer cache once it is out of the cache and no reader copies from it
+	private void freeEntry(Entry entry) throws IOException {
+		if (entry.removed && entry.refs == 0 && entry.buffer != null){
+			bufferCache.putBuffer(entry.buffer);
+			entry.buffer = null;
+		}
+	}
+	
+	private static class ChunkKey {
+		final long fd;
+		final long offset;
+		
+		ChunkKey(long fd, long offset){
+			this.fd = fd;
+			this.offset = offset;
+		}
+
+		@Override
+		public int hashCode() {
+			return (int) (fd * 31 + (offset / chunkSize()));
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof ChunkKey)){
+				return false;
+			}
+			ChunkKey other = (ChunkKey) obj;
+			return fd == other.fd && offset == other.offset;
+		}
+	}
+	
+	public static class Entry {
+		private final ChunkKey key;
+		private final long offset;
+		private final int length;
+		private final long modificationTime;
+		//guarded by the cache
+		private CrailBuffer buffer;
+		private int refs;
+		private boolean removed;
+		private boolean claimed;
+		
+		private volatile int state;
+		private volatile StorageFuture future;
+		private Exception exception;
+		
+		Entry(long fd, long offset, int length, long modificationTime, CrailBuffer buffer){
+			this.key = new ChunkKey(fd, offset);
+			this.offset = offset;
+			this.length = length;
+			this.modificationTime = modificationTime;
+			this.buffer = buffer;
+			this.refs = 0;
+			this.removed = false;
+			this.claimed = false;
+			this.state = LOADING;
+			this.future = null;
+			this.exception = null;
+		}
+		
+		public long getOffset(){
+			return offset;
+		}
+		
+		public int getLength(){
+			return length;
+		}
+		
+		public CrailBuffer getBuffer(){
+			return buffer;
+		}
+		
+		//true for exactly one caller, which then reads the chunk from storage
+		public synchronized boolean claim(){
+			if (claimed){
+				return false;
+			}
+			claimed = true;
+			return true;
+		}
+		
+		public synchronized void setFuture(StorageFuture future){
+			this.future = future;
+			this.notifyAll();
+		}
+		
+		synchronized void fail(Exception e){
+			if (state == LOADING){
+				this.exception = e;
+				this.state = FAILED;
+			}
+			this.notifyAll();
+		}
+		
+		boolean isDone(){
+			StorageFuture current = future;
+			return state != LOADING || (current != null && current.isDone());
+		}
+		
+		synchronized void await(long timeout, TimeUnit unit) throws Exception {
+			long start = System.nanoTime();
+			while (future == null && state == LOADING){
+				long remaining = unit.toNanos(timeout) - (System.nanoTime() - start);
+				if (remaining <= 0){
+					throw new TimeoutException("data cache timeout");
+				}
+				TimeUnit.NANOSECONDS.timedWait(this, remaining);
+			}
+			if (state == LOADING){
+				try {
+					StorageResult result = future.get(timeout, unit);
+					if (result.getLen() != length){
+						throw new IOException("short read into data cache, len " + result.getLen() + ", expected " + length);
+					}
+					state = READY;
+				} catch(Exception e){
+					fail(e);
+				}
+			}
+			if (state == FAILED){
+				throw exception;
+			}
+		}
+	}
+	
+	private class ReadFuture implements StorageFuture, StorageResult {
+		private Entry entry;
+		private CrailBuffer buffer;
+		private int chunkOffset;
+		private int len;
+		private boolean done;
+		private Exception exception;
+		
+		ReadFuture(Entry entry, CrailBuffer buffer, int chunkOffset){
+			this.entry = entry;
+			this.buffer = buffer;
+			this.chunkOffset = chunkOffset;
+			this.len = buffer.remaining();
+			this.done = false;
+			this.exception = null;
+		}
+		
+		@Override
+		public boolean isSynchronous() {
+			return false;
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			return false;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return false;
+		}
+
+		@Override
+		public synchronized boolean isDone() {
+			return done || entry.isDone();
+		}
+
+		@Override
+		public StorageResult get() throws InterruptedException, ExecutionException {
+			try {
+				return get(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			} catch (TimeoutException e) {
+				throw new ExecutionException(e);
+			}
+		}
+
+		@Override
+		public synchronized StorageResult get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+			if (exception != null){
+				throw new ExecutionException(exception);
+			}
+			if (done){
+				return this;
+			}
+			try {
+				entry.await(timeout, unit);
+				ByteBuffer src = entry.buffer.getByteBuffer().duplicate();
+				src.clear();
+				src.position(chunkOffset);
+				src.limit(chunkOffset + len);
+				buffer.put(src);
+				done = true;
+				release(entry);
+			} catch(TimeoutException e){
+				throw e;
+			} catch(Exception e){
+				try {
+					abort(entry, e);
+				} catch(IOException ex){
+				}
+				exception = e;
+				throw new ExecutionException(e);
+			}
+			return this;
+		}
+
+		@Override
+		public int getLen() {
+			return len;
+		}
+	}
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2015-2018, IBM Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.crail.utils;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.crail.CrailStatistics;
+import org.apache.crail.CrailStatistics.StatisticsProvider;
+import org.apache.crail.metadata.FileInfo;
+
+/*
+ * Caches the result of path lookups, the file info only. An entry is a lease which expires
+ * crail.client.lookupcache.lease milliseconds after the lookup. Operations of this client revoke
+ * the leases they affect right away: create, delete and rename drop the path, everything below
+ * it and its parent, a setFile drops the file. Changes made by other clients become visible once
+ * the lease expires.
+ *
+ * Blocks are not part of a lease. Within a lease a path deleted by another client still resolves,
+ * so a cached node only keeps the block hints the namenode handed out for its fd within the last
+ * lease period. Older hints are fetched from the namenode by fd again, which fails for a deleted
+ * file as fds are never reused, rather than taken from a block the namenode may have handed out
+ * to another file since.
+ */
+public class LookupCache implements CrailStatistics.StatisticsProvider {
+	private long lease;
+	private LinkedHashMap<String, Entry> entries;
+	private HashMap<Long, String> paths;
+	//the cached paths in sorted order, a subtree is a range of it
+	private TreeSet<String> sortedPaths;
+	
+	private AtomicLong hits;
+	private AtomicLong misses;
+	private AtomicLong expired;
+	private AtomicLong revoked;
+	
+	public LookupCache(long lease, final int size){
+		this.lease = lease;
+		this.entries = new LinkedHashMap<String, LookupCache.Entry>(16, 0.75f, true){
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, LookupCache.Entry> eldest) {
+				if (size() > size){
+					paths.remove(eldest.getValue().fileInfo.getFd());
+					sortedPaths.remove(eldest.getKey());
+					return true;
+				}
+				return false;
+			}
+		};
+		this.paths = new HashMap<Long, String>();
+		this.sortedPaths = new TreeSet<String>();
+		
+		this.hits = new AtomicLong(0);
+		this.misses = new AtomicLong(0);
+		this.expired = new AtomicLong(0);
+		this.revoked = new AtomicLong(0);
+	}
+	
+	@Override
+	public String providerName() {
+		return "cache/lookup";
+	}
+
+	@Override
+	public String printStatistics() {
+		return "hits " + hits.get() + ", misses " + misses.get() + ", expired " + expired.get() + ", revoked " + revoked.get() + ", size " + size();
+	}
+	
+	public void mergeStatistics(StatisticsProvider provider){
+		
+	}
+
+	@Override
+	public void resetStatistics() {
+		this.hits.set(0);
+		this.misses.set(0);
+		this.expired.set(0);
+		this.revoked.set(0);
+	}
+	
+	public boolean isEnabled(){
+		return lease > 0;
+	}
+	
+	public synchronized int size(){
+		return entries.size();
+	}
+	
+	public synchronized Entry get(String path){
+		Entry entry = entries.get(path);
+		if (entry == null){
+			misses.incrementAndGet();
+			return null;
+		}
+		if (System.currentTimeMillis() >= entry.expires){
+			removeEntry(path);
+			expired.incrementAndGet();
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		return entry;
+	}
+	
+	public synchronized void put(String path, FileInfo fileInfo){
+		FileInfo copy = new FileInfo();
+		copy.setFileInfo(fileInfo);
+		removeEntry(path);
+		String previous = paths.put(copy.getFd(), path);
+		if (previous != null && !previous.equals(path)){
+			entries.remove(previous);
+			sortedPaths.remove(previous);
+		}
+		sortedPaths.add(path);
+		entries.put(path, new Entry(copy, System.currentTimeMillis() + lease));
+	}
+	
+	//the path, its subtree and its parent, whose capacity changes with the path, costs a lookup per path removed
+	public synchronized void remove(String path){
+		String prefix = path.endsWith("/") ? path : path + "/";
+		String parent = CrailUtils.getParent(path);
+		TreeSet<String> removed = new TreeSet<String>(sortedPaths.subSet(prefix, prefix + Character.MAX_VALUE));
+		if (entries.containsKey(path)){
+			removed.add(path);
+		}
+		if (parent != null && entries.containsKey(parent)){
+			removed.add(parent);
+		}
+		for (String current : removed){
+			removeEntry(current);
+			revoked.incrementAndGet();
+		}
+	}
+	
+	public synchronized void remove(long fd){
+		String path = paths.get(fd);
+		if (path != null){
+			removeEntry(path);
+			revoked.incrementAndGet();
+		}
+	}
+	
+	public synchronized void purge(){
+		entries.clear();
+		paths.clear();
+		sortedPaths.clear();
+	}
+	
+	private void removeEntry(String path){
+		Entry entry = entries.remove(path);
+		if (entry != null){
+			paths.remove(entry.fileInfo.getFd());
+			sortedPaths.remove(path);
+		}
+	}
+	
+	public static class Entry {
+		private final FileInfo fileInfo;
+		private final long expires;
+		
+		Entry(FileInfo fileInfo, long expires){
+			this.fileInfo = fileInfo;
+			this.expires = expires;
+		}
+		
+		//every node gets its own copy, streams update the capacity of their node
+		public FileInfo getFileInfo(){
+			FileInfo copy = new FileInfo();
+			copy.setFileInfo(fileInfo);
+			return copy;
+		}
+	}
+}
@@ -19,6 +19,8 @@
 
 package org.apache.crail.utils;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.crail.conf.CrailConstants;
@@ -26,44 +28,53 @@ import org.apache.crail.rpc.RpcFuture;
 import org.apache.crail.rpc.RpcGetBlock;
 
 public class NextBlockCache {
-	private ConcurrentHashMap<Long, FileNextBlockCache> nextBlockCache;
+	//files in LRU order, at most crail.client.blockcache.size of them are kept
+	private LinkedHashMap<Long, FileNextBlockCache> nextBlockCache;
 	
 	public NextBlockCache(){
-		this.nextBlockCache = new ConcurrentHashMap<Long, FileNextBlockCache>();  
+		this.nextBlockCache = new LinkedHashMap<Long, FileNextBlockCache>(16, 0.75f, true){
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, FileNextBlockCache> eldest) {
+				return size() > CrailConstants.CLIENT_BLOCKCACHE_SIZE;
+			}
+		};
 	}
 	
-	public FileNextBlockCache getFileBlockCache(long fd){
+	public synchronized FileNextBlockCache getFileBlockCache(long fd){
 		FileNextBlockCache fileBlockCache = nextBlockCache.get(fd);
 		if (fileBlockCache == null){
 			fileBlockCache = new FileNextBlockCache(fd);
-			FileNextBlockCache oldFileBlockCache = nextBlockCache.putIfAbsent(fd, fileBlockCache);
-			if (oldFileBlockCache != null){
-				fileBlockCache = oldFileBlockCache;
-			}
+			nextBlockCache.put(fd, fileBlockCache);
 		}
 		return fileBlockCache;
 	}
 	
-	public void remove(long fd) {
+	public synchronized void remove(long fd) {
 		nextBlockCache.remove(fd);
 	}	
 	
-	public void purge() {
+	public synchronized void purge() {
 		nextBlockCache.clear();
 	}
 
 	public static class FileNextBlockCache {
 		private long fd;
 		private ConcurrentHashMap<Long, RpcFuture<RpcGetBlock>> fileBlockCache;
+		//last time a block of the file was requested from the namenode [ms]
+		private volatile long validated;
 		
 		public FileNextBlockCache(long fd){
 			this.fd = fd;
 			this.fileBlockCache = new ConcurrentHashMap<Long, RpcFuture<RpcGetBlock>>();
+			this.validated = 0;
 		}
 
 		public void put(long blockstart, RpcFuture<RpcGetBlock> block){
 			if(CrailConstants.CLIENT_BLOCKCACHE_ENABLE){
 				this.fileBlockCache.putIfAbsent(blockstart, block);
+				this.validated = System.currentTimeMillis();
 			} // otherwise, do nothing
 		}
 		
@@ -78,5 +89,13 @@ public class NextBlockCache {
 		public long getFd() {
 			return fd;
 		}
+		
+		public long getValidated() {
+			return validated;
+		}
+		
+		public void clear() {
+			fileBlockCache.clear();
+		}
 	}
 }
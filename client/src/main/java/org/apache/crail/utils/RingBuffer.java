@@ -79,6 +79,18 @@ public class RingBuffer<T> {
         return nextObj;
     }
     
+    //the element at the given distance from the head, null if there is none
+    public T get(int index) {
+        if(index < 0 || index >= available){
+            return null;
+        }
+        int slot = writePos - available + index;
+        if(slot < 0){
+            slot += size;
+        }
+        return elements[slot];
+    }
+    
     public T peek() {
         if(available == 0){
             return null;
@@ -82,6 +82,25 @@ public class ClientTest {
 		fs.lookup(dstname).get().asFile();
 	}
 
+	@Test
+	public void testBatch() throws Exception {
+		String filename = basePath + "/fooBatch";
+		CrailBatch batch = fs.batch();
+		Upcoming<CrailNode> create = batch.create(filename, CrailNodeType.DATAFILE, CrailStorageClass.DEFAULT, CrailLocationClass.DEFAULT, true);
+		Upcoming<CrailNode> lookup = batch.lookup(filename);
+		Upcoming<CrailNode> missing = batch.lookup(basePath + "/barBatch");
+		batch.flush();
+		create.get().asFile();
+		lookup.get().asFile();
+		Assert.assertNull(missing.get());
+		
+		batch = fs.batch();
+		Upcoming<CrailNode> delete = batch.delete(filename, false);
+		batch.flush();
+		Assert.assertNotNull(delete.get());
+		Assert.assertNull(fs.lookup(filename).get());
+	}
+
 	@Test
 	public void testlookupDirectory() throws Exception {
 		fs.lookup(basePath).get().asDirectory();
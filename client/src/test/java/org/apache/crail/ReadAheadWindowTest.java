@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2015-2018, IBM Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.crail;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReadAheadWindowTest {
+	private static final int SLICE = 1024*1024;
+	private static final long LATENCY = 1000000;
+	private static final long INTERVAL = 100000;
+	
+	private ReadAheadWindow readAhead;
+	private long now;
+	
+	@Before
+	public void init() {
+		this.readAhead = new ReadAheadWindow(2, 32, SLICE);
+		this.now = System.nanoTime();
+	}
+	
+	@Test
+	public void testInitialWindow() {
+		Assert.assertEquals(2, readAhead.getWindow());
+		Assert.assertEquals(ReadAheadWindow.Pattern.SEQUENTIAL, readAhead.getPattern());
+		Assert.assertEquals(1, new ReadAheadWindow(0, 0, SLICE).getWindow());
+		Assert.assertEquals(4, new ReadAheadWindow(8, 4, SLICE).getWindow());
+	}
+	
+	@Test
+	public void testGrowth() {
+		readAhead.complete(now, now + LATENCY, true);
+		consume(20, INTERVAL);
+		//the window covers the latency at the rate slices are consumed, plus the slice being consumed
+		Assert.assertEquals(LATENCY/INTERVAL + 1, readAhead.getWindow());
+	}
+	
+	@Test
+	public void testMaxWindow() {
+		readAhead.complete(now, now + 100*LATENCY, true);
+		consume(20, INTERVAL);
+		Assert.assertEquals(readAhead.getMaxWindow(), readAhead.getWindow());
+	}
+	
+	@Test
+	public void testShrink() {
+		readAhead.complete(now, now + LATENCY, true);
+		consume(20, INTERVAL);
+		int window = readAhead.getWindow();
+		for (int i = 0; i < 100; i++){
+			consume(1, 10*LATENCY);
+			Assert.assertTrue(readAhead.getWindow() >= window - 1);
+			window = readAhead.getWindow();
+		}
+		Assert.assertEquals(2, window);
+	}
+	
+	@Test
+	public void testLatencySamples() {
+		readAhead.complete(now, now + LATENCY, true);
+		consume(20, INTERVAL);
+		//a slice which was ready before it was needed only bounds the latency from above
+		readAhead.complete(now, now + 5*LATENCY, false);
+		consume(1, INTERVAL);
+		Assert.assertEquals(LATENCY/INTERVAL + 1, readAhead.getWindow());
+		readAhead.complete(now, now + 5*LATENCY, true);
+		consume(1, INTERVAL);
+		Assert.assertEquals(2*LATENCY/INTERVAL + 1, readAhead.getWindow());
+	}
+	
+	@Test
+	public void testStall() {
+		readAhead.complete(now, now + LATENCY, true);
+		consume(20, INTERVAL);
+		//time spent waiting for data does not count as time the application spends on a slice
+		readAhead.stall(9*INTERVAL);
+		consume(1, 10*INTERVAL);
+		Assert.assertEquals(LATENCY/INTERVAL + 1, readAhead.getWindow());
+	}
+	
+	@Test
+	public void testRandomReset() {
+		readAhead.complete(now, now + LATENCY, true);
+		consume(20, INTERVAL);
+		//one slice read between seeks, the window falls back to a single slice
+		long position = 0;
+		for (int i = 0; i < 20; i++){
+			long next = position + (100L + 10*i)*SLICE;
+			readAhead.seek(position + SLICE, next);
+			position = next;
+			Assert.assertEquals(ReadAheadWindow.Pattern.RANDOM, readAhead.getPattern());
+		}
+		Assert.assertEquals(1, readAhead.getWindow());
+		
+		//reading on sequentially for a full window restores the sequential window
+		consume(readAhead.getMaxWindow(), INTERVAL);
+		Assert.assertEquals(ReadAheadWindow.Pattern.SEQUENTIAL, readAhead.getPattern());
+		Assert.assertEquals(LATENCY/INTERVAL + 1, readAhead.getWindow());
+	}
+	
+	@Test
+	public void testStrided() {
+		readAhead.complete(now, now + LATENCY, true);
+		consume(20, INTERVAL);
+		long position = 0;
+		for (int i = 0; i < 20; i++){
+			readAhead.seek(position + 4L*SLICE, position + 10L*SLICE);
+			position += 10L*SLICE;
+		}
+		Assert.assertEquals(ReadAheadWindow.Pattern.STRIDED, readAhead.getPattern());
+		//no more slices in flight than are read before the next seek
+		Assert.assertEquals(4, readAhead.getWindow());
+	}
+	
+	private void consume(int slices, long interval) {
+		for (int i = 0; i < slices; i++){
+			now += interval;
+			readAhead.consume(now);
+		}
+	}
+}
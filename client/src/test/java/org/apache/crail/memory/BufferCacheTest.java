@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2015-2018, IBM Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.crail.memory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+import org.apache.crail.CrailBuffer;
+import org.apache.crail.conf.CrailConstants;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BufferCacheTest {
+	private static final int BUFFER_SIZE = 64*1024;
+	private static final long REGION_SIZE = 1024*1024;
+	
+	private int bufferSize;
+	private long regionSize;
+	private long directLimit;
+	
+	private int maxRegions;
+	private ArrayList<CrailBuffer> regions;
+	private BufferCache cache;
+	
+	@Before
+	public void init() throws IOException {
+		this.bufferSize = CrailConstants.BUFFER_SIZE;
+		this.regionSize = CrailConstants.REGION_SIZE;
+		this.directLimit = CrailConstants.CACHE_DIRECT_LIMIT;
+		CrailConstants.BUFFER_SIZE = BUFFER_SIZE;
+		CrailConstants.REGION_SIZE = REGION_SIZE;
+		
+		this.maxRegions = 0;
+		this.regions = new ArrayList<CrailBuffer>();
+		this.cache = new BufferCache(){
+			@Override
+			public CrailBuffer allocateRegion() throws IOException {
+				if (regions.size() >= maxRegions){
+					return null;
+				}
+				CrailBuffer region = OffHeapBuffer.wrap(ByteBuffer.allocateDirect((int) REGION_SIZE));
+				regions.add(region);
+				return region;
+			}
+		};
+	}
+	
+	@After
+	public void restore() {
+		cache.close();
+		CrailConstants.BUFFER_SIZE = bufferSize;
+		CrailConstants.REGION_SIZE = regionSize;
+		CrailConstants.CACHE_DIRECT_LIMIT = directLimit;
+	}
+	
+	@Test
+	public void testSlabCarving() throws IOException {
+		maxRegions = 1;
+		//a slab of crail.buffersize bytes is split into 16 buffers of 4KB
+		HashSet<Long> addresses = new HashSet<Long>();
+		for (int i = 0; i < BUFFER_SIZE / 4096; i++){
+			CrailBuffer buffer = cache.getBuffer(4096);
+			Assert.assertEquals(4096, buffer.capacity());
+			addresses.add(buffer.address());
+		}
+		Assert.assertEquals(1, regions.size());
+		long start = regions.get(0).address();
+		for (int i = 0; i < BUFFER_SIZE / 4096; i++){
+			Assert.assertTrue(addresses.contains(start + i*4096));
+		}
+		
+		//the next slab follows without a gap
+		CrailBuffer buffer = cache.getBuffer(BUFFER_SIZE);
+		Assert.assertEquals(start + BUFFER_SIZE, buffer.address());
+		Assert.assertEquals(1, regions.size());
+		Assert.assertEquals(0, statistic("directBytes"));
+	}
+	
+	@Test
+	public void testDirectLimit() throws IOException {
+		CrailConstants.CACHE_DIRECT_LIMIT = 4*BUFFER_SIZE;
+		ArrayList<CrailBuffer> buffers = new ArrayList<CrailBuffer>();
+		for (int i = 0; i < 4; i++){
+			buffers.add(cache.getBuffer());
+		}
+		Assert.assertEquals(4*BUFFER_SIZE, statistic("directBytes"));
+		try {
+			cache.getBuffer();
+			Assert.fail("direct limit exceeded");
+		} catch(IOException e){
+		}
+		Assert.assertEquals(1, statistic("exhausted"));
+		
+		cache.putBuffer(buffers.remove(0));
+		buffers.add(cache.getBuffer());
+		Assert.assertEquals(4*BUFFER_SIZE, statistic("directBytes"));
+	}
+	
+	@Test
+	public void testDepotAccounting() throws IOException {
+		CrailConstants.CACHE_DIRECT_LIMIT = 80*BUFFER_SIZE;
+		ArrayList<CrailBuffer> buffers = new ArrayList<CrailBuffer>();
+		for (int i = 0; i < 80; i++){
+			buffers.add(cache.getBuffer());
+		}
+		for (CrailBuffer buffer : buffers){
+			cache.putBuffer(buffer);
+		}
+		//16 magazines of 4 buffers in the depot plus the own magazine are kept, the rest is released
+		Assert.assertEquals(68*BUFFER_SIZE, statistic("directBytes"));
+		Assert.assertEquals(12, statistic("released"));
+		Assert.assertEquals(64, statistic("cacheSize"));
+		
+		//kept buffers are handed out again without new memory
+		buffers.clear();
+		for (int i = 0; i < 68; i++){
+			buffers.add(cache.getBuffer());
+		}
+		Assert.assertEquals(68*BUFFER_SIZE, statistic("directBytes"));
+		Assert.assertEquals(0, statistic("cacheSize"));
+	}
+	
+	@Test
+	public void testFinishedThread() throws Exception {
+		CrailConstants.CACHE_DIRECT_LIMIT = 3*BUFFER_SIZE;
+		final IOException[] error = new IOException[1];
+		Thread thread = new Thread(){
+			@Override
+			public void run() {
+				try {
+					ArrayList<CrailBuffer> buffers = new ArrayList<CrailBuffer>();
+					for (int i = 0; i < 3; i++){
+						buffers.add(cache.getBuffer());
+					}
+					for (CrailBuffer buffer : buffers){
+						cache.putBuffer(buffer);
+					}
+				} catch(IOException e){
+					error[0] = e;
+				}
+			}
+		};
+		thread.start();
+		thread.join();
+		Assert.assertNull(error[0]);
+		
+		//the buffers left in the magazine of the finished thread are swept back to the depot
+		for (int i = 0; i < 3; i++){
+			cache.getBuffer();
+		}
+		Assert.assertEquals(3*BUFFER_SIZE, statistic("directBytes"));
+		Assert.assertEquals(0, statistic("exhausted"));
+	}
+	
+	@Test
+	public void testClose() throws IOException {
+		CrailConstants.CACHE_DIRECT_LIMIT = 4*BUFFER_SIZE;
+		CrailBuffer buffer = cache.getBuffer();
+		cache.putBuffer(buffer);
+		Assert.assertEquals(1, statistic("mapHeap"));
+		
+		//closing drops the own magazine as well, the next buffer is new memory
+		cache.close();
+		Assert.assertEquals(0, statistic("directBytes"));
+		cache.getBuffer();
+		Assert.assertEquals(2, statistic("mapHeap"));
+		Assert.assertEquals(BUFFER_SIZE, statistic("directBytes"));
+	}
+	
+	private long statistic(String name){
+		for (String entry : cache.printStatistics().split(", ")){
+			String[] pair = entry.split(" ");
+			if (pair[0].equals(name)){
+				return Long.parseLong(pair[1]);
+			}
+		}
+		throw new IllegalArgumentException(name);
+	}
+}
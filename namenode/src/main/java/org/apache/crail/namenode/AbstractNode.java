@@ -19,7 +19,10 @@
 
 package org.apache.crail.namenode;
 
+import java.util.ArrayList;
+import java.util.Map;
 import java.util.Queue;
+import java.util.TreeMap;
 import java.util.concurrent.Delayed;
 import java.util.concurrent.TimeUnit;
 
@@ -32,6 +35,11 @@ public abstract class AbstractNode extends FileInfo implements Delayed {
 	private int storageClass;
 	private int locationClass;
 	
+	//copy-on-write for checkpoints, the first change to a node after a checkpoint started keeps the state the checkpoint has to write
+	private static volatile long checkpointEpoch = 0;
+	private volatile long imageEpoch;
+	private CheckpointImage image;
+	
 	//children manipulation
 	//adds or replaces a child, returns previous value or null if there was no mapping
 	public abstract AbstractNode putChild(AbstractNode child) throws Exception;
@@ -50,10 +58,15 @@ public abstract class AbstractNode extends FileInfo implements Delayed {
 	public abstract NameNodeBlockInfo getBlock(int index) throws Exception;
 	//clear all the blocks (used by GC)
 	public abstract void freeBlocks(BlockStore blockStore) throws Exception;	
+	//collect all blocks together with their index (used by checkpointing)
+	public abstract void collectBlocks(Map<Integer, NameNodeBlockInfo> blocks) throws Exception;
+	//replaces the block at the given index if it is still the expected one, returns true if successful (used by datanode drain)
+	public abstract boolean replaceBlock(int index, NameNodeBlockInfo expected, NameNodeBlockInfo block) throws Exception;
 	
 	public AbstractNode(long fd, int fileComponent, CrailNodeType type, int storageClass, int locationAffinity, boolean enumerable){
 		super(fd, type, enumerable);
 		
+		this.imageEpoch = checkpointEpoch;
 		this.fileComponent = fileComponent;
 		this.storageClass = storageClass;
 		this.locationClass = locationAffinity;
@@ -62,8 +75,17 @@ public abstract class AbstractNode extends FileInfo implements Delayed {
 	}
 	
 	void rename(int newFileComponent) throws Exception {
+		beforeUpdate();
 		this.fileComponent = newFileComponent;
 	}	
+	
+	void restore(long capacity, long dirOffset, long token, long modificationTime){
+		beforeUpdate();
+		this.capacity.set(capacity);
+		this.setDirOffset(dirOffset);
+		this.setToken(token);
+		this.setModificationTime(modificationTime);
+	}
 
 	public int getComponent() {
 		return this.fileComponent;
@@ -75,9 +97,94 @@ public abstract class AbstractNode extends FileInfo implements Delayed {
 	
 	@Override
 	protected void setDirOffset(long dirOffset) {
+		beforeUpdate();
 		super.setDirOffset(dirOffset);
 	}	
 	
+	@Override
+	public long setCapacity(long newcapacity) {
+		beforeUpdate();
+		return super.setCapacity(newcapacity);
+	}
+	
+	@Override
+	public long incCapacity(int delta) {
+		beforeUpdate();
+		return super.incCapacity(delta);
+	}
+	
+	@Override
+	public void resetCapacity() {
+		beforeUpdate();
+		super.resetCapacity();
+	}
+	
+	@Override
+	public void resetToken() {
+		beforeUpdate();
+		super.resetToken();
+	}
+	
+	@Override
+	public void updateToken() {
+		beforeUpdate();
+		super.updateToken();
+	}
+	
+	@Override
+	public void setToken(long value) {
+		beforeUpdate();
+		super.setToken(value);
+	}
+	
+	@Override
+	public void setModificationTime(long modificationTime) {
+		beforeUpdate();
+		super.setModificationTime(modificationTime);
+	}
+	
+	//starts a new checkpoint, caller guarantees that no mutating rpcs are in flight
+	static synchronized long nextCheckpointEpoch() {
+		checkpointEpoch = checkpointEpoch + 1;
+		return checkpointEpoch;
+	}
+	
+	//returns the state of this node at the start of the given checkpoint, every node is visited once per checkpoint
+	synchronized CheckpointImage checkpointImage(long epoch) {
+		CheckpointImage checkpointed = image;
+		if (imageEpoch != epoch || checkpointed == null){
+			checkpointed = captureImage();
+		}
+		image = null;
+		imageEpoch = epoch;
+		return checkpointed;
+	}
+	
+	//must be called before any change to state which is written by checkpoints
+	protected void beforeUpdate() {
+		if (imageEpoch != checkpointEpoch){
+			preserveImage();
+		}
+	}
+	
+	private synchronized void preserveImage() {
+		long epoch = checkpointEpoch;
+		if (imageEpoch != epoch){
+			image = captureImage();
+			imageEpoch = epoch;
+		}
+	}
+	
+	protected CheckpointImage captureImage() {
+		CheckpointImage checkpointed = new CheckpointImage(fileComponent, getCapacity(), getDirOffset(), getToken(), getModificationTime());
+		try {
+			collectBlocks(checkpointed.blocks);
+		} catch(Exception e){
+			throw new RuntimeException(e);
+		}
+		return checkpointed;
+	}
+	
 	@Override
 	public String toString() {
 		return String.format("%08d\t%08d\t\t%08d\t\t%08d\t\t%08d", getFd(), fileComponent, getCapacity(), getType().getLabel(), getDirOffset());
@@ -106,4 +213,26 @@ public abstract class AbstractNode extends FileInfo implements Delayed {
 	public int getLocationClass() {
 		return locationClass;
 	}
+
+	static class CheckpointImage {
+		int component;
+		long capacity;
+		long dirOffset;
+		long token;
+		long modificationTime;
+		TreeMap<Integer, NameNodeBlockInfo> blocks;
+		long dirOffsetCounter;
+		ArrayList<AbstractNode> children;
+		
+		CheckpointImage(int component, long capacity, long dirOffset, long token, long modificationTime) {
+			this.component = component;
+			this.capacity = capacity;
+			this.dirOffset = dirOffset;
+			this.token = token;
+			this.modificationTime = modificationTime;
+			this.blocks = new TreeMap<Integer, NameNodeBlockInfo>();
+			this.dirOffsetCounter = 0;
+			this.children = null;
+		}
+	}
 }
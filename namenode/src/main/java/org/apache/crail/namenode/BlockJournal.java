@@ -0,0 +1,28 @@
+/*
+ * Copyright (C) 2015-2018, IBM Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.crail.namenode;
+
+//writes block swaps to the namenode log, implemented by the log dispatcher
+public interface BlockJournal {
+	//appends a record saying block index of file fd now is the given block, returns its sequence number
+	long writeReplaceBlock(long fd, int index, NameNodeBlockInfo block) throws Exception;
+	//returns once all records up to the given sequence number are durable
+	void sync(long sequence) throws Exception;
+}
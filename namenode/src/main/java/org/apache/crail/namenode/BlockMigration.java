@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2015-2018, IBM Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.crail.namenode;
+
+/*
+ * A block of a live file that is being moved off a draining datanode. The namenode holds
+ * the write token of the file while the storage server copies the data, a writer opening
+ * the file in the meantime is turned away and the block cannot change underneath the copy.
+ */
+class BlockMigration {
+	private AbstractNode file;
+	private int index;
+	private NameNodeBlockInfo source;
+	private NameNodeBlockInfo target;
+	private long token;
+
+	//a block still to be moved, target and token are assigned when it is handed out
+	BlockMigration(AbstractNode file, int index, NameNodeBlockInfo source) {
+		this.file = file;
+		this.index = index;
+		this.source = source;
+		this.target = null;
+		this.token = 0;
+	}
+	
+	void assign(NameNodeBlockInfo target, long token) {
+		this.target = target;
+		this.token = token;
+	}
+	
+	AbstractNode getFile() {
+		return file;
+	}
+
+	long getFd() {
+		return file.getFd();
+	}
+
+	int getIndex() {
+		return index;
+	}
+
+	boolean matches(long fd, int index) {
+		return file.getFd() == fd && this.index == index;
+	}
+
+	//swaps the target into the file, fails if the token expired or the file was deleted in the meantime
+	boolean commit() throws Exception {
+		return file.getToken() == token && file.replaceBlock(index, source, target);
+	}
+
+	void release() {
+		if (file.getToken() == token){
+			file.resetToken();
+		}
+	}
+
+	NameNodeBlockInfo getSource() {
+		return source;
+	}
+
+	NameNodeBlockInfo getTarget() {
+		return target;
+	}
+}
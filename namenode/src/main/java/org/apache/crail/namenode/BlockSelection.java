@@ -0,0 +1,30 @@
+/*
+ * Copyright (C) 2015-2018, IBM Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.crail.namenode;
+
+/*
+ * Block placement policy of a storage class. Picks the datanode where a block allocation 
+ * starts, the remaining datanodes of the set are tried in order if that one has no free 
+ * blocks left. Set crail.namenode.blockselection to one of roundrobin, random, leastloaded, 
+ * capacity, twochoices or to the name of a class implementing this interface.
+ */
+public interface BlockSelection {
+	int getNext(DataNodeBlocks[] dataNodes);
+}
@@ -19,11 +19,13 @@
 
 package org.apache.crail.namenode;
 
+import java.io.IOException;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ThreadLocalRandom;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.crail.conf.CrailConstants;
 import org.apache.crail.metadata.BlockInfo;
@@ -38,10 +40,11 @@ public class BlockStore {
 	
 	private StorageClass[] storageClasses;
 	
-	public BlockStore(){
+	public BlockStore() throws IOException {
+		int[] extentSizes = parseExtentSizes(CrailConstants.NAMENODE_SMALLOBJECTS);
 		storageClasses = new StorageClass[CrailConstants.STORAGE_CLASSES]; 
 		for (int i = 0; i < CrailConstants.STORAGE_CLASSES; i++){
-			this.storageClasses[i] = new StorageClass(i);
+			this.storageClasses[i] = new StorageClass(i, extentSizes[i]);
 		}		
 	}
 
@@ -50,6 +53,31 @@ public class BlockStore {
 		return storageClasses[storageClass].addBlock(blockInfo);
 	}
 
+	public short addRegion(BlockInfo region, BitSet usedBlocks) throws UnknownHostException {
+		int storageClass = region.getDnInfo().getStorageClass();
+		return storageClasses[storageClass].addRegion(region, usedBlocks);
+	}
+	
+	//regions of the same storage class are handed over together
+	public short addRegions(BlockInfo[] regions, int offset, int count) throws UnknownHostException {
+		int end = offset + count;
+		while (offset < end){
+			int storageClass = regions[offset].getDnInfo().getStorageClass();
+			int next = offset + 1;
+			while (next < end && regions[next].getDnInfo().getStorageClass() == storageClass){
+				next++;
+			}
+			storageClasses[storageClass].addRegions(regions, offset, next - offset);
+			offset = next;
+		}
+		return RpcErrors.ERR_OK;
+	}
+	
+	public short addSlab(NameNodeBlockInfo slab, int extentSize, BitSet usedExtents) throws UnknownHostException {
+		int storageClass = slab.getDnInfo().getStorageClass();
+		return storageClasses[storageClass].addSlab(slab, extentSize, usedExtents);
+	}
+
 	public boolean regionExists(BlockInfo region) {
 		int storageClass = region.getDnInfo().getStorageClass();
 		return storageClasses[storageClass].regionExists(region);
@@ -81,10 +109,105 @@ public class BlockStore {
 		return block;
 	}
 
+	//first block of a data file, an extent if the storage class packs small objects
+	public NameNodeBlockInfo getFileBlock(int storageClass, int locationAffinity) throws InterruptedException {
+		NameNodeBlockInfo block = null;
+		if (storageClass >= 0 && storageClass < storageClasses.length){
+			block = storageClasses[storageClass].getExtent(locationAffinity);
+		}
+		if (block == null){
+			block = getBlock(storageClass, locationAffinity);
+		}
+		return block;
+	}
+
+	//hands out up to count blocks, in runs of contiguous blocks on one datanode where possible
+	public int getBlocks(int storageClass, int locationAffinity, NameNodeBlockInfo[] blocks, int count) throws InterruptedException {
+		int taken = 0;
+		if (storageClass > 0 && storageClass < storageClasses.length){
+			taken = storageClasses[storageClass].getBlocks(locationAffinity, blocks, taken, count);
+		}
+		for (int i = 0; i < storageClasses.length && taken < count; i++){
+			taken += storageClasses[i].getBlocks(locationAffinity, blocks, taken, count - taken);
+		}
+		return taken;
+	}
+
 	public DataNodeBlocks getDataNode(DataNodeInfo dnInfo) {
 		int storageClass = dnInfo.getStorageClass();
 		return storageClasses[storageClass].getDataNode(dnInfo);
 	}
+
+	//lookup by address only, for requests which do not know the storage class of the datanode
+	public DataNodeBlocks findDataNode(DataNodeInfo dnInfo) {
+		for (int i = 0; i < storageClasses.length; i++){
+			DataNodeBlocks dataNode = storageClasses[i].getDataNode(dnInfo);
+			if (dataNode != null){
+				return dataNode;
+			}
+		}
+		return null;
+	}
+
+	//a block of the same storage class and size as the given one, used to move data off a draining datanode
+	public NameNodeBlockInfo getTargetBlock(NameNodeBlockInfo source, int locationAffinity) throws InterruptedException, UnknownHostException {
+		int storageClass = source.getDnInfo().getStorageClass();
+		if (source.getLength() < CrailConstants.BLOCK_SIZE){
+			NameNodeBlockInfo extent = storageClasses[storageClass].getExtent(locationAffinity);
+			if (extent != null && extent.getLength() != source.getLength()){
+				addBlock(extent);
+				extent = null;
+			}
+			return extent;
+		}
+		return storageClasses[storageClass].getBlock(locationAffinity);
+	}
+	
+	//the free block with the given address, null if the datanode or region is unknown or the block is in use
+	public NameNodeBlockInfo claimBlock(long dnKey, long regionLba, long offset, int length) {
+		for (int i = 0; i < storageClasses.length; i++){
+			DataNodeBlocks dataNode = storageClasses[i].getDataNode(dnKey);
+			if (dataNode != null){
+				return dataNode.claimFreeBlock(regionLba, offset, length);
+			}
+		}
+		return null;
+	}
+	
+	public ArrayList<BlockInfo> getRegions() {
+		ArrayList<BlockInfo> regions = new ArrayList<BlockInfo>();
+		for (int i = 0; i < storageClasses.length; i++){
+			storageClasses[i].collectRegions(regions);
+		}
+		return regions;
+	}
+	
+	//storageClass:extentSize pairs separated by commas, classes not listed use full blocks
+	private static int[] parseExtentSizes(String smallObjects) throws IOException {
+		int[] extentSizes = new int[CrailConstants.STORAGE_CLASSES];
+		if (smallObjects == null || smallObjects.trim().isEmpty()){
+			return extentSizes;
+		}
+		for (String entry : smallObjects.split(",")){
+			String[] pair = entry.trim().split(":");
+			int storageClass = 0;
+			long extentSize = 0;
+			try {
+				storageClass = Integer.parseInt(pair[0].trim());
+				extentSize = pair.length == 2 ? Long.parseLong(pair[1].trim()) : 0;
+			} catch(NumberFormatException e){
+				throw new IOException("Invalid " + CrailConstants.NAMENODE_SMALLOBJECTS_KEY + " entry " + entry);
+			}
+			if (storageClass < 0 || storageClass >= extentSizes.length){
+				throw new IOException("Invalid storage class " + storageClass + " in " + CrailConstants.NAMENODE_SMALLOBJECTS_KEY);
+			}
+			if (extentSize <= 0 || extentSize >= CrailConstants.BLOCK_SIZE || CrailConstants.BLOCK_SIZE % extentSize != 0){
+				throw new IOException("Extent size of storage class " + storageClass + " must divide the block size " + CrailConstants.BLOCK_SIZE);
+			}
+			extentSizes[storageClass] = (int) extentSize;
+		}
+		return extentSizes;
+	}
 	
 }
 
@@ -96,17 +219,18 @@ class StorageClass {
 	private ConcurrentHashMap<Integer, DataNodeArray> affinitySets;
 	private DataNodeArray anySet;
 	private BlockSelection blockSelection;
+	private int extentSize;
 	
-	public StorageClass(int storageClass){
+	public StorageClass(int storageClass, int extentSize) throws IOException {
 		this.storageClass = storageClass;
+		this.extentSize = extentSize;
 		this.membership = new ConcurrentHashMap<Long, DataNodeBlocks>();
 		this.affinitySets = new ConcurrentHashMap<Integer, DataNodeArray>();
-		if (CrailConstants.NAMENODE_BLOCKSELECTION.equalsIgnoreCase("roundrobin")){
-			this.blockSelection = new RoundRobinBlockSelection();
-		} else {
-			this.blockSelection = new RandomBlockSelection();
-		}
+		this.blockSelection = createBlockSelection(CrailConstants.NAMENODE_BLOCKSELECTION);
 		this.anySet = new DataNodeArray(blockSelection);
+		if (extentSize > 0){
+			LOG.info("storage class " + storageClass + " packs data files into extents of size " + extentSize);
+		}
 	}
 	
 	public short updateRegion(BlockInfo region) {
@@ -142,23 +266,104 @@ class StorageClass {
 		return RpcErrors.ERR_OK;
 	}
 
+	short addRegion(BlockInfo region, BitSet usedBlocks) throws UnknownHostException {
+		long dnAddress = region.getDnInfo().key();
+		DataNodeBlocks current = membership.get(dnAddress);
+		if (current == null) {
+			current = DataNodeBlocks.fromDataNodeInfo(region.getDnInfo());
+			addDataNode(current);
+		}
+
+		current.touch();
+		current.addFreeRegion(region, usedBlocks);
+		return RpcErrors.ERR_OK;
+	}
+
+	short addRegions(BlockInfo[] regions, int offset, int count) throws UnknownHostException {
+		int end = offset + count;
+		while (offset < end){
+			long dnAddress = regions[offset].getDnInfo().key();
+			int next = offset + 1;
+			while (next < end && regions[next].getDnInfo().key() == dnAddress){
+				next++;
+			}
+			DataNodeBlocks current = membership.get(dnAddress);
+			if (current == null) {
+				current = DataNodeBlocks.fromDataNodeInfo(regions[offset].getDnInfo());
+				addDataNode(current);
+			}
+			current.touch();
+			current.addFreeRegions(regions, offset, next - offset);
+			offset = next;
+		}
+		return RpcErrors.ERR_OK;
+	}
+
+	short addSlab(NameNodeBlockInfo slab, int extentSize, BitSet usedExtents) {
+		DataNodeBlocks current = membership.get(slab.getDnInfo().key());
+		if (current == null) {
+			return RpcErrors.ERR_ADD_BLOCK_FAILED;
+		}
+		current.addSlab(slab, extentSize, usedExtents);
+		return RpcErrors.ERR_OK;
+	}
+
 	NameNodeBlockInfo getBlock(int affinity) throws InterruptedException {
 		NameNodeBlockInfo block = null;
 		if (affinity == 0) {
-			block = anySet.get();
+			block = anySet.get(0);
 		} else {
-			block = _getAffinityBlock(affinity);
+			block = _getAffinityBlock(affinity, 0);
 			if (block == null) {
-				block = anySet.get();
+				block = anySet.get(0);
 			} else {
 			}
 		}
 		return block;
 	}
+	
+	//null if this class does not pack small objects or has no space left
+	NameNodeBlockInfo getExtent(int affinity) throws InterruptedException {
+		if (extentSize == 0){
+			return null;
+		}
+		NameNodeBlockInfo block = null;
+		if (affinity != 0) {
+			block = _getAffinityBlock(affinity, extentSize);
+		}
+		if (block == null) {
+			block = anySet.get(extentSize);
+		}
+		return block;
+	}
+
+	int getBlocks(int affinity, NameNodeBlockInfo[] blocks, int offset, int count) throws InterruptedException {
+		int taken = 0;
+		if (affinity != 0) {
+			DataNodeArray affinitySet = affinitySets.get(affinity);
+			if (affinitySet != null){
+				taken = affinitySet.get(blocks, offset, count);
+			}
+		}
+		if (taken < count) {
+			taken += anySet.get(blocks, offset + taken, count - taken);
+		}
+		return taken;
+	}
 
 	DataNodeBlocks getDataNode(DataNodeInfo dataNode) {
 		return membership.get(dataNode.key());
 	}
+	
+	DataNodeBlocks getDataNode(long dnKey) {
+		return membership.get(dnKey);
+	}
+	
+	void collectRegions(ArrayList<BlockInfo> regions) {
+		for (DataNodeBlocks dataNode : membership.values()){
+			regions.addAll(dataNode.getRegions());
+		}
+	}
 
 	short addDataNode(DataNodeBlocks dataNode) {
 		DataNodeBlocks current = membership.putIfAbsent(dataNode.key(), dataNode);
@@ -189,17 +394,44 @@ class StorageClass {
 		anySet.add(dataNode);
 	}
 	
-	private NameNodeBlockInfo _getAffinityBlock(int affinity) throws InterruptedException {
+	private NameNodeBlockInfo _getAffinityBlock(int affinity, int extentSize) throws InterruptedException {
 		NameNodeBlockInfo block = null;
 		DataNodeArray affinitySet = affinitySets.get(affinity);
 		if (affinitySet != null){
-			block = affinitySet.get();
+			block = affinitySet.get(extentSize);
 		}
 		return block;
 	}
 	
-	public static interface BlockSelection {
-		int getNext(int size);
+	@SuppressWarnings("unchecked")
+	private BlockSelection createBlockSelection(String name) throws IOException {
+		if (name.equalsIgnoreCase("roundrobin")){
+			return new RoundRobinBlockSelection();
+		} else if (name.equalsIgnoreCase("random")){
+			return new RandomBlockSelection();
+		} else if (name.equalsIgnoreCase("leastloaded")){
+			return new LeastLoadedBlockSelection();
+		} else if (name.equalsIgnoreCase("capacity")){
+			return new CapacityBlockSelection();
+		} else if (name.equalsIgnoreCase("twochoices")){
+			return new TwoChoicesBlockSelection();
+		}
+		
+		try {
+			Class<?> selectionClass = Class.forName(name);
+			if (BlockSelection.class.isAssignableFrom(selectionClass)){
+				LOG.info("block selection " + name);
+				return ((Class<? extends BlockSelection>) selectionClass).newInstance();
+			}
+		} catch(Exception e){
+			throw new IOException("Cannot instantiate block selection of type " + name, e);
+		}
+		throw new IOException("Cannot instantiate block selection of type " + name);
+	}
+	
+	//datanodes which are offline or full are skipped by the load and capacity aware policies
+	private static boolean isCandidate(DataNodeBlocks dataNode){
+		return dataNode.isAvailable() && dataNode.getBlockCount() > 0;
 	}
 	
 	private class RoundRobinBlockSelection implements BlockSelection {
@@ -211,8 +443,8 @@ class StorageClass {
 		}
 		
 		@Override
-		public int getNext(int size) {
-			return counter.getAndIncrement() % size;
+		public int getNext(DataNodeBlocks[] dataNodes) {
+			return counter.getAndIncrement() % dataNodes.length;
 		}
 	}
 	
@@ -222,53 +454,153 @@ class StorageClass {
 		}		
 		
 		@Override
-		public int getNext(int size) {
-			return ThreadLocalRandom.current().nextInt(size);
+		public int getNext(DataNodeBlocks[] dataNodes) {
+			return ThreadLocalRandom.current().nextInt(dataNodes.length);
 		}
 	}	
 	
+	//datanode with the fewest in-flight operations, ties are broken round robin
+	private class LeastLoadedBlockSelection implements BlockSelection {
+		private AtomicIntegerModulo counter;
+		
+		public LeastLoadedBlockSelection(){
+			LOG.info("least loaded block selection");
+			counter = new AtomicIntegerModulo();
+		}
+		
+		@Override
+		public int getNext(DataNodeBlocks[] dataNodes) {
+			int size = dataNodes.length;
+			int start = counter.getAndIncrement() % size;
+			int next = start;
+			int minLoad = Integer.MAX_VALUE;
+			for (int i = 0; i < size; i++){
+				int index = (start + i) % size;
+				if (!isCandidate(dataNodes[index])){
+					continue;
+				}
+				int load = dataNodes[index].getLoad();
+				if (load < minLoad){
+					minLoad = load;
+					next = index;
+				}
+			}
+			return next;
+		}
+	}
+	
+	//random datanode with a probability proportional to its free blocks
+	private class CapacityBlockSelection implements BlockSelection {
+		public CapacityBlockSelection(){
+			LOG.info("capacity weighted block selection");
+		}
+		
+		@Override
+		public int getNext(DataNodeBlocks[] dataNodes) {
+			long total = 0;
+			for (int i = 0; i < dataNodes.length; i++){
+				if (isCandidate(dataNodes[i])){
+					total += dataNodes[i].getBlockCount();
+				}
+			}
+			if (total == 0){
+				return ThreadLocalRandom.current().nextInt(dataNodes.length);
+			}
+			long pick = ThreadLocalRandom.current().nextLong(total);
+			for (int i = 0; i < dataNodes.length; i++){
+				if (isCandidate(dataNodes[i])){
+					pick -= dataNodes[i].getBlockCount();
+					if (pick < 0){
+						return i;
+					}
+				}
+			}
+			return 0;
+		}
+	}
+	
+	//power of two choices, the less loaded of two random datanodes, ties go to the one with more free blocks
+	private class TwoChoicesBlockSelection implements BlockSelection {
+		public TwoChoicesBlockSelection(){
+			LOG.info("two choices block selection");
+		}
+		
+		@Override
+		public int getNext(DataNodeBlocks[] dataNodes) {
+			int size = dataNodes.length;
+			int first = ThreadLocalRandom.current().nextInt(size);
+			if (size == 1){
+				return first;
+			}
+			int second = (first + 1 + ThreadLocalRandom.current().nextInt(size - 1)) % size;
+			DataNodeBlocks a = dataNodes[first];
+			DataNodeBlocks b = dataNodes[second];
+			if (!isCandidate(a)){
+				return second;
+			} else if (!isCandidate(b)){
+				return first;
+			}
+			int loadA = a.getLoad();
+			int loadB = b.getLoad();
+			if (loadA != loadB){
+				return loadA < loadB ? first : second;
+			}
+			return a.getBlockCount() >= b.getBlockCount() ? first : second;
+		}
+	}
+	
+	//datanodes are added rarely, block allocation works on a snapshot of the array without locking
 	private class DataNodeArray {
-		private ArrayList<DataNodeBlocks> arrayList;
-		private ReentrantReadWriteLock lock;
+		private volatile DataNodeBlocks[] dataNodes;
 		private BlockSelection blockSelection;
 		
 		public DataNodeArray(BlockSelection blockSelection){
-			this.arrayList = new ArrayList<DataNodeBlocks>();
-			this.lock = new ReentrantReadWriteLock();
+			this.dataNodes = new DataNodeBlocks[0];
 			this.blockSelection = blockSelection;
 		}
 		
-		public void add(DataNodeBlocks dataNode){
-			lock.writeLock().lock();
-			try {
-				arrayList.add(dataNode);
-			} finally {
-				lock.writeLock().unlock();
+		public synchronized void add(DataNodeBlocks dataNode){
+			DataNodeBlocks[] array = Arrays.copyOf(dataNodes, dataNodes.length + 1);
+			array[array.length - 1] = dataNode;
+			dataNodes = array;
+		}
+		
+		//a full block if extentSize is 0, otherwise an extent of that size
+		private NameNodeBlockInfo get(int extentSize) throws InterruptedException {
+			DataNodeBlocks[] array = dataNodes;
+			NameNodeBlockInfo block = null;
+			int size = array.length;
+			if (size > 0){
+				int startIndex = blockSelection.getNext(array);
+				for (int i = 0; i < size; i++){
+					int index = (startIndex + i) % size;
+					DataNodeBlocks anyDn = array[index];
+					if (anyDn.isAvailable()){
+						block = extentSize > 0 ? anyDn.getFreeExtent(extentSize) : anyDn.getFreeBlock();
+					}
+					if (block != null){
+						break;
+					} 
+				}
 			}
+			return block;
 		}
 		
-		private NameNodeBlockInfo get() throws InterruptedException {
-			lock.readLock().lock();
-			try {
-				NameNodeBlockInfo block = null;
-				int size = arrayList.size();
-				if (size > 0){
-					int startIndex = blockSelection.getNext(size);
-					for (int i = 0; i < size; i++){
-						int index = (startIndex + i) % size;
-						DataNodeBlocks anyDn = arrayList.get(index);
-						if (anyDn.isOnline()){
-							block = anyDn.getFreeBlock();
-						}
-						if (block != null){
-							break;
-						} 
+		private int get(NameNodeBlockInfo[] blocks, int offset, int count) throws InterruptedException {
+			DataNodeBlocks[] array = dataNodes;
+			int taken = 0;
+			int size = array.length;
+			if (size > 0){
+				int startIndex = blockSelection.getNext(array);
+				for (int i = 0; i < size && taken < count; i++){
+					int index = (startIndex + i) % size;
+					DataNodeBlocks anyDn = array[index];
+					if (anyDn.isAvailable()){
+						taken += anyDn.getFreeBlocks(blocks, offset + taken, count - taken);
 					}
 				}
-				return block;
-			} finally {
-				lock.readLock().unlock();
 			}
+			return taken;
 		}
 	}
 }
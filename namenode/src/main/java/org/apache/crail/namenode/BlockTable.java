@@ -0,0 +1,310 @@
+/*
+ * Copyright (C) 2015-2018, IBM Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.crail.namenode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.crail.conf.CrailConstants;
+import org.apache.crail.metadata.BlockInfo;
+
+/*
+ * Free blocks of a single datanode. Regions are kept as objects, the free blocks of a
+ * region are a bitmap with one bit per block. Allocation and release are lock-free:
+ * a single CAS on a bitmap word claims a run of up to 64 contiguous blocks. A
+ * NameNodeBlockInfo is created when a block is handed out and dropped again when it
+ * is returned.
+ */
+public class BlockTable {
+	private volatile Region[] regions;
+	private ConcurrentLongMap<Region> regionIndex;
+	private AtomicInteger freeBlocks;
+
+	public BlockTable(){
+		this.regions = new Region[0];
+		this.regionIndex = new ConcurrentLongMap<Region>();
+		this.freeBlocks = new AtomicInteger(0);
+	}
+
+	//all blocks of the region not marked in usedBlocks become free, usedBlocks may be null
+	public void addRegion(BlockInfo region, BitSet usedBlocks) {
+		Region current = registerRegion(region);
+		freeBlocks.addAndGet(current.releaseAll(usedBlocks));
+	}
+
+	//same as addRegion for a batch of regions, the region array is only copied once
+	public void addRegions(BlockInfo[] list, int offset, int count) {
+		Region[] added = registerRegions(list, offset, count);
+		int released = 0;
+		for (int i = 0; i < added.length; i++){
+			released += added[i].releaseAll(null);
+		}
+		freeBlocks.addAndGet(released);
+	}
+
+	public void addBlock(NameNodeBlockInfo block) {
+		Region current = regionIndex.get(block.getRegion().getLba());
+		if (current == null){
+			current = registerRegion(block.getRegion());
+		}
+		if (current.release((int) (block.getOffset() / CrailConstants.BLOCK_SIZE))){
+			freeBlocks.incrementAndGet();
+		}
+	}
+
+	public NameNodeBlockInfo getBlock() {
+		Region[] snapshot = regions;
+		for (int i = 0; i < snapshot.length; i++){
+			Region current = snapshot[i];
+			long run = current.take(1);
+			if (run >= 0){
+				freeBlocks.decrementAndGet();
+				return current.getBlock(runStart(run));
+			}
+		}
+		return null;
+	}
+
+	//takes the block at the given offset of the region, null if the region is unknown or the block is not free
+	public NameNodeBlockInfo claimBlock(long regionLba, long offset) {
+		Region current = regionIndex.get(regionLba);
+		if (current == null){
+			return null;
+		}
+		int index = (int) (offset / CrailConstants.BLOCK_SIZE);
+		if (index < 0 || index >= current.blockCount || !current.claim(index)){
+			return null;
+		}
+		freeBlocks.decrementAndGet();
+		return current.getBlock(index);
+	}
+
+	//hands out up to count blocks, taken in runs of contiguous blocks where possible
+	public int getBlocks(NameNodeBlockInfo[] blocks, int offset, int count) {
+		Region[] snapshot = regions;
+		int taken = 0;
+		for (int i = 0; i < snapshot.length && taken < count; i++){
+			Region current = snapshot[i];
+			while (taken < count){
+				long run = current.take(count - taken);
+				if (run < 0){
+					break;
+				}
+				int start = runStart(run);
+				int length = runLength(run);
+				freeBlocks.addAndGet(-length);
+				for (int j = 0; j < length; j++){
+					blocks[offset + taken] = current.getBlock(start + j);
+					taken++;
+				}
+			}
+		}
+		return taken;
+	}
+
+	//kept as a counter, placement policies read it on every allocation
+	public int getBlockCount() {
+		return freeBlocks.get();
+	}
+
+	public BlockInfo getRegion(long lba) {
+		Region current = regionIndex.get(lba);
+		if (current == null){
+			return null;
+		}
+		return current.region;
+	}
+
+	public ArrayList<BlockInfo> getRegions() {
+		Region[] snapshot = regions;
+		ArrayList<BlockInfo> list = new ArrayList<BlockInfo>(snapshot.length);
+		for (int i = 0; i < snapshot.length; i++){
+			list.add(snapshot[i].region);
+		}
+		return list;
+	}
+
+	static int blockCount(BlockInfo region) {
+		return (int) (((long) region.getLength()) / CrailConstants.BLOCK_SIZE);
+	}
+
+	//---------------
+
+	private synchronized Region registerRegion(BlockInfo region) {
+		Region current = regionIndex.get(region.getLba());
+		if (current != null){
+			return current;
+		}
+		current = new Region(region);
+		Region[] array = Arrays.copyOf(regions, regions.length + 1);
+		array[array.length - 1] = current;
+		regionIndex.put(region.getLba(), current);
+		regions = array;
+		return current;
+	}
+
+	private synchronized Region[] registerRegions(BlockInfo[] list, int offset, int count) {
+		Region[] added = new Region[count];
+		Region[] array = Arrays.copyOf(regions, regions.length + count);
+		int size = regions.length;
+		for (int i = 0; i < count; i++){
+			BlockInfo region = list[offset + i];
+			Region current = regionIndex.get(region.getLba());
+			if (current == null){
+				current = new Region(region);
+				regionIndex.put(region.getLba(), current);
+				array[size++] = current;
+			}
+			added[i] = current;
+		}
+		regions = size == array.length ? array : Arrays.copyOf(array, size);
+		return added;
+	}
+
+	private static int runStart(long run) {
+		return (int) (run >>> 32);
+	}
+
+	private static int runLength(long run) {
+		return (int) run;
+	}
+
+	private static class Region {
+		final BlockInfo region;
+		final int blockCount;
+		//bit set means the block is free
+		final AtomicLongArray bitmap;
+		final AtomicInteger freeBlocks;
+		//first word that may have free bits, only a hint
+		volatile int cursor;
+
+		Region(BlockInfo region){
+			this.region = region;
+			this.blockCount = blockCount(region);
+			this.bitmap = new AtomicLongArray((blockCount + 63) / 64);
+			this.freeBlocks = new AtomicInteger(0);
+			this.cursor = 0;
+		}
+
+		NameNodeBlockInfo getBlock(int index){
+			return new NameNodeBlockInfo(region, ((long) index)*CrailConstants.BLOCK_SIZE, (int) CrailConstants.BLOCK_SIZE);
+		}
+
+		//claims up to maxCount contiguous free blocks from a single word, returns (start << 32 | length) or -1
+		long take(int maxCount){
+			int words = bitmap.length();
+			int start = cursor;
+			for (int i = 0; i < words && freeBlocks.get() > 0; i++){
+				int word = (start + i) % words;
+				while(true){
+					long value = bitmap.get(word);
+					if (value == 0){
+						break;
+					}
+					//bit b of runs is set if bits b..b+length-1 of value are all set
+					long runs = value;
+					int length = 1;
+					while (length < maxCount && length < 64){
+						long next = runs & (value >>> length);
+						if (next == 0){
+							break;
+						}
+						runs = next;
+						length++;
+					}
+					int bit = Long.numberOfTrailingZeros(runs);
+					long mask = length == 64 ? -1L : ((1L << length) - 1) << bit;
+					if (bitmap.compareAndSet(word, value, value & ~mask)){
+						freeBlocks.addAndGet(-length);
+						if ((value & ~mask) == 0){
+							cursor = (word + 1) % words;
+						}
+						return (((long) (word*64 + bit)) << 32) | length;
+					}
+				}
+			}
+			return -1;
+		}
+
+		//the words of a BitSet have the same layout as the bitmap, returns the number of blocks freed
+		int releaseAll(BitSet usedBlocks){
+			long[] used = usedBlocks != null ? usedBlocks.toLongArray() : new long[0];
+			int released = 0;
+			for (int word = 0; word < bitmap.length(); word++){
+				int first = word*64;
+				int last = Math.min(first + 64, blockCount);
+				long bits = last - first == 64 ? -1L : (1L << (last - first)) - 1;
+				if (word < used.length){
+					bits &= ~used[word];
+				}
+				while(true){
+					long value = bitmap.get(word);
+					if (bitmap.compareAndSet(word, value, value | bits)){
+						released += Long.bitCount(bits & ~value);
+						break;
+					}
+				}
+			}
+			freeBlocks.addAndGet(released);
+			cursor = 0;
+			return released;
+		}
+
+		boolean claim(int index){
+			int word = index / 64;
+			long bit = 1L << (index % 64);
+			while(true){
+				long value = bitmap.get(word);
+				if ((value & bit) == 0){
+					//already taken
+					return false;
+				}
+				if (bitmap.compareAndSet(word, value, value & ~bit)){
+					break;
+				}
+			}
+			freeBlocks.decrementAndGet();
+			return true;
+		}
+
+		boolean release(int index){
+			int word = index / 64;
+			long bit = 1L << (index % 64);
+			while(true){
+				long value = bitmap.get(word);
+				if ((value & bit) != 0){
+					//already free
+					return false;
+				}
+				if (bitmap.compareAndSet(word, value, value | bit)){
+					break;
+				}
+			}
+			freeBlocks.incrementAndGet();
+			if (word < cursor){
+				cursor = word;
+			}
+			return true;
+		}
+	}
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2015-2018, IBM Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.crail.namenode;
+
+import org.apache.crail.conf.CrailConstants;
+import org.apache.crail.utils.CrailUtils;
+import org.slf4j.Logger;
+
+public class CheckpointServer implements Runnable {
+	private static final Logger LOG = CrailUtils.getLogger();
+	private static final long POLL_INTERVAL = 1000;
+	
+	private LogDispatcher dispatcher;
+	private LogService logService;
+	
+	public CheckpointServer(LogDispatcher dispatcher, LogService logService){
+		this.dispatcher = dispatcher;
+		this.logService = logService;
+	}
+
+	@Override
+	public void run() {
+		while(true){
+			try{
+				Thread.sleep(POLL_INTERVAL);
+				if (logService.getLogSize() >= CrailConstants.NAMENODE_LOG_CHECKPOINT_SIZE){
+					dispatcher.checkpoint();
+				}
+			} catch(InterruptedException e){
+				break;
+			} catch(Exception e){
+				LOG.info("Exception during checkpoint: " + e.getMessage());
+			}
+		}
+	}
+
+}
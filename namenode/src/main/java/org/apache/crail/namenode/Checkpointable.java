@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2015-2018, IBM Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.crail.namenode;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Map;
+
+public interface Checkpointable {
+	//capture a consistent cut of the namenode state, caller guarantees that no mutating rpcs are in flight, must not walk the namespace
+	void captureCheckpoint() throws Exception;
+	//serialize the namenode state as of the last captured cut, runs concurrently with mutating rpcs
+	void writeCheckpoint(DataOutputStream stream) throws Exception;
+	//restore the state written by writeCheckpoint, fills in the write tokens of all restored files
+	void readCheckpoint(DataInputStream stream, Map<Long, Long> tokens) throws Exception;
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright (C) 2015-2018, IBM Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.crail.namenode;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/*
+ * Open-addressing hash map with primitive long keys, used for the namenode file table
+ * and for directory children and blocks (int keys are simply widened). Entries are a
+ * slot in a long[] and a slot in a reference array, no per-entry node or boxed key.
+ *
+ * Lookups are lock-free, updates are serialized per segment. Within one table a slot
+ * is only ever assigned to a single key, removed entries leave a marker behind which
+ * is dropped on the next rehash. A reader which sees a non-null value is therefore
+ * guaranteed to also see the key that goes with it.
+ *
+ * Segments are created on the first insert that maps to them, an empty map only
+ * costs the segment array.
+ */
+public class ConcurrentLongMap<V> {
+	private static final Object REMOVED = new Object();
+	private static final int MAX_SEGMENTS = 256;
+
+	private final AtomicReferenceArray<Segment> segments;
+	private final int segmentMask;
+	private final int initialCapacity;
+
+	public interface Visitor<V> {
+		void visit(long key, V value) throws Exception;
+	}
+
+	public ConcurrentLongMap(){
+		this(1, 4);
+	}
+
+	public ConcurrentLongMap(int concurrency, int initialCapacity){
+		int segmentCount = powerOfTwo(Math.min(Math.max(concurrency, 1), MAX_SEGMENTS));
+		this.segments = new AtomicReferenceArray<Segment>(segmentCount);
+		this.segmentMask = segmentCount - 1;
+		this.initialCapacity = powerOfTwo(Math.max(initialCapacity / segmentCount, 4));
+	}
+
+	@SuppressWarnings("unchecked")
+	public V get(long key){
+		int hash = hash(key);
+		Segment segment = segmentFor(hash);
+		if (segment == null){
+			return null;
+		}
+		return (V) segment.get(key, hash);
+	}
+
+	@SuppressWarnings("unchecked")
+	public V put(long key, V value){
+		int hash = hash(key);
+		return (V) createSegmentFor(hash).put(key, hash, value, false);
+	}
+
+	@SuppressWarnings("unchecked")
+	public V putIfAbsent(long key, V value){
+		int hash = hash(key);
+		return (V) createSegmentFor(hash).put(key, hash, value, true);
+	}
+
+	@SuppressWarnings("unchecked")
+	public V remove(long key){
+		int hash = hash(key);
+		Segment segment = segmentFor(hash);
+		if (segment == null){
+			return null;
+		}
+		return (V) segment.remove(key, hash);
+	}
+
+	public int size(){
+		int size = 0;
+		for (int i = 0; i < segments.length(); i++){
+			Segment segment = segments.get(i);
+			if (segment != null){
+				size += segment.size;
+			}
+		}
+		return size;
+	}
+
+	public void clear(){
+		for (int i = 0; i < segments.length(); i++){
+			Segment segment = segments.get(i);
+			if (segment != null){
+				segment.clear(initialCapacity);
+			}
+		}
+	}
+
+	//weakly consistent, same as iterating a ConcurrentHashMap
+	@SuppressWarnings("unchecked")
+	public void forEach(Visitor<V> visitor) throws Exception {
+		for (int s = 0; s < segments.length(); s++){
+			Segment segment = segments.get(s);
+			if (segment == null){
+				continue;
+			}
+			Table table = segment.table;
+			for (int i = 0; i < table.keys.length; i++){
+				Object value = table.values.get(i);
+				if (value != null && value != REMOVED){
+					visitor.visit(table.keys[i], (V) value);
+				}
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	public ArrayList<V> values(){
+		ArrayList<V> values = new ArrayList<V>(size());
+		for (int s = 0; s < segments.length(); s++){
+			Segment segment = segments.get(s);
+			if (segment == null){
+				continue;
+			}
+			Table table = segment.table;
+			for (int i = 0; i < table.keys.length; i++){
+				Object value = table.values.get(i);
+				if (value != null && value != REMOVED){
+					values.add((V) value);
+				}
+			}
+		}
+		return values;
+	}
+
+	private Segment segmentFor(int hash){
+		return segments.get((hash >>> 24) & segmentMask);
+	}
+
+	private Segment createSegmentFor(int hash){
+		int index = (hash >>> 24) & segmentMask;
+		Segment segment = segments.get(index);
+		if (segment == null){
+			segment = new Segment(initialCapacity);
+			if (!segments.compareAndSet(index, null, segment)){
+				segment = segments.get(index);
+			}
+		}
+		return segment;
+	}
+
+	private static int hash(long key){
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	private static int powerOfTwo(int value){
+		int result = 1;
+		while (result < value){
+			result <<= 1;
+		}
+		return result;
+	}
+
+	private static class Table {
+		final long[] keys;
+		final AtomicReferenceArray<Object> values;
+
+		Table(int capacity){
+			this.keys = new long[capacity];
+			this.values = new AtomicReferenceArray<Object>(capacity);
+		}
+	}
+
+	private static class Segment {
+		volatile Table table;
+		volatile int size;
+		//slots taken including removed ones, guarded by the segment lock
+		private int used;
+
+		Segment(int capacity){
+			this.table = new Table(capacity);
+			this.size = 0;
+			this.used = 0;
+		}
+
+		Object get(long key, int hash){
+			Table current = table;
+			int mask = current.keys.length - 1;
+			int index = hash & mask;
+			while(true){
+				Object value = current.values.get(index);
+				if (value == null){
+					return null;
+				}
+				if (current.keys[index] == key){
+					return value == REMOVED ? null : value;
+				}
+				index = (index + 1) & mask;
+			}
+		}
+
+		synchronized Object put(long key, int hash, Object value, boolean onlyIfAbsent){
+			if ((used + 1) * 4 > table.keys.length * 3){
+				rehash();
+			}
+			Table current = table;
+			int mask = current.keys.length - 1;
+			int index = hash & mask;
+			while(true){
+				Object old = current.values.get(index);
+				if (old == null){
+					break;
+				}
+				if (current.keys[index] == key){
+					if (old == REMOVED){
+						current.values.set(index, value);
+						size++;
+						return null;
+					}
+					if (!onlyIfAbsent){
+						current.values.set(index, value);
+					}
+					return old;
+				}
+				index = (index + 1) & mask;
+			}
+
+			//key must be visible before the value publishes the slot
+			current.keys[index] = key;
+			current.values.set(index, value);
+			used++;
+			size++;
+			return null;
+		}
+
+		synchronized Object remove(long key, int hash){
+			Table current = table;
+			int mask = current.keys.length - 1;
+			int index = hash & mask;
+			while(true){
+				Object old = current.values.get(index);
+				if (old == null){
+					return null;
+				}
+				if (current.keys[index] == key){
+					if (old == REMOVED){
+						return null;
+					}
+					current.values.set(index, REMOVED);
+					size--;
+					return old;
+				}
+				index = (index + 1) & mask;
+			}
+		}
+
+		synchronized void clear(int capacity){
+			this.table = new Table(capacity);
+			this.size = 0;
+			this.used = 0;
+		}
+
+		//grows the table if it is getting full of live entries, otherwise only drops removed markers
+		private void rehash(){
+			Table current = table;
+			int capacity = current.keys.length;
+			if (size * 8 >= capacity * 3){
+				capacity <<= 1;
+			}
+			Table next = new Table(capacity);
+			int mask = capacity - 1;
+			for (int i = 0; i < current.keys.length; i++){
+				Object value = current.values.get(i);
+				if (value == null || value == REMOVED){
+					continue;
+				}
+				long key = current.keys[i];
+				int index = hash(key) & mask;
+				while (next.values.get(index) != null){
+					index = (index + 1) & mask;
+				}
+				next.keys[index] = key;
+				next.values.lazySet(index, value);
+			}
+			this.table = next;
+			this.used = size;
+		}
+	}
+}
@@ -20,9 +20,12 @@
 package org.apache.crail.namenode;
 
 import java.net.UnknownHostException;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.crail.conf.CrailConstants;
 import org.apache.crail.metadata.BlockInfo;
@@ -34,9 +37,16 @@ import org.slf4j.Logger;
 public class DataNodeBlocks extends DataNodeInfo {
 	private static final Logger LOG = CrailUtils.getLogger();
 	
-	private ConcurrentHashMap<Long, BlockInfo> regions;
-	private LinkedBlockingQueue<NameNodeBlockInfo> freeBlocks;
+	private BlockTable blockTable;
+	private ExtentTable extentTable;
 	private long token;
+	private volatile int inFlight;
+	private AtomicInteger recentBlocks;
+	private volatile boolean draining;
+	private ArrayList<BlockMigration> migrations;
+	//blocks still to be moved off the draining datanode, collected from the namespace once per drain
+	private ArrayDeque<BlockMigration> drainQueue;
+	private int drainScans;
 	
 	public static DataNodeBlocks fromDataNodeInfo(DataNodeInfo dnInfo) throws UnknownHostException{
 		DataNodeBlocks dnInfoNn = new DataNodeBlocks(dnInfo.getStorageType(), dnInfo.getStorageClass(), dnInfo.getLocationClass(), dnInfo.getIpAddress(), dnInfo.getPort());
@@ -45,33 +55,83 @@ public class DataNodeBlocks extends DataNodeInfo {
 
 	private DataNodeBlocks(int storageType, int getStorageClass, int locationClass, byte[] ipAddress, int port) throws UnknownHostException {
 		super(storageType, getStorageClass, locationClass, ipAddress, port);
-		this.regions = new ConcurrentHashMap<Long, BlockInfo>();
-		this.freeBlocks = new LinkedBlockingQueue<NameNodeBlockInfo>();
+		this.blockTable = new BlockTable();
+		this.extentTable = new ExtentTable(blockTable);
+		this.inFlight = 0;
+		this.recentBlocks = new AtomicInteger(0);
+		this.draining = false;
+		this.migrations = new ArrayList<BlockMigration>();
+		this.drainQueue = new ArrayDeque<BlockMigration>();
+		this.drainScans = 0;
+	}
+	
+	public void addFreeRegion(BlockInfo region, BitSet usedBlocks) {
+		blockTable.addRegion(region, usedBlocks);
+	}
+	
+	public void addFreeRegions(BlockInfo[] regions, int offset, int count) {
+		blockTable.addRegions(regions, offset, count);
 	}
 	
 	public void addFreeBlock(NameNodeBlockInfo nnBlock) {
-		regions.put(nnBlock.getRegion().getLba(), nnBlock.getRegion());
-		freeBlocks.add(nnBlock);
+		if (nnBlock.getLength() < CrailConstants.BLOCK_SIZE){
+			extentTable.addExtent(nnBlock);
+		} else {
+			blockTable.addBlock(nnBlock);
+		}
+	}
+	
+	public void addSlab(NameNodeBlockInfo slab, int extentSize, BitSet usedExtents) {
+		extentTable.addSlab(slab, extentSize, usedExtents);
 	}
 
 	public NameNodeBlockInfo getFreeBlock() throws InterruptedException {
-		NameNodeBlockInfo block = this.freeBlocks.poll();
+		NameNodeBlockInfo block = this.blockTable.getBlock();
+		if (block != null){
+			recentBlocks.incrementAndGet();
+		}
 		return block;
 	}
 	
+	public NameNodeBlockInfo getFreeExtent(int extentSize) {
+		NameNodeBlockInfo extent = extentTable.getExtent(extentSize);
+		if (extent != null){
+			recentBlocks.incrementAndGet();
+		}
+		return extent;
+	}
+	
+	//takes a specific free block or extent, used to replay block swaps from the log
+	public NameNodeBlockInfo claimFreeBlock(long regionLba, long offset, int length) {
+		if (length < CrailConstants.BLOCK_SIZE){
+			return extentTable.claimExtent(regionLba, offset, length);
+		}
+		return blockTable.claimBlock(regionLba, offset);
+	}
+	
+	public int getFreeBlocks(NameNodeBlockInfo[] blocks, int offset, int count) {
+		int taken = blockTable.getBlocks(blocks, offset, count);
+		recentBlocks.addAndGet(taken);
+		return taken;
+	}
+	
 	public int getBlockCount() {
-		return freeBlocks.size();
+		return blockTable.getBlockCount();
+	}
+
+	public Collection<BlockInfo> getRegions() {
+		return blockTable.getRegions();
 	}
 
 	public boolean regionExists(BlockInfo region) {
-		if (regions.containsKey(region.getLba())){
+		if (blockTable.getRegion(region.getLba()) != null){
 			return true;
 		} 
 		return false;
 	}
 
 	public short updateRegion(BlockInfo region) {
-		BlockInfo oldRegion = regions.get(region.getLba());
+		BlockInfo oldRegion = blockTable.getRegion(region.getLba());
 		if (oldRegion == null){
 			return RpcErrors.ERR_ADD_BLOCK_FAILED;
 		} else {
@@ -84,7 +144,55 @@ public class DataNodeBlocks extends DataNodeInfo {
 		this.token = System.nanoTime() + TimeUnit.SECONDS.toNanos(CrailConstants.STORAGE_KEEPALIVE*8);		
 	}
 	
+	//reported with every keepalive, resets the count of blocks handed out since the last report
+	public void setInFlight(int inFlight) {
+		this.inFlight = inFlight;
+		this.recentBlocks.set(0);
+	}
+	
+	public int getLoad() {
+		return inFlight + recentBlocks.get();
+	}
+	
 	public boolean isOnline(){
 		return System.nanoTime() <= token;
 	}	
+	
+	//online and not draining, only such datanodes hand out new blocks
+	public boolean isAvailable(){
+		return isOnline() && !draining;
+	}
+	
+	public boolean isDraining(){
+		return draining;
+	}
+	
+	public void setDraining(boolean draining){
+		this.draining = draining;
+		this.drainQueue.clear();
+		this.drainScans = 0;
+	}
+	
+	//blocks handed out for migration but not yet reported back, guarded by the datanode lock
+	void addMigration(BlockMigration migration){
+		migrations.add(migration);
+	}
+	
+	ArrayList<BlockMigration> takeMigrations(){
+		ArrayList<BlockMigration> pending = migrations;
+		migrations = new ArrayList<BlockMigration>();
+		return pending;
+	}
+	
+	ArrayDeque<BlockMigration> getDrainQueue(){
+		return drainQueue;
+	}
+	
+	int getDrainScans(){
+		return drainScans;
+	}
+	
+	void incDrainScans(){
+		drainScans++;
+	}
 }
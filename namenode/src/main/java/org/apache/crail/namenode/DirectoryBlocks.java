@@ -19,9 +19,8 @@
 
 package org.apache.crail.namenode;
 
-import java.util.Iterator;
+import java.util.Map;
 import java.util.Queue;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.crail.CrailNodeType;
@@ -29,18 +28,23 @@ import org.apache.crail.conf.CrailConstants;
 import org.apache.crail.metadata.BlockInfo;
 
 public class DirectoryBlocks extends AbstractNode {
+	//striped like the ConcurrentHashMap default, creates and deletes in one directory must not serialize,
+	//the segments are only allocated once children map to them so empty directories stay small
+	private static final int CHILDREN_SEGMENTS = 16;
+	
 	protected AtomicLong dirOffsetCounter;
-	protected ConcurrentHashMap<Integer, AbstractNode> children;	
-	private ConcurrentHashMap<Integer, NameNodeBlockInfo> blocks;
+	protected ConcurrentLongMap<AbstractNode> children;	
+	private ConcurrentLongMap<NameNodeBlockInfo> blocks;
 	
 	DirectoryBlocks(long fd, int fileComponent, CrailNodeType type, int storageClass, int locationClass, boolean enumerable) {
 		super(fd, fileComponent, type, storageClass, locationClass, enumerable);
-		this.children = new ConcurrentHashMap<Integer, AbstractNode>();
+		this.children = new ConcurrentLongMap<AbstractNode>(CHILDREN_SEGMENTS, CHILDREN_SEGMENTS * 4);
 		this.dirOffsetCounter = new AtomicLong(0);
-		this.blocks = new ConcurrentHashMap<Integer, NameNodeBlockInfo>();
+		this.blocks = new ConcurrentLongMap<NameNodeBlockInfo>();
 	}
 	
 	public AbstractNode putChild(AbstractNode child) throws Exception {
+		beforeUpdate();
 		AbstractNode old = children.putIfAbsent(child.getComponent(), child);
 		if (old != null){
 			throw new Exception("File exists");
@@ -56,6 +60,7 @@ public class DirectoryBlocks extends AbstractNode {
 	}	
 	
 	public AbstractNode removeChild(int component) {
+		beforeUpdate();
 		return children.remove(component);
 	}
 	
@@ -66,19 +71,34 @@ public class DirectoryBlocks extends AbstractNode {
 
 	@Override
 	public boolean addBlock(int index, NameNodeBlockInfo block) {
+		beforeUpdate();
 		BlockInfo old = blocks.putIfAbsent(index, block);
 		return old == null;
 	}
 
 	@Override
 	public void freeBlocks(BlockStore blockStore) throws Exception {
-		Iterator<NameNodeBlockInfo> iter = blocks.values().iterator();
-		while (iter.hasNext()){
-			NameNodeBlockInfo blockInfo = iter.next();
+		for (NameNodeBlockInfo blockInfo : blocks.values()){
 			blockStore.addBlock(blockInfo);
 		}	
 	}
 
+	@Override
+	public void collectBlocks(final Map<Integer, NameNodeBlockInfo> blocks) throws Exception {
+		this.blocks.forEach(new ConcurrentLongMap.Visitor<NameNodeBlockInfo>() {
+			@Override
+			public void visit(long index, NameNodeBlockInfo block) {
+				blocks.put((int) index, block);
+			}
+		});
+	}
+
+	//directory records are written by clients without going through the namenode, moving them is not safe
+	@Override
+	public boolean replaceBlock(int index, NameNodeBlockInfo expected, NameNodeBlockInfo block) {
+		return false;
+	}
+
 	@Override
 	public long setCapacity(long newcapacity) {
 		return this.getCapacity();
@@ -90,13 +110,27 @@ public class DirectoryBlocks extends AbstractNode {
 
 	@Override
 	public void clearChildren(Queue<AbstractNode> queue) {
-		Iterator<AbstractNode> iter = children.values().iterator();
-		while(iter.hasNext()){
-			AbstractNode child = iter.next();
+		for (AbstractNode child : children.values()){
 			queue.add(child);
 		}		
 	}
 
+	@Override
+	protected CheckpointImage captureImage() {
+		CheckpointImage checkpointed = super.captureImage();
+		checkpointed.dirOffsetCounter = dirOffsetCounter.get();
+		checkpointed.children = children.values();
+		return checkpointed;
+	}
+	
+	void restoreChild(AbstractNode child) {
+		children.put(child.getComponent(), child);
+	}
+	
+	void setDirOffsetCounter(long dirOffsetCounter) {
+		this.dirOffsetCounter.set(dirOffsetCounter);
+	}
+
 	@Override
 	public void dump() {
 		super.dump();
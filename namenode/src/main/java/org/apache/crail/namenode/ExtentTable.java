@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2015-2018, IBM Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.crail.namenode;
+
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.crail.conf.CrailConstants;
+
+/*
+ * Extents of a single datanode, used to pack small files. Every size class carves full
+ * blocks taken from the BlockTable into slabs of equally sized extents, the used extents
+ * of a slab are a bitmap. A slab goes back to the BlockTable once all its extents are
+ * free again. Allocation and release are serialized per size class.
+ */
+public class ExtentTable {
+	private BlockTable blockTable;
+	private ConcurrentHashMap<Integer, SizeClass> sizeClasses;
+	
+	public ExtentTable(BlockTable blockTable){
+		this.blockTable = blockTable;
+		this.sizeClasses = new ConcurrentHashMap<Integer, SizeClass>();
+	}
+	
+	public NameNodeBlockInfo getExtent(int extentSize) {
+		return getSizeClass(extentSize).take();
+	}
+	
+	//takes the extent at the given offset of the region, its slab block is taken from the BlockTable if needed
+	public NameNodeBlockInfo claimExtent(long regionLba, long offset, int extentSize) {
+		return getSizeClass(extentSize).claim(regionLba, offset);
+	}
+	
+	public void addExtent(NameNodeBlockInfo extent) {
+		getSizeClass(extent.getLength()).release(extent);
+	}
+	
+	//slab restored from a checkpoint, the block itself is already marked as used in the BlockTable
+	public void addSlab(NameNodeBlockInfo slab, int extentSize, BitSet usedExtents) {
+		getSizeClass(extentSize).addSlab(slab, usedExtents);
+	}
+	
+	private SizeClass getSizeClass(int extentSize){
+		SizeClass sizeClass = sizeClasses.get(extentSize);
+		if (sizeClass == null){
+			sizeClass = new SizeClass(extentSize);
+			SizeClass oldClass = sizeClasses.putIfAbsent(extentSize, sizeClass);
+			if (oldClass != null){
+				sizeClass = oldClass;
+			}
+		}
+		return sizeClass;
+	}
+	
+	private class SizeClass {
+		private final int extentSize;
+		private final int extentCount;
+		//all slabs by lba, and the slabs with at least one free extent
+		private final ConcurrentLongMap<Slab> slabs;
+		private final ArrayDeque<Slab> partialSlabs;
+		
+		SizeClass(int extentSize){
+			this.extentSize = extentSize;
+			this.extentCount = (int) (CrailConstants.BLOCK_SIZE / extentSize);
+			this.slabs = new ConcurrentLongMap<Slab>();
+			this.partialSlabs = new ArrayDeque<Slab>();
+		}
+		
+		synchronized NameNodeBlockInfo take(){
+			Slab slab = partialSlabs.peek();
+			if (slab == null){
+				NameNodeBlockInfo block = blockTable.getBlock();
+				if (block == null){
+					return null;
+				}
+				slab = new Slab(block, extentCount);
+				slabs.put(block.getLba(), slab);
+				partialSlabs.add(slab);
+			}
+			int index = slab.usedExtents.nextClearBit(0);
+			slab.usedExtents.set(index);
+			slab.freeExtents--;
+			if (slab.freeExtents == 0){
+				partialSlabs.poll();
+			}
+			return new NameNodeBlockInfo(slab.block.getRegion(), slab.block.getOffset() + ((long) index)*extentSize, extentSize);
+		}
+		
+		synchronized NameNodeBlockInfo claim(long regionLba, long offset){
+			long extentOffset = offset % CrailConstants.BLOCK_SIZE;
+			int index = (int) (extentOffset / extentSize);
+			if (extentOffset % extentSize != 0 || index >= extentCount){
+				return null;
+			}
+			Slab slab = slabs.get(regionLba + offset - extentOffset);
+			if (slab == null){
+				NameNodeBlockInfo block = blockTable.claimBlock(regionLba, offset - extentOffset);
+				if (block == null){
+					return null;
+				}
+				slab = new Slab(block, extentCount);
+				slabs.put(block.getLba(), slab);
+				partialSlabs.add(slab);
+			}
+			if (slab.usedExtents.get(index)){
+				return null;
+			}
+			slab.usedExtents.set(index);
+			slab.freeExtents--;
+			if (slab.freeExtents == 0){
+				partialSlabs.remove(slab);
+			}
+			return new NameNodeBlockInfo(slab.block.getRegion(), offset, extentSize);
+		}
+		
+		synchronized void release(NameNodeBlockInfo extent){
+			long extentOffset = extent.getOffset() % CrailConstants.BLOCK_SIZE;
+			Slab slab = slabs.get(extent.getLba() - extentOffset);
+			int index = (int) (extentOffset / extentSize);
+			if (slab == null || !slab.usedExtents.get(index)){
+				return;
+			}
+			slab.usedExtents.clear(index);
+			slab.freeExtents++;
+			if (slab.freeExtents == extentCount){
+				partialSlabs.remove(slab);
+				slabs.remove(slab.block.getLba());
+				blockTable.addBlock(slab.block);
+			} else if (slab.freeExtents == 1){
+				partialSlabs.add(slab);
+			}
+		}
+		
+		synchronized void addSlab(NameNodeBlockInfo block, BitSet usedExtents){
+			if (slabs.get(block.getLba()) != null){
+				return;
+			}
+			Slab slab = new Slab(block, extentCount);
+			slab.usedExtents.or(usedExtents);
+			slab.freeExtents = extentCount - slab.usedExtents.cardinality();
+			slabs.put(block.getLba(), slab);
+			if (slab.freeExtents > 0){
+				partialSlabs.add(slab);
+			}
+		}
+	}
+	
+	private static class Slab {
+		final NameNodeBlockInfo block;
+		final BitSet usedExtents;
+		int freeExtents;
+		
+		Slab(NameNodeBlockInfo block, int extentCount){
+			this.block = block;
+			this.usedExtents = new BitSet(extentCount);
+			this.freeExtents = extentCount;
+		}
+	}
+}
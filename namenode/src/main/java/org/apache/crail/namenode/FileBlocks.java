@@ -19,71 +19,82 @@
 
 package org.apache.crail.namenode;
 
-import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.Map;
 import java.util.Queue;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.crail.CrailNodeType;
 import org.apache.crail.conf.CrailConstants;
 
 public class FileBlocks extends AbstractNode {
-	private ArrayList<NameNodeBlockInfo> blocks;
-	private final ReentrantReadWriteLock lock;
-	private final Lock readLock;
-	private final Lock writeLock;
+	//blocks are only ever appended, readers see a consistent prefix of the array without locking
+	private volatile NameNodeBlockInfo[] blocks;
+	private volatile int blockCount;
+	private boolean freed;
 	
 	public FileBlocks(long fd, int fileComponent, CrailNodeType type, int storageClass, int locationClass, boolean enumerable) {
 		super(fd, fileComponent, type, storageClass, locationClass, enumerable);
-		this.blocks = new ArrayList<NameNodeBlockInfo>(CrailConstants.NAMENODE_FILEBLOCKS);
-		this.lock = new ReentrantReadWriteLock();
-		this.readLock = lock.readLock();
-		this.writeLock = lock.writeLock();
+		this.blocks = new NameNodeBlockInfo[Math.max(CrailConstants.NAMENODE_FILEBLOCKS, 1)];
+		this.blockCount = 0;
+		this.freed = false;
 	}
 
 	@Override
 	public NameNodeBlockInfo getBlock(int index) {
-		readLock.lock();
-		try {
-			if (index < blocks.size()){
-				return blocks.get(index);
-			} else {
-				return null;
-			}
-		} catch(Exception e){ 
+		int count = blockCount;
+		NameNodeBlockInfo[] array = blocks;
+		if (index >= 0 && index < count){
+			return array[index];
+		} else {
 			return null;
-		} finally {
-			readLock.unlock();
 		}
 	}
 
 	@Override
-	public boolean addBlock(int index, NameNodeBlockInfo block) {
-		writeLock.lock();
-		try {
-			if (index == blocks.size()){
-				blocks.add(index, block);
-				return true;
-			} else {
-				return false;
-			}
-		} finally {
-			writeLock.unlock();
+	public synchronized boolean addBlock(int index, NameNodeBlockInfo block) {
+		int count = blockCount;
+		if (index != count){
+			return false;
 		}
+		beforeUpdate();
+		NameNodeBlockInfo[] array = blocks;
+		if (count == array.length){
+			array = Arrays.copyOf(array, 2*array.length);
+			blocks = array;
+		}
+		array[count] = block;
+		blockCount = count + 1;
+		return true;
+	}
+
+	@Override
+	public synchronized boolean replaceBlock(int index, NameNodeBlockInfo expected, NameNodeBlockInfo block) {
+		NameNodeBlockInfo[] array = blocks;
+		if (freed || index >= blockCount || array[index] != expected){
+			return false;
+		}
+		beforeUpdate();
+		array[index] = block;
+		blocks = array;
+		return true;
 	}
 
 	@Override
-	public void freeBlocks(BlockStore blockStore) throws Exception {
-		readLock.lock();
-		try {
-			Iterator<NameNodeBlockInfo> iter = blocks.iterator();
-			while (iter.hasNext()){
-				NameNodeBlockInfo blockInfo = iter.next();
-				blockStore.addBlock(blockInfo);
-			}	
-		} finally {
-			readLock.unlock();
+	public synchronized void freeBlocks(BlockStore blockStore) throws Exception {
+		int count = blockCount;
+		NameNodeBlockInfo[] array = blocks;
+		for (int i = 0; i < count; i++){
+			blockStore.addBlock(array[i]);
+		}
+		freed = true;
+	}
+	
+	@Override
+	public void collectBlocks(Map<Integer, NameNodeBlockInfo> blocks) {
+		int count = blockCount;
+		NameNodeBlockInfo[] array = this.blocks;
+		for (int i = 0; i < count; i++){
+			blocks.put(i, array[i]);
 		}
 	}
 
@@ -37,16 +37,20 @@ public class FileStore {
 	}
 	
 	public AbstractNode createNode(int fileComponent, CrailNodeType type, int storageClass, int locationClass, boolean enumerable) throws IOException {
+		return createNode(sequencer.getNextId(), fileComponent, type, storageClass, locationClass, enumerable);
+	}
+	
+	AbstractNode createNode(long fd, int fileComponent, CrailNodeType type, int storageClass, int locationClass, boolean enumerable) throws IOException {
 		if (type == CrailNodeType.DIRECTORY){
-			return new DirectoryBlocks(sequencer.getNextId(), fileComponent, type, storageClass, locationClass, enumerable);
+			return new DirectoryBlocks(fd, fileComponent, type, storageClass, locationClass, enumerable);
 		} else if (type == CrailNodeType.MULTIFILE){
-			return new MultiFileBlocks(sequencer.getNextId(), fileComponent, type, storageClass, locationClass, enumerable);
+			return new MultiFileBlocks(fd, fileComponent, type, storageClass, locationClass, enumerable);
 		} else if (type == CrailNodeType.TABLE){
-			return new TableBlocks(sequencer.getNextId(), fileComponent, type, storageClass, locationClass, enumerable);
+			return new TableBlocks(fd, fileComponent, type, storageClass, locationClass, enumerable);
 		} else if (type == CrailNodeType.KEYVALUE){
-			return new KeyValueBlocks(sequencer.getNextId(), fileComponent, type, storageClass, locationClass, enumerable);
+			return new KeyValueBlocks(fd, fileComponent, type, storageClass, locationClass, enumerable);
 		} else if (type == CrailNodeType.DATAFILE){
-			return new FileBlocks(sequencer.getNextId(), fileComponent, type, storageClass, locationClass, enumerable);
+			return new FileBlocks(fd, fileComponent, type, storageClass, locationClass, enumerable);
 		} else {
 			throw new IOException("File type unkown: " + type);
 		}
@@ -64,6 +68,10 @@ public class FileStore {
 		return root;
 	}	
 	
+	void setRoot(AbstractNode root) {
+		this.root = root;
+	}
+	
 	public void dump(){
 		root.dump();
 	}
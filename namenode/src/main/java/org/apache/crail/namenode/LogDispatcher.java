@@ -19,47 +19,105 @@
 
 package org.apache.crail.namenode;
 
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.crail.conf.CrailConstants;
+import org.apache.crail.rpc.RpcErrors;
 import org.apache.crail.rpc.RpcNameNodeService;
 import org.apache.crail.rpc.RpcNameNodeState;
 import org.apache.crail.rpc.RpcProtocol;
+import org.apache.crail.rpc.RpcRequestMessage.BatchReq;
 import org.apache.crail.rpc.RpcRequestMessage.CreateFileReq;
+import org.apache.crail.rpc.RpcRequestMessage.DrainDataNodeReq;
 import org.apache.crail.rpc.RpcRequestMessage.DumpNameNodeReq;
 import org.apache.crail.rpc.RpcRequestMessage.GetBlockReq;
+import org.apache.crail.rpc.RpcRequestMessage.GetBlocksReq;
 import org.apache.crail.rpc.RpcRequestMessage.GetDataNodeReq;
 import org.apache.crail.rpc.RpcRequestMessage.GetFileReq;
 import org.apache.crail.rpc.RpcRequestMessage.GetLocationReq;
+import org.apache.crail.rpc.RpcRequestMessage.MigrateBlocksReq;
 import org.apache.crail.rpc.RpcRequestMessage.PingNameNodeReq;
 import org.apache.crail.rpc.RpcRequestMessage.RemoveFileReq;
 import org.apache.crail.rpc.RpcRequestMessage.RenameFileReq;
 import org.apache.crail.rpc.RpcRequestMessage.SetBlockReq;
+import org.apache.crail.rpc.RpcRequestMessage.SetBlocksReq;
 import org.apache.crail.rpc.RpcRequestMessage.SetFileReq;
+import org.apache.crail.rpc.RpcResponseMessage.BatchRes;
 import org.apache.crail.rpc.RpcResponseMessage.CreateFileRes;
 import org.apache.crail.rpc.RpcResponseMessage.DeleteFileRes;
 import org.apache.crail.rpc.RpcResponseMessage.GetBlockRes;
+import org.apache.crail.rpc.RpcResponseMessage.GetBlocksRes;
 import org.apache.crail.rpc.RpcResponseMessage.GetDataNodeRes;
 import org.apache.crail.rpc.RpcResponseMessage.GetFileRes;
 import org.apache.crail.rpc.RpcResponseMessage.GetLocationRes;
+import org.apache.crail.rpc.RpcResponseMessage.MigrateBlocksRes;
 import org.apache.crail.rpc.RpcResponseMessage.PingNameNodeRes;
 import org.apache.crail.rpc.RpcResponseMessage.RenameRes;
 import org.apache.crail.rpc.RpcResponseMessage.VoidRes;
+import org.apache.crail.utils.CrailUtils;
+import org.slf4j.Logger;
 
-public class LogDispatcher implements RpcNameNodeService {
+public class LogDispatcher implements RpcNameNodeService, BlockJournal {
+	private static final Logger LOG = CrailUtils.getLogger();
+	
 	private RpcNameNodeService service;
 	private LogService logService;
+	//mutating rpcs hold the read lock, checkpoints briefly take the write lock to get a consistent cut
+	private ReentrantReadWriteLock checkpointLock;
 	
 	public LogDispatcher(RpcNameNodeService service) throws Exception{
 		this.service = service;
 		this.logService = new LogService();
+		this.checkpointLock = new ReentrantReadWriteLock();
 		this.logService.replay(service);
+		if (service instanceof Migratable){
+			((Migratable) service).setBlockJournal(this);
+		}
+		
+		if (CrailConstants.NAMENODE_LOG_CHECKPOINT_SIZE > 0){
+			if (service instanceof Checkpointable){
+				Thread checkpointer = new Thread(new CheckpointServer(this, logService));
+				checkpointer.setDaemon(true);
+				checkpointer.start();
+			} else {
+				LOG.info("namenode service does not support checkpoints, log will not be truncated");
+			}
+		}
+	}
+	
+	void close() throws Exception {
+		logService.close();
+	}
+	
+	synchronized void checkpoint() throws Exception {
+		long generation = 0;
+		long start = System.currentTimeMillis();
+		checkpointLock.writeLock().lock();
+		try {
+			generation = logService.roll();
+			((Checkpointable) service).captureCheckpoint();
+		} finally {
+			checkpointLock.writeLock().unlock();
+		}
+		long captured = System.currentTimeMillis();
+		long size = logService.writeCheckpoint(generation, (Checkpointable) service);
+		LOG.info("checkpoint done, log generation " + generation + ", size " + size + ", capture time " + (captured - start) + "ms, total time " + (System.currentTimeMillis() - start) + "ms");
 	}
 
 	@Override
 	public short createFile(CreateFileReq request, CreateFileRes response,
 			RpcNameNodeState errorState) throws Exception {
-		LogRecord record = new LogRecord(request);
-		record.setCommand(RpcProtocol.CMD_CREATE_FILE);
-		logService.writeRecord(record);
-		return service.createFile(request, response, errorState);
+		checkpointLock.readLock().lock();
+		try {
+			LogRecord record = new LogRecord(request);
+			record.setCommand(RpcProtocol.CMD_CREATE_FILE);
+			long sequence = logService.writeRecord(record);
+			short error = service.createFile(request, response, errorState);
+			logService.sync(sequence);
+			return error;
+		} finally {
+			checkpointLock.readLock().unlock();
+		}
 	}
 
 	@Override
@@ -71,28 +129,49 @@ public class LogDispatcher implements RpcNameNodeService {
 	@Override
 	public short setFile(SetFileReq request, VoidRes response,
 			RpcNameNodeState errorState) throws Exception {
-		LogRecord record = new LogRecord(request);
-		record.setCommand(RpcProtocol.CMD_SET_FILE);
-		logService.writeRecord(record);		
-		return service.setFile(request, response, errorState);
+		checkpointLock.readLock().lock();
+		try {
+			LogRecord record = new LogRecord(request);
+			record.setCommand(RpcProtocol.CMD_SET_FILE);
+			long sequence = logService.writeRecord(record);
+			short error = service.setFile(request, response, errorState);
+			logService.sync(sequence);
+			return error;
+		} finally {
+			checkpointLock.readLock().unlock();
+		}
 	}
 
 	@Override
 	public short removeFile(RemoveFileReq request, DeleteFileRes response,
 			RpcNameNodeState errorState) throws Exception {
-		LogRecord record = new LogRecord(request);
-		record.setCommand(RpcProtocol.CMD_REMOVE_FILE);
-		logService.writeRecord(record);		
-		return service.removeFile(request, response, errorState);
+		checkpointLock.readLock().lock();
+		try {
+			LogRecord record = new LogRecord(request);
+			record.setCommand(RpcProtocol.CMD_REMOVE_FILE);
+			long sequence = logService.writeRecord(record);
+			short error = service.removeFile(request, response, errorState);
+			logService.sync(sequence);
+			return error;
+		} finally {
+			checkpointLock.readLock().unlock();
+		}
 	}
 
 	@Override
 	public short renameFile(RenameFileReq request, RenameRes response,
 			RpcNameNodeState errorState) throws Exception {
-		LogRecord record = new LogRecord(request);
-		record.setCommand(RpcProtocol.CMD_RENAME_FILE);
-		logService.writeRecord(record);		
-		return service.renameFile(request, response, errorState);
+		checkpointLock.readLock().lock();
+		try {
+			LogRecord record = new LogRecord(request);
+			record.setCommand(RpcProtocol.CMD_RENAME_FILE);
+			long sequence = logService.writeRecord(record);
+			short error = service.renameFile(request, response, errorState);
+			logService.sync(sequence);
+			return error;
+		} finally {
+			checkpointLock.readLock().unlock();
+		}
 	}
 
 	@Override
@@ -101,22 +180,107 @@ public class LogDispatcher implements RpcNameNodeService {
 		return service.getDataNode(request, response, errorState);
 	}
 
+	//drain state is soft state, only the block swaps it leads to are logged
+	@Override
+	public short drainDataNode(DrainDataNodeReq request, VoidRes response,
+			RpcNameNodeState errorState) throws Exception {
+		return service.drainDataNode(request, response, errorState);
+	}
+
+	//swaps committed by the service are logged through writeReplaceBlock, under the same read lock
+	@Override
+	public short migrateBlocks(MigrateBlocksReq request, MigrateBlocksRes response,
+			RpcNameNodeState errorState) throws Exception {
+		checkpointLock.readLock().lock();
+		try {
+			return service.migrateBlocks(request, response, errorState);
+		} finally {
+			checkpointLock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public long writeReplaceBlock(long fd, int index, NameNodeBlockInfo block) throws Exception {
+		LogRecord record = new LogRecord(new LogRecord.ReplaceBlock(fd, index, block));
+		record.setCommand(LogRecord.CMD_REPLACE_BLOCK);
+		return logService.writeRecord(record);
+	}
+
+	@Override
+	public void sync(long sequence) throws Exception {
+		logService.sync(sequence);
+	}
+
 	@Override
 	public short setBlock(SetBlockReq request, VoidRes response,
 			RpcNameNodeState errorState) throws Exception {
-		LogRecord record = new LogRecord(request);
-		record.setCommand(RpcProtocol.CMD_SET_BLOCK);
-		logService.writeRecord(record);		
-		return service.setBlock(request, response, errorState);
+		checkpointLock.readLock().lock();
+		try {
+			LogRecord record = new LogRecord(request);
+			record.setCommand(RpcProtocol.CMD_SET_BLOCK);
+			long sequence = logService.writeRecord(record);
+			short error = service.setBlock(request, response, errorState);
+			logService.sync(sequence);
+			return error;
+		} finally {
+			checkpointLock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public short setBlocks(SetBlocksReq request, VoidRes response,
+			RpcNameNodeState errorState) throws Exception {
+		//rejected before logging, entries of an over-long batch are not parsed
+		if (request.getCount() > CrailConstants.NAMENODE_BATCH_SIZE){
+			return RpcErrors.ERR_BATCH_TOO_LARGE;
+		}
+		checkpointLock.readLock().lock();
+		try {
+			//logged as one set block record per region, replay needs no extra record type
+			long sequence = 0;
+			for (int i = 0; i < request.getCount(); i++){
+				LogRecord record = new LogRecord(new SetBlockReq(request.getBlockInfo(i)));
+				record.setCommand(RpcProtocol.CMD_SET_BLOCK);
+				sequence = logService.writeRecord(record);
+			}
+			short error = service.setBlocks(request, response, errorState);
+			logService.sync(sequence);
+			return error;
+		} finally {
+			checkpointLock.readLock().unlock();
+		}
 	}
 
 	@Override
 	public short getBlock(GetBlockReq request, GetBlockRes response,
 			RpcNameNodeState errorState) throws Exception {
-		LogRecord record = new LogRecord(request);
-		record.setCommand(RpcProtocol.CMD_GET_BLOCK);
-		logService.writeRecord(record);		
-		return service.getBlock(request, response, errorState);
+		checkpointLock.readLock().lock();
+		try {
+			LogRecord record = new LogRecord(request);
+			record.setCommand(RpcProtocol.CMD_GET_BLOCK);
+			long sequence = logService.writeRecord(record);
+			short error = service.getBlock(request, response, errorState);
+			logService.sync(sequence);
+			return error;
+		} finally {
+			checkpointLock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public short getBlocks(GetBlocksReq request, GetBlocksRes response,
+			RpcNameNodeState errorState) throws Exception {
+		checkpointLock.readLock().lock();
+		try {
+			LogRecord record = new LogRecord(request);
+			record.setCommand(RpcProtocol.CMD_GET_BLOCKS);
+			long sequence = logService.writeRecord(record);
+			short error = service.getBlocks(request, response, errorState);
+			logService.sync(sequence);
+			return error;
+		} finally {
+			checkpointLock.readLock().unlock();
+		}
 	}
 
 	@Override
@@ -125,6 +289,40 @@ public class LogDispatcher implements RpcNameNodeService {
 		return service.getLocation(request, response, errorState);
 	}
 
+	@Override
+	public short batch(BatchReq request, BatchRes response,
+			RpcNameNodeState errorState) throws Exception {
+		//rejected before logging, entries of an over-long batch are not parsed
+		if (request.getCount() > CrailConstants.NAMENODE_BATCH_SIZE){
+			return RpcErrors.ERR_BATCH_TOO_LARGE;
+		}
+		checkpointLock.readLock().lock();
+		try {
+			long sequence = 0;
+			for (int i = 0; i < request.getCount(); i++){
+				LogRecord record = null;
+				switch(request.getType(i)){
+				case RpcProtocol.REQ_CREATE_FILE:
+					record = new LogRecord(request.createFile(i));
+					record.setCommand(RpcProtocol.CMD_CREATE_FILE);
+					break;
+				case RpcProtocol.REQ_REMOVE_FILE:
+					record = new LogRecord(request.removeFile(i));
+					record.setCommand(RpcProtocol.CMD_REMOVE_FILE);
+					break;
+				}
+				if (record != null){
+					sequence = logService.writeRecord(record);
+				}
+			}
+			short error = service.batch(request, response, errorState);
+			logService.sync(sequence);
+			return error;
+		} finally {
+			checkpointLock.readLock().unlock();
+		}
+	}
+
 	@Override
 	public short dump(DumpNameNodeReq request, VoidRes response,
 			RpcNameNodeState errorState) throws Exception {
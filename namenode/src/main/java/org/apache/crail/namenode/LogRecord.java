@@ -29,7 +29,9 @@ import org.slf4j.Logger;
 
 public class LogRecord {
 	public static final Logger LOG = CrailUtils.getLogger();
-	public static final int CSIZE = 4 + Math.max(RpcRequestMessage.SetFileReq.CSIZE, RpcRequestMessage.RenameFileReq.CSIZE);
+	//log only record, a block swap committed by a datanode drain
+	public static final short CMD_REPLACE_BLOCK = 64;
+	public static final int CSIZE = 4 + Math.max(Math.max(RpcRequestMessage.SetFileReq.CSIZE, RpcRequestMessage.RenameFileReq.CSIZE), ReplaceBlock.CSIZE);
 	
 	private short cmd;
 	private short type;
@@ -39,11 +41,13 @@ public class LogRecord {
 	private RpcRequestMessage.RemoveFileReq removeReq;
 	private RpcRequestMessage.RenameFileReq renameFileReq;
 	private RpcRequestMessage.GetBlockReq getBlockReq;
+	private RpcRequestMessage.GetBlocksReq getBlocksReq;
 	private RpcRequestMessage.GetLocationReq getLocationReq;
 	private RpcRequestMessage.SetBlockReq setBlockReq;
 	private RpcRequestMessage.GetDataNodeReq getDataNodeReq;
 	private RpcRequestMessage.DumpNameNodeReq dumpNameNodeReq;
 	private RpcRequestMessage.PingNameNodeReq pingNameNodeReq;
+	private ReplaceBlock replaceBlock;
 
 	public LogRecord() {
 		this.cmd = 0;
@@ -54,11 +58,13 @@ public class LogRecord {
 		this.removeReq = new RpcRequestMessage.RemoveFileReq();
 		this.renameFileReq = new RpcRequestMessage.RenameFileReq();
 		this.getBlockReq = new RpcRequestMessage.GetBlockReq();
+		this.getBlocksReq = new RpcRequestMessage.GetBlocksReq();
 		this.getLocationReq = new RpcRequestMessage.GetLocationReq();
 		this.setBlockReq = new RpcRequestMessage.SetBlockReq();
 		this.dumpNameNodeReq = new RpcRequestMessage.DumpNameNodeReq();
 		this.pingNameNodeReq = new RpcRequestMessage.PingNameNodeReq();
 		this.getDataNodeReq = new RpcRequestMessage.GetDataNodeReq();
+		this.replaceBlock = new ReplaceBlock();
 	}
 	
 	public LogRecord(RpcRequestMessage.CreateFileReq message) {
@@ -90,6 +96,11 @@ public class LogRecord {
 		this.getBlockReq = message;
 	}
 	
+	public LogRecord(RpcRequestMessage.GetBlocksReq message) {
+		this.type = message.getType();
+		this.getBlocksReq = message;
+	}
+	
 	public LogRecord(RpcRequestMessage.GetLocationReq message) {
 		this.type = message.getType();
 		this.getLocationReq = message;
@@ -115,6 +126,11 @@ public class LogRecord {
 		this.pingNameNodeReq = message;
 	}
 	
+	public LogRecord(ReplaceBlock message) {
+		this.type = CMD_REPLACE_BLOCK;
+		this.replaceBlock = message;
+	}
+	
 	public void setCommand(short command) {
 		this.cmd = command;
 	}	
@@ -147,6 +163,9 @@ public class LogRecord {
 		case RpcProtocol.REQ_GET_BLOCK:
 			written += getBlockReq.write(buffer);
 			break;
+		case RpcProtocol.REQ_GET_BLOCKS:
+			written += getBlocksReq.write(buffer);
+			break;
 		case RpcProtocol.REQ_GET_LOCATION:
 			written += getLocationReq.write(buffer);
 			break;			
@@ -162,6 +181,9 @@ public class LogRecord {
 		case RpcProtocol.REQ_PING_NAMENODE:
 			written += pingNameNodeReq.write(buffer);
 			break;
+		case CMD_REPLACE_BLOCK:
+			written += replaceBlock.write(buffer);
+			break;
 		}
 		
 		return written;
@@ -190,6 +212,9 @@ public class LogRecord {
 		case RpcProtocol.REQ_GET_BLOCK:
 			getBlockReq.update(buffer);
 			break;
+		case RpcProtocol.REQ_GET_BLOCKS:
+			getBlocksReq.update(buffer);
+			break;
 		case RpcProtocol.REQ_GET_LOCATION:
 			getLocationReq.update(buffer);
 			break;			
@@ -205,6 +230,9 @@ public class LogRecord {
 		case RpcProtocol.REQ_PING_NAMENODE:
 			pingNameNodeReq.update(buffer);
 			break;
+		case CMD_REPLACE_BLOCK:
+			replaceBlock.update(buffer);
+			break;
 		}
 	}
 
@@ -240,6 +268,10 @@ public class LogRecord {
 		return getBlockReq;
 	}
 	
+	public RpcRequestMessage.GetBlocksReq getBlocks() {
+		return getBlocksReq;
+	}
+	
 	public RpcRequestMessage.GetLocationReq getLocation() {
 		return getLocationReq;
 	}	
@@ -259,6 +291,10 @@ public class LogRecord {
 	public RpcRequestMessage.PingNameNodeReq pingNameNode(){
 		return this.pingNameNodeReq;
 	}
+	
+	public ReplaceBlock replaceBlock(){
+		return this.replaceBlock;
+	}
 
 	@Override
 	public String toString() {
@@ -297,8 +333,83 @@ public class LogRecord {
 		case RpcProtocol.REQ_PING_NAMENODE:
 			message += pingNameNodeReq.toString();
 			break;
+		case CMD_REPLACE_BLOCK:
+			message += replaceBlock.toString();
+			break;
 		}
 		
 		return message;
 	}
+	
+	//block index of file fd is the block at offset of the region lba on the datanode with the given key
+	public static class ReplaceBlock {
+		public static final int CSIZE = 40;
+		
+		private long fd;
+		private int index;
+		private long dnKey;
+		private long regionLba;
+		private long offset;
+		private int length;
+		
+		public ReplaceBlock(){
+		}
+		
+		public ReplaceBlock(long fd, int index, NameNodeBlockInfo block){
+			this.fd = fd;
+			this.index = index;
+			this.dnKey = block.getDnInfo().key();
+			this.regionLba = block.getRegion().getLba();
+			this.offset = block.getOffset();
+			this.length = block.getLength();
+		}
+		
+		public int write(ByteBuffer buffer){
+			buffer.putLong(fd);
+			buffer.putInt(index);
+			buffer.putLong(dnKey);
+			buffer.putLong(regionLba);
+			buffer.putLong(offset);
+			buffer.putInt(length);
+			return CSIZE;
+		}
+		
+		public void update(ByteBuffer buffer){
+			fd = buffer.getLong();
+			index = buffer.getInt();
+			dnKey = buffer.getLong();
+			regionLba = buffer.getLong();
+			offset = buffer.getLong();
+			length = buffer.getInt();
+		}
+		
+		public long getFd() {
+			return fd;
+		}
+		
+		public int getIndex() {
+			return index;
+		}
+		
+		public long getDnKey() {
+			return dnKey;
+		}
+		
+		public long getRegionLba() {
+			return regionLba;
+		}
+		
+		public long getOffset() {
+			return offset;
+		}
+		
+		public int getLength() {
+			return length;
+		}
+		
+		@Override
+		public String toString() {
+			return "ReplaceBlock [fd=" + fd + ", index=" + index + ", regionLba=" + regionLba + ", offset=" + offset + ", length=" + length + "]";
+		}
+	}
 }
@@ -36,6 +36,7 @@ public class LogResponse implements RpcNameNodeState {
 	private RpcResponseMessage.DeleteFileRes delFileRes;
 	private RpcResponseMessage.RenameRes renameRes;
 	private RpcResponseMessage.GetBlockRes getBlockRes;
+	private RpcResponseMessage.GetBlocksRes getBlocksRes;
 	private RpcResponseMessage.GetLocationRes getLocationRes;	
 	private RpcResponseMessage.GetDataNodeRes getDataNodeRes;
 	private RpcResponseMessage.PingNameNodeRes pingNameNodeRes;
@@ -50,6 +51,7 @@ public class LogResponse implements RpcNameNodeState {
 		this.delFileRes = new RpcResponseMessage.DeleteFileRes();
 		this.renameRes = new RpcResponseMessage.RenameRes();
 		this.getBlockRes = new RpcResponseMessage.GetBlockRes();
+		this.getBlocksRes = new RpcResponseMessage.GetBlocksRes();
 		this.getLocationRes = new RpcResponseMessage.GetLocationRes();
 		this.getDataNodeRes = new RpcResponseMessage.GetDataNodeRes();
 		this.pingNameNodeRes = new RpcResponseMessage.PingNameNodeRes();
@@ -85,6 +87,11 @@ public class LogResponse implements RpcNameNodeState {
 		this.getBlockRes = message;
 	}
 	
+	public LogResponse(RpcResponseMessage.GetBlocksRes message) {
+		this.type = message.getType();
+		this.getBlocksRes = message;
+	}
+	
 	public LogResponse(RpcResponseMessage.GetLocationRes message) {
 		this.type = message.getType();
 		this.getLocationRes = message;
@@ -133,6 +140,11 @@ public class LogResponse implements RpcNameNodeState {
 				throw new Exception("Response type not set");
 			}
 			break;
+		case RpcProtocol.RES_GET_BLOCKS:
+			if (getBlocksRes == null){
+				throw new Exception("Response type not set");
+			}
+			break;
 		case RpcProtocol.RES_GET_LOCATION:
 			if (getLocationRes == null){
 				throw new Exception("Response type not set");
@@ -179,6 +191,9 @@ public class LogResponse implements RpcNameNodeState {
 		case RpcProtocol.RES_GET_BLOCK:
 			written += getBlockRes.write(buffer);
 			break;
+		case RpcProtocol.RES_GET_BLOCKS:
+			written += getBlocksRes.write(buffer);
+			break;
 		case RpcProtocol.RES_GET_LOCATION:
 			written += getLocationRes.write(buffer);
 			break;			
@@ -222,6 +237,10 @@ public class LogResponse implements RpcNameNodeState {
 			getBlockRes.update(buffer);
 			getBlockRes.setError(error);
 			break;
+		case RpcProtocol.RES_GET_BLOCKS:
+			getBlocksRes.update(buffer);
+			getBlocksRes.setError(error);
+			break;
 		case RpcProtocol.RES_GET_LOCATION:
 			getLocationRes.update(buffer);
 			getLocationRes.setError(error);
@@ -284,4 +303,8 @@ public class LogResponse implements RpcNameNodeState {
 	public RpcResponseMessage.PingNameNodeRes pingNameNode(){
 		return this.pingNameNodeRes;
 	}
+	
+	public RpcResponseMessage.GetBlocksRes getBlocks() {
+		return getBlocksRes;
+	}
 }
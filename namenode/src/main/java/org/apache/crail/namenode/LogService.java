@@ -19,13 +19,31 @@
 
 package org.apache.crail.namenode;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
 
 import org.apache.crail.conf.CrailConstants;
 import org.apache.crail.rpc.RpcErrors;
@@ -34,62 +52,353 @@ import org.apache.crail.rpc.RpcProtocol;
 import org.apache.crail.utils.CrailUtils;
 import org.slf4j.Logger;
 
-public class LogService {
+public class LogService implements Runnable {
 	public static final Logger LOG = CrailUtils.getLogger();
+	private static final int CHECKPOINT_MAGIC = 0x43524c43;
+	private static final int SEGMENT_MAGIC = 0x43524c53;
+	//segment header: magic, segment number
+	private static final int SEGMENT_HEADER = 12;
+	//record header: payload length, crc32 of the payload
+	private static final int RECORD_HEADER = 8;
 	
 	private ConcurrentHashMap<Long, Long> tokens;
-	private FileOutputStream outStream;
-	private FileChannel outChannel;
-	private ByteBuffer header;
-	private ByteBuffer payload;
+	private RandomAccessFile segmentFile;
+	private MappedByteBuffer segmentBuffer;
+	private CRC32 crc;
+	
+	//group commit: records are appended to activeBuffer by the rpc threads, 
+	//the appender thread swaps buffers and copies/syncs whole batches into the mapped segment
+	private ByteBuffer activeBuffer;
+	private ByteBuffer flushBuffer;
+	private long appendedSequence;
+	private long persistedSequence;
+	private long lastSync;
+	private boolean isOpen;
+	private IOException appendError;
+	private Thread appender;
+	
+	//the log is a sequence of fixed size segments <log>.1, <log>.2, ..., a checkpoint covers all segments 
+	//before the one it names. A plain <log> file written by older versions is replayed as segment 0.
+	private File checkpointFile;
+	private long segment;
+	private long rollSegment;
+	private long logSize;
 	
 	public LogService() throws IOException {
-		File file = new File(CrailConstants.NAMENODE_LOG);
-		if (!file.exists()){
-			file.createNewFile();
-		}
-		outStream = new FileOutputStream(CrailConstants.NAMENODE_LOG, true);
-		outChannel = outStream.getChannel();
-		header = ByteBuffer.allocate(4);
-		payload = ByteBuffer.allocate(512);
+		checkpointFile = new File(CrailConstants.NAMENODE_LOG + ".checkpoint");
+		segment = Math.max(checkpointSegment(), lastSegment() + 1);
+		rollSegment = segment;
+		openSegment(segment);
+		logSize = 0;
 		tokens = new ConcurrentHashMap<Long, Long>();
+		crc = new CRC32();
+		
+		activeBuffer = ByteBuffer.allocateDirect(CrailConstants.NAMENODE_LOG_BUFFER);
+		flushBuffer = ByteBuffer.allocateDirect(CrailConstants.NAMENODE_LOG_BUFFER);
+		appendedSequence = 0;
+		persistedSequence = 0;
+		lastSync = System.currentTimeMillis();
+		isOpen = true;
+		appendError = null;
+		appender = new Thread(this);
+		appender.start();
 	}
 	
-	public void writeRecord(LogRecord record) throws IOException{
-		payload.clear();
-		record.write(payload);
-		payload.flip();
-		
-		header.clear();
-		header.putInt(payload.remaining());
-		header.flip();
+	public synchronized long writeRecord(LogRecord record) throws IOException{
+		while(activeBuffer.remaining() < RECORD_HEADER + LogRecord.CSIZE){
+			checkState();
+			notifyAll();
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				throw new IOException(e);
+			}
+		}
+		checkState();
 		
-		outChannel.write(header);
-		while(payload.hasRemaining()){
-			outChannel.write(payload);
+		int start = activeBuffer.position();
+		activeBuffer.position(start + RECORD_HEADER);
+		record.write(activeBuffer);
+		ByteBuffer data = activeBuffer.duplicate();
+		data.flip().position(start + RECORD_HEADER);
+		crc.reset();
+		crc.update(data);
+		activeBuffer.putInt(start, activeBuffer.position() - start - RECORD_HEADER);
+		activeBuffer.putInt(start + 4, (int) crc.getValue());
+		appendedSequence++;
+		notifyAll();
+		return appendedSequence;
+	}
+	
+	public synchronized void sync(long sequence) throws IOException {
+		while(persistedSequence < sequence){
+			checkState();
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				throw new IOException(e);
+			}
 		}
 	}
 	
+	//switch to a new log segment, all records written so far end up in the previous segments.
+	//the caller has to make sure no records are appended concurrently
+	public synchronized long roll() throws IOException {
+		rollSegment = segment + 1;
+		notifyAll();
+		while(segment < rollSegment){
+			checkState();
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				throw new IOException(e);
+			}
+		}
+		return segment;
+	}
+	
+	//bytes logged since the last roll
+	public synchronized long getLogSize(){
+		return logSize;
+	}
+	
+	@Override
+	public void run() {
+		boolean syncBatch = CrailConstants.NAMENODE_LOG_SYNC.equalsIgnoreCase("batch");
+		boolean syncInterval = CrailConstants.NAMENODE_LOG_SYNC.equalsIgnoreCase("interval");
+		long sequence = 0;
+		boolean dirty = false;
+		while(true){
+			try {
+				boolean roll = false;
+				synchronized(this){
+					if (isOpen && appendedSequence == sequence && segment == rollSegment){
+						//no new records, in interval mode make sure pending writes get synced eventually
+						wait(syncInterval && dirty ? CrailConstants.NAMENODE_LOG_SYNC_INTERVAL : 0);
+					}
+					if (appendedSequence > sequence){
+						ByteBuffer tmp = flushBuffer;
+						flushBuffer = activeBuffer;
+						activeBuffer = tmp;
+						activeBuffer.clear();
+						sequence = appendedSequence;
+						notifyAll();
+					} else if (!isOpen){
+						break;
+					}
+					roll = segment < rollSegment;
+				}
+				
+				flushBuffer.flip();
+				int written = flushBuffer.remaining();
+				dirty = dirty || flushBuffer.hasRemaining();
+				while(flushBuffer.hasRemaining()){
+					//records never span segments
+					int length = RECORD_HEADER + flushBuffer.getInt(flushBuffer.position());
+					if (segmentBuffer.remaining() < length){
+						nextSegment();
+					}
+					ByteBuffer data = flushBuffer.duplicate();
+					data.limit(data.position() + length);
+					segmentBuffer.put(data);
+					flushBuffer.position(data.limit());
+				}
+				flushBuffer.clear();
+				long now = System.currentTimeMillis();
+				if (dirty && (roll || syncBatch || (syncInterval && now - lastSync >= CrailConstants.NAMENODE_LOG_SYNC_INTERVAL))){
+					segmentBuffer.force();
+					lastSync = now;
+					dirty = false;
+				}
+				if (roll){
+					nextSegment();
+				}
+				
+				synchronized(this){
+					persistedSequence = sequence;
+					logSize = roll ? 0 : logSize + written;
+					notifyAll();
+				}
+			} catch(Exception e){
+				LOG.info("Exception in log appender: " + e.getMessage());
+				synchronized(this){
+					appendError = (e instanceof IOException) ? (IOException) e : new IOException(e);
+					notifyAll();
+				}
+				break;
+			}
+		}
+		if (dirty && appendError == null){
+			segmentBuffer.force();
+		}
+	}
+	
+	public void close() throws IOException {
+		synchronized(this){
+			isOpen = false;
+			notifyAll();
+		}
+		try {
+			appender.join();
+		} catch (InterruptedException e) {
+			throw new IOException(e);
+		}
+		segmentFile.close();
+	}
+	
+	private void checkState() throws IOException {
+		if (appendError != null){
+			throw appendError;
+		}
+		if (!isOpen){
+			throw new IOException("log service closed");
+		}
+	}
+	
+	private void openSegment(long number) throws IOException {
+		if (segmentFile != null){
+			segmentFile.close();
+		}
+		segmentFile = new RandomAccessFile(logFile(number), "rw");
+		segmentBuffer = segmentFile.getChannel().map(MapMode.READ_WRITE, 0, CrailConstants.NAMENODE_LOG_SEGMENT_SIZE);
+		segmentBuffer.putInt(SEGMENT_MAGIC);
+		segmentBuffer.putLong(number);
+	}
+	
+	private void nextSegment() throws IOException {
+		segmentBuffer.force();
+		long next = 0;
+		synchronized(this){
+			next = segment + 1;
+		}
+		openSegment(next);
+		synchronized(this){
+			segment = next;
+			notifyAll();
+		}
+	}
+	
+	//persist a checkpoint covering all log segments before the given one and drop those segments, returns the size of the checkpoint
+	public long writeCheckpoint(long segment, Checkpointable service) throws Exception {
+		File tmpFile = new File(checkpointFile.getPath() + ".tmp");
+		FileOutputStream tmpStream = new FileOutputStream(tmpFile);
+		long size = 0;
+		try {
+			DataOutputStream stream = new DataOutputStream(new BufferedOutputStream(tmpStream));
+			stream.writeInt(CHECKPOINT_MAGIC);
+			stream.writeLong(segment);
+			service.writeCheckpoint(stream);
+			stream.flush();
+			tmpStream.getChannel().force(true);
+			size = tmpStream.getChannel().position();
+		} finally {
+			tmpStream.close();
+		}
+		Files.move(tmpFile.toPath(), checkpointFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		truncate(segment);
+		return size;
+	}
+	
 	public void replay(RpcNameNodeService service) throws Exception {
-		File file = new File(CrailConstants.NAMENODE_LOG);
-		if (!file.exists()){
-			return;
-		}		
+		long firstSegment = 0;
+		if (checkpointFile.exists()){
+			if (!(service instanceof Checkpointable)){
+				throw new IOException("found checkpoint " + checkpointFile + ", but namenode service does not support checkpoints");
+			}
+			DataInputStream stream = new DataInputStream(new BufferedInputStream(new FileInputStream(checkpointFile)));
+			try {
+				if (stream.readInt() != CHECKPOINT_MAGIC){
+					throw new IOException("invalid checkpoint " + checkpointFile);
+				}
+				firstSegment = stream.readLong();
+				((Checkpointable) service).readCheckpoint(stream, tokens);
+			} finally {
+				stream.close();
+			}
+			LOG.info("loaded checkpoint " + checkpointFile + ", log segment " + firstSegment);
+		}
+		
+		//all segments after the checkpoint must be present, the one opened by this instance is still empty
+		ArrayList<Long> segments = new ArrayList<Long>();
+		long expected = firstSegment > 0 ? firstSegment : 1;
+		for (long number : listSegments()){
+			if (number == 0 && firstSegment == 0){
+				replayLegacy(service, logFile(number));
+			} else if (number >= firstSegment && number < segment){
+				if (number != expected){
+					throw new IOException("log segment " + logFile(expected) + " missing");
+				}
+				segments.add(number);
+				expected++;
+			}
+		}
 		
-		FileInputStream inStream = new FileInputStream(CrailConstants.NAMENODE_LOG);
+		long start = System.currentTimeMillis();
+		long records = replaySegments(service, segments);
+		LOG.info("replayed " + records + " log records from " + segments.size() + " segments in " + (System.currentTimeMillis() - start) + "ms");
+		truncate(firstSegment);
+	}
+	
+	//segments are verified and split into records in parallel, the records are applied in log order
+	private long replaySegments(RpcNameNodeService service, ArrayList<Long> segments) throws Exception {
+		int threads = CrailConstants.NAMENODE_LOG_REPLAY_THREADS;
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		LinkedList<Future<ArrayList<ByteBuffer>>> pending = new LinkedList<Future<ArrayList<ByteBuffer>>>();
+		LogRecord record = new LogRecord();
+		LogResponse response = new LogResponse();
+		long records = 0;
+		try {
+			int next = 0;
+			while(next < segments.size() || !pending.isEmpty()){
+				while(next < segments.size() && pending.size() < 2*threads){
+					boolean last = next == segments.size() - 1;
+					pending.add(executor.submit(new SegmentReader(segments.get(next), last)));
+					next++;
+				}
+				ArrayList<ByteBuffer> payloads = null;
+				try {
+					payloads = pending.removeFirst().get();
+				} catch(ExecutionException e){
+					throw (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+				}
+				for (ByteBuffer payload : payloads){
+					record.update(payload);
+					processServerEvent(service, record, response);
+					records++;
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		return records;
+	}
+	
+	private void replayLegacy(RpcNameNodeService service, File file) throws Exception {
+		FileInputStream inStream = new FileInputStream(file);
 		FileChannel inChannel = inStream.getChannel();
 		LogRecord record = new LogRecord();
 		LogResponse response = new LogResponse();
+		ByteBuffer header = ByteBuffer.allocate(4);
+		ByteBuffer payload = ByteBuffer.allocate(LogRecord.CSIZE);
 		
 		header.clear();
 		int ret = inChannel.read(header);
 		while(ret > 0){
 			header.flip();
 			int size = header.getInt();
+			if (size <= 0 || size > payload.capacity()){
+				throw new IOException("corrupt record in log " + file + " at offset " + (inChannel.position() - 4));
+			}
 			
 			payload.clear().limit(size);
 			while(payload.hasRemaining()){
-				inChannel.read(payload);
+				if (inChannel.read(payload) < 0){
+					break;
+				}
+			}
+			if (payload.hasRemaining()){
+				LOG.info("ignoring truncated record at the end of log " + file);
+				break;
 			}
 			payload.flip();
 			record.update(payload);
@@ -103,9 +412,152 @@ public class LogService {
 		inStream.close();
 	}
 	
-	public void close() throws IOException{
-		outChannel.close();
-		outStream.close();
+	private File logFile(long number){
+		if (number == 0){
+			return new File(CrailConstants.NAMENODE_LOG);
+		}
+		return new File(CrailConstants.NAMENODE_LOG + "." + number);
+	}
+	
+	private ArrayList<Long> listSegments(){
+		ArrayList<Long> segments = new ArrayList<Long>();
+		File log = new File(CrailConstants.NAMENODE_LOG).getAbsoluteFile();
+		File[] files = log.getParentFile().listFiles();
+		if (files == null){
+			return segments;
+		}
+		String prefix = log.getName() + ".";
+		for (File file : files){
+			String name = file.getName();
+			if (name.equals(log.getName())){
+				segments.add(0L);
+			} else if (name.startsWith(prefix)){
+				try {
+					segments.add(Long.parseLong(name.substring(prefix.length())));
+				} catch(NumberFormatException e){
+				}
+			}
+		}
+		Collections.sort(segments);
+		return segments;
+	}
+	
+	private long lastSegment(){
+		ArrayList<Long> segments = listSegments();
+		return segments.isEmpty() ? 0 : segments.get(segments.size() - 1);
+	}
+	
+	private long checkpointSegment() throws IOException {
+		if (!checkpointFile.exists()){
+			return 0;
+		}
+		DataInputStream stream = new DataInputStream(new FileInputStream(checkpointFile));
+		try {
+			if (stream.readInt() != CHECKPOINT_MAGIC){
+				throw new IOException("invalid checkpoint " + checkpointFile);
+			}
+			return stream.readLong();
+		} finally {
+			stream.close();
+		}
+	}
+	
+	private void truncate(long firstSegment){
+		for (long number : listSegments()){
+			if (number < firstSegment){
+				logFile(number).delete();
+			}
+		}
+	}
+	
+	private class SegmentReader implements Callable<ArrayList<ByteBuffer>> {
+		private long number;
+		private boolean last;
+		
+		public SegmentReader(long number, boolean last){
+			this.number = number;
+			this.last = last;
+		}
+		
+		@Override
+		public ArrayList<ByteBuffer> call() throws Exception {
+			File file = logFile(number);
+			RandomAccessFile randomFile = new RandomAccessFile(file, "r");
+			MappedByteBuffer buffer = null;
+			try {
+				buffer = randomFile.getChannel().map(MapMode.READ_ONLY, 0, randomFile.length());
+			} finally {
+				randomFile.close();
+			}
+			
+			ArrayList<ByteBuffer> payloads = new ArrayList<ByteBuffer>();
+			if (buffer.remaining() < SEGMENT_HEADER || buffer.getInt() != SEGMENT_MAGIC || buffer.getLong() != number){
+				//the newest segment may not have made it to disk at all
+				if (last){
+					LOG.info("clearing log segment " + file + " without valid header");
+					clearSegment(file);
+					return payloads;
+				}
+				throw new IOException("invalid header in log segment " + file);
+			}
+			
+			CRC32 checksum = new CRC32();
+			while(buffer.remaining() >= RECORD_HEADER){
+				int position = buffer.position();
+				int length = buffer.getInt();
+				int value = buffer.getInt();
+				if (length == 0 && value == 0){
+					break;
+				}
+				boolean valid = length > 0 && length <= LogRecord.CSIZE && length <= buffer.remaining();
+				if (valid){
+					ByteBuffer payload = buffer.slice();
+					payload.limit(length);
+					checksum.reset();
+					checksum.update(payload.duplicate());
+					valid = (int) checksum.getValue() == value;
+					if (valid){
+						payloads.add(payload);
+						buffer.position(buffer.position() + length);
+					}
+				}
+				if (!valid){
+					//a torn write can only be at the end of the newest segment, anything else is corruption
+					if (!last){
+						throw new IOException("corrupt record in log segment " + file + " at offset " + position);
+					}
+					LOG.info("discarding torn log tail in segment " + file + " at offset " + position);
+					clearTail(file, position);
+					break;
+				}
+			}
+			return payloads;
+		}
+		
+		//rewrite the segment as an empty one, it is no longer the newest once this instance opens the next segment
+		private void clearSegment(File file) throws IOException {
+			RandomAccessFile randomFile = new RandomAccessFile(file, "rw");
+			try {
+				randomFile.setLength(0);
+				randomFile.writeInt(SEGMENT_MAGIC);
+				randomFile.writeLong(number);
+				randomFile.write(new byte[RECORD_HEADER]);
+				randomFile.getChannel().force(true);
+			} finally {
+				randomFile.close();
+			}
+		}
+		
+		//terminate the segment in front of the torn record so that later restarts stop there as well
+		private void clearTail(File file, long position) throws IOException {
+			RandomAccessFile randomFile = new RandomAccessFile(file, "rw");
+			try {
+				randomFile.seek(position);
+				randomFile.write(new byte[RECORD_HEADER]);
+			} finally {
+				randomFile.close();
+			}
+		}
 	}
 	
 	private void processServerEvent(RpcNameNodeService service, LogRecord record, LogResponse response) {
@@ -133,9 +585,17 @@ public class LogService {
 				record.getBlock().setToken(tokens.get(record.getBlock().getFd()));
 				error = service.getBlock(record.getBlock(), response.getBlock(), response);
 				break;
+			case RpcProtocol.CMD_GET_BLOCKS:
+				record.getBlocks().setToken(tokens.get(record.getBlocks().getFd()));
+				error = service.getBlocks(record.getBlocks(), response.getBlocks(), response);
+				break;
 			case RpcProtocol.CMD_SET_BLOCK:
 				error = service.setBlock(record.setBlock(), response.getVoid(), response);
 				break;
+			case LogRecord.CMD_REPLACE_BLOCK:
+				LogRecord.ReplaceBlock replace = record.replaceBlock();
+				((Migratable) service).replaceBlock(replace.getFd(), replace.getIndex(), replace.getDnKey(), replace.getRegionLba(), replace.getOffset(), replace.getLength());
+				break;
 			default:
 				error = RpcErrors.ERR_INVALID_RPC_CMD;
 				LOG.info("Rpc command not valid, opcode " + record.getCmd());
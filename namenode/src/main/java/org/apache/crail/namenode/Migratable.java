@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2015-2018, IBM Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.crail.namenode;
+
+/*
+ * Services which move blocks between datanodes outside of a logged rpc. Every committed swap
+ * goes to the journal and is durable before the file can be written again, on restart the
+ * swaps are applied again in log order.
+ */
+public interface Migratable {
+	//called by the log dispatcher before the service is exposed, without a journal swaps are not logged
+	void setBlockJournal(BlockJournal journal);
+	//makes block index of file fd the given free block and frees the block it replaces
+	void replaceBlock(long fd, int index, long dnKey, long regionLba, long offset, int length) throws Exception;
+}
@@ -61,4 +61,8 @@ public class NameNodeBlockInfo extends BlockInfo {
 		return region;
 	}
 	
+	public long getOffset() {
+		return offset;
+	}
+	
 }
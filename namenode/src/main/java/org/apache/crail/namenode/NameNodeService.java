@@ -19,10 +19,18 @@
 
 package org.apache.crail.namenode;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.StringTokenizer;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.DelayQueue;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -41,8 +49,10 @@ import org.apache.crail.rpc.RpcResponseMessage;
 import org.apache.crail.utils.CrailUtils;
 import org.slf4j.Logger;
 
-public class NameNodeService implements RpcNameNodeService, Sequencer {
+public class NameNodeService implements RpcNameNodeService, Sequencer, Checkpointable, Migratable {
 	private static final Logger LOG = CrailUtils.getLogger();
+	private static final int FILE_TABLE_SEGMENTS = 64;
+	private static final int FILE_TABLE_CAPACITY = 1 << 16;
 	
 	//data structures for datanodes, blocks, files
 	private long serviceId;
@@ -51,8 +61,10 @@ public class NameNodeService implements RpcNameNodeService, Sequencer {
 	private BlockStore blockStore;
 	private DelayQueue<AbstractNode> deleteQueue;
 	private FileStore fileTree;
-	private ConcurrentHashMap<Long, AbstractNode> fileTable;	
+	private ConcurrentLongMap<AbstractNode> fileTable;	
 	private GCServer gcServer;
+	private BlockJournal blockJournal;
+	private CheckpointCut checkpointCut;
 	
 	public NameNodeService() throws IOException {
 		URI uri = URI.create(CrailConstants.NAMENODE_ADDRESS);
@@ -64,7 +76,7 @@ public class NameNodeService implements RpcNameNodeService, Sequencer {
 		this.blockStore = new BlockStore();
 		this.deleteQueue = new DelayQueue<AbstractNode>();
 		this.fileTree = new FileStore(this);
-		this.fileTable = new ConcurrentHashMap<Long, AbstractNode>();
+		this.fileTable = new ConcurrentLongMap<AbstractNode>(FILE_TABLE_SEGMENTS, FILE_TABLE_CAPACITY);
 		this.gcServer = new GCServer(this, deleteQueue);
 		
 		AbstractNode root = fileTree.getRoot();
@@ -127,7 +139,12 @@ public class NameNodeService implements RpcNameNodeService, Sequencer {
 		}
 		fileTable.put(fileInfo.getFd(), fileInfo);
 		
-		NameNodeBlockInfo fileBlock = blockStore.getBlock(fileInfo.getStorageClass(), fileInfo.getLocationClass());
+		NameNodeBlockInfo fileBlock = null;
+		if (type.isDataFile()){
+			fileBlock = blockStore.getFileBlock(fileInfo.getStorageClass(), fileInfo.getLocationClass());
+		} else {
+			fileBlock = blockStore.getBlock(fileInfo.getStorageClass(), fileInfo.getLocationClass());
+		}
 		if (fileBlock == null){
 			return RpcErrors.ERR_NO_FREE_BLOCKS;
 		}			
@@ -200,7 +217,10 @@ public class NameNodeService implements RpcNameNodeService, Sequencer {
 		if (writeable){
 			fileInfo.updateToken();
 		}
-		fileTable.put(fileInfo.getFd(), fileInfo);
+		//lookups of hot files would otherwise all serialize on the same table bin
+		if (fileTable.get(fileInfo.getFd()) != fileInfo){
+			fileTable.put(fileInfo.getFd(), fileInfo);
+		}
 		
 		BlockInfo fileBlock = fileInfo.getBlock(0);
 		
@@ -415,11 +435,132 @@ public class NameNodeService implements RpcNameNodeService, Sequencer {
 		}
 		
 		dnInfoNn.touch();
+		dnInfoNn.setInFlight(request.getInFlight());
 		response.setServiceId(serviceId);
 		response.setFreeBlockCount(dnInfoNn.getBlockCount());
+		response.setDraining(dnInfoNn.isDraining());
 		
 		return RpcErrors.ERR_OK;
 	}	
+	
+	@Override
+	public short drainDataNode(RpcRequestMessage.DrainDataNodeReq request, RpcResponseMessage.VoidRes response, RpcNameNodeState errorState) throws Exception {
+		//check protocol
+		if (!RpcProtocol.verifyProtocol(RpcProtocol.CMD_DRAIN_DATANODE, request, response)){
+			return RpcErrors.ERR_PROTOCOL_MISMATCH;
+		}
+		
+		//get params
+		DataNodeInfo dnInfo = request.getInfo();
+		boolean drain = request.isDrain();
+		
+		//rpc
+		DataNodeBlocks dataNode = blockStore.findDataNode(dnInfo);
+		if (dataNode == null){
+			return RpcErrors.ERR_DATANODE_NOT_REGISTERED;
+		}
+		synchronized(dataNode){
+			dataNode.setDraining(drain);
+			if (!drain){
+				abortMigrations(dataNode);
+			}
+		}
+		
+		LOG.info("datanode " + CrailUtils.getIPAddressFromBytes(dataNode.getIpAddress()) + ":" + dataNode.getPort() + (drain ? " draining" : " no longer draining"));
+		
+		return RpcErrors.ERR_OK;
+	}
+	
+	@Override
+	public short migrateBlocks(RpcRequestMessage.MigrateBlocksReq request, RpcResponseMessage.MigrateBlocksRes response, RpcNameNodeState errorState) throws Exception {
+		//check protocol
+		if (!RpcProtocol.verifyProtocol(RpcProtocol.CMD_MIGRATE_BLOCKS, request, response)){
+			return RpcErrors.ERR_PROTOCOL_MISMATCH;
+		}
+		
+		//get params
+		DataNodeInfo dnInfo = request.getInfo();
+		
+		//check params
+		if (request.getCount() > CrailConstants.NAMENODE_BATCH_SIZE){
+			return RpcErrors.ERR_BATCH_TOO_LARGE;
+		}
+		
+		//rpc
+		DataNodeBlocks dataNode = blockStore.findDataNode(dnInfo);
+		if (dataNode == null){
+			return RpcErrors.ERR_DATANODE_NOT_REGISTERED;
+		}
+		
+		response.clear();
+		synchronized(dataNode){
+			//blocks the datanode reports as copied are swapped into their files, all others are given up
+			ArrayList<BlockMigration> pending = dataNode.takeMigrations();
+			int committed = 0;
+			long sequence = 0;
+			for (BlockMigration migration : pending){
+				boolean copied = false;
+				for (int i = 0; i < request.getCount() && !copied; i++){
+					copied = migration.matches(request.getFd(i), request.getIndex(i));
+				}
+				if (copied && migration.commit()){
+					if (blockJournal != null){
+						sequence = blockJournal.writeReplaceBlock(migration.getFd(), migration.getIndex(), migration.getTarget());
+					}
+					blockStore.addBlock(migration.getSource());
+					committed++;
+				} else {
+					blockStore.addBlock(migration.getTarget());
+					dataNode.getDrainQueue().add(migration);
+				}
+			}
+			//the files stay locked until their swaps are durable, no write can go to a target a restart would forget
+			if (blockJournal != null && committed > 0){
+				blockJournal.sync(sequence);
+			}
+			for (BlockMigration migration : pending){
+				migration.release();
+			}
+			
+			if (dataNode.isDraining()){
+				planMigrations(dataNode, response);
+			}
+			
+			if (CrailConstants.DEBUG){
+				LOG.info("migrateBlocks: committed " + committed + ", next " + response.getCount() + ", remaining " + response.getRemaining());
+			}
+		}
+		
+		return RpcErrors.ERR_OK;
+	}
+
+	@Override
+	public void setBlockJournal(BlockJournal journal) {
+		this.blockJournal = journal;
+	}
+	
+	@Override
+	public void replaceBlock(long fd, int index, long dnKey, long regionLba, long offset, int length) throws Exception {
+		AbstractNode fileInfo = fileTable.get(fd);
+		if (fileInfo == null){
+			LOG.info("replaceBlock: fd " + fd + " not found");
+			return;
+		}
+		NameNodeBlockInfo source = fileInfo.getBlock(index);
+		NameNodeBlockInfo target = blockStore.claimBlock(dnKey, regionLba, offset, length);
+		if (source == null || target == null){
+			LOG.info("replaceBlock: block " + index + " of fd " + fd + " cannot be replaced");
+			if (target != null){
+				blockStore.addBlock(target);
+			}
+			return;
+		}
+		if (fileInfo.replaceBlock(index, source, target)){
+			blockStore.addBlock(source);
+		} else {
+			blockStore.addBlock(target);
+		}
+	}
 
 	@Override
 	public short setBlock(RpcRequestMessage.SetBlockReq request, RpcResponseMessage.VoidRes response, RpcNameNodeState errorState) throws Exception {
@@ -437,19 +578,46 @@ public class NameNodeService implements RpcNameNodeService, Sequencer {
 			error = blockStore.updateRegion(region);
 		} else {
 			//rpc
-			int realBlocks = (int) (((long) region.getLength()) / CrailConstants.BLOCK_SIZE) ;
-			long offset = 0;
-			for (int i = 0; i < realBlocks; i++){
-				NameNodeBlockInfo nnBlock = new NameNodeBlockInfo(region, offset, (int) CrailConstants.BLOCK_SIZE);
-				error = blockStore.addBlock(nnBlock);
-				offset += CrailConstants.BLOCK_SIZE;
-				
-				if (error != RpcErrors.ERR_OK){
-					break;
+			error = blockStore.addRegion(region, null);
+		}
+		
+		return error;
+	}
+
+	@Override
+	public short setBlocks(RpcRequestMessage.SetBlocksReq request, RpcResponseMessage.VoidRes response, RpcNameNodeState errorState) throws Exception {
+		//check protocol
+		if (!RpcProtocol.verifyProtocol(RpcProtocol.CMD_SET_BLOCKS, request, response)){
+			return RpcErrors.ERR_PROTOCOL_MISMATCH;
+		}
+		
+		//check params
+		if (request.getCount() > CrailConstants.NAMENODE_BATCH_SIZE){
+			return RpcErrors.ERR_BATCH_TOO_LARGE;
+		}
+		
+		//get params, regions already known are updated in place, new ones are inserted together
+		BlockInfo[] regions = new BlockInfo[request.getCount()];
+		int count = 0;
+		short error = RpcErrors.ERR_OK;
+		for (int i = 0; i < request.getCount(); i++){
+			BlockInfo region = new BlockInfo();
+			region.setBlockInfo(request.getBlockInfo(i));
+			if (blockStore.regionExists(region)){
+				short res = blockStore.updateRegion(region);
+				if (res != RpcErrors.ERR_OK){
+					error = res;
 				}
+			} else {
+				regions[count++] = region;
 			}
 		}
 		
+		//rpc
+		if (count > 0){
+			blockStore.addRegions(regions, 0, count);
+		}
+		
 		return error;
 	}
 
@@ -506,6 +674,84 @@ public class NameNodeService implements RpcNameNodeService, Sequencer {
 		return RpcErrors.ERR_OK;
 	}
 	
+	@Override
+	public short getBlocks(RpcRequestMessage.GetBlocksReq request, RpcResponseMessage.GetBlocksRes response, RpcNameNodeState errorState) throws Exception {
+		//check protocol
+		if (!RpcProtocol.verifyProtocol(RpcProtocol.CMD_GET_BLOCKS, request, response)){
+			return RpcErrors.ERR_PROTOCOL_MISMATCH;
+		}			
+		
+		//get params
+		long fd = request.getFd();
+		long token = request.getToken();
+		long position = request.getPosition();
+		long capacity = request.getCapacity();
+		int count = Math.max(1, Math.min(request.getCount(), CrailConstants.NAMENODE_BLOCK_WINDOW));
+		
+		//check params
+		if (position < 0){
+			return RpcErrors.ERR_POSITION_NEGATIV;
+		}
+	
+		//rpc
+		AbstractNode fileInfo = fileTable.get(fd);
+		if (fileInfo == null){
+			return RpcErrors.ERR_FILE_NOT_OPEN;			
+		}
+		
+		int index = CrailUtils.computeIndex(position);
+		if (index < 0){
+			return RpcErrors.ERR_POSITION_NEGATIV;			
+		}
+		
+		//missing blocks are allocated in one go so that they come in runs of contiguous blocks
+		response.clear();
+		short error = RpcErrors.ERR_OK;
+		NameNodeBlockInfo[] newBlocks = null;
+		int newCount = 0;
+		int newUsed = 0;
+		for (int i = 0; i < count; i++){
+			NameNodeBlockInfo block = fileInfo.getBlock(index + i);
+			if (block == null && fileInfo.getToken() == token){
+				if (newBlocks == null){
+					newBlocks = new NameNodeBlockInfo[count - i];
+					newCount = blockStore.getBlocks(fileInfo.getStorageClass(), fileInfo.getLocationClass(), newBlocks, newBlocks.length);
+				}
+				if (newUsed == newCount){
+					error = RpcErrors.ERR_NO_FREE_BLOCKS;
+					break;
+				}
+				if (!fileInfo.addBlock(index + i, newBlocks[newUsed])){
+					error = RpcErrors.ERR_ADD_BLOCK_FAILED;
+					break;
+				}
+				newUsed++;
+				block = fileInfo.getBlock(index + i);
+				if (block == null){
+					error = RpcErrors.ERR_ADD_BLOCK_FAILED;
+					break;
+				}
+				fileInfo.setCapacity(capacity);
+			} else if (block == null && token > 0){ 
+				error = RpcErrors.ERR_TOKEN_MISMATCH;
+				break;
+			} else if (block == null && token == 0){ 
+				error = RpcErrors.ERR_CAPACITY_EXCEEDED;
+				break;
+			} 
+			response.addBlockInfo(block);
+		}
+		for (int i = newUsed; i < newCount; i++){
+			blockStore.addBlock(newBlocks[i]);
+		}
+		
+		//a shorter run is fine, the client falls back to getBlock for the rest
+		if (response.getBlockCount() == 0){
+			return error;
+		}
+		return RpcErrors.ERR_OK;
+	}
+	
 	@Override
 	public short getLocation(RpcRequestMessage.GetLocationReq request, RpcResponseMessage.GetLocationRes response, RpcNameNodeState errorState) throws Exception {
 		//check protocol
@@ -545,6 +791,50 @@ public class NameNodeService implements RpcNameNodeService, Sequencer {
 		return RpcErrors.ERR_OK;
 	}
 
+	@Override
+	public short batch(RpcRequestMessage.BatchReq request, RpcResponseMessage.BatchRes response, RpcNameNodeState errorState) throws Exception {
+		//check protocol
+		if (!RpcProtocol.verifyProtocol(RpcProtocol.CMD_BATCH, request, response)){
+			return RpcErrors.ERR_PROTOCOL_MISMATCH;
+		}
+		
+		//get params
+		int count = request.getCount();
+		
+		//check params
+		if (count > CrailConstants.NAMENODE_BATCH_SIZE){
+			return RpcErrors.ERR_BATCH_TOO_LARGE;
+		}
+		
+		//rpc
+		for (int i = 0; i < count; i++){
+			short error = RpcErrors.ERR_OK;
+			errorState.setError(RpcErrors.ERR_OK);
+			switch(request.getType(i)){
+			case RpcProtocol.REQ_CREATE_FILE:
+				error = this.createFile(request.createFile(i), response.createFile(i), errorState);
+				break;
+			case RpcProtocol.REQ_GET_FILE:
+				error = this.getFile(request.getFile(i), response.getFile(i), errorState);
+				break;
+			case RpcProtocol.REQ_REMOVE_FILE:
+				error = this.removeFile(request.removeFile(i), response.removeFile(i), errorState);
+				break;
+			default:
+				response.invalid(i);
+				error = RpcErrors.ERR_INVALID_RPC_CMD;
+			}
+			response.setError(i, error);
+		}
+		errorState.setError(RpcErrors.ERR_OK);
+		
+		if (CrailConstants.DEBUG){
+			LOG.info("batch: count " + count);
+		}
+		
+		return RpcErrors.ERR_OK;
+	}
+	
 	//------------------------
 	
 	@Override
@@ -573,6 +863,270 @@ public class NameNodeService implements RpcNameNodeService, Sequencer {
 	}
 	
 	
+	//--------------- checkpointing
+	
+	@Override
+	public void captureCheckpoint() throws Exception {
+		//nodes are not copied here, the first change to a node after this point keeps its old state for the checkpoint
+		long epoch = AbstractNode.nextCheckpointEpoch();
+		checkpointCut = new CheckpointCut(epoch, sequenceId.get(), blockStore.getRegions(), fileTree.getRoot(), deleteQueue.toArray());
+	}
+	
+	@Override
+	public void writeCheckpoint(DataOutputStream stream) throws Exception {
+		CheckpointCut cut = checkpointCut;
+		checkpointCut = null;
+		if (cut == null){
+			throw new IOException("no checkpoint has been captured");
+		}
+		
+		stream.writeLong(cut.sequenceId);
+		
+		ByteBuffer buffer = ByteBuffer.allocate(BlockInfo.CSIZE);
+		stream.writeInt(cut.regions.size());
+		for (BlockInfo region : cut.regions){
+			buffer.clear();
+			region.write(buffer);
+			stream.write(buffer.array());
+		}
+		
+		writeNode(stream, cut.root, cut.epoch);
+		
+		//files which have been deleted but not yet been collected by the GC
+		stream.writeInt(cut.pending.length);
+		for (Object object : cut.pending){
+			AbstractNode fileInfo = (AbstractNode) object;
+			ArrayList<NameNodeBlockInfo> blocks = new ArrayList<NameNodeBlockInfo>();
+			collectBlocks(fileInfo, cut.epoch, blocks);
+			stream.writeLong(fileInfo.getFd());
+			stream.writeInt(blocks.size());
+			for (NameNodeBlockInfo block : blocks){
+				writeBlock(stream, block);
+			}
+		}
+	}
+	
+	@Override
+	public void readCheckpoint(DataInputStream stream, Map<Long, Long> tokens) throws Exception {
+		sequenceId.set(stream.readLong());
+		
+		HashMap<Long, HashMap<Long, RestoredRegion>> regionMap = new HashMap<Long, HashMap<Long, RestoredRegion>>();
+		ArrayList<RestoredRegion> regionList = new ArrayList<RestoredRegion>();
+		ByteBuffer buffer = ByteBuffer.allocate(BlockInfo.CSIZE);
+		int regionCount = stream.readInt();
+		for (int i = 0; i < regionCount; i++){
+			stream.readFully(buffer.array());
+			buffer.clear();
+			BlockInfo region = new BlockInfo();
+			region.update(buffer);
+			
+			RestoredRegion restored = new RestoredRegion(region);
+			HashMap<Long, RestoredRegion> dnRegions = regionMap.get(region.getDnInfo().key());
+			if (dnRegions == null){
+				dnRegions = new HashMap<Long, RestoredRegion>();
+				regionMap.put(region.getDnInfo().key(), dnRegions);
+			}
+			dnRegions.put(region.getLba(), restored);
+			regionList.add(restored);
+		}
+		
+		fileTable.clear();
+		AbstractNode root = readNode(stream, regionMap, tokens);
+		fileTree.setRoot(root);
+		
+		int pendingCount = stream.readInt();
+		for (int i = 0; i < pendingCount; i++){
+			long fd = stream.readLong();
+			int blockCount = stream.readInt();
+			AbstractNode fileInfo = fileTree.createNode(fd, 0, CrailNodeType.DATAFILE, 0, 0, false);
+			int index = 0;
+			for (int j = 0; j < blockCount; j++){
+				NameNodeBlockInfo block = readBlock(stream, regionMap);
+				if (block != null && fileInfo.addBlock(index, block)){
+					index++;
+				}
+			}
+			fileTable.put(fd, fileInfo);
+			appendToDeleteQueue(fileInfo);
+		}
+		
+		//whatever is not referenced by any file goes back to the free lists
+		for (RestoredRegion restored : regionList){
+			blockStore.addRegion(restored.region, restored.usedBlocks);
+			for (Map.Entry<Integer, RestoredSlab> entry : restored.slabs.entrySet()){
+				NameNodeBlockInfo slab = new NameNodeBlockInfo(restored.region, ((long) entry.getKey())*CrailConstants.BLOCK_SIZE, (int) CrailConstants.BLOCK_SIZE);
+				blockStore.addSlab(slab, entry.getValue().extentSize, entry.getValue().usedExtents);
+			}
+		}
+		
+		LOG.info("restored checkpoint, files " + fileTable.size() + ", regions " + regionCount + ", pending deletes " + pendingCount);
+	}
+	
+	private void writeNode(DataOutputStream stream, AbstractNode fileInfo, long epoch) throws Exception {
+		AbstractNode.CheckpointImage image = fileInfo.checkpointImage(epoch);
+		stream.writeInt(image.component);
+		stream.writeInt(fileInfo.getType().getLabel());
+		stream.writeInt(fileInfo.getStorageClass());
+		stream.writeInt(fileInfo.getLocationClass());
+		stream.writeLong(fileInfo.getFd());
+		stream.writeLong(image.capacity);
+		stream.writeLong(image.dirOffset);
+		stream.writeLong(image.token);
+		stream.writeLong(image.modificationTime);
+		
+		stream.writeInt(image.blocks.size());
+		for (Map.Entry<Integer, NameNodeBlockInfo> entry : image.blocks.entrySet()){
+			stream.writeInt(entry.getKey());
+			writeBlock(stream, entry.getValue());
+		}
+		
+		if (fileInfo.getType().isContainer()){
+			stream.writeLong(image.dirOffsetCounter);
+			stream.writeInt(image.children.size());
+			for (AbstractNode child : image.children){
+				writeNode(stream, child, epoch);
+			}
+		}
+	}
+	
+	private AbstractNode readNode(DataInputStream stream, HashMap<Long, HashMap<Long, RestoredRegion>> regionMap, Map<Long, Long> tokens) throws Exception {
+		int component = stream.readInt();
+		CrailNodeType type = CrailNodeType.parse(stream.readInt());
+		int storageClass = stream.readInt();
+		int locationClass = stream.readInt();
+		long fd = stream.readLong();
+		long capacity = stream.readLong();
+		long dirOffset = stream.readLong();
+		long token = stream.readLong();
+		long modificationTime = stream.readLong();
+		
+		AbstractNode fileInfo = fileTree.createNode(fd, component, type, storageClass, locationClass, dirOffset != FileInfo.NOT_ENUMERABLE);
+		fileInfo.restore(capacity, dirOffset, token, modificationTime);
+		//tokens are based on nanoTime and meaningless after a restart, files open for writing get a fresh one
+		if (token > 0){
+			fileInfo.updateToken();
+		}
+		tokens.put(fd, fileInfo.getToken());
+		
+		int blockCount = stream.readInt();
+		for (int i = 0; i < blockCount; i++){
+			int index = stream.readInt();
+			NameNodeBlockInfo block = readBlock(stream, regionMap);
+			if (block == null || !fileInfo.addBlock(index, block)){
+				LOG.info("checkpoint: failed to restore block " + index + " of fd " + fd);
+			}
+		}
+		
+		if (type.isContainer()){
+			DirectoryBlocks directory = (DirectoryBlocks) fileInfo;
+			directory.setDirOffsetCounter(stream.readLong());
+			int childCount = stream.readInt();
+			for (int i = 0; i < childCount; i++){
+				directory.restoreChild(readNode(stream, regionMap, tokens));
+			}
+		}
+		
+		fileTable.put(fd, fileInfo);
+		return fileInfo;
+	}
+	
+	private void writeBlock(DataOutputStream stream, NameNodeBlockInfo block) throws IOException {
+		stream.writeLong(block.getDnInfo().key());
+		stream.writeLong(block.getRegion().getLba());
+		stream.writeLong(block.getOffset());
+		stream.writeInt(block.getLength());
+	}
+	
+	//returns the block and marks it as used, or null if the block is unknown or already taken
+	private NameNodeBlockInfo readBlock(DataInputStream stream, HashMap<Long, HashMap<Long, RestoredRegion>> regionMap) throws IOException {
+		long dnKey = stream.readLong();
+		long lba = stream.readLong();
+		long offset = stream.readLong();
+		int length = stream.readInt();
+		
+		HashMap<Long, RestoredRegion> dnRegions = regionMap.get(dnKey);
+		if (dnRegions == null){
+			return null;
+		}
+		RestoredRegion restored = dnRegions.get(lba);
+		int index = (int) (offset / CrailConstants.BLOCK_SIZE);
+		if (restored == null || index < 0 || index >= BlockTable.blockCount(restored.region)){
+			return null;
+		}
+		if (length < CrailConstants.BLOCK_SIZE){
+			//extents share their slab block, the slab is rebuilt once all files are read
+			RestoredSlab slab = restored.slabs.get(index);
+			if (slab == null){
+				if (length <= 0 || restored.usedBlocks.get(index)){
+					return null;
+				}
+				slab = new RestoredSlab(length);
+				restored.slabs.put(index, slab);
+				restored.usedBlocks.set(index);
+			}
+			int extent = (int) ((offset % CrailConstants.BLOCK_SIZE) / length);
+			if (slab.extentSize != length || slab.usedExtents.get(extent)){
+				return null;
+			}
+			slab.usedExtents.set(extent);
+			return new NameNodeBlockInfo(restored.region, offset, length);
+		}
+		if (restored.usedBlocks.get(index)){
+			return null;
+		}
+		restored.usedBlocks.set(index);
+		return new NameNodeBlockInfo(restored.region, offset, (int) CrailConstants.BLOCK_SIZE);
+	}
+	
+	private void collectBlocks(AbstractNode fileInfo, long epoch, ArrayList<NameNodeBlockInfo> blocks) throws Exception {
+		AbstractNode.CheckpointImage image = fileInfo.checkpointImage(epoch);
+		blocks.addAll(image.blocks.values());
+		if (fileInfo.getType().isContainer()){
+			for (AbstractNode child : image.children){
+				collectBlocks(child, epoch, blocks);
+			}
+		}
+	}
+	
+	//what a checkpoint has to write, taken while no mutating rpcs are in flight
+	private static class CheckpointCut {
+		long epoch;
+		long sequenceId;
+		ArrayList<BlockInfo> regions;
+		AbstractNode root;
+		Object[] pending;
+		
+		CheckpointCut(long epoch, long sequenceId, ArrayList<BlockInfo> regions, AbstractNode root, Object[] pending){
+			this.epoch = epoch;
+			this.sequenceId = sequenceId;
+			this.regions = regions;
+			this.root = root;
+			this.pending = pending;
+		}
+	}
+	
+	private static class RestoredRegion {
+		BlockInfo region;
+		BitSet usedBlocks;
+		HashMap<Integer, RestoredSlab> slabs;
+		
+		RestoredRegion(BlockInfo region){
+			this.region = region;
+			this.usedBlocks = new BitSet();
+			this.slabs = new HashMap<Integer, RestoredSlab>();
+		}
+	}
+	
+	private static class RestoredSlab {
+		int extentSize;
+		BitSet usedExtents;
+		
+		RestoredSlab(int extentSize){
+			this.extentSize = extentSize;
+			this.usedExtents = new BitSet();
+		}
+	}
+	
 	//--------------- helper functions
 	
 	void appendToDeleteQueue(AbstractNode fileInfo) throws Exception {
@@ -589,9 +1143,83 @@ public class NameNodeService implements RpcNameNodeService, Sequencer {
 		}
 	}
 
+	//hands out the next batch of blocks to be copied off the datanode, the files stay locked until the batch is reported back
+	private void planMigrations(DataNodeBlocks dataNode, RpcResponseMessage.MigrateBlocksRes response) throws Exception {
+		ArrayDeque<BlockMigration> queue = dataNode.getDrainQueue();
+		//the second scan picks up blocks which were being allocated while the first one ran
+		if (queue.isEmpty() && dataNode.getDrainScans() < 2){
+			collectMigrations(dataNode, queue);
+			dataNode.incDrainScans();
+		}
+		
+		HashMap<AbstractNode, Long> tokens = new HashMap<AbstractNode, Long>();
+		HashSet<AbstractNode> added = new HashSet<AbstractNode>();
+		ArrayList<BlockMigration> deferred = new ArrayList<BlockMigration>();
+		while(!response.isFull() && !queue.isEmpty()){
+			BlockMigration migration = queue.poll();
+			AbstractNode file = migration.getFile();
+			if (fileTable.get(file.getFd()) != file || file.getBlock(migration.getIndex()) != migration.getSource()){
+				//deleted or already moved in the meantime
+				continue;
+			}
+			Long token = tokens.get(file);
+			if (token == null){
+				if (!file.tokenFree()){
+					deferred.add(migration);
+					continue;
+				}
+				file.updateToken();
+				token = file.getToken();
+				tokens.put(file, token);
+			}
+			NameNodeBlockInfo target = blockStore.getTargetBlock(migration.getSource(), file.getLocationClass());
+			if (target == null){
+				deferred.add(migration);
+				continue;
+			}
+			migration.assign(target, token);
+			dataNode.addMigration(migration);
+			response.addBlock(file.getFd(), migration.getIndex(), migration.getSource(), target);
+			added.add(file);
+		}
+		for (AbstractNode file : tokens.keySet()){
+			if (!added.contains(file)){
+				file.resetToken();
+			}
+		}
+		queue.addAll(deferred);
+		response.setRemaining(queue.size());
+	}
+	
+	private void collectMigrations(DataNodeBlocks dataNode, ArrayDeque<BlockMigration> queue) throws Exception {
+		for (AbstractNode file : fileTable.values()){
+			if (file.getType().isContainer()){
+				continue;
+			}
+			for (int i = 0; ; i++){
+				NameNodeBlockInfo source = file.getBlock(i);
+				if (source == null){
+					break;
+				}
+				if (source.getDnInfo().key() == dataNode.key()){
+					queue.add(new BlockMigration(file, i, source));
+				}
+			}
+		}
+	}
+	
+	private void abortMigrations(DataNodeBlocks dataNode) throws Exception {
+		ArrayList<BlockMigration> pending = dataNode.takeMigrations();
+		for (BlockMigration migration : pending){
+			blockStore.addBlock(migration.getTarget());
+		}
+		for (BlockMigration migration : pending){
+			migration.release();
+		}
+	}
+
 	private void dumpFastMap(){
-		for (Long key : fileTable.keySet()){
-			AbstractNode file = fileTable.get(key);
+		for (AbstractNode file : fileTable.values()){
 			System.out.println(file.toString());
 		}		
 	}
@@ -35,6 +35,7 @@ public class TableBlocks extends DirectoryBlocks {
 			throw new Exception("Attempt to create key/value pair in container other than a table");
 		}
 		
+		beforeUpdate();
 		AbstractNode oldNode = children.put(child.getComponent(), child);
 		if (child.isEnumerable()) {
 			child.setDirOffset(dirOffsetCounter.getAndAdd(CrailConstants.DIRECTORY_RECORD));
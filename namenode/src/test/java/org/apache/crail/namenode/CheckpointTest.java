@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2015-2018, IBM Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.crail.namenode;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.crail.CrailNodeType;
+import org.apache.crail.conf.CrailConstants;
+import org.apache.crail.metadata.BlockInfo;
+import org.apache.crail.metadata.DataNodeInfo;
+import org.apache.crail.metadata.FileInfo;
+import org.apache.crail.metadata.FileName;
+import org.apache.crail.rpc.RpcErrors;
+import org.apache.crail.rpc.RpcRequestMessage;
+import org.apache.crail.rpc.RpcResponseMessage;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CheckpointTest {
+	private static final int REGION_BLOCKS = 16;
+	
+	private NameNodeService service;
+	
+	@Before
+	public void init() throws Exception {
+		CrailConstants.NAMENODE_ADDRESS = "crail://localhost:9060?id=0&size=1";
+		service = new NameNodeService();
+	}
+	
+	@Test
+	public void testCutIgnoresLaterUpdates() throws Exception {
+		addRegions(service, 4);
+		Assert.assertEquals(RpcErrors.ERR_OK, create(service, "/a", CrailNodeType.DIRECTORY));
+		Assert.assertEquals(RpcErrors.ERR_OK, create(service, "/c", CrailNodeType.DIRECTORY));
+		for (int i = 0; i < 4; i++){
+			Assert.assertEquals(RpcErrors.ERR_OK, create(service, "/a/f" + i, CrailNodeType.DATAFILE));
+		}
+		long dirOffset = lookup(service, "/a/f1").getDirOffset();
+		
+		service.captureCheckpoint();
+		Assert.assertEquals(RpcErrors.ERR_OK, remove(service, "/a/f0"));
+		Assert.assertEquals(RpcErrors.ERR_OK, rename(service, "/a/f1", "/c/g1"));
+		Assert.assertEquals(RpcErrors.ERR_OK, create(service, "/a/f4", CrailNodeType.DATAFILE));
+		Assert.assertEquals(RpcErrors.ERR_OK, create(service, "/b", CrailNodeType.DIRECTORY));
+		Assert.assertEquals(RpcErrors.ERR_OK, create(service, "/b/x", CrailNodeType.DATAFILE));
+		NameNodeService restored = restore(checkpoint(service));
+		
+		for (int i = 0; i < 4; i++){
+			Assert.assertNotNull(lookup(restored, "/a/f" + i));
+		}
+		Assert.assertEquals(dirOffset, lookup(restored, "/a/f1").getDirOffset());
+		Assert.assertNull(lookup(restored, "/a/f4"));
+		Assert.assertNull(lookup(restored, "/c/g1"));
+		Assert.assertNull(lookup(restored, "/b"));
+		Assert.assertNull(lookup(restored, "/b/x"));
+		
+		//the next checkpoint sees the updates
+		service.captureCheckpoint();
+		restored = restore(checkpoint(service));
+		Assert.assertNull(lookup(restored, "/a/f0"));
+		Assert.assertNull(lookup(restored, "/a/f1"));
+		Assert.assertNotNull(lookup(restored, "/c/g1"));
+		Assert.assertNotNull(lookup(restored, "/a/f4"));
+		Assert.assertNotNull(lookup(restored, "/b/x"));
+	}
+	
+	@Test
+	public void testConcurrentUpdates() throws Exception {
+		final int threads = 4;
+		final int files = 32;
+		final int operations = 400;
+		addRegions(service, threads * operations / REGION_BLOCKS + 2);
+		for (int i = 0; i < threads; i++){
+			Assert.assertEquals(RpcErrors.ERR_OK, create(service, "/t" + i, CrailNodeType.DIRECTORY));
+		}
+		
+		//same protocol as the log dispatcher, updates hold the read lock, the cut is taken under the write lock
+		final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+		final boolean[][] exists = new boolean[threads][files];
+		final AtomicInteger completed = new AtomicInteger(0);
+		final AtomicInteger afterCut = new AtomicInteger(0);
+		final AtomicBoolean captured = new AtomicBoolean(false);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		final CountDownLatch done = new CountDownLatch(threads);
+		for (int i = 0; i < threads; i++){
+			final int thread = i;
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					Random random = new Random(thread);
+					try {
+						for (int op = 0; op < operations; op++){
+							int file = random.nextInt(files);
+							String path = "/t" + thread + "/f" + file;
+							lock.readLock().lock();
+							try {
+								if (exists[thread][file]){
+									Assert.assertEquals(RpcErrors.ERR_OK, remove(service, path));
+								} else {
+									Assert.assertEquals(RpcErrors.ERR_OK, create(service, path, CrailNodeType.DATAFILE));
+								}
+								exists[thread][file] = !exists[thread][file];
+							} finally {
+								lock.readLock().unlock();
+							}
+							completed.incrementAndGet();
+							if (captured.get()){
+								afterCut.incrementAndGet();
+							}
+						}
+					} catch(Throwable e){
+						failure.set(e);
+					} finally {
+						done.countDown();
+					}
+				}
+			}).start();
+		}
+		
+		//let the updates get going before the cut
+		while(completed.get() < threads * 16 && done.getCount() > 0){
+			Thread.sleep(1);
+		}
+		boolean[][] cut = new boolean[threads][files];
+		lock.writeLock().lock();
+		try {
+			for (int i = 0; i < threads; i++){
+				cut[i] = exists[i].clone();
+			}
+			service.captureCheckpoint();
+			captured.set(true);
+		} finally {
+			lock.writeLock().unlock();
+		}
+		
+		//let the updates run ahead of the checkpoint writer
+		while(afterCut.get() < threads * 16 && done.getCount() > 0){
+			Thread.sleep(1);
+		}
+		NameNodeService restored = restore(checkpoint(service));
+		done.await();
+		Assert.assertNull(failure.get());
+		Assert.assertTrue(afterCut.get() > 0);
+		for (int i = 0; i < threads; i++){
+			for (int j = 0; j < files; j++){
+				String path = "/t" + i + "/f" + j;
+				Assert.assertEquals(path, cut[i][j], lookup(restored, path) != null);
+			}
+		}
+	}
+	
+	private static void addRegions(NameNodeService service, int count) throws Exception {
+		DataNodeInfo dataNode = new DataNodeInfo(0, 0, 0, new byte[]{10, 0, 0, 1}, 50020);
+		for (int i = 0; i < count; i++){
+			long lba = i * REGION_BLOCKS * CrailConstants.BLOCK_SIZE;
+			BlockInfo region = new BlockInfo(dataNode, lba, lba, (int) (REGION_BLOCKS * CrailConstants.BLOCK_SIZE), 1);
+			Assert.assertEquals(RpcErrors.ERR_OK, service.setBlock(new RpcRequestMessage.SetBlockReq(region), new RpcResponseMessage.VoidRes(), new LogResponse()));
+		}
+	}
+	
+	private static byte[] checkpoint(NameNodeService service) throws Exception {
+		ByteArrayOutputStream checkpoint = new ByteArrayOutputStream();
+		DataOutputStream stream = new DataOutputStream(checkpoint);
+		service.writeCheckpoint(stream);
+		stream.flush();
+		return checkpoint.toByteArray();
+	}
+	
+	private static NameNodeService restore(byte[] checkpoint) throws Exception {
+		NameNodeService restored = new NameNodeService();
+		restored.readCheckpoint(new DataInputStream(new ByteArrayInputStream(checkpoint)), new HashMap<Long, Long>());
+		return restored;
+	}
+	
+	private static short create(NameNodeService service, String path, CrailNodeType type) throws Exception {
+		RpcRequestMessage.CreateFileReq request = new RpcRequestMessage.CreateFileReq(new FileName(path), type, 0, 0, true);
+		return service.createFile(request, new RpcResponseMessage.CreateFileRes(), new LogResponse());
+	}
+	
+	private static short remove(NameNodeService service, String path) throws Exception {
+		RpcRequestMessage.RemoveFileReq request = new RpcRequestMessage.RemoveFileReq(new FileName(path), false);
+		return service.removeFile(request, new RpcResponseMessage.DeleteFileRes(), new LogResponse());
+	}
+	
+	private static short rename(NameNodeService service, String source, String target) throws Exception {
+		RpcRequestMessage.RenameFileReq request = new RpcRequestMessage.RenameFileReq(new FileName(source), new FileName(target));
+		return service.renameFile(request, new RpcResponseMessage.RenameRes(), new LogResponse());
+	}
+	
+	private static FileInfo lookup(NameNodeService service, String path) throws Exception {
+		RpcResponseMessage.GetFileRes response = new RpcResponseMessage.GetFileRes();
+		RpcRequestMessage.GetFileReq request = new RpcRequestMessage.GetFileReq(new FileName(path), false);
+		if (service.getFile(request, response, new LogResponse()) != RpcErrors.ERR_OK){
+			return null;
+		}
+		return response.getFile();
+	}
+}
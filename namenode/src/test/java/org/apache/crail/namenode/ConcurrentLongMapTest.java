@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2015-2018, IBM Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.crail.namenode;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ConcurrentLongMapTest {
+	
+	@Test
+	public void testPutGetRemove() throws Exception {
+		ConcurrentLongMap<String> map = new ConcurrentLongMap<String>();
+		Assert.assertNull(map.get(1));
+		Assert.assertNull(map.remove(1));
+		Assert.assertEquals(0, map.size());
+		
+		Assert.assertNull(map.put(1, "a"));
+		Assert.assertEquals("a", map.get(1));
+		Assert.assertEquals("a", map.put(1, "b"));
+		Assert.assertEquals("b", map.get(1));
+		Assert.assertEquals(1, map.size());
+		
+		Assert.assertEquals("b", map.putIfAbsent(1, "c"));
+		Assert.assertEquals("b", map.get(1));
+		Assert.assertNull(map.putIfAbsent(2, "c"));
+		Assert.assertEquals("c", map.get(2));
+		Assert.assertEquals(2, map.size());
+		
+		Assert.assertEquals("b", map.remove(1));
+		Assert.assertNull(map.get(1));
+		Assert.assertNull(map.remove(1));
+		Assert.assertEquals(1, map.size());
+		
+		//a removed key can be inserted again
+		Assert.assertNull(map.putIfAbsent(1, "d"));
+		Assert.assertEquals("d", map.get(1));
+		Assert.assertEquals(2, map.size());
+		
+		//keys are full 64 bit values
+		Assert.assertNull(map.put(-1L, "e"));
+		Assert.assertNull(map.put(Long.MAX_VALUE, "f"));
+		Assert.assertNull(map.put(1L << 40, "g"));
+		Assert.assertEquals("e", map.get(-1L));
+		Assert.assertEquals("f", map.get(Long.MAX_VALUE));
+		Assert.assertEquals("g", map.get(1L << 40));
+		Assert.assertNull(map.get(0));
+		
+		map.clear();
+		Assert.assertEquals(0, map.size());
+		Assert.assertNull(map.get(1));
+		Assert.assertNull(map.put(1, "h"));
+		Assert.assertEquals("h", map.get(1));
+	}
+	
+	@Test
+	public void testResize() throws Exception {
+		for (int segments : new int[]{1, 16}){
+			ConcurrentLongMap<Long> map = new ConcurrentLongMap<Long>(segments, 4);
+			int count = 10000;
+			for (long i = 0; i < count; i++){
+				Assert.assertNull(map.put(i, i));
+			}
+			Assert.assertEquals(count, map.size());
+			for (long i = 0; i < count; i++){
+				Assert.assertEquals(i, map.get(i).longValue());
+			}
+			
+			//removed markers must not fill up the table
+			for (int round = 0; round < 10; round++){
+				for (long i = 0; i < count; i += 2){
+					Assert.assertEquals(i, map.remove(i).longValue());
+				}
+				for (long i = 0; i < count; i += 2){
+					Assert.assertNull(map.put(i, i));
+				}
+			}
+			Assert.assertEquals(count, map.size());
+			for (long i = 0; i < count; i++){
+				Assert.assertEquals(i, map.get(i).longValue());
+			}
+		}
+	}
+	
+	@Test
+	public void testValuesAndForEach() throws Exception {
+		ConcurrentLongMap<Long> map = new ConcurrentLongMap<Long>(16, 64);
+		Assert.assertTrue(map.values().isEmpty());
+		for (long i = 0; i < 1000; i++){
+			map.put(i, i * 10);
+		}
+		for (long i = 0; i < 1000; i += 3){
+			map.remove(i);
+		}
+		
+		HashSet<Long> expected = new HashSet<Long>();
+		for (long i = 0; i < 1000; i++){
+			if (i % 3 != 0){
+				expected.add(i * 10);
+			}
+		}
+		ArrayList<Long> values = map.values();
+		Assert.assertEquals(expected.size(), values.size());
+		Assert.assertEquals(expected, new HashSet<Long>(values));
+		
+		final HashMap<Long, Long> visited = new HashMap<Long, Long>();
+		map.forEach(new ConcurrentLongMap.Visitor<Long>() {
+			@Override
+			public void visit(long key, Long value) throws Exception {
+				Assert.assertNull(visited.put(key, value));
+			}
+		});
+		Assert.assertEquals(expected.size(), visited.size());
+		for (Long key : visited.keySet()){
+			Assert.assertEquals(key * 10, visited.get(key).longValue());
+		}
+	}
+	
+	@Test
+	public void testConcurrentPutRemove() throws Exception {
+		//starts with tiny tables so that the writers keep resizing while readers look up their keys
+		final ConcurrentLongMap<Long> map = new ConcurrentLongMap<Long>(4, 4);
+		final int threads = 8;
+		final int keys = 20000;
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+		for (int i = 0; i < threads; i++){
+			final long base = ((long) i) << 32;
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						for (long k = 0; k < keys; k++){
+							Long value = Long.valueOf(base + k);
+							Assert.assertNull(map.putIfAbsent(base + k, value));
+							Assert.assertSame(value, map.get(base + k));
+							if (k % 2 == 1){
+								Assert.assertSame(value, map.remove(base + k));
+								Assert.assertNull(map.get(base + k));
+							}
+							//an earlier key of this thread must survive the resizes triggered by the others
+							long earlier = k & ~1L;
+							Assert.assertEquals(base + earlier, map.get(base + earlier).longValue());
+						}
+					} catch(Throwable e){
+						failure.compareAndSet(null, e);
+					} finally {
+						done.countDown();
+					}
+				}
+			}).start();
+		}
+		start.countDown();
+		done.await();
+		Assert.assertNull(failure.get());
+		
+		Assert.assertEquals(threads * keys / 2, map.size());
+		Assert.assertEquals(threads * keys / 2, map.values().size());
+		for (int i = 0; i < threads; i++){
+			long base = ((long) i) << 32;
+			for (long k = 0; k < keys; k++){
+				Long value = map.get(base + k);
+				if (k % 2 == 1){
+					Assert.assertNull(value);
+				} else {
+					Assert.assertEquals(base + k, value.longValue());
+				}
+			}
+		}
+	}
+}
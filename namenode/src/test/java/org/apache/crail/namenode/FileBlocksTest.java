@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2015-2018, IBM Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.crail.namenode;
+
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.crail.CrailNodeType;
+import org.apache.crail.conf.CrailConstants;
+import org.apache.crail.metadata.BlockInfo;
+import org.apache.crail.metadata.DataNodeInfo;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FileBlocksTest {
+	private BlockInfo region;
+	
+	@Before
+	public void init() throws Exception {
+		DataNodeInfo dataNode = new DataNodeInfo(0, 0, 0, new byte[]{10, 0, 0, 1}, 50020);
+		region = new BlockInfo(dataNode, 0, 0, (int) (1024 * CrailConstants.BLOCK_SIZE), 1);
+	}
+	
+	@Test
+	public void testAddBlock() throws Exception {
+		FileBlocks file = new FileBlocks(1, 1, CrailNodeType.DATAFILE, 0, 0, true);
+		Assert.assertNull(file.getBlock(0));
+		Assert.assertNull(file.getBlock(-1));
+		
+		//blocks are only appended, anything but the next index is rejected
+		NameNodeBlockInfo first = block(0);
+		Assert.assertFalse(file.addBlock(1, first));
+		Assert.assertTrue(file.addBlock(0, first));
+		Assert.assertFalse(file.addBlock(0, block(1)));
+		Assert.assertFalse(file.addBlock(2, block(2)));
+		Assert.assertSame(first, file.getBlock(0));
+		Assert.assertNull(file.getBlock(1));
+		Assert.assertNull(file.getBlock(2));
+	}
+	
+	@Test
+	public void testGrowth() throws Exception {
+		FileBlocks file = new FileBlocks(1, 1, CrailNodeType.DATAFILE, 0, 0, true);
+		int count = CrailConstants.NAMENODE_FILEBLOCKS * 8 + 3;
+		NameNodeBlockInfo[] blocks = new NameNodeBlockInfo[count];
+		for (int i = 0; i < count; i++){
+			blocks[i] = block(i);
+			Assert.assertTrue(file.addBlock(i, blocks[i]));
+			Assert.assertNull(file.getBlock(i + 1));
+		}
+		for (int i = 0; i < count; i++){
+			Assert.assertSame(blocks[i], file.getBlock(i));
+		}
+		Assert.assertNull(file.getBlock(count));
+		
+		TreeMap<Integer, NameNodeBlockInfo> collected = new TreeMap<Integer, NameNodeBlockInfo>();
+		file.collectBlocks(collected);
+		Assert.assertEquals(count, collected.size());
+		for (int i = 0; i < count; i++){
+			Assert.assertSame(blocks[i], collected.get(i));
+		}
+	}
+	
+	@Test
+	public void testConcurrentReaders() throws Exception {
+		final FileBlocks file = new FileBlocks(1, 1, CrailNodeType.DATAFILE, 0, 0, true);
+		final int count = 100000;
+		final AtomicInteger appended = new AtomicInteger(0);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		Thread reader = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					//readers see a consistent prefix while the writer keeps growing the array
+					while(appended.get() < count){
+						int published = appended.get();
+						for (int i = Math.max(published - 64, 0); i < published; i++){
+							Assert.assertNotNull(file.getBlock(i));
+						}
+					}
+				} catch(Throwable e){
+					failure.set(e);
+				}
+			}
+		});
+		reader.start();
+		for (int i = 0; i < count; i++){
+			Assert.assertTrue(file.addBlock(i, block(i % 1024)));
+			appended.set(i + 1);
+		}
+		reader.join();
+		Assert.assertNull(failure.get());
+	}
+	
+	@Test
+	public void testReplaceBlock() throws Exception {
+		FileBlocks file = new FileBlocks(1, 1, CrailNodeType.DATAFILE, 0, 0, true);
+		NameNodeBlockInfo source = block(0);
+		NameNodeBlockInfo target = block(1);
+		Assert.assertFalse(file.replaceBlock(0, source, target));
+		Assert.assertTrue(file.addBlock(0, source));
+		Assert.assertFalse(file.replaceBlock(0, target, source));
+		Assert.assertTrue(file.replaceBlock(0, source, target));
+		Assert.assertSame(target, file.getBlock(0));
+	}
+	
+	private NameNodeBlockInfo block(int index) {
+		return new NameNodeBlockInfo(region, index * CrailConstants.BLOCK_SIZE, (int) CrailConstants.BLOCK_SIZE);
+	}
+}
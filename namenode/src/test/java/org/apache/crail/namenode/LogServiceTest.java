@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2015-2018, IBM Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.crail.namenode;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+
+import org.apache.crail.CrailNodeType;
+import org.apache.crail.conf.CrailConstants;
+import org.apache.crail.metadata.BlockInfo;
+import org.apache.crail.metadata.DataNodeInfo;
+import org.apache.crail.metadata.FileName;
+import org.apache.crail.rpc.RpcErrors;
+import org.apache.crail.rpc.RpcRequestMessage;
+import org.apache.crail.rpc.RpcResponseMessage;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LogServiceTest {
+	//layout of a log segment, see LogService
+	private static final int SEGMENT_HEADER = 12;
+	private static final int RECORD_HEADER = 8;
+	private static final int FILES = 100;
+	
+	private File dir;
+	private LogResponse state;
+	
+	@Before
+	public void init() throws Exception {
+		dir = Files.createTempDirectory("crail-log").toFile();
+		CrailConstants.NAMENODE_ADDRESS = "crail://localhost:9060?id=0&size=1";
+		CrailConstants.NAMENODE_LOG = new File(dir, "namenode.log").getPath();
+		CrailConstants.NAMENODE_LOG_SYNC = "batch";
+		CrailConstants.NAMENODE_LOG_SEGMENT_SIZE = 4096;
+		CrailConstants.NAMENODE_LOG_CHECKPOINT_SIZE = 0;
+		state = new LogResponse();
+	}
+	
+	@After
+	public void fini() throws Exception {
+		for (File file : dir.listFiles()){
+			file.delete();
+		}
+		dir.delete();
+	}
+	
+	@Test
+	public void testReplay() throws Exception {
+		LogDispatcher dispatcher = new LogDispatcher(new NameNodeService());
+		createFiles(dispatcher);
+		dispatcher.close();
+		
+		dispatcher = new LogDispatcher(new NameNodeService());
+		for (int i = 0; i < FILES; i++){
+			Assert.assertTrue(exists(dispatcher, "/a/f" + i));
+		}
+		dispatcher.close();
+	}
+	
+	@Test
+	public void testTornTail() throws Exception {
+		LogDispatcher dispatcher = new LogDispatcher(new NameNodeService());
+		createFiles(dispatcher);
+		dispatcher.close();
+		
+		//corrupt the payload of the last record, as if its write did not make it to disk
+		File newest = newestSegment();
+		long last = lastRecord(newest);
+		RandomAccessFile file = new RandomAccessFile(newest, "rw");
+		file.seek(last + RECORD_HEADER);
+		int value = file.read();
+		file.seek(last + RECORD_HEADER);
+		file.write(value ^ 0xff);
+		file.close();
+		
+		//the first restart drops the torn record, later restarts must not trip over it
+		for (int round = 0; round < 2; round++){
+			dispatcher = new LogDispatcher(new NameNodeService());
+			for (int i = 0; i < FILES - 1; i++){
+				Assert.assertTrue(exists(dispatcher, "/a/f" + i));
+			}
+			Assert.assertFalse(exists(dispatcher, "/a/f" + (FILES - 1)));
+			dispatcher.close();
+		}
+	}
+	
+	@Test
+	public void testBadHeader() throws Exception {
+		LogDispatcher dispatcher = new LogDispatcher(new NameNodeService());
+		createFiles(dispatcher);
+		dispatcher.close();
+		Assert.assertTrue(segments().size() > 1);
+		
+		//the newest segment may not have made it to disk at all
+		RandomAccessFile file = new RandomAccessFile(newestSegment(), "rw");
+		file.write(new byte[SEGMENT_HEADER]);
+		file.close();
+		
+		//once the first restart opened the next segment the broken one is no longer the newest, the second restart must still succeed
+		for (int round = 0; round < 2; round++){
+			dispatcher = new LogDispatcher(new NameNodeService());
+			Assert.assertTrue(exists(dispatcher, "/a"));
+			Assert.assertTrue(exists(dispatcher, "/a/f0"));
+			Assert.assertFalse(exists(dispatcher, "/a/f" + (FILES - 1)));
+			dispatcher.close();
+		}
+	}
+	
+	private void createFiles(LogDispatcher dispatcher) throws Exception {
+		//every data file starts with a block
+		DataNodeInfo dataNode = new DataNodeInfo(0, 0, 0, new byte[]{10, 0, 0, 1}, 50020);
+		int regionBlocks = 16;
+		for (int i = 0; i < FILES / regionBlocks + 2; i++){
+			long lba = i * regionBlocks * CrailConstants.BLOCK_SIZE;
+			BlockInfo region = new BlockInfo(dataNode, lba, lba, (int) (regionBlocks * CrailConstants.BLOCK_SIZE), 1);
+			Assert.assertEquals(RpcErrors.ERR_OK, dispatcher.setBlock(new RpcRequestMessage.SetBlockReq(region), new RpcResponseMessage.VoidRes(), state));
+		}
+		Assert.assertEquals(RpcErrors.ERR_OK, create(dispatcher, "/a", CrailNodeType.DIRECTORY));
+		for (int i = 0; i < FILES; i++){
+			Assert.assertEquals(RpcErrors.ERR_OK, create(dispatcher, "/a/f" + i, CrailNodeType.DATAFILE));
+		}
+	}
+	
+	private short create(LogDispatcher dispatcher, String path, CrailNodeType type) throws Exception {
+		state.setError(RpcErrors.ERR_OK);
+		RpcRequestMessage.CreateFileReq request = new RpcRequestMessage.CreateFileReq(new FileName(path), type, 0, 0, true);
+		return dispatcher.createFile(request, new RpcResponseMessage.CreateFileRes(), state);
+	}
+	
+	private boolean exists(LogDispatcher dispatcher, String path) throws Exception {
+		state.setError(RpcErrors.ERR_OK);
+		RpcRequestMessage.GetFileReq request = new RpcRequestMessage.GetFileReq(new FileName(path), false);
+		return dispatcher.getFile(request, new RpcResponseMessage.GetFileRes(), state) == RpcErrors.ERR_OK;
+	}
+	
+	private ArrayList<Long> segments() {
+		ArrayList<Long> segments = new ArrayList<Long>();
+		String prefix = new File(CrailConstants.NAMENODE_LOG).getName() + ".";
+		for (String name : dir.list()){
+			if (name.startsWith(prefix)){
+				segments.add(Long.parseLong(name.substring(prefix.length())));
+			}
+		}
+		Collections.sort(segments);
+		return segments;
+	}
+	
+	private File newestSegment() {
+		ArrayList<Long> segments = segments();
+		return new File(CrailConstants.NAMENODE_LOG + "." + segments.get(segments.size() - 1));
+	}
+	
+	//offset of the last record in the segment
+	private long lastRecord(File segment) throws Exception {
+		RandomAccessFile file = new RandomAccessFile(segment, "r");
+		try {
+			long position = SEGMENT_HEADER;
+			long last = -1;
+			while(position + RECORD_HEADER <= file.length()){
+				file.seek(position);
+				int length = file.readInt();
+				if (length == 0){
+					break;
+				}
+				last = position;
+				position += RECORD_HEADER + length;
+			}
+			Assert.assertTrue(last > 0);
+			return last;
+		} finally {
+			file.close();
+		}
+	}
+}
@@ -31,7 +31,7 @@ import com.ibm.narpc.NaRPCMessage;
 
 public class TcpNameNodeRequest extends RpcRequestMessage implements NaRPCMessage {
 	public static final Logger LOG = CrailUtils.getLogger();
-	public static final int CSIZE = 2*Short.BYTES + Math.max(RpcRequestMessage.SetFileReq.CSIZE, RpcRequestMessage.RenameFileReq.CSIZE);
+	public static final int CSIZE = 2*Short.BYTES + Math.max(Math.max(RpcRequestMessage.SetFileReq.CSIZE, RpcRequestMessage.RenameFileReq.CSIZE), Math.max(Math.max(RpcRequestMessage.BatchReq.CSIZE, RpcRequestMessage.SetBlocksReq.CSIZE), RpcRequestMessage.MigrateBlocksReq.CSIZE));
 	
 	private short cmd;
 	private short type;
@@ -46,6 +46,11 @@ public class TcpNameNodeRequest extends RpcRequestMessage implements NaRPCMessag
 	private RpcRequestMessage.GetDataNodeReq getDataNodeReq;
 	private RpcRequestMessage.DumpNameNodeReq dumpNameNodeReq;
 	private RpcRequestMessage.PingNameNodeReq pingNameNodeReq;
+	private RpcRequestMessage.BatchReq batchReq;
+	private RpcRequestMessage.GetBlocksReq getBlocksReq;
+	private RpcRequestMessage.SetBlocksReq setBlocksReq;
+	private RpcRequestMessage.DrainDataNodeReq drainDataNodeReq;
+	private RpcRequestMessage.MigrateBlocksReq migrateBlocksReq;
 
 	public TcpNameNodeRequest() {
 		this.cmd = 0;
@@ -61,6 +66,11 @@ public class TcpNameNodeRequest extends RpcRequestMessage implements NaRPCMessag
 		this.dumpNameNodeReq = new RpcRequestMessage.DumpNameNodeReq();
 		this.pingNameNodeReq = new RpcRequestMessage.PingNameNodeReq();
 		this.getDataNodeReq = new RpcRequestMessage.GetDataNodeReq();
+		this.batchReq = new RpcRequestMessage.BatchReq();
+		this.getBlocksReq = new RpcRequestMessage.GetBlocksReq();
+		this.setBlocksReq = new RpcRequestMessage.SetBlocksReq();
+		this.drainDataNodeReq = new RpcRequestMessage.DrainDataNodeReq();
+		this.migrateBlocksReq = new RpcRequestMessage.MigrateBlocksReq();
 	}	
 	
 	public TcpNameNodeRequest(RpcRequestMessage.CreateFileReq message) {
@@ -117,6 +127,31 @@ public class TcpNameNodeRequest extends RpcRequestMessage implements NaRPCMessag
 		this.pingNameNodeReq = message;
 	}
 	
+	public TcpNameNodeRequest(RpcRequestMessage.BatchReq message) {
+		this.type = message.getType();
+		this.batchReq = message;
+	}
+	
+	public TcpNameNodeRequest(RpcRequestMessage.GetBlocksReq message) {
+		this.type = message.getType();
+		this.getBlocksReq = message;
+	}
+	
+	public TcpNameNodeRequest(RpcRequestMessage.SetBlocksReq message) {
+		this.type = message.getType();
+		this.setBlocksReq = message;
+	}
+	
+	public TcpNameNodeRequest(RpcRequestMessage.DrainDataNodeReq message) {
+		this.type = message.getType();
+		this.drainDataNodeReq = message;
+	}
+	
+	public TcpNameNodeRequest(RpcRequestMessage.MigrateBlocksReq message) {
+		this.type = message.getType();
+		this.migrateBlocksReq = message;
+	}
+	
 	public void setCommand(short command) {
 		this.cmd = command;
 	}	
@@ -164,6 +199,21 @@ public class TcpNameNodeRequest extends RpcRequestMessage implements NaRPCMessag
 		case RpcProtocol.REQ_PING_NAMENODE:
 			written += pingNameNodeReq.write(buffer);
 			break;
+		case RpcProtocol.REQ_BATCH:
+			written += batchReq.write(buffer);
+			break;
+		case RpcProtocol.REQ_GET_BLOCKS:
+			written += getBlocksReq.write(buffer);
+			break;
+		case RpcProtocol.REQ_SET_BLOCKS:
+			written += setBlocksReq.write(buffer);
+			break;
+		case RpcProtocol.REQ_DRAIN_DATANODE:
+			written += drainDataNodeReq.write(buffer);
+			break;
+		case RpcProtocol.REQ_MIGRATE_BLOCKS:
+			written += migrateBlocksReq.write(buffer);
+			break;
 		}
 		
 		return written;
@@ -207,6 +257,21 @@ public class TcpNameNodeRequest extends RpcRequestMessage implements NaRPCMessag
 		case RpcProtocol.REQ_PING_NAMENODE:
 			pingNameNodeReq.update(buffer);
 			break;
+		case RpcProtocol.REQ_BATCH:
+			batchReq.update(buffer);
+			break;
+		case RpcProtocol.REQ_GET_BLOCKS:
+			getBlocksReq.update(buffer);
+			break;
+		case RpcProtocol.REQ_SET_BLOCKS:
+			setBlocksReq.update(buffer);
+			break;
+		case RpcProtocol.REQ_DRAIN_DATANODE:
+			drainDataNodeReq.update(buffer);
+			break;
+		case RpcProtocol.REQ_MIGRATE_BLOCKS:
+			migrateBlocksReq.update(buffer);
+			break;
 		}
 	}
 
@@ -261,4 +326,24 @@ public class TcpNameNodeRequest extends RpcRequestMessage implements NaRPCMessag
 	public RpcRequestMessage.PingNameNodeReq pingNameNode(){
 		return this.pingNameNodeReq;
 	}
+	
+	public RpcRequestMessage.BatchReq batch(){
+		return this.batchReq;
+	}
+	
+	public RpcRequestMessage.GetBlocksReq getBlocks(){
+		return this.getBlocksReq;
+	}
+	
+	public RpcRequestMessage.SetBlocksReq setBlocks(){
+		return this.setBlocksReq;
+	}
+	
+	public RpcRequestMessage.DrainDataNodeReq drainDataNode(){
+		return this.drainDataNodeReq;
+	}
+	
+	public RpcRequestMessage.MigrateBlocksReq migrateBlocks(){
+		return this.migrateBlocksReq;
+	}
 }
@@ -31,7 +31,7 @@ import com.ibm.narpc.NaRPCMessage;
 
 public class TcpNameNodeResponse extends RpcResponseMessage implements RpcNameNodeState, NaRPCMessage {
 	public static final Logger LOG = CrailUtils.getLogger();
-	public static final int CSIZE = 2*Short.BYTES + Math.max(RpcResponseMessage.GetBlockRes.CSIZE, RpcResponseMessage.RenameRes.CSIZE);
+	public static final int CSIZE = 2*Short.BYTES + Math.max(Math.max(Math.max(RpcResponseMessage.GetBlockRes.CSIZE, RpcResponseMessage.RenameRes.CSIZE), RpcResponseMessage.BatchRes.CSIZE), Math.max(RpcResponseMessage.GetBlocksRes.CSIZE, RpcResponseMessage.MigrateBlocksRes.CSIZE));
 	
 	private short type;
 	private short error;
@@ -44,6 +44,9 @@ public class TcpNameNodeResponse extends RpcResponseMessage implements RpcNameNo
 	private RpcResponseMessage.GetLocationRes getLocationRes;	
 	private RpcResponseMessage.GetDataNodeRes getDataNodeRes;
 	private RpcResponseMessage.PingNameNodeRes pingNameNodeRes;
+	private RpcResponseMessage.BatchRes batchRes;
+	private RpcResponseMessage.GetBlocksRes getBlocksRes;
+	private RpcResponseMessage.MigrateBlocksRes migrateBlocksRes;
 	
 	public TcpNameNodeResponse() {
 		this.type = 0;
@@ -57,6 +60,9 @@ public class TcpNameNodeResponse extends RpcResponseMessage implements RpcNameNo
 		this.getLocationRes = new RpcResponseMessage.GetLocationRes();
 		this.getDataNodeRes = new RpcResponseMessage.GetDataNodeRes();
 		this.pingNameNodeRes = new RpcResponseMessage.PingNameNodeRes();
+		this.batchRes = new RpcResponseMessage.BatchRes();
+		this.getBlocksRes = new RpcResponseMessage.GetBlocksRes();
+		this.migrateBlocksRes = new RpcResponseMessage.MigrateBlocksRes();
 	}
 	
 	public TcpNameNodeResponse(RpcResponseMessage.VoidRes message) {
@@ -104,6 +110,21 @@ public class TcpNameNodeResponse extends RpcResponseMessage implements RpcNameNo
 		this.pingNameNodeRes = message;
 	}
 	
+	public TcpNameNodeResponse(RpcResponseMessage.BatchRes message) {
+		this.type = message.getType();
+		this.batchRes = message;
+	}
+	
+	public TcpNameNodeResponse(RpcResponseMessage.GetBlocksRes message) {
+		this.type = message.getType();
+		this.getBlocksRes = message;
+	}
+	
+	public TcpNameNodeResponse(RpcResponseMessage.MigrateBlocksRes message) {
+		this.type = message.getType();
+		this.migrateBlocksRes = message;
+	}
+	
 	public void setType(short type) throws Exception {
 		this.type = type;
 	}	
@@ -145,6 +166,15 @@ public class TcpNameNodeResponse extends RpcResponseMessage implements RpcNameNo
 		case RpcProtocol.RES_PING_NAMENODE:
 			written += pingNameNodeRes.write(buffer);
 			break;			
+		case RpcProtocol.RES_BATCH:
+			written += batchRes.write(buffer);
+			break;
+		case RpcProtocol.RES_GET_BLOCKS:
+			written += getBlocksRes.write(buffer);
+			break;
+		case RpcProtocol.RES_MIGRATE_BLOCKS:
+			written += migrateBlocksRes.write(buffer);
+			break;
 		}
 		
 		return written;
@@ -191,6 +221,18 @@ public class TcpNameNodeResponse extends RpcResponseMessage implements RpcNameNo
 			pingNameNodeRes.update(buffer);
 			pingNameNodeRes.setError(error);
 			break;		
+		case RpcProtocol.RES_BATCH:
+			batchRes.update(buffer);
+			batchRes.setError(error);
+			break;
+		case RpcProtocol.RES_GET_BLOCKS:
+			getBlocksRes.update(buffer);
+			getBlocksRes.setError(error);
+			break;
+		case RpcProtocol.RES_MIGRATE_BLOCKS:
+			migrateBlocksRes.update(buffer);
+			migrateBlocksRes.setError(error);
+			break;
 		}
 	}
 	
@@ -241,4 +283,16 @@ public class TcpNameNodeResponse extends RpcResponseMessage implements RpcNameNo
 	public RpcResponseMessage.PingNameNodeRes pingNameNode(){
 		return this.pingNameNodeRes;
 	}
+	
+	public RpcResponseMessage.BatchRes batch(){
+		return this.batchRes;
+	}
+	
+	public RpcResponseMessage.GetBlocksRes getBlocks(){
+		return this.getBlocksRes;
+	}
+	
+	public RpcResponseMessage.MigrateBlocksRes migrateBlocks(){
+		return this.migrateBlocksRes;
+	}
 }
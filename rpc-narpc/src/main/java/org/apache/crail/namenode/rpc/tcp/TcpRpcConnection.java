@@ -128,6 +128,18 @@ public class TcpRpcConnection implements RpcConnection {
 		return new TcpFuture<RpcGetBlock>(future, resp);
 	}
 
+	public RpcFuture<RpcGetBlocks> getBlocks(long fd, long token, long position,
+			long capacity, int count) throws IOException {
+		RpcRequestMessage.GetBlocksReq req = new RpcRequestMessage.GetBlocksReq(fd, token, position, capacity, count);
+		RpcResponseMessage.GetBlocksRes resp = new RpcResponseMessage.GetBlocksRes();
+
+		TcpNameNodeRequest request = new TcpNameNodeRequest(req);
+		TcpNameNodeResponse response = new TcpNameNodeResponse(resp);
+		request.setCommand(RpcProtocol.CMD_GET_BLOCKS);
+		NaRPCFuture<TcpNameNodeRequest, TcpNameNodeResponse> future = endpoint.issueRequest(request, response);
+		return new TcpFuture<RpcGetBlocks>(future, resp);
+	}
+
 	public RpcFuture<RpcGetLocation> getLocation(FileName fileName, long l)
 			throws IOException {
 		RpcRequestMessage.GetLocationReq req = new RpcRequestMessage.GetLocationReq(fileName, l);
@@ -151,9 +163,23 @@ public class TcpRpcConnection implements RpcConnection {
 		return new TcpFuture<RpcVoid>(future, resp);
 	}
 
-	public RpcFuture<RpcGetDataNode> getDataNode(DataNodeInfo dataNodeInfo)
+	public RpcFuture<RpcVoid> setBlocks(BlockInfo[] blockInfo, int offset, int count) throws Exception {
+		RpcRequestMessage.SetBlocksReq req = new RpcRequestMessage.SetBlocksReq();
+		for (int i = 0; i < count; i++){
+			req.addBlockInfo(blockInfo[offset + i]);
+		}
+		RpcResponseMessage.VoidRes resp = new RpcResponseMessage.VoidRes();
+
+		TcpNameNodeRequest request = new TcpNameNodeRequest(req);
+		TcpNameNodeResponse response = new TcpNameNodeResponse(resp);
+		request.setCommand(RpcProtocol.CMD_SET_BLOCKS);
+		NaRPCFuture<TcpNameNodeRequest, TcpNameNodeResponse> future = endpoint.issueRequest(request, response);
+		return new TcpFuture<RpcVoid>(future, resp);
+	}
+
+	public RpcFuture<RpcGetDataNode> getDataNode(DataNodeInfo dataNodeInfo, int inFlight)
 			throws Exception {
-		RpcRequestMessage.GetDataNodeReq req = new RpcRequestMessage.GetDataNodeReq(dataNodeInfo);
+		RpcRequestMessage.GetDataNodeReq req = new RpcRequestMessage.GetDataNodeReq(dataNodeInfo, inFlight);
 		RpcResponseMessage.GetDataNodeRes resp = new RpcResponseMessage.GetDataNodeRes();
 
 		TcpNameNodeRequest request = new TcpNameNodeRequest(req);
@@ -163,6 +189,57 @@ public class TcpRpcConnection implements RpcConnection {
 		return new TcpFuture<RpcGetDataNode>(future, resp);
 	}
 
+	public RpcFuture<RpcVoid> drainDataNode(DataNodeInfo dataNodeInfo, boolean drain)
+			throws Exception {
+		RpcRequestMessage.DrainDataNodeReq req = new RpcRequestMessage.DrainDataNodeReq(dataNodeInfo, drain);
+		RpcResponseMessage.VoidRes resp = new RpcResponseMessage.VoidRes();
+
+		TcpNameNodeRequest request = new TcpNameNodeRequest(req);
+		TcpNameNodeResponse response = new TcpNameNodeResponse(resp);
+		request.setCommand(RpcProtocol.CMD_DRAIN_DATANODE);
+		NaRPCFuture<TcpNameNodeRequest, TcpNameNodeResponse> future = endpoint.issueRequest(request, response);
+		return new TcpFuture<RpcVoid>(future, resp);
+	}
+
+	public RpcFuture<RpcMigrateBlocks> migrateBlocks(DataNodeInfo dataNodeInfo, long[] fds, int[] indices, int count)
+			throws Exception {
+		RpcRequestMessage.MigrateBlocksReq req = new RpcRequestMessage.MigrateBlocksReq(dataNodeInfo);
+		for (int i = 0; i < count; i++){
+			req.addBlock(fds[i], indices[i]);
+		}
+		RpcResponseMessage.MigrateBlocksRes resp = new RpcResponseMessage.MigrateBlocksRes();
+
+		TcpNameNodeRequest request = new TcpNameNodeRequest(req);
+		TcpNameNodeResponse response = new TcpNameNodeResponse(resp);
+		request.setCommand(RpcProtocol.CMD_MIGRATE_BLOCKS);
+		NaRPCFuture<TcpNameNodeRequest, TcpNameNodeResponse> future = endpoint.issueRequest(request, response);
+		return new TcpFuture<RpcMigrateBlocks>(future, resp);
+	}
+
+	public RpcFuture<RpcBatch> batch(RpcBatchOp[] ops) throws IOException {
+		RpcRequestMessage.BatchReq req = new RpcRequestMessage.BatchReq();
+		for (RpcBatchOp op : ops){
+			switch(op.getOp()){
+			case RpcBatchOp.OP_CREATE_FILE:
+				req.addCreateFile(op.getFileName(), op.getFileType(), op.getStorageClass(), op.getLocationClass(), op.isEnumerable());
+				break;
+			case RpcBatchOp.OP_GET_FILE:
+				req.addGetFile(op.getFileName(), op.isWriteable());
+				break;
+			case RpcBatchOp.OP_REMOVE_FILE:
+				req.addRemoveFile(op.getFileName(), op.isRecursive());
+				break;
+			}
+		}
+		RpcResponseMessage.BatchRes resp = new RpcResponseMessage.BatchRes();
+
+		TcpNameNodeRequest request = new TcpNameNodeRequest(req);
+		TcpNameNodeResponse response = new TcpNameNodeResponse(resp);
+		request.setCommand(RpcProtocol.CMD_BATCH);
+		NaRPCFuture<TcpNameNodeRequest, TcpNameNodeResponse> future = endpoint.issueRequest(request, response);
+		return new TcpFuture<RpcBatch>(future, resp);
+	}
+
 	public RpcFuture<RpcVoid> dumpNameNode() throws Exception {
 		RpcRequestMessage.DumpNameNodeReq req = new RpcRequestMessage.DumpNameNodeReq();
 		RpcResponseMessage.VoidRes resp = new RpcResponseMessage.VoidRes();
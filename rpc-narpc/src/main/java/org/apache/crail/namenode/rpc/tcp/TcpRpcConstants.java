@@ -32,7 +32,7 @@ public class TcpRpcConstants {
 	public static int NAMENODE_TCP_QUEUEDEPTH = 32;
 	
 	public static final String NAMENODE_TCP_MESSAGESIZE_KEY = "crail.namenode.tcp.messageSize";
-	public static int NAMENODE_TCP_MESSAGESIZE = 512;	
+	public static int NAMENODE_TCP_MESSAGESIZE = 4096;	
 	
 	public static final String NAMENODE_TCP_CORES_KEY = "crail.namenode.tcp.cores";
 	public static int NAMENODE_TCP_CORES = 1;	
@@ -50,6 +50,10 @@ public class TcpRpcConstants {
 	}
 	
 	public static void verify() throws IOException {
+		int messageSize = Math.max(TcpNameNodeRequest.CSIZE, TcpNameNodeResponse.CSIZE);
+		if (NAMENODE_TCP_MESSAGESIZE < messageSize){
+			throw new IOException(NAMENODE_TCP_MESSAGESIZE_KEY + " must be at least " + messageSize + ", reduce crail.namenode.batchsize or increase the message size");
+		}
 	}
 
 	public static void printConf(Logger logger) {
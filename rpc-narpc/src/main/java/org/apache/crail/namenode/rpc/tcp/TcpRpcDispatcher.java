@@ -75,6 +75,21 @@ public class TcpRpcDispatcher implements NaRPCService<TcpNameNodeRequest, TcpNam
 			case RpcProtocol.CMD_GET_DATANODE:
 				error = service.getDataNode(request.getDataNode(), response.getDataNode(), response);
 				break;					
+			case RpcProtocol.CMD_BATCH:
+				error = service.batch(request.batch(), response.batch(), response);
+				break;
+			case RpcProtocol.CMD_GET_BLOCKS:
+				error = service.getBlocks(request.getBlocks(), response.getBlocks(), response);
+				break;
+			case RpcProtocol.CMD_SET_BLOCKS:
+				error = service.setBlocks(request.setBlocks(), response.getVoid(), response);
+				break;
+			case RpcProtocol.CMD_DRAIN_DATANODE:
+				error = service.drainDataNode(request.drainDataNode(), response.getVoid(), response);
+				break;
+			case RpcProtocol.CMD_MIGRATE_BLOCKS:
+				error = service.migrateBlocks(request.migrateBlocks(), response.migrateBlocks(), response);
+				break;
 			case RpcProtocol.CMD_DUMP_NAMENODE:
 				error = service.dump(request.dumpNameNode(), response.getVoid(), response);
 				break;			
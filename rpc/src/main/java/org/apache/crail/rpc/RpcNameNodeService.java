@@ -51,6 +51,18 @@ public interface RpcNameNodeService {
 			RpcResponseMessage.VoidRes response, RpcNameNodeState errorState)
 			throws Exception;
 
+	public abstract short setBlocks(RpcRequestMessage.SetBlocksReq request,
+			RpcResponseMessage.VoidRes response, RpcNameNodeState errorState)
+			throws Exception;
+
+	public abstract short drainDataNode(RpcRequestMessage.DrainDataNodeReq request,
+			RpcResponseMessage.VoidRes response, RpcNameNodeState errorState)
+			throws Exception;
+
+	public abstract short migrateBlocks(RpcRequestMessage.MigrateBlocksReq request,
+			RpcResponseMessage.MigrateBlocksRes response, RpcNameNodeState errorState)
+			throws Exception;
+
 	public abstract short getBlock(RpcRequestMessage.GetBlockReq request,
 			RpcResponseMessage.GetBlockRes response, RpcNameNodeState errorState)
 			throws Exception;
@@ -59,6 +71,14 @@ public interface RpcNameNodeService {
 			RpcResponseMessage.GetLocationRes response, RpcNameNodeState errorState)
 			throws Exception;
 
+	public abstract short getBlocks(RpcRequestMessage.GetBlocksReq request,
+			RpcResponseMessage.GetBlocksRes response, RpcNameNodeState errorState)
+			throws Exception;
+
+	public abstract short batch(RpcRequestMessage.BatchReq request,
+			RpcResponseMessage.BatchRes response, RpcNameNodeState errorState)
+			throws Exception;
+
 	public abstract short dump(RpcRequestMessage.DumpNameNodeReq request,
 			RpcResponseMessage.VoidRes response, RpcNameNodeState errorState)
 			throws Exception;
@@ -26,8 +26,8 @@ import org.slf4j.Logger;
 public class RpcProtocol extends RpcErrors {
 	private static final Logger LOG = CrailUtils.getLogger();
 	
-	public static short[] requestTypes = new short[16];
-	public static short[] responseTypes = new short[16];
+	public static short[] requestTypes = new short[32];
+	public static short[] responseTypes = new short[32];
 	
 	//rpc calls
 	public static final short CMD_CREATE_FILE = 1;	
@@ -41,6 +41,11 @@ public class RpcProtocol extends RpcErrors {
 	public static final short CMD_DUMP_NAMENODE = 10;
 	public static final short CMD_PING_NAMENODE = 11;
 	public static final short CMD_GET_DATANODE = 12;
+	public static final short CMD_BATCH = 13;
+	public static final short CMD_GET_BLOCKS = 14;
+	public static final short CMD_SET_BLOCKS = 15;
+	public static final short CMD_DRAIN_DATANODE = 16;
+	public static final short CMD_MIGRATE_BLOCKS = 17;
 	
 	//request types
 	public static final short REQ_CREATE_FILE = 1;	
@@ -54,6 +59,11 @@ public class RpcProtocol extends RpcErrors {
 	public static final short REQ_DUMP_NAMENODE = 10;
 	public static final short REQ_PING_NAMENODE = 11;
 	public static final short REQ_GET_DATANODE = 12;
+	public static final short REQ_BATCH = 13;
+	public static final short REQ_GET_BLOCKS = 14;
+	public static final short REQ_SET_BLOCKS = 15;
+	public static final short REQ_DRAIN_DATANODE = 16;
+	public static final short REQ_MIGRATE_BLOCKS = 17;
 	
 	//response types
 	public static final short RES_VOID = 1;
@@ -65,6 +75,9 @@ public class RpcProtocol extends RpcErrors {
 	public static final short RES_GET_LOCATION = 7;
 	public static final short RES_PING_NAMENODE = 9;
 	public static final short RES_GET_DATANODE = 10;
+	public static final short RES_BATCH = 11;
+	public static final short RES_GET_BLOCKS = 12;
+	public static final short RES_MIGRATE_BLOCKS = 13;
 	
 	
 	static {
@@ -80,6 +93,11 @@ public class RpcProtocol extends RpcErrors {
 		requestTypes[CMD_DUMP_NAMENODE] = REQ_DUMP_NAMENODE;
 		requestTypes[CMD_PING_NAMENODE] = REQ_PING_NAMENODE;	
 		requestTypes[CMD_GET_DATANODE] = REQ_GET_DATANODE;
+		requestTypes[CMD_BATCH] = REQ_BATCH;
+		requestTypes[CMD_GET_BLOCKS] = REQ_GET_BLOCKS;
+		requestTypes[CMD_SET_BLOCKS] = REQ_SET_BLOCKS;
+		requestTypes[CMD_DRAIN_DATANODE] = REQ_DRAIN_DATANODE;
+		requestTypes[CMD_MIGRATE_BLOCKS] = REQ_MIGRATE_BLOCKS;
 		
 		responseTypes[0] = 0;
 		responseTypes[CMD_CREATE_FILE] = RES_CREATE_FILE;
@@ -93,6 +111,11 @@ public class RpcProtocol extends RpcErrors {
 		responseTypes[CMD_DUMP_NAMENODE] = RES_VOID;
 		responseTypes[CMD_PING_NAMENODE] = RES_PING_NAMENODE;	
 		responseTypes[CMD_GET_DATANODE] = RES_GET_DATANODE;
+		responseTypes[CMD_BATCH] = RES_BATCH;
+		responseTypes[CMD_GET_BLOCKS] = RES_GET_BLOCKS;
+		responseTypes[CMD_SET_BLOCKS] = RES_VOID;
+		responseTypes[CMD_DRAIN_DATANODE] = RES_VOID;
+		responseTypes[CMD_MIGRATE_BLOCKS] = RES_MIGRATE_BLOCKS;
 	}
 	
 
@@ -19,10 +19,12 @@
 
 package org.apache.crail.rpc;
 
+import java.io.IOException;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
 
 import org.apache.crail.CrailNodeType;
+import org.apache.crail.conf.CrailConstants;
 import org.apache.crail.metadata.BlockInfo;
 import org.apache.crail.metadata.DataNodeInfo;
 import org.apache.crail.metadata.FileInfo;
@@ -381,6 +383,87 @@ public class RpcRequestMessage {
 		}		
 	}
 	
+	public static class GetBlocksReq implements RpcProtocol.NameNodeRpcMessage {
+		public static int CSIZE = 36;
+		
+		protected long fd;
+		protected long token;
+		protected long position;
+		protected long capacity;
+		protected int count;
+
+		public GetBlocksReq(){
+			this.fd = 0;
+			this.token = 0;
+			this.position = 0;
+			this.capacity = 0;
+			this.count = 0;
+		}
+		
+		public GetBlocksReq(long fd, long token, long position, long capacity, int count) {
+			this.fd = fd;
+			this.token = token;
+			this.position = position;
+			this.capacity = capacity;
+			this.count = count;
+		}
+
+		public long getFd() {
+			return fd;
+		}
+
+		public long getPosition(){
+			return this.position;
+		}
+
+		public long getToken() {
+			return token;
+		}
+		
+		public long getCapacity(){
+			return capacity;
+		}
+		
+		public int getCount(){
+			return count;
+		}
+		
+		public int size() {
+			return CSIZE;
+		}
+		
+		public short getType(){
+			return RpcProtocol.REQ_GET_BLOCKS;
+		}		
+		
+		public int write(ByteBuffer buffer) {
+			buffer.putLong(fd);
+			buffer.putLong(token);
+			buffer.putLong(position);
+			buffer.putLong(capacity);
+			buffer.putInt(count);
+			return CSIZE;
+		}		
+
+		public void update(ByteBuffer buffer) {
+			fd = buffer.getLong();
+			token = buffer.getLong();
+			position = buffer.getLong();
+			capacity = buffer.getLong();
+			count = buffer.getInt();
+		}
+
+		@Override
+		public String toString() {
+			return "GetBlocksReq [fd=" + fd + ", token=" + token + ", position="
+					+ position + ", capacity=" + capacity + ", count=" + count + "]";
+		}
+
+		public void setToken(long value) {
+			this.token = value;
+		}		
+	}
+	
 	public static class GetLocationReq implements RpcProtocol.NameNodeRpcMessage {
 		public static int CSIZE = FileName.CSIZE + 8;
 		
@@ -470,24 +553,102 @@ public class RpcRequestMessage {
 		
 		
 	}	
+
+	public static class SetBlocksReq implements RpcProtocol.NameNodeRpcMessage {
+		public static int CSIZE = 4 + CrailConstants.NAMENODE_BATCH_SIZE*BlockInfo.CSIZE;
+
+		protected int count;
+		protected BlockInfo[] blockInfo;
+
+		public SetBlocksReq() {
+			this.count = 0;
+			this.blockInfo = new BlockInfo[CrailConstants.NAMENODE_BATCH_SIZE];
+		}
+
+		public void addBlockInfo(BlockInfo region) throws IOException {
+			if (count >= blockInfo.length){
+				throw new IOException("batch size exceeded, max " + blockInfo.length);
+			}
+			blockInfo[count++] = region;
+		}
+
+		public int getCount(){
+			return count;
+		}
+
+		public BlockInfo getBlockInfo(int index) {
+			return blockInfo[index];
+		}
+
+		public int size() {
+			return CSIZE;
+		}
+
+		public short getType(){
+			return RpcProtocol.REQ_SET_BLOCKS;
+		}
+
+		public int write(ByteBuffer buffer){
+			buffer.putInt(count);
+			int written = 4;
+			for (int i = 0; i < count; i++){
+				written += blockInfo[i].write(buffer);
+			}
+			return written;
+		}
+
+		public void update(ByteBuffer buffer) {
+			//an over-long batch keeps its count so the namenode can reject it, its entries are not parsed
+			count = buffer.getInt();
+			if (count > blockInfo.length){
+				return;
+			}
+			try {
+				for (int i = 0; i < count; i++){
+					if (blockInfo[i] == null){
+						blockInfo[i] = new BlockInfo();
+					}
+					blockInfo[i].update(buffer);
+				}
+			} catch (UnknownHostException e) {
+				e.printStackTrace();
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "SetBlocksReq [count=" + count + "]";
+		}
+	}
 	
 	public static class GetDataNodeReq implements RpcProtocol.NameNodeRpcMessage {
-		public static int CSIZE = DataNodeInfo.CSIZE;
+		public static int CSIZE = DataNodeInfo.CSIZE + 4;
 		
 		protected DataNodeInfo dnInfo;
+		protected int inFlight;
 		
 		public GetDataNodeReq(){
 			this.dnInfo = new DataNodeInfo();
+			this.inFlight = 0;
 		}
 		
 		public GetDataNodeReq(DataNodeInfo dnInfo) {
+			this(dnInfo, 0);
+		}
+		
+		public GetDataNodeReq(DataNodeInfo dnInfo, int inFlight) {
 			this.dnInfo = dnInfo;
+			this.inFlight = inFlight;
 		}
 
 		public DataNodeInfo getInfo(){
 			return this.dnInfo;
 		}
 		
+		public int getInFlight(){
+			return this.inFlight;
+		}
+		
 		
 		public int size() {
 			return CSIZE;
@@ -499,18 +660,288 @@ public class RpcRequestMessage {
 		
 		public int write(ByteBuffer buffer) {
 			int written = dnInfo.write(buffer);
+			buffer.putInt(inFlight);
+			written += 4;
 			return written;
 		}		
 
 		public void update(ByteBuffer buffer) {
 			try {
 				dnInfo.update(buffer);
+				inFlight = buffer.getInt();
 			} catch (UnknownHostException e) {
 				e.printStackTrace();
 			}
 		}		
 	}	
 	
+	public static class DrainDataNodeReq implements RpcProtocol.NameNodeRpcMessage {
+		public static int CSIZE = DataNodeInfo.CSIZE + 4;
+
+		protected DataNodeInfo dnInfo;
+		protected boolean drain;
+
+		public DrainDataNodeReq(){
+			this.dnInfo = new DataNodeInfo();
+			this.drain = false;
+		}
+
+		public DrainDataNodeReq(DataNodeInfo dnInfo, boolean drain) {
+			this.dnInfo = dnInfo;
+			this.drain = drain;
+		}
+
+		public DataNodeInfo getInfo(){
+			return this.dnInfo;
+		}
+
+		public boolean isDrain(){
+			return drain;
+		}
+
+		public int size() {
+			return CSIZE;
+		}
+
+		public short getType(){
+			return RpcProtocol.REQ_DRAIN_DATANODE;
+		}
+
+		public int write(ByteBuffer buffer) {
+			int written = dnInfo.write(buffer);
+			buffer.putInt(drain ? 1 : 0);
+			written += 4;
+			return written;
+		}
+
+		public void update(ByteBuffer buffer) {
+			try {
+				dnInfo.update(buffer);
+				int tmp = buffer.getInt();
+				drain = (tmp == 1) ? true : false;
+			} catch (UnknownHostException e) {
+				e.printStackTrace();
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "DrainDataNodeReq [dnInfo=" + dnInfo + ", drain=" + drain + "]";
+		}
+	}
+
+	//blocks of a draining datanode copied since the last request, identified by file and block index
+	public static class MigrateBlocksReq implements RpcProtocol.NameNodeRpcMessage {
+		public static int CSIZE = DataNodeInfo.CSIZE + 4 + CrailConstants.NAMENODE_BATCH_SIZE*12;
+
+		protected DataNodeInfo dnInfo;
+		protected int count;
+		protected long[] fds;
+		protected int[] indices;
+
+		public MigrateBlocksReq(){
+			this.dnInfo = new DataNodeInfo();
+			this.count = 0;
+			this.fds = new long[CrailConstants.NAMENODE_BATCH_SIZE];
+			this.indices = new int[CrailConstants.NAMENODE_BATCH_SIZE];
+		}
+
+		public MigrateBlocksReq(DataNodeInfo dnInfo) {
+			this();
+			this.dnInfo = dnInfo;
+		}
+
+		public void addBlock(long fd, int index) throws IOException {
+			if (count >= fds.length){
+				throw new IOException("batch size exceeded, max " + fds.length);
+			}
+			fds[count] = fd;
+			indices[count] = index;
+			count++;
+		}
+
+		public DataNodeInfo getInfo(){
+			return this.dnInfo;
+		}
+
+		public int getCount(){
+			return count;
+		}
+
+		public long getFd(int i){
+			return fds[i];
+		}
+
+		public int getIndex(int i){
+			return indices[i];
+		}
+
+		public int size() {
+			return CSIZE;
+		}
+
+		public short getType(){
+			return RpcProtocol.REQ_MIGRATE_BLOCKS;
+		}
+
+		public int write(ByteBuffer buffer) {
+			int written = dnInfo.write(buffer);
+			buffer.putInt(count);
+			written += 4;
+			for (int i = 0; i < count; i++){
+				buffer.putLong(fds[i]);
+				buffer.putInt(indices[i]);
+				written += 12;
+			}
+			return written;
+		}
+
+		public void update(ByteBuffer buffer) {
+			try {
+				dnInfo.update(buffer);
+				count = buffer.getInt();
+				if (count > fds.length){
+					return;
+				}
+				for (int i = 0; i < count; i++){
+					fds[i] = buffer.getLong();
+					indices[i] = buffer.getInt();
+				}
+			} catch (UnknownHostException e) {
+				e.printStackTrace();
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "MigrateBlocksReq [dnInfo=" + dnInfo + ", count=" + count + "]";
+		}
+	}
+
+	
+	public static class BatchReq implements RpcProtocol.NameNodeRpcMessage {
+		public static int CSIZE = 4 + CrailConstants.NAMENODE_BATCH_SIZE*(Short.BYTES + Math.max(CreateFileReq.CSIZE, Math.max(GetFileReq.CSIZE, RemoveFileReq.CSIZE)));
+		
+		protected int count;
+		protected RpcProtocol.NameNodeRpcMessage[] ops;
+		
+		public BatchReq(){
+			this.count = 0;
+			this.ops = new RpcProtocol.NameNodeRpcMessage[CrailConstants.NAMENODE_BATCH_SIZE];
+		}
+		
+		public void addCreateFile(FileName filename, CrailNodeType type, int storageClass, int locationClass, boolean enumerable) throws IOException {
+			add(new CreateFileReq(filename, type, storageClass, locationClass, enumerable));
+		}
+		
+		public void addGetFile(FileName filename, boolean writeable) throws IOException {
+			add(new GetFileReq(filename, writeable));
+		}
+		
+		public void addRemoveFile(FileName filename, boolean recursive) throws IOException {
+			add(new RemoveFileReq(filename, recursive));
+		}
+		
+		public int getCount(){
+			return count;
+		}
+		
+		public short getType(int index){
+			if (ops[index] == null){
+				return 0;
+			}
+			return ops[index].getType();
+		}
+		
+		public CreateFileReq createFile(int index){
+			return (CreateFileReq) ops[index];
+		}
+		
+		public GetFileReq getFile(int index){
+			return (GetFileReq) ops[index];
+		}
+		
+		public RemoveFileReq removeFile(int index){
+			return (RemoveFileReq) ops[index];
+		}
+		
+		public int size() {
+			return CSIZE;
+		}
+		
+		public short getType(){
+			return RpcProtocol.REQ_BATCH;
+		}		
+		
+		public int write(ByteBuffer buffer) {
+			buffer.putInt(count);
+			int written = 4;
+			for (int i = 0; i < count; i++){
+				short type = ops[i].getType();
+				buffer.putShort(type);
+				written += Short.BYTES;
+				switch(type){
+				case RpcProtocol.REQ_CREATE_FILE:
+					written += createFile(i).write(buffer);
+					break;
+				case RpcProtocol.REQ_GET_FILE:
+					written += getFile(i).write(buffer);
+					break;
+				case RpcProtocol.REQ_REMOVE_FILE:
+					written += removeFile(i).write(buffer);
+					break;
+				}
+			}
+			return written;
+		}		
+
+		public void update(ByteBuffer buffer) {
+			count = buffer.getInt();
+			if (count > ops.length){
+				return;
+			}
+			for (int i = 0; i < count; i++){
+				short type = buffer.getShort();
+				switch(type){
+				case RpcProtocol.REQ_CREATE_FILE:
+					if (ops[i] == null || ops[i].getType() != type){
+						ops[i] = new CreateFileReq();
+					}
+					createFile(i).update(buffer);
+					break;
+				case RpcProtocol.REQ_GET_FILE:
+					if (ops[i] == null || ops[i].getType() != type){
+						ops[i] = new GetFileReq();
+					}
+					getFile(i).update(buffer);
+					break;
+				case RpcProtocol.REQ_REMOVE_FILE:
+					if (ops[i] == null || ops[i].getType() != type){
+						ops[i] = new RemoveFileReq();
+					}
+					removeFile(i).update(buffer);
+					break;
+				default:
+					//the length of an unknown op is unknown too, nothing behind it can be decoded
+					ops[i] = null;
+					count = i + 1;
+					return;
+				}
+			}
+		}
+		
+		private void add(RpcProtocol.NameNodeRpcMessage op) throws IOException {
+			if (count >= ops.length){
+				throw new IOException("batch size exceeded, max " + ops.length);
+			}
+			ops[count++] = op;
+		}
+
+		@Override
+		public String toString() {
+			return "BatchReq [count=" + count + "]";
+		}
+	}
 	
 	public static class DumpNameNodeReq implements RpcProtocol.NameNodeRpcMessage {
 		public static int CSIZE = 4;
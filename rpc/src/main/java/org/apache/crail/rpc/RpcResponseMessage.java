@@ -23,15 +23,19 @@ import java.io.IOException;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
 
+import org.apache.crail.conf.CrailConstants;
 import org.apache.crail.metadata.BlockInfo;
 import org.apache.crail.metadata.DataNodeStatistics;
 import org.apache.crail.metadata.FileInfo;
+import org.apache.crail.rpc.RpcBatch;
 import org.apache.crail.rpc.RpcCreateFile;
 import org.apache.crail.rpc.RpcDeleteFile;
 import org.apache.crail.rpc.RpcGetBlock;
+import org.apache.crail.rpc.RpcGetBlocks;
 import org.apache.crail.rpc.RpcGetDataNode;
 import org.apache.crail.rpc.RpcGetFile;
 import org.apache.crail.rpc.RpcGetLocation;
+import org.apache.crail.rpc.RpcMigrateBlocks;
 import org.apache.crail.rpc.RpcPing;
 import org.apache.crail.rpc.RpcRenameFile;
 import org.apache.crail.rpc.RpcVoid;
@@ -497,6 +501,200 @@ public class RpcResponseMessage {
 
 	}	
 	
+	public static class GetBlocksRes implements RpcProtocol.NameNodeRpcMessage, RpcGetBlocks {
+		public static int CSIZE = 4 + CrailConstants.NAMENODE_BLOCK_WINDOW*BlockInfo.CSIZE;
+		
+		private int count;
+		private BlockInfo[] blockInfo;
+		private short error;
+		
+		public GetBlocksRes() {
+			this.count = 0;
+			this.blockInfo = new BlockInfo[CrailConstants.NAMENODE_BLOCK_WINDOW];
+			this.error = 0;
+		}
+		
+		public int size() {
+			return CSIZE;
+		}
+		
+		public short getType(){
+			return RpcProtocol.RES_GET_BLOCKS;
+		}
+		
+		public int write(ByteBuffer buffer) {
+			buffer.putInt(count);
+			int written = 4;
+			for (int i = 0; i < count; i++){
+				written += blockInfo[i].write(buffer);
+			}
+			return written;
+		}		
+
+		public void update(ByteBuffer buffer) {
+			count = Math.min(buffer.getInt(), blockInfo.length);
+			try {
+				for (int i = 0; i < count; i++){
+					if (blockInfo[i] == null){
+						blockInfo[i] = new BlockInfo();
+					}
+					blockInfo[i].update(buffer);
+				}
+			} catch (UnknownHostException e) {
+				e.printStackTrace();
+			}
+		}
+		
+		public int getBlockCount() {
+			return count;
+		}
+
+		public BlockInfo getBlockInfo(int index) {
+			return blockInfo[index];
+		}
+
+		public void addBlockInfo(BlockInfo block) {
+			if (blockInfo[count] == null){
+				blockInfo[count] = new BlockInfo();
+			}
+			blockInfo[count].setBlockInfo(block);
+			count++;
+		}
+		
+		public void clear() {
+			this.count = 0;
+		}
+		
+		public short getError(){
+			return error;
+		}
+
+		public void setError(short error) {
+			this.error = error;
+		}
+	}	
+	
+	//blocks to move off a draining datanode, each with the file and index it belongs to and the target block
+	public static class MigrateBlocksRes implements RpcProtocol.NameNodeRpcMessage, RpcMigrateBlocks {
+		public static int CSIZE = 8 + CrailConstants.NAMENODE_BATCH_SIZE*(12 + 2*BlockInfo.CSIZE);
+		
+		private int count;
+		private int remaining;
+		private long[] fds;
+		private int[] indices;
+		private BlockInfo[] sources;
+		private BlockInfo[] targets;
+		private short error;
+		
+		public MigrateBlocksRes() {
+			this.count = 0;
+			this.remaining = 0;
+			this.fds = new long[CrailConstants.NAMENODE_BATCH_SIZE];
+			this.indices = new int[CrailConstants.NAMENODE_BATCH_SIZE];
+			this.sources = new BlockInfo[CrailConstants.NAMENODE_BATCH_SIZE];
+			this.targets = new BlockInfo[CrailConstants.NAMENODE_BATCH_SIZE];
+			this.error = 0;
+		}
+		
+		public int size() {
+			return CSIZE;
+		}
+		
+		public short getType(){
+			return RpcProtocol.RES_MIGRATE_BLOCKS;
+		}
+		
+		public int write(ByteBuffer buffer) {
+			buffer.putInt(count);
+			buffer.putInt(remaining);
+			int written = 8;
+			for (int i = 0; i < count; i++){
+				buffer.putLong(fds[i]);
+				buffer.putInt(indices[i]);
+				written += 12;
+				written += sources[i].write(buffer);
+				written += targets[i].write(buffer);
+			}
+			return written;
+		}		
+
+		public void update(ByteBuffer buffer) {
+			count = Math.min(buffer.getInt(), fds.length);
+			remaining = buffer.getInt();
+			try {
+				for (int i = 0; i < count; i++){
+					fds[i] = buffer.getLong();
+					indices[i] = buffer.getInt();
+					if (sources[i] == null){
+						sources[i] = new BlockInfo();
+						targets[i] = new BlockInfo();
+					}
+					sources[i].update(buffer);
+					targets[i].update(buffer);
+				}
+			} catch (UnknownHostException e) {
+				e.printStackTrace();
+			}
+		}
+		
+		public int getCount() {
+			return count;
+		}
+		
+		public int getRemaining() {
+			return remaining;
+		}
+		
+		public long getFd(int index) {
+			return fds[index];
+		}
+		
+		public int getIndex(int index) {
+			return indices[index];
+		}
+		
+		public BlockInfo getSource(int index) {
+			return sources[index];
+		}
+		
+		public BlockInfo getTarget(int index) {
+			return targets[index];
+		}
+		
+		public boolean isFull() {
+			return count == fds.length;
+		}
+
+		public void addBlock(long fd, int index, BlockInfo source, BlockInfo target) {
+			if (sources[count] == null){
+				sources[count] = new BlockInfo();
+				targets[count] = new BlockInfo();
+			}
+			fds[count] = fd;
+			indices[count] = index;
+			sources[count].setBlockInfo(source);
+			targets[count].setBlockInfo(target);
+			count++;
+		}
+		
+		public void setRemaining(int remaining) {
+			this.remaining = remaining;
+		}
+		
+		public void clear() {
+			this.count = 0;
+			this.remaining = 0;
+		}
+		
+		public short getError(){
+			return error;
+		}
+
+		public void setError(short error) {
+			this.error = error;
+		}
+	}	
+	
 	public static class GetLocationRes implements RpcProtocol.NameNodeRpcMessage, RpcGetLocation {
 		public static int CSIZE = BlockInfo.CSIZE + 8;
 		
@@ -607,6 +805,10 @@ public class RpcResponseMessage {
 		public void setServiceId(long serviceId) {
 			this.statistics.setServiceId(serviceId);
 		}		
+		
+		public void setDraining(boolean draining) {
+			this.statistics.setDraining(draining);
+		}
 	}	
 	
 	public static class PingNameNodeRes implements RpcProtocol.NameNodeRpcMessage, RpcPing {
@@ -653,4 +855,135 @@ public class RpcResponseMessage {
 			this.error = error;
 		}
 	}
+	
+	public static class BatchRes implements RpcProtocol.NameNodeRpcMessage, RpcBatch {
+		public static int CSIZE = 4 + CrailConstants.NAMENODE_BATCH_SIZE*(2*Short.BYTES + Math.max(CreateFileRes.CSIZE, Math.max(GetFileRes.CSIZE, DeleteFileRes.CSIZE)));
+		
+		private int count;
+		private RpcResponse[] responses;
+		private short[] errors;
+		private short error;
+		
+		public BatchRes() {
+			this.count = 0;
+			this.responses = new RpcResponse[CrailConstants.NAMENODE_BATCH_SIZE];
+			this.errors = new short[CrailConstants.NAMENODE_BATCH_SIZE];
+			this.error = 0;
+		}
+		
+		public int size() {
+			return CSIZE;
+		}
+		
+		public short getType(){
+			return RpcProtocol.RES_BATCH;
+		}
+		
+		public int write(ByteBuffer buffer) {
+			buffer.putInt(count);
+			int written = 4;
+			for (int i = 0; i < count; i++){
+				short type = ((RpcProtocol.NameNodeRpcMessage) responses[i]).getType();
+				buffer.putShort(type);
+				buffer.putShort(errors[i]);
+				written += 2*Short.BYTES;
+				switch(type){
+				case RpcProtocol.RES_CREATE_FILE:
+					written += ((CreateFileRes) responses[i]).write(buffer);
+					break;
+				case RpcProtocol.RES_GET_FILE:
+					written += ((GetFileRes) responses[i]).write(buffer);
+					break;
+				case RpcProtocol.RES_DELETE_FILE:
+					written += ((DeleteFileRes) responses[i]).write(buffer);
+					break;
+				case RpcProtocol.RES_VOID:
+					written += ((VoidRes) responses[i]).write(buffer);
+					break;
+				}
+			}
+			return written;
+		}		
+
+		public void update(ByteBuffer buffer) {
+			count = Math.min(buffer.getInt(), responses.length);
+			for (int i = 0; i < count; i++){
+				short type = buffer.getShort();
+				errors[i] = buffer.getShort();
+				switch(type){
+				case RpcProtocol.RES_CREATE_FILE:
+					CreateFileRes createFileRes = createFile(i);
+					createFileRes.update(buffer);
+					createFileRes.setError(errors[i]);
+					break;
+				case RpcProtocol.RES_GET_FILE:
+					GetFileRes getFileRes = getFile(i);
+					getFileRes.update(buffer);
+					getFileRes.setError(errors[i]);
+					break;
+				case RpcProtocol.RES_DELETE_FILE:
+					DeleteFileRes delFileRes = removeFile(i);
+					delFileRes.update(buffer);
+					delFileRes.setError(errors[i]);
+					break;
+				case RpcProtocol.RES_VOID:
+					invalid(i).setError(errors[i]);
+					break;
+				}
+			}
+		}
+		
+		public CreateFileRes createFile(int index) {
+			if (!(responses[index] instanceof CreateFileRes)){
+				responses[index] = new CreateFileRes();
+			}
+			count = Math.max(count, index + 1);
+			return (CreateFileRes) responses[index];
+		}
+		
+		public GetFileRes getFile(int index) {
+			if (!(responses[index] instanceof GetFileRes)){
+				responses[index] = new GetFileRes();
+			}
+			count = Math.max(count, index + 1);
+			return (GetFileRes) responses[index];
+		}
+		
+		public DeleteFileRes removeFile(int index) {
+			if (!(responses[index] instanceof DeleteFileRes)){
+				responses[index] = new DeleteFileRes();
+			}
+			count = Math.max(count, index + 1);
+			return (DeleteFileRes) responses[index];
+		}
+		
+		//placeholder for an op the namenode could not serve, keeps the responses aligned with the requests
+		public VoidRes invalid(int index) {
+			if (!(responses[index] instanceof VoidRes)){
+				responses[index] = new VoidRes();
+			}
+			count = Math.max(count, index + 1);
+			return (VoidRes) responses[index];
+		}
+		
+		public int getCount() {
+			return count;
+		}
+		
+		public RpcResponse getResponse(int index) {
+			return responses[index];
+		}
+		
+		public void setError(int index, short error) {
+			errors[index] = error;
+		}
+
+		public short getError(){
+			return error;
+		}
+
+		public void setError(short error) {
+			this.error = error;
+		}
+	}
 }
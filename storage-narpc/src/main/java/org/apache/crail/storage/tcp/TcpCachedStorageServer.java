@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2015-2018, IBM Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.crail.storage.tcp;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+
+import org.apache.crail.storage.StorageResource;
+import org.apache.crail.utils.CrailUtils;
+import org.slf4j.Logger;
+
+/*
+ * TCP storage server whose regions are plain files on local disk rather than mapped
+ * memory, with a bounded DRAM cache in front. The storage limit can therefore exceed
+ * the memory of the node. Regions are never mapped, the addresses handed out to the
+ * namenode are virtual.
+ */
+public class TcpCachedStorageServer extends TcpStorageServer {
+	private static final Logger LOG = CrailUtils.getLogger();
+	
+	private TcpStorageCache cache;
+	
+	@Override
+	protected TcpStorageServer createShard() {
+		return new TcpCachedStorageServer();
+	}
+	
+	@Override
+	protected void initShard(int shard, int shardCount, int cores) throws Exception {
+		super.initShard(shard, shardCount, cores);
+		this.cache = new TcpStorageCache(TcpStorageConstants.STORAGE_TCP_CACHE_SIZE/shardCount, TcpStorageConstants.STORAGE_TCP_CACHE_PAGE_SIZE, TcpStorageConstants.STORAGE_TCP_ALLOCATION_SIZE, regions);
+		if (persistent){
+			//dirty pages would otherwise be lost on a regular shutdown
+			final TcpStorageCache shardCache = cache;
+			Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						shardCache.flush();
+					} catch(IOException e){
+						LOG.info("failed to flush cache, " + e.getMessage());
+					}
+				}
+			}));
+		}
+	}
+
+	@Override
+	public synchronized StorageResource allocateResource() throws Exception {
+		StorageResource resource = null;
+		if (keys < regions){
+			int fileId = keys++;
+			String dataFilePath = Paths.get(dataDirPath, Integer.toString(fileId)).toString();
+			RandomAccessFile dataFile = new RandomAccessFile(dataFilePath, "rw");
+			dataFile.setLength(TcpStorageConstants.STORAGE_TCP_ALLOCATION_SIZE);
+			cache.addRegion(fileId, dataFile.getChannel());
+			resource = StorageResource.createResource(getRegionAddress(fileId), (int) TcpStorageConstants.STORAGE_TCP_ALLOCATION_SIZE, fileId);
+			writeManifest();
+		}
+		return resource;
+	}
+	
+	@Override
+	protected void write(int key, long address, ByteBuffer data) throws IOException {
+		cache.write(getPosition(key, address), data);
+	}
+	
+	@Override
+	protected TcpStorageResponse.ReadResponse read(int key, long address, int length) throws IOException {
+		return new TcpStorageResponse.ReadResponse(cache, getPosition(key, address), length);
+	}
+	
+	//region i starts at (i + 1) times the region size, zero is never a valid address
+	@Override
+	protected long getRegionAddress(int key) {
+		return (key + 1L)*TcpStorageConstants.STORAGE_TCP_ALLOCATION_SIZE;
+	}
+	
+	private long getPosition(int key, long address) {
+		long offset = address - getRegionAddress(key);
+		return key*TcpStorageConstants.STORAGE_TCP_ALLOCATION_SIZE + offset;
+	}
+}
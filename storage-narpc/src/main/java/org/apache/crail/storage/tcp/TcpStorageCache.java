@@ -0,0 +1,368 @@
+/*
+ * Copyright (C) 2015-2018, IBM Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.crail.storage.tcp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.apache.crail.utils.CrailUtils;
+import org.slf4j.Logger;
+
+/*
+ * DRAM page cache in front of the file backed regions of one storage server. Positions
+ * are global, region key times region size plus the offset within the region. Pages are
+ * replaced with CLOCK, dirty pages are written back by a background thread and only
+ * written synchronously if they are picked for eviction before the writer got to them.
+ * 
+ * The cache lock only covers the page table and the copies in and out of frames. A miss
+ * claims a frame and marks it busy, writes back the dirty victim and reads the new page
+ * without the lock, and publishes the frame afterwards. Requests for a page in a busy
+ * frame wait for it to be published.
+ * 
+ * Java 8 has no O_DIRECT, pages are moved with positional channel I/O from direct
+ * buffers, which at least avoids the extra copy through a heap buffer.
+ */
+public class TcpStorageCache implements TcpStorageResponse.ReadSource, Runnable {
+	private static final Logger LOG = CrailUtils.getLogger();
+	private static final long EMPTY = -1;
+	//milliseconds the writer backs off after a failed write-back
+	private static final long RETRY_DELAY = 100;
+	
+	private final int pageSize;
+	private final long regionSize;
+	private final FileChannel[] channels;
+	private final ByteBuffer[] frames;
+	private final long[] framePages;
+	private final boolean[] referenced;
+	private final boolean[] dirty;
+	//frames with a load or an eviction write in progress, neither read, written nor evicted meanwhile
+	private final boolean[] busy;
+	//bumped by every write into a frame, tells the writer whether the page changed while it was written back
+	private final long[] versions;
+	private final HashMap<Long, Integer> pageTable;
+	private final ArrayDeque<Integer> dirtyFrames;
+	private final ByteBuffer writeBuffer;
+	private int hand;
+	//page currently written by the background thread, must not be loaded until the write is done
+	private long writePage;
+	private long hits;
+	private long misses;
+	
+	public TcpStorageCache(long cacheSize, int pageSize, long regionSize, int regions) throws IOException {
+		if (pageSize <= 0 || regionSize % pageSize != 0){
+			throw new IOException("cache page size " + pageSize + " must divide the region size " + regionSize);
+		}
+		int frameCount = (int) Math.max(cacheSize / pageSize, 1);
+		this.pageSize = pageSize;
+		this.regionSize = regionSize;
+		this.channels = new FileChannel[regions];
+		this.frames = new ByteBuffer[frameCount];
+		this.framePages = new long[frameCount];
+		this.referenced = new boolean[frameCount];
+		this.dirty = new boolean[frameCount];
+		this.busy = new boolean[frameCount];
+		this.versions = new long[frameCount];
+		this.pageTable = new HashMap<Long, Integer>();
+		this.dirtyFrames = new ArrayDeque<Integer>();
+		this.writeBuffer = ByteBuffer.allocateDirect(pageSize);
+		this.hand = 0;
+		this.writePage = EMPTY;
+		for (int i = 0; i < frameCount; i++){
+			frames[i] = ByteBuffer.allocateDirect(pageSize);
+		}
+		Arrays.fill(framePages, EMPTY);
+		
+		Thread writer = new Thread(this, "tcp-storage-writeback");
+		writer.setDaemon(true);
+		writer.start();
+		LOG.info("tcp storage cache, pages " + frameCount + ", page size " + pageSize);
+	}
+	
+	public synchronized void addRegion(int key, FileChannel channel) {
+		channels[key] = channel;
+	}
+	
+	public void write(long position, ByteBuffer data) throws IOException {
+		while(data.hasRemaining()){
+			long page = position / pageSize;
+			int pageOffset = (int) (position % pageSize);
+			int length = Math.min(data.remaining(), pageSize - pageOffset);
+			ByteBuffer source = data.duplicate();
+			source.limit(source.position() + length);
+			if (copy(page, pageOffset, source, true) || load(page, pageOffset, source, true)){
+				data.position(data.position() + length);
+				position += length;
+			}
+		}
+	}
+
+	@Override
+	public void read(ByteBuffer buffer, long position) throws IOException {
+		while(buffer.hasRemaining()){
+			long page = position / pageSize;
+			int pageOffset = (int) (position % pageSize);
+			int length = Math.min(buffer.remaining(), pageSize - pageOffset);
+			ByteBuffer target = buffer.duplicate();
+			target.limit(target.position() + length);
+			if (copy(page, pageOffset, target, false) || load(page, pageOffset, target, false)){
+				buffer.position(buffer.position() + length);
+				position += length;
+			}
+		}
+	}
+	
+	//writes all dirty pages synchronously, frames being evicted are written by the evicting thread
+	public synchronized void flush() throws IOException {
+		for (int frame = 0; frame < frames.length; frame++){
+			if (dirty[frame] && !busy[frame]){
+				ByteBuffer source = frames[frame].duplicate();
+				source.clear();
+				writePage(framePages[frame], source);
+				dirty[frame] = false;
+			}
+		}
+	}
+	
+	public synchronized long getHits() {
+		return hits;
+	}
+	
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	//the dirty bit of a page is only cleared once the page is on disk, a failed page stays dirty and is retried
+	@Override
+	public void run() {
+		while(true){
+			try {
+				int frame = -1;
+				long page = EMPTY;
+				long version = 0;
+				synchronized(this){
+					while(dirtyFrames.isEmpty()){
+						wait();
+					}
+					frame = dirtyFrames.poll();
+					if (!dirty[frame] || busy[frame]){
+						continue;
+					}
+					page = framePages[frame];
+					version = versions[frame];
+					ByteBuffer source = frames[frame].duplicate();
+					source.clear();
+					writeBuffer.clear();
+					writeBuffer.put(source);
+					writeBuffer.flip();
+					writePage = page;
+				}
+				boolean written = false;
+				try {
+					writePage(page, writeBuffer);
+					written = true;
+				} catch(Exception e){
+					LOG.info("write-back failed, page " + page + ", " + e.getMessage());
+				} finally {
+					synchronized(this){
+						writePage = EMPTY;
+						if (framePages[frame] == page && dirty[frame]){
+							if (written && versions[frame] == version){
+								dirty[frame] = false;
+							} else {
+								//written to again in the meantime, or the write failed
+								dirtyFrames.add(frame);
+							}
+						}
+						notifyAll();
+					}
+				}
+				if (!written){
+					Thread.sleep(RETRY_DELAY);
+				}
+			} catch(InterruptedException e){
+				return;
+			}
+		}
+	}
+	
+	//---------------
+	
+	//copies between the data and the page if it is cached, returns false if the page has to be loaded first
+	private synchronized boolean copy(long page, int pageOffset, ByteBuffer data, boolean write) throws IOException {
+		Integer frame = pageTable.get(page);
+		while(frame != null && busy[frame]){
+			awaitChange();
+			frame = pageTable.get(page);
+		}
+		if (frame == null){
+			return false;
+		}
+		hits++;
+		transfer(frame, pageOffset, data, write);
+		return true;
+	}
+	
+	//brings the page into a free frame and copies the data, returns false if the caller has to look again
+	private boolean load(long page, int pageOffset, ByteBuffer data, boolean write) throws IOException {
+		//a page which is overwritten completely does not need to be read from disk first
+		boolean overwrite = write && data.remaining() == pageSize;
+		int frame = -1;
+		long victimPage = EMPTY;
+		synchronized(this){
+			if (pageTable.containsKey(page)){
+				return false;
+			}
+			if (!overwrite && writePage == page){
+				awaitChange();
+				return false;
+			}
+			frame = evict();
+			if (frame < 0){
+				return false;
+			}
+			misses++;
+			busy[frame] = true;
+			referenced[frame] = true;
+			//the new page maps to the frame right away, so that nobody else loads it meanwhile
+			pageTable.put(page, frame);
+			if (framePages[frame] != EMPTY && dirty[frame]){
+				victimPage = framePages[frame];
+			} else {
+				if (framePages[frame] != EMPTY){
+					pageTable.remove(framePages[frame]);
+				}
+				framePages[frame] = page;
+			}
+		}
+		
+		boolean evicted = victimPage == EMPTY;
+		try {
+			if (!evicted){
+				ByteBuffer source = frames[frame].duplicate();
+				source.clear();
+				writePage(victimPage, source);
+				synchronized(this){
+					dirty[frame] = false;
+					pageTable.remove(victimPage);
+					framePages[frame] = page;
+				}
+				evicted = true;
+			}
+			if (!overwrite){
+				ByteBuffer target = frames[frame].duplicate();
+				target.clear();
+				readPage(page, target);
+			}
+		} catch(IOException e){
+			synchronized(this){
+				pageTable.remove(page);
+				if (evicted){
+					framePages[frame] = EMPTY;
+				} else {
+					//the victim stays cached and dirty, the writer retries it
+					dirtyFrames.add(frame);
+				}
+				busy[frame] = false;
+				notifyAll();
+			}
+			throw e;
+		}
+		
+		synchronized(this){
+			busy[frame] = false;
+			transfer(frame, pageOffset, data, write);
+			notifyAll();
+		}
+		return true;
+	}
+	
+	private void transfer(int frame, int pageOffset, ByteBuffer data, boolean write) {
+		ByteBuffer buffer = frames[frame].duplicate();
+		buffer.clear().position(pageOffset);
+		if (write){
+			buffer.put(data);
+			versions[frame]++;
+			if (!dirty[frame]){
+				dirty[frame] = true;
+				dirtyFrames.add(frame);
+				notifyAll();
+			}
+		} else {
+			buffer.limit(pageOffset + data.remaining());
+			data.put(buffer);
+		}
+	}
+	
+	//picks a frame to load a page into, or returns -1 once it waited for frames in transit and the caller has to look again
+	private int evict() throws IOException {
+		for (int i = 0; i <= 2*frames.length; i++){
+			int frame = hand;
+			hand = (hand + 1) % frames.length;
+			if (busy[frame]){
+				continue;
+			}
+			if (framePages[frame] == EMPTY){
+				return frame;
+			}
+			if (referenced[frame]){
+				referenced[frame] = false;
+				continue;
+			}
+			if (framePages[frame] == writePage){
+				//an older copy of the page is still on its way to disk
+				continue;
+			}
+			return frame;
+		}
+		awaitChange();
+		return -1;
+	}
+	
+	//caller holds the lock, which is released while waiting
+	private void awaitChange() throws IOException {
+		try {
+			wait();
+		} catch(InterruptedException e){
+			throw new IOException(e);
+		}
+	}
+	
+	private void readPage(long page, ByteBuffer buffer) throws IOException {
+		FileChannel channel = channels[(int) (page*pageSize / regionSize)];
+		long offset = (page*pageSize) % regionSize;
+		while(buffer.hasRemaining()){
+			if (channel.read(buffer, offset + buffer.position()) < 0){
+				throw new IOException("read beyond end of region, page " + page);
+			}
+		}
+	}
+	
+	private void writePage(long page, ByteBuffer buffer) throws IOException {
+		FileChannel channel = channels[(int) (page*pageSize / regionSize)];
+		long offset = (page*pageSize) % regionSize;
+		while(buffer.hasRemaining()){
+			channel.write(buffer, offset + buffer.position());
+		}
+	}
+}
@@ -56,6 +56,38 @@ public class TcpStorageConstants {
 	public static final String STORAGE_TCP_CORES_KEY = "crail.storage.tcp.cores";
 	public static int STORAGE_TCP_CORES = 1;		
 	
+	//number of independent server shards, each with a single event loop, its own port and its own regions
+	public static final String STORAGE_TCP_SHARDS_KEY = "crail.storage.tcp.shards";
+	public static int STORAGE_TCP_SHARDS = 1;
+	
+	//mmap: copy read payload out of the mapped region, channel: positional read from the region file into the send buffer
+	//both modes copy the payload once into the NaRPC send buffer, channel mode is not zero-copy
+	public static final String STORAGE_TCP_READ_MODE_KEY = "crail.storage.tcp.readmode";
+	public static String STORAGE_TCP_READ_MODE = "mmap";
+	
+	//keep region files and their manifest across restarts, regions get addresses which do not change between runs
+	public static final String STORAGE_TCP_PERSISTENT_KEY = "crail.storage.tcp.persistent";
+	public static boolean STORAGE_TCP_PERSISTENT = false;
+	
+	//seconds between dumps of the request statistics to the log, 0 disables the dump
+	public static final String STORAGE_TCP_STATS_INTERVAL_KEY = "crail.storage.tcp.statsinterval";
+	public static long STORAGE_TCP_STATS_INTERVAL = 0;
+	
+	//DRAM cache of the file backed tier (TcpCachedStorageTier), split evenly across shards
+	//threads copying large write payloads off the network thread, 0 copies inline
+	public static final String STORAGE_TCP_COPY_THREADS_KEY = "crail.storage.tcp.copythreads";
+	public static int STORAGE_TCP_COPY_THREADS = 0;
+	
+	//payloads larger than this are split into chunks of this size and copied in parallel, must stay well below the block size
+	public static final String STORAGE_TCP_COPY_CHUNK_KEY = "crail.storage.tcp.copychunk";
+	public static int STORAGE_TCP_COPY_CHUNK = 131072;
+	
+	public static final String STORAGE_TCP_CACHE_SIZE_KEY = "crail.storage.tcp.cachesize";
+	public static long STORAGE_TCP_CACHE_SIZE = 268435456;
+	
+	public static final String STORAGE_TCP_CACHE_PAGE_SIZE_KEY = "crail.storage.tcp.cachepagesize";
+	public static int STORAGE_TCP_CACHE_PAGE_SIZE = 1048576;
+	
     public static void init(CrailConfiguration conf, String[] args) throws Exception {
         if (args != null) {
                 Option portOption = Option.builder("p").desc("port to start server on").hasArg().build();
@@ -110,6 +142,30 @@ public class TcpStorageConstants {
 		if (conf.get(STORAGE_TCP_CORES_KEY) != null) {
 			STORAGE_TCP_CORES = Integer.parseInt(conf.get(STORAGE_TCP_CORES_KEY));
 		}		
+		if (conf.get(STORAGE_TCP_SHARDS_KEY) != null) {
+			STORAGE_TCP_SHARDS = Integer.parseInt(conf.get(STORAGE_TCP_SHARDS_KEY));
+		}
+		if (conf.get(STORAGE_TCP_READ_MODE_KEY) != null) {
+			STORAGE_TCP_READ_MODE = conf.get(STORAGE_TCP_READ_MODE_KEY);
+		}
+		if (conf.get(STORAGE_TCP_COPY_THREADS_KEY) != null) {
+			STORAGE_TCP_COPY_THREADS = Integer.parseInt(conf.get(STORAGE_TCP_COPY_THREADS_KEY));
+		}
+		if (conf.get(STORAGE_TCP_COPY_CHUNK_KEY) != null) {
+			STORAGE_TCP_COPY_CHUNK = Integer.parseInt(conf.get(STORAGE_TCP_COPY_CHUNK_KEY));
+		}
+		if (conf.get(STORAGE_TCP_PERSISTENT_KEY) != null) {
+			STORAGE_TCP_PERSISTENT = Boolean.parseBoolean(conf.get(STORAGE_TCP_PERSISTENT_KEY));
+		}
+		if (conf.get(STORAGE_TCP_STATS_INTERVAL_KEY) != null) {
+			STORAGE_TCP_STATS_INTERVAL = Long.parseLong(conf.get(STORAGE_TCP_STATS_INTERVAL_KEY));
+		}
+		if (conf.get(STORAGE_TCP_CACHE_SIZE_KEY) != null) {
+			STORAGE_TCP_CACHE_SIZE = Long.parseLong(conf.get(STORAGE_TCP_CACHE_SIZE_KEY));
+		}
+		if (conf.get(STORAGE_TCP_CACHE_PAGE_SIZE_KEY) != null) {
+			STORAGE_TCP_CACHE_PAGE_SIZE = Integer.parseInt(conf.get(STORAGE_TCP_CACHE_PAGE_SIZE_KEY));
+		}
 	}	
 	
 	public static void printConf(Logger logger) {
@@ -120,6 +176,14 @@ public class TcpStorageConstants {
 		logger.info(STORAGE_TCP_DATA_PATH_KEY + " " + STORAGE_TCP_DATA_PATH);
 		logger.info(STORAGE_TCP_QUEUE_DEPTH_KEY + " " + STORAGE_TCP_QUEUE_DEPTH);
 		logger.info(STORAGE_TCP_CORES_KEY + " " + STORAGE_TCP_CORES);
+		logger.info(STORAGE_TCP_SHARDS_KEY + " " + STORAGE_TCP_SHARDS);
+		logger.info(STORAGE_TCP_READ_MODE_KEY + " " + STORAGE_TCP_READ_MODE);
+		logger.info(STORAGE_TCP_COPY_THREADS_KEY + " " + STORAGE_TCP_COPY_THREADS);
+		logger.info(STORAGE_TCP_COPY_CHUNK_KEY + " " + STORAGE_TCP_COPY_CHUNK);
+		logger.info(STORAGE_TCP_PERSISTENT_KEY + " " + STORAGE_TCP_PERSISTENT);
+		logger.info(STORAGE_TCP_STATS_INTERVAL_KEY + " " + STORAGE_TCP_STATS_INTERVAL);
+		logger.info(STORAGE_TCP_CACHE_SIZE_KEY + " " + STORAGE_TCP_CACHE_SIZE);
+		logger.info(STORAGE_TCP_CACHE_PAGE_SIZE_KEY + " " + STORAGE_TCP_CACHE_PAGE_SIZE);
 	}	
 
 }
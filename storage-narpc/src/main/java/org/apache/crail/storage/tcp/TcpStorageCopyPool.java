@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2015-2018, IBM Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.crail.storage.tcp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/*
+ * Worker threads copying large write payloads into the region buffers. A payload larger
+ * than a chunk is split into chunks, the workers copy all but the last one while the
+ * network thread copies the last chunk itself and then waits for the workers. The copy
+ * of a large write finishes sooner, but the event loop is still blocked until all of it
+ * is done, payloads of up to one chunk are copied inline as before.
+ */
+public class TcpStorageCopyPool {
+	private ExecutorService executor;
+	private int chunkSize;
+	
+	public TcpStorageCopyPool(int threads, int chunkSize){
+		this.chunkSize = chunkSize;
+		this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "tcp-storage-copy");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+	
+	//copies the remaining bytes of source into target, both positions are advanced as with put
+	public void copy(ByteBuffer target, ByteBuffer source) throws IOException {
+		int length = source.remaining();
+		if (length <= chunkSize){
+			target.put(source);
+			return;
+		}
+		int targetStart = target.position();
+		int sourceStart = source.position();
+		int chunks = (length + chunkSize - 1) / chunkSize;
+		Future<?>[] futures = new Future<?>[chunks - 1];
+		for (int i = 0; i < chunks; i++){
+			final ByteBuffer chunkSource = source.duplicate();
+			chunkSource.position(sourceStart + i*chunkSize);
+			chunkSource.limit(Math.min(sourceStart + (i + 1)*chunkSize, sourceStart + length));
+			final ByteBuffer chunkTarget = target.duplicate();
+			chunkTarget.position(targetStart + i*chunkSize);
+			if (i < chunks - 1){
+				futures[i] = executor.submit(new Runnable() {
+					@Override
+					public void run() {
+						chunkTarget.put(chunkSource);
+					}
+				});
+			} else {
+				chunkTarget.put(chunkSource);
+			}
+		}
+		try {
+			for (Future<?> future : futures){
+				future.get();
+			}
+		} catch(Exception e){
+			throw new IOException("failed to copy write payload", e);
+		}
+		target.position(targetStart + length);
+		source.position(sourceStart + length);
+	}
+}
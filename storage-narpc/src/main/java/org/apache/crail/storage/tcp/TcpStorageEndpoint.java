@@ -21,6 +21,7 @@ package org.apache.crail.storage.tcp;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 
 import org.apache.crail.CrailBuffer;
 import org.apache.crail.metadata.BlockInfo;
@@ -82,4 +83,53 @@ public class TcpStorageEndpoint implements StorageEndpoint {
 		return new TcpStorageFuture(narpcFuture, writeReq.length());
 	}
 
+	@Override
+	public int maxSegments() {
+		return TcpStorageProtocol.MAX_SEGMENTS;
+	}
+
+	@Override
+	public StorageFuture writev(CrailBuffer[] buffers, BlockInfo[] blocks, long[] offsets, int count) 
+			throws IOException, InterruptedException {
+		int[] keys = new int[count];
+		long[] addresses = new long[count];
+		ByteBuffer[] data = new ByteBuffer[count];
+		for (int i = 0; i < count; i++){
+			keys[i] = blocks[i].getLkey();
+			addresses[i] = blocks[i].getAddr() + offsets[i];
+			data[i] = buffers[i].getByteBuffer();
+		}
+		TcpStorageRequest.WritevRequest writevReq = new TcpStorageRequest.WritevRequest(count, keys, addresses, data);
+		TcpStorageResponse.WriteResponse writeResp = new TcpStorageResponse.WriteResponse();
+		
+		TcpStorageRequest req = new TcpStorageRequest(writevReq);
+		TcpStorageResponse resp = new TcpStorageResponse(writeResp);
+		
+		NaRPCFuture<TcpStorageRequest, TcpStorageResponse> narpcFuture = endpoint.issueRequest(req, resp);
+		return new TcpStorageFuture(narpcFuture, writevReq.length());
+	}
+
+	@Override
+	public StorageFuture readv(CrailBuffer[] buffers, BlockInfo[] blocks, long[] offsets, int count) 
+			throws IOException, InterruptedException {
+		int[] keys = new int[count];
+		long[] addresses = new long[count];
+		int[] lengths = new int[count];
+		TcpStorageResponse.ReadResponse[] segments = new TcpStorageResponse.ReadResponse[count];
+		for (int i = 0; i < count; i++){
+			keys[i] = blocks[i].getLkey();
+			addresses[i] = blocks[i].getAddr() + offsets[i];
+			lengths[i] = buffers[i].remaining();
+			segments[i] = new TcpStorageResponse.ReadResponse(buffers[i].getByteBuffer());
+		}
+		TcpStorageRequest.ReadvRequest readvReq = new TcpStorageRequest.ReadvRequest(count, keys, addresses, lengths);
+		TcpStorageResponse.ReadvResponse readvResp = new TcpStorageResponse.ReadvResponse(count, segments);
+		
+		TcpStorageRequest req = new TcpStorageRequest(readvReq);
+		TcpStorageResponse resp = new TcpStorageResponse(readvResp);
+		
+		NaRPCFuture<TcpStorageRequest, TcpStorageResponse> narpcFuture = endpoint.issueRequest(req, resp);
+		return new TcpStorageFuture(narpcFuture, readvReq.length());
+	}
+
 }
@@ -19,6 +19,7 @@
 
 package org.apache.crail.storage.tcp;
 
+import java.io.IOException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -54,14 +55,14 @@ public class TcpStorageFuture implements StorageFuture, StorageResult {
 
 	@Override
 	public StorageResult get() throws InterruptedException, ExecutionException {
-		future.get();
+		checkError(future.get());
 		return this;
 	}
 
 	@Override
 	public StorageResult get(long timeout, TimeUnit unit)
 			throws InterruptedException, ExecutionException, TimeoutException {
-		future.get(timeout, unit);
+		checkError(future.get(timeout, unit));
 		return this;
 	}
 
@@ -74,5 +75,11 @@ public class TcpStorageFuture implements StorageFuture, StorageResult {
 	public int getLen() {
 		return len;
 	}
+	
+	private void checkError(TcpStorageResponse response) throws ExecutionException {
+		if (response != null && response.getError() != TcpStorageProtocol.RET_OK){
+			throw new ExecutionException(new IOException("storage server returned error " + response.getError()));
+		}
+	}
 
 }
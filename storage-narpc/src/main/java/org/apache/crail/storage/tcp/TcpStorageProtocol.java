@@ -22,7 +22,14 @@ package org.apache.crail.storage.tcp;
 public class TcpStorageProtocol {
 	public static final int REQ_READ = 1;	
 	public static final int REQ_WRITE = 2;
+	public static final int REQ_READV = 3;
+	public static final int REQ_WRITEV = 4;
+	
+	//segments per vectored request, the payload of all segments together is at most one block
+	public static final int MAX_SEGMENTS = 16;
 	
 	public static final int RET_OK = 0;
 	public static final int RET_RPC_UNKNOWN = 1;
+	public static final int RET_IO_ERROR = 2;
+	public static final int RET_INVALID_REQUEST = 3;
 }
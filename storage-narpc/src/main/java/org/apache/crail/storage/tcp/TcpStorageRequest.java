@@ -28,15 +28,20 @@ import com.ibm.narpc.NaRPCMessage;
 
 public class TcpStorageRequest implements NaRPCMessage {
 	public static final int HEADER_SIZE = Integer.BYTES;
-	public static final int CSIZE = HEADER_SIZE + Math.max(WriteRequest.CSIZE, ReadRequest.CSIZE);
+	public static final int CSIZE = HEADER_SIZE + Math.max(Math.max(WriteRequest.CSIZE, ReadRequest.CSIZE), Math.max(WritevRequest.CSIZE, ReadvRequest.CSIZE));
 	
 	private int type;
 	private WriteRequest writeRequest;
 	private ReadRequest readRequest;
+	private WritevRequest writevRequest;
+	private ReadvRequest readvRequest;
 	
 	public TcpStorageRequest(){
 		writeRequest = new WriteRequest();
 		readRequest = new ReadRequest();
+		//only one of them is in use at a time, they share the payload buffer
+		writevRequest = new WritevRequest(writeRequest.getBuffer());
+		readvRequest = new ReadvRequest();
 	}
 
 	public TcpStorageRequest(WriteRequest writeRequest) {
@@ -49,6 +54,16 @@ public class TcpStorageRequest implements NaRPCMessage {
 		this.type = TcpStorageProtocol.REQ_READ;
 	}
 
+	public TcpStorageRequest(WritevRequest writevRequest) {
+		this.writevRequest = writevRequest;
+		this.type = TcpStorageProtocol.REQ_WRITEV;
+	}
+
+	public TcpStorageRequest(ReadvRequest readvRequest) {
+		this.readvRequest = readvRequest;
+		this.type = TcpStorageProtocol.REQ_READV;
+	}
+
 	public int size() {
 		return CSIZE;
 	}
@@ -64,6 +79,10 @@ public class TcpStorageRequest implements NaRPCMessage {
 			writeRequest.update(buffer);
 		} else if (type == TcpStorageProtocol.REQ_READ){
 			readRequest.update(buffer);
+		} else if (type == TcpStorageProtocol.REQ_WRITEV){
+			writevRequest.update(buffer);
+		} else if (type == TcpStorageProtocol.REQ_READV){
+			readvRequest.update(buffer);
 		}
 	}
 
@@ -75,6 +94,10 @@ public class TcpStorageRequest implements NaRPCMessage {
 			written += writeRequest.write(buffer);
 		} else if (type == TcpStorageProtocol.REQ_READ){
 			written += readRequest.write(buffer);
+		} else if (type == TcpStorageProtocol.REQ_WRITEV){
+			written += writevRequest.write(buffer);
+		} else if (type == TcpStorageProtocol.REQ_READV){
+			written += readvRequest.write(buffer);
 		}
 		return written;
 	}
@@ -188,6 +211,207 @@ public class TcpStorageRequest implements NaRPCMessage {
 		}		
 	}
 
+	public static class WritevRequest {
+		public static final int CSIZE = Integer.BYTES + TcpStorageProtocol.MAX_SEGMENTS*WriteRequest.FIELDS_SIZE + (int) CrailConstants.BLOCK_SIZE;
+		
+		private int count;
+		private int[] keys;
+		private long[] addresses;
+		private int[] lengths;
+		//client side, one buffer per segment
+		private ByteBuffer[] data;
+		//server side, the payload of all segments back to back
+		private ByteBuffer payload;
+		private int[] payloadOffsets;
+		//false if the segment table received did not fit, the request is rejected
+		private boolean valid;
+		
+		public WritevRequest(ByteBuffer payload){
+			this.count = 0;
+			this.keys = new int[TcpStorageProtocol.MAX_SEGMENTS];
+			this.addresses = new long[TcpStorageProtocol.MAX_SEGMENTS];
+			this.lengths = new int[TcpStorageProtocol.MAX_SEGMENTS];
+			this.payload = payload;
+			this.payloadOffsets = new int[TcpStorageProtocol.MAX_SEGMENTS];
+			this.valid = true;
+		}
+		
+		public WritevRequest(int count, int[] keys, long[] addresses, ByteBuffer[] data) {
+			this.count = count;
+			this.keys = keys;
+			this.addresses = addresses;
+			this.lengths = new int[count];
+			for (int i = 0; i < count; i++){
+				lengths[i] = data[i].remaining();
+			}
+			this.data = data;
+			this.valid = true;
+		}
+		
+		public int getCount() {
+			return count;
+		}
+		
+		public boolean isValid() {
+			return valid;
+		}
+
+		public int getKey(int index){
+			return keys[index];
+		}
+		
+		public long getAddress(int index) {
+			return addresses[index];
+		}
+
+		public int length(int index) {
+			return lengths[index];
+		}
+		
+		public int length() {
+			int length = 0;
+			for (int i = 0; i < count; i++){
+				length += lengths[i];
+			}
+			return length;
+		}
+		
+		public ByteBuffer getBuffer(int index) {
+			ByteBuffer buffer = payload.duplicate();
+			buffer.limit(payloadOffsets[index] + lengths[index]).position(payloadOffsets[index]);
+			return buffer;
+		}
+
+		public int size() {
+			return CSIZE;
+		}
+		
+		public void update(ByteBuffer buffer) throws IOException {
+			count = buffer.getInt();
+			valid = count >= 0 && count <= TcpStorageProtocol.MAX_SEGMENTS;
+			if (!valid){
+				count = 0;
+				return;
+			}
+			int total = 0;
+			for (int i = 0; i < count; i++){
+				keys[i] = buffer.getInt();
+				addresses[i] = buffer.getLong();
+				lengths[i] = buffer.getInt();
+				payloadOffsets[i] = total;
+				total += lengths[i];
+				if (lengths[i] < 0 || total > payload.capacity()){
+					valid = false;
+					count = 0;
+					return;
+				}
+			}
+			buffer.limit(buffer.position() + total);
+			payload.clear();
+			payload.put(buffer);
+			payload.flip();
+		}
+
+		public int write(ByteBuffer buffer) throws IOException {
+			buffer.putInt(count);
+			int written = Integer.BYTES;
+			for (int i = 0; i < count; i++){
+				buffer.putInt(keys[i]);
+				buffer.putLong(addresses[i]);
+				buffer.putInt(lengths[i]);
+				written += WriteRequest.FIELDS_SIZE;
+			}
+			for (int i = 0; i < count; i++){
+				written += data[i].remaining();
+				buffer.put(data[i]);
+			}
+			return written;
+		}		
+	}
+	
+	public static class ReadvRequest {
+		public static final int CSIZE = Integer.BYTES + TcpStorageProtocol.MAX_SEGMENTS*ReadRequest.CSIZE;
+		
+		private int count;
+		private int[] keys;
+		private long[] addresses;
+		private int[] lengths;
+		//false if the segment count received exceeds MAX_SEGMENTS, the request is rejected
+		private boolean valid;
+		
+		public ReadvRequest(){
+			this.count = 0;
+			this.keys = new int[TcpStorageProtocol.MAX_SEGMENTS];
+			this.addresses = new long[TcpStorageProtocol.MAX_SEGMENTS];
+			this.lengths = new int[TcpStorageProtocol.MAX_SEGMENTS];
+			this.valid = true;
+		}
+		
+		public ReadvRequest(int count, int[] keys, long[] addresses, int[] lengths){
+			this.count = count;
+			this.keys = keys;
+			this.addresses = addresses;
+			this.lengths = lengths;
+			this.valid = true;
+		}
+		
+		public int getCount() {
+			return count;
+		}
+		
+		public boolean isValid() {
+			return valid;
+		}
+
+		public int getKey(int index){
+			return keys[index];
+		}
+		
+		public long getAddress(int index) {
+			return addresses[index];
+		}
+
+		public int length(int index) {
+			return lengths[index];
+		}
+		
+		public int length() {
+			int length = 0;
+			for (int i = 0; i < count; i++){
+				length += lengths[i];
+			}
+			return length;
+		}
+
+		public int size() {
+			return CSIZE;
+		}
+		
+		public void update(ByteBuffer buffer) throws IOException {
+			count = buffer.getInt();
+			valid = count >= 0 && count <= TcpStorageProtocol.MAX_SEGMENTS;
+			if (!valid){
+				count = 0;
+				return;
+			}
+			for (int i = 0; i < count; i++){
+				keys[i] = buffer.getInt();
+				addresses[i] = buffer.getLong();
+				lengths[i] = buffer.getInt();
+			}
+		}
+
+		public int write(ByteBuffer buffer) throws IOException {
+			buffer.putInt(count);
+			for (int i = 0; i < count; i++){
+				buffer.putInt(keys[i]);
+				buffer.putLong(addresses[i]);
+				buffer.putInt(lengths[i]);
+			}
+			return Integer.BYTES + count*ReadRequest.CSIZE;
+		}		
+	}
+
 	public WriteRequest getWriteRequest() {
 		return writeRequest;
 	}
@@ -196,4 +420,12 @@ public class TcpStorageRequest implements NaRPCMessage {
 		return readRequest;
 	}	
 
+	public WritevRequest getWritevRequest() {
+		return writevRequest;
+	}
+
+	public ReadvRequest getReadvRequest() {
+		return readvRequest;
+	}	
+
 }
@@ -21,6 +21,7 @@ package org.apache.crail.storage.tcp;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 import org.apache.crail.conf.CrailConstants;
 import org.apache.crail.storage.tcp.TcpStorageRequest.ReadRequest;
@@ -30,12 +31,13 @@ import com.ibm.narpc.NaRPCMessage;
 
 public class TcpStorageResponse implements NaRPCMessage {
 	public static final int HEADER_SIZE = Integer.BYTES + Integer.BYTES;
-	public static final int CSIZE = HEADER_SIZE + Math.max(WriteRequest.CSIZE, ReadRequest.CSIZE);
+	public static final int CSIZE = HEADER_SIZE + Math.max(Math.max(WriteRequest.CSIZE, ReadRequest.CSIZE), ReadvResponse.CSIZE);
 	
 	private int error;
 	private int type;
 	private WriteResponse writeResponse;
 	private ReadResponse readResponse;
+	private ReadvResponse readvResponse;
 	
 	public TcpStorageResponse(WriteResponse writeResponse) {
 		this.writeResponse = writeResponse;
@@ -49,6 +51,12 @@ public class TcpStorageResponse implements NaRPCMessage {
 		this.error = TcpStorageProtocol.RET_OK;
 	}
 
+	public TcpStorageResponse(ReadvResponse readvResponse) {
+		this.readvResponse = readvResponse;
+		this.type = TcpStorageProtocol.REQ_READV;
+		this.error = TcpStorageProtocol.RET_OK;
+	}
+
 	public TcpStorageResponse(int error) {
 		this.error = error;
 	}
@@ -56,6 +64,10 @@ public class TcpStorageResponse implements NaRPCMessage {
 	public int size() {
 		return CSIZE;
 	}
+	
+	public int getError() {
+		return error;
+	}
 
 	@Override
 	public void update(ByteBuffer buffer) throws IOException {
@@ -65,6 +77,8 @@ public class TcpStorageResponse implements NaRPCMessage {
 			writeResponse.update(buffer);
 		} else if (type == TcpStorageProtocol.REQ_READ){
 			readResponse.update(buffer);
+		} else if (type == TcpStorageProtocol.REQ_READV){
+			readvResponse.update(buffer);
 		}
 	}
 
@@ -77,6 +91,8 @@ public class TcpStorageResponse implements NaRPCMessage {
 			written += writeResponse.write(buffer);
 		} else if (type == TcpStorageProtocol.REQ_READ){
 			written += readResponse.write(buffer);
+		} else if (type == TcpStorageProtocol.REQ_READV){
+			written += readvResponse.write(buffer);
 		}		
 		return written;
 	}
@@ -106,10 +122,42 @@ public class TcpStorageResponse implements NaRPCMessage {
 		}		
 	}
 	
+	//fills the remaining bytes of the buffer with data starting at position
+	public interface ReadSource {
+		void read(ByteBuffer buffer, long position) throws IOException;
+	}
+	
 	public static class ReadResponse {
 		public static final int CSIZE = Integer.BYTES + (int) CrailConstants.BLOCK_SIZE;
 		
 		private ByteBuffer data;
+		private ReadSource source;
+		private long sourcePosition;
+		private int sourceLength;
+		//set for payloads fetched at serialization, the read sample is recorded once the fetch is done
+		private TcpStorageStatistics statistics;
+		private long start;
+		
+		//payload is read from the file channel directly into the send buffer when the response is written
+		public ReadResponse(final FileChannel channel, long position, int length){
+			this(new ReadSource() {
+				@Override
+				public void read(ByteBuffer buffer, long position) throws IOException {
+					long start = position - buffer.position();
+					while(buffer.hasRemaining()){
+						if (channel.read(buffer, start + buffer.position()) < 0){
+							throw new IOException("read beyond end of region, position " + position + ", length " + buffer.remaining());
+						}
+					}
+				}
+			}, position, length);
+		}
+		
+		public ReadResponse(ReadSource source, long position, int length){
+			this.source = source;
+			this.sourcePosition = position;
+			this.sourceLength = length;
+		}
 		
 		public ReadResponse(ByteBuffer data){
 			// the issue is that, if you have buffer/slice size > block size then the same
@@ -125,12 +173,39 @@ public class TcpStorageResponse implements NaRPCMessage {
 			this.data.position(data.position());
 		}
 
+		public boolean isDeferred() {
+			return source != null;
+		}
+		
+		public void recordOnWrite(TcpStorageStatistics statistics, long start) {
+			this.statistics = statistics;
+			this.start = start;
+		}
+
 		public int write(ByteBuffer buffer) throws IOException {
+			if (source != null){
+				return writeFromSource(buffer);
+			}
 			int written = data.remaining();
 			buffer.putInt(data.remaining());
 			buffer.put(data);
 			return Integer.BYTES + written;
 		}
+		
+		private int writeFromSource(ByteBuffer buffer) throws IOException {
+			buffer.putInt(sourceLength);
+			int limit = buffer.limit();
+			buffer.limit(buffer.position() + sourceLength);
+			try {
+				source.read(buffer, sourcePosition);
+			} finally {
+				buffer.limit(limit);
+			}
+			if (statistics != null){
+				statistics.recordRequest(TcpStorageStatistics.READ, sourceLength, System.nanoTime() - start);
+			}
+			return Integer.BYTES + sourceLength;
+		}
 
 		public void update(ByteBuffer buffer) throws IOException {
 			// get how many bytes of the payload it has
@@ -138,9 +213,12 @@ public class TcpStorageResponse implements NaRPCMessage {
 			// adjust the buffer but _do_not_ clean it, because we need to remember
 			// the original position and capacity. If we have done our maths right
 			// then we should never overflow this buffer.
+			int limit = buffer.limit();
 			buffer.limit(buffer.position() + remaining);
 			// and copy that content out.
 			data.put(buffer);
+			// restore the limit, a gathered response carries further segments
+			buffer.limit(limit);
 		}
 		
 		public int size() {
@@ -148,5 +226,62 @@ public class TcpStorageResponse implements NaRPCMessage {
 		}		
 	}	
 	
+	//gathered response of a vectored read, one read response per segment
+	public static class ReadvResponse {
+		public static final int CSIZE = Integer.BYTES + TcpStorageProtocol.MAX_SEGMENTS*Integer.BYTES + (int) CrailConstants.BLOCK_SIZE;
+		
+		private int count;
+		private ReadResponse[] segments;
+		private TcpStorageStatistics statistics;
+		private int length;
+		private long start;
+		
+		public ReadvResponse(int count, ReadResponse[] segments){
+			this.count = count;
+			this.segments = segments;
+		}
+		
+		public boolean isDeferred() {
+			for (int i = 0; i < count; i++){
+				if (segments[i].isDeferred()){
+					return true;
+				}
+			}
+			return false;
+		}
+		
+		//one sample for the whole vector, recorded after the last segment is fetched
+		public void recordOnWrite(TcpStorageStatistics statistics, int length, long start) {
+			this.statistics = statistics;
+			this.length = length;
+			this.start = start;
+		}
+
+		public int write(ByteBuffer buffer) throws IOException {
+			buffer.putInt(count);
+			int written = Integer.BYTES;
+			for (int i = 0; i < count; i++){
+				written += segments[i].write(buffer);
+			}
+			if (statistics != null){
+				statistics.recordRequest(TcpStorageStatistics.READ, length, System.nanoTime() - start);
+			}
+			return written;
+		}
+
+		public void update(ByteBuffer buffer) throws IOException {
+			int remoteCount = buffer.getInt();
+			if (remoteCount != count){
+				throw new IOException("vectored read, segment count mismatch " + remoteCount + " != " + count);
+			}
+			for (int i = 0; i < count; i++){
+				segments[i].update(buffer);
+			}
+		}
+		
+		public int size() {
+			return CSIZE;
+		}		
+	}
 
 }
@@ -19,7 +19,11 @@
 
 package org.apache.crail.storage.tcp;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.net.InetAddress;
@@ -29,9 +33,11 @@ import java.net.NetworkInterface;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.crail.conf.CrailConfiguration;
 import org.apache.crail.conf.CrailConstants;
@@ -47,30 +53,76 @@ import com.ibm.narpc.NaRPCService;
 
 public class TcpStorageServer implements Runnable, StorageServer, NaRPCService<TcpStorageRequest, TcpStorageResponse> {
 	private static final Logger LOG = CrailUtils.getLogger();
+	private static final String MANIFEST = "manifest";
+	private static final int MANIFEST_VERSION = 1;
 	
 	private NaRPCServerGroup<TcpStorageRequest, TcpStorageResponse> serverGroup;
 	private NaRPCServerEndpoint<TcpStorageRequest, TcpStorageResponse> serverEndpoint;
 	private InetSocketAddress address;
 	private boolean alive;
-	private long regions;
-	private long keys;
-	private ConcurrentHashMap<Integer, ByteBuffer> dataBuffers;
-	private String dataDirPath;
+	protected int regions;
+	protected int keys;
+	private ByteBuffer[] dataBuffers;
+	private FileChannel[] dataChannels;
+	private boolean channelReads;
+	private TcpStorageServer[] shards;
+	protected String dataDirPath;
+	protected boolean persistent;
+	private AtomicInteger inFlight;
+	private AtomicInteger peakInFlight;
+	private TcpStorageCopyPool copyPool;
+	private TcpStorageStatistics statistics;
 	
 	@Override
 	public void init(CrailConfiguration conf, String[] args) throws Exception {
 		TcpStorageConstants.init(conf, args);
 		
-		this.serverGroup = new NaRPCServerGroup<TcpStorageRequest, TcpStorageResponse>(this, TcpStorageConstants.STORAGE_TCP_QUEUE_DEPTH, (int) CrailConstants.BLOCK_SIZE*2, false, TcpStorageConstants.STORAGE_TCP_CORES);
+		int shardCount = TcpStorageConstants.STORAGE_TCP_SHARDS;
+		if (TcpStorageConstants.STORAGE_TCP_COPY_THREADS > 0){
+			//one pool shared by all shards
+			this.copyPool = new TcpStorageCopyPool(TcpStorageConstants.STORAGE_TCP_COPY_THREADS, TcpStorageConstants.STORAGE_TCP_COPY_CHUNK);
+		}
+		if (shardCount > 1){
+			//one event loop per shard, each shard owns its regions and listens on its own port
+			this.shards = new TcpStorageServer[shardCount];
+			for (int i = 0; i < shardCount; i++){
+				shards[i] = createShard();
+				shards[i].initShard(i, shardCount, 1);
+				shards[i].copyPool = copyPool;
+			}
+			this.address = shards[0].getAddress();
+		} else {
+			this.shards = new TcpStorageServer[]{ this };
+			initShard(0, 1, TcpStorageConstants.STORAGE_TCP_CORES);
+		}
+		if (TcpStorageConstants.STORAGE_TCP_STATS_INTERVAL > 0){
+			startStatisticsDump(TcpStorageConstants.STORAGE_TCP_STATS_INTERVAL);
+		}
+	}
+	
+	protected TcpStorageServer createShard() {
+		return new TcpStorageServer();
+	}
+	
+	protected void initShard(int shard, int shardCount, int cores) throws Exception {
+		this.serverGroup = new NaRPCServerGroup<TcpStorageRequest, TcpStorageResponse>(this, TcpStorageConstants.STORAGE_TCP_QUEUE_DEPTH, (int) CrailConstants.BLOCK_SIZE*2, false, cores);
 		this.serverEndpoint = serverGroup.createServerEndpoint();
-		this.address = getDataNodeAddress();
+		this.address = getDataNodeAddress(shard);
 		serverEndpoint.bind(address);
 		this.alive = false;
-		this.regions = TcpStorageConstants.STORAGE_TCP_STORAGE_LIMIT/TcpStorageConstants.STORAGE_TCP_ALLOCATION_SIZE;
+		this.regions = (int) (TcpStorageConstants.STORAGE_TCP_STORAGE_LIMIT/TcpStorageConstants.STORAGE_TCP_ALLOCATION_SIZE/shardCount);
 		this.keys = 0;
-		this.dataBuffers = new ConcurrentHashMap<Integer, ByteBuffer>();
+		this.dataBuffers = new ByteBuffer[regions];
+		this.dataChannels = new FileChannel[regions];
+		this.channelReads = TcpStorageConstants.STORAGE_TCP_READ_MODE.equalsIgnoreCase("channel");
 		this.dataDirPath = getDatanodeDirectory(address);
-		clean();
+		this.inFlight = new AtomicInteger(0);
+		this.peakInFlight = new AtomicInteger(0);
+		this.statistics = new TcpStorageStatistics("tcpstorage " + address, regions);
+		this.persistent = TcpStorageConstants.STORAGE_TCP_PERSISTENT;
+		if (!persistent || !readManifest()){
+			clean();
+		}
 	}
 
 	@Override
@@ -79,42 +131,85 @@ public class TcpStorageServer implements Runnable, StorageServer, NaRPCService<T
 	}
 
 	@Override
-	public StorageResource allocateResource() throws Exception {
+	public TcpStorageServer[] getShards() {
+		return shards;
+	}
+
+	@Override
+	public synchronized StorageResource allocateResource() throws Exception {
 		StorageResource resource = null;
 		if (keys < regions){
-			int fileId = (int) keys++;
+			int fileId = keys++;
 			String dataFilePath = Paths.get(dataDirPath, Integer.toString(fileId)).toString();
 			RandomAccessFile dataFile = new RandomAccessFile(dataFilePath, "rw");
 			FileChannel dataChannel = dataFile.getChannel();
 			ByteBuffer buffer = dataChannel.map(MapMode.READ_WRITE, 0, TcpStorageConstants.STORAGE_TCP_ALLOCATION_SIZE);
-			dataBuffers.put(fileId, buffer);
-			dataFile.close();
-			dataChannel.close();			
-			long address = CrailUtils.getAddress(buffer);
+			dataBuffers[fileId] = buffer;
+			if (channelReads){
+				//the channel stays open for reads, closing it would not unmap the buffer anyway
+				dataChannels[fileId] = dataChannel;
+			} else {
+				dataFile.close();
+				dataChannel.close();			
+			}
+			long address = getRegionAddress(fileId);
 			resource = StorageResource.createResource(address, buffer.capacity(), fileId);
+			writeManifest();
 //			LOG.info("allocating resource, key " + resource.getKey() + ", address " + resource.getAddress() + ", length " + resource.getLength());
 		}
 		return resource;
 	}
 
+	public TcpStorageStatistics getStatistics() {
+		return statistics;
+	}
+
 	@Override
 	public InetSocketAddress getAddress() {
 		return address;
 	}
 
+	@Override
+	public int getInFlight() {
+		if (isComposite()){
+			int sum = 0;
+			for (TcpStorageServer shard : shards){
+				sum += shard.getInFlight();
+			}
+			return sum;
+		}
+		//the peak over the keepalive interval, a single sample is almost always 0 or 1
+		return peakInFlight.getAndSet(inFlight.get());
+	}
+
 	@Override
 	public boolean isAlive() {
+		if (isComposite()){
+			for (TcpStorageServer shard : shards){
+				if (!shard.isAlive()){
+					return false;
+				}
+			}
+			return true;
+		}
 		return alive;
 	}
 
 	@Override
 	public void run() {
+		if (isComposite()){
+			for (TcpStorageServer shard : shards){
+				new Thread(shard).start();
+			}
+			return;
+		}
 		try {
 			LOG.info("running TCP storage server, address " + address);
 			this.alive = true;
 			while(true){
 				NaRPCServerChannel endpoint = serverEndpoint.accept();
 				LOG.info("new connection " + endpoint.address());
+				statistics.incConnections();
 			}
 		} catch(Exception e){
 			e.printStackTrace();
@@ -128,30 +223,183 @@ public class TcpStorageServer implements Runnable, StorageServer, NaRPCService<T
 
 	@Override
 	public TcpStorageResponse processRequest(TcpStorageRequest request) {
+		int depth = inFlight.incrementAndGet();
+		int peak = peakInFlight.get();
+		while (depth > peak && !peakInFlight.compareAndSet(peak, depth)){
+			peak = peakInFlight.get();
+		}
+		statistics.recordQueueDepth(depth);
+		long start = System.nanoTime();
+		try {
+			return _processRequest(request, start);
+		} catch(IOException e){
+			LOG.info("failed to process request, " + e.getMessage());
+			return new TcpStorageResponse(TcpStorageProtocol.RET_IO_ERROR);
+		} finally {
+			inFlight.decrementAndGet();
+		}
+	}
+	
+	//service time is measured up to the response, reads whose payload is fetched at serialization record it after the fetch
+	private TcpStorageResponse _processRequest(TcpStorageRequest request, long start) throws IOException {
 		if (request.type() == TcpStorageProtocol.REQ_WRITE){
 			TcpStorageRequest.WriteRequest writeRequest = request.getWriteRequest();
-			ByteBuffer buffer = dataBuffers.get(writeRequest.getKey()).duplicate();
-			long offset = writeRequest.getAddress() - CrailUtils.getAddress(buffer);
-//			LOG.info("processing write request, key " + writeRequest.getKey() + ", address " + writeRequest.getAddress() + ", length " + writeRequest.length() + ", remaining " + writeRequest.getBuffer().remaining() + ", offset " + offset);
-			buffer.clear().position((int) offset);
-			buffer.put(writeRequest.getBuffer());
+//			LOG.info("processing write request, key " + writeRequest.getKey() + ", address " + writeRequest.getAddress() + ", length " + writeRequest.length() + ", remaining " + writeRequest.getBuffer().remaining());
+			write(writeRequest.getKey(), writeRequest.getAddress(), writeRequest.getBuffer());
+			statistics.recordRegion(TcpStorageStatistics.WRITE, writeRequest.getKey(), writeRequest.length());
+			statistics.recordRequest(TcpStorageStatistics.WRITE, writeRequest.length(), System.nanoTime() - start);
 			TcpStorageResponse.WriteResponse writeResponse = new TcpStorageResponse.WriteResponse(writeRequest.length());
 			return new TcpStorageResponse(writeResponse);
 		} else if (request.type() == TcpStorageProtocol.REQ_READ){
 			TcpStorageRequest.ReadRequest readRequest = request.getReadRequest();
-			ByteBuffer buffer = dataBuffers.get(readRequest.getKey()).duplicate();
-			long offset = readRequest.getAddress() - CrailUtils.getAddress(buffer);
-//			LOG.info("processing read request, address " + readRequest.getAddress() + ", length " + readRequest.length() + ", offset " + offset);
-			long limit = offset + readRequest.length();
-			buffer.clear().position((int) offset).limit((int) limit);
-			TcpStorageResponse.ReadResponse readResponse = new TcpStorageResponse.ReadResponse(buffer);
+//			LOG.info("processing read request, address " + readRequest.getAddress() + ", length " + readRequest.length());
+			TcpStorageResponse.ReadResponse readResponse = read(readRequest.getKey(), readRequest.getAddress(), readRequest.length());
+			statistics.recordRegion(TcpStorageStatistics.READ, readRequest.getKey(), readRequest.length());
+			if (readResponse.isDeferred()){
+				readResponse.recordOnWrite(statistics, start);
+			} else {
+				statistics.recordRequest(TcpStorageStatistics.READ, readRequest.length(), System.nanoTime() - start);
+			}
 			return new TcpStorageResponse(readResponse);
+		} else if (request.type() == TcpStorageProtocol.REQ_WRITEV){
+			TcpStorageRequest.WritevRequest writevRequest = request.getWritevRequest();
+			if (!writevRequest.isValid()){
+				LOG.info("rejecting vectored write with invalid segment table");
+				return new TcpStorageResponse(TcpStorageProtocol.RET_INVALID_REQUEST);
+			}
+			for (int i = 0; i < writevRequest.getCount(); i++){
+				write(writevRequest.getKey(i), writevRequest.getAddress(i), writevRequest.getBuffer(i));
+				statistics.recordRegion(TcpStorageStatistics.WRITE, writevRequest.getKey(i), writevRequest.length(i));
+			}
+			statistics.recordRequest(TcpStorageStatistics.WRITE, writevRequest.length(), System.nanoTime() - start);
+			TcpStorageResponse.WriteResponse writeResponse = new TcpStorageResponse.WriteResponse(writevRequest.length());
+			return new TcpStorageResponse(writeResponse);
+		} else if (request.type() == TcpStorageProtocol.REQ_READV){
+			TcpStorageRequest.ReadvRequest readvRequest = request.getReadvRequest();
+			if (!readvRequest.isValid()){
+				LOG.info("rejecting vectored read with invalid segment count");
+				return new TcpStorageResponse(TcpStorageProtocol.RET_INVALID_REQUEST);
+			}
+			int count = readvRequest.getCount();
+			TcpStorageResponse.ReadResponse[] segments = new TcpStorageResponse.ReadResponse[count];
+			for (int i = 0; i < count; i++){
+				segments[i] = read(readvRequest.getKey(i), readvRequest.getAddress(i), readvRequest.length(i));
+				statistics.recordRegion(TcpStorageStatistics.READ, readvRequest.getKey(i), readvRequest.length(i));
+			}
+			TcpStorageResponse.ReadvResponse readvResponse = new TcpStorageResponse.ReadvResponse(count, segments);
+			if (readvResponse.isDeferred()){
+				readvResponse.recordOnWrite(statistics, readvRequest.length(), start);
+			} else {
+				statistics.recordRequest(TcpStorageStatistics.READ, readvRequest.length(), System.nanoTime() - start);
+			}
+			return new TcpStorageResponse(readvResponse);
 		} else {
 			LOG.info("processing unknown request");
 			return new TcpStorageResponse(TcpStorageProtocol.RET_RPC_UNKNOWN);
 		}
 	}
 	
+	protected void write(int key, long address, ByteBuffer data) throws IOException {
+		ByteBuffer buffer = dataBuffers[key].duplicate();
+		long offset = address - getRegionAddress(key);
+		buffer.clear().position((int) offset);
+		if (copyPool != null){
+			copyPool.copy(buffer, data);
+		} else {
+			buffer.put(data);
+		}
+	}
+	
+	protected TcpStorageResponse.ReadResponse read(int key, long address, int length) throws IOException {
+		ByteBuffer buffer = dataBuffers[key].duplicate();
+		long offset = address - getRegionAddress(key);
+		if (channelReads){
+			return new TcpStorageResponse.ReadResponse(dataChannels[key], offset, length);
+		}
+		long limit = offset + length;
+		buffer.clear().position((int) offset).limit((int) limit);
+		return new TcpStorageResponse.ReadResponse(buffer);
+	}
+	
+	//the mapped address of the region, or in persistent mode (key + 1) times the region size, which survives a restart
+	protected long getRegionAddress(int key) {
+		if (persistent){
+			return (key + 1L)*TcpStorageConstants.STORAGE_TCP_ALLOCATION_SIZE;
+		}
+		return CrailUtils.getAddress(dataBuffers[key]);
+	}
+	
+	//region files allocated so far, written after every allocation in persistent mode
+	protected void writeManifest() throws IOException {
+		if (!persistent){
+			return;
+		}
+		File manifest = new File(dataDirPath, MANIFEST);
+		File tmp = new File(dataDirPath, MANIFEST + ".tmp");
+		DataOutputStream stream = new DataOutputStream(new FileOutputStream(tmp));
+		try {
+			stream.writeInt(MANIFEST_VERSION);
+			stream.writeLong(TcpStorageConstants.STORAGE_TCP_ALLOCATION_SIZE);
+			stream.writeInt(keys);
+		} finally {
+			stream.close();
+		}
+		Files.move(tmp.toPath(), manifest.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+	
+	//true if the region files of the previous run can be used again, they are mapped again in allocation order
+	private boolean readManifest() {
+		File manifest = new File(dataDirPath, MANIFEST);
+		if (!manifest.exists()){
+			return false;
+		}
+		try {
+			DataInputStream stream = new DataInputStream(new FileInputStream(manifest));
+			try {
+				int version = stream.readInt();
+				long allocationSize = stream.readLong();
+				int regionCount = stream.readInt();
+				if (version != MANIFEST_VERSION || allocationSize != TcpStorageConstants.STORAGE_TCP_ALLOCATION_SIZE){
+					LOG.info("manifest of " + dataDirPath + " does not match the configuration, discarding regions");
+					return false;
+				}
+				LOG.info("reusing " + regionCount + " regions of " + dataDirPath);
+				return true;
+			} finally {
+				stream.close();
+			}
+		} catch(IOException e){
+			LOG.info("cannot read manifest of " + dataDirPath + ", " + e.getMessage());
+			return false;
+		}
+	}
+	
+	private void startStatisticsDump(final long interval){
+		final TcpStorageServer[] servers = shards;
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while(true){
+					try {
+						Thread.sleep(interval*1000);
+					} catch(InterruptedException e){
+						return;
+					}
+					for (TcpStorageServer server : servers){
+						LOG.info(server.statistics.providerName() + " [" + server.statistics.printStatistics() + "]");
+					}
+				}
+			}
+		}, "tcp-storage-statistics");
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	//the server handed out by the storage tier, only delegates to its shards
+	private boolean isComposite(){
+		return shards != null && shards[0] != this;
+	}
+	
 	private void clean(){
 		File dataDir = new File(dataDirPath);
 		if (!dataDir.exists()){
@@ -163,8 +411,13 @@ public class TcpStorageServer implements Runnable, StorageServer, NaRPCService<T
 	}	
 	
 	public static InetSocketAddress getDataNodeAddress() throws IOException {
+		return getDataNodeAddress(0);
+	}
+	
+	//shards listen on consecutive ports starting at the configured one
+	public static InetSocketAddress getDataNodeAddress(int shard) throws IOException {
 		String ifname = TcpStorageConstants.STORAGE_TCP_INTERFACE;
-		int port = TcpStorageConstants.STORAGE_TCP_PORT;
+		int port = TcpStorageConstants.STORAGE_TCP_PORT + shard;
 		
 		NetworkInterface netif = NetworkInterface.getByName(ifname);
 		if (netif == null){
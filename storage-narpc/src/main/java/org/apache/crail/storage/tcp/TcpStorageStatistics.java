@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2015-2018, IBM Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.crail.storage.tcp;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.crail.CrailStatistics;
+import org.apache.crail.CrailStatistics.StatisticsProvider;
+
+/*
+ * Request statistics of one storage server shard. Service time histograms per operation
+ * and size class, operation and byte counters per region, and queue depth gauges. All
+ * counters are preallocated atomics, recording a request does not allocate.
+ * 
+ * The histograms are log-linear as in HdrHistogram, every power of two is split into
+ * eight sub-buckets, so a reported percentile is within 12.5% of the recorded value.
+ */
+public class TcpStorageStatistics implements CrailStatistics.StatisticsProvider {
+	public static final int READ = 0;
+	public static final int WRITE = 1;
+	private static final String[] OP_NAMES = { "read", "write" };
+	
+	//upper bounds of the size classes, the last class takes everything larger
+	private static final int[] SIZE_CLASSES = { 4096, 65536, 1048576, Integer.MAX_VALUE };
+	private static final String[] SIZE_NAMES = { "4K", "64K", "1M", "max" };
+	
+	private String name;
+	private Histogram[][] histograms;
+	private AtomicLongArray regionOps;
+	private AtomicLongArray regionBytes;
+	private AtomicLong maxQueueDepth;
+	private AtomicLong connections;
+	
+	public TcpStorageStatistics(String name, int regions){
+		this.name = name;
+		this.histograms = new Histogram[OP_NAMES.length][SIZE_CLASSES.length];
+		for (int i = 0; i < OP_NAMES.length; i++){
+			for (int j = 0; j < SIZE_CLASSES.length; j++){
+				histograms[i][j] = new Histogram();
+			}
+		}
+		this.regionOps = new AtomicLongArray(regions*OP_NAMES.length);
+		this.regionBytes = new AtomicLongArray(regions*OP_NAMES.length);
+		this.maxQueueDepth = new AtomicLong(0);
+		this.connections = new AtomicLong(0);
+	}
+	
+	//one sample per request, length is the payload of all segments
+	public void recordRequest(int op, int length, long nanos) {
+		histograms[op][sizeClass(length)].record(nanos);
+	}
+	
+	//one count per segment
+	public void recordRegion(int op, int key, int length) {
+		int index = key*OP_NAMES.length + op;
+		if (index < regionOps.length()){
+			regionOps.incrementAndGet(index);
+			regionBytes.addAndGet(index, length);
+		}
+	}
+	
+	public void recordQueueDepth(int depth) {
+		long max = maxQueueDepth.get();
+		while(depth > max && !maxQueueDepth.compareAndSet(max, depth)){
+			max = maxQueueDepth.get();
+		}
+	}
+	
+	public void incConnections() {
+		connections.incrementAndGet();
+	}
+
+	@Override
+	public String providerName() {
+		return name;
+	}
+
+	@Override
+	public String printStatistics() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("connections " + connections.get() + ", maxQueueDepth " + maxQueueDepth.get());
+		for (int i = 0; i < OP_NAMES.length; i++){
+			for (int j = 0; j < SIZE_CLASSES.length; j++){
+				Histogram histogram = histograms[i][j];
+				long count = histogram.getCount();
+				if (count == 0){
+					continue;
+				}
+				builder.append(", " + OP_NAMES[i] + "<=" + SIZE_NAMES[j] + " [count " + count 
+						+ ", p50 " + histogram.getPercentile(0.5)/1000 + "us, p99 " + histogram.getPercentile(0.99)/1000 
+						+ "us, p999 " + histogram.getPercentile(0.999)/1000 + "us, max " + histogram.getMax()/1000 + "us]");
+			}
+		}
+		for (int index = 0; index < regionOps.length(); index++){
+			long ops = regionOps.get(index);
+			if (ops == 0){
+				continue;
+			}
+			builder.append(", region " + index/OP_NAMES.length + " " + OP_NAMES[index % OP_NAMES.length] + " [ops " + ops + ", bytes " + regionBytes.get(index) + "]");
+		}
+		return builder.toString();
+	}
+
+	@Override
+	public void mergeStatistics(StatisticsProvider provider) {
+		if (provider instanceof TcpStorageStatistics){
+			TcpStorageStatistics other = (TcpStorageStatistics) provider;
+			for (int i = 0; i < OP_NAMES.length; i++){
+				for (int j = 0; j < SIZE_CLASSES.length; j++){
+					histograms[i][j].merge(other.histograms[i][j]);
+				}
+			}
+			for (int index = 0; index < Math.min(regionOps.length(), other.regionOps.length()); index++){
+				regionOps.addAndGet(index, other.regionOps.get(index));
+				regionBytes.addAndGet(index, other.regionBytes.get(index));
+			}
+			recordQueueDepth((int) other.maxQueueDepth.get());
+			connections.addAndGet(other.connections.get());
+		}
+	}
+
+	@Override
+	public void resetStatistics() {
+		for (int i = 0; i < OP_NAMES.length; i++){
+			for (int j = 0; j < SIZE_CLASSES.length; j++){
+				histograms[i][j].reset();
+			}
+		}
+		for (int index = 0; index < regionOps.length(); index++){
+			regionOps.set(index, 0);
+			regionBytes.set(index, 0);
+		}
+		maxQueueDepth.set(0);
+	}
+	
+	private static int sizeClass(int length){
+		int index = 0;
+		while(length > SIZE_CLASSES[index]){
+			index++;
+		}
+		return index;
+	}
+	
+	private static class Histogram {
+		private static final int SUB_BITS = 3;
+		private static final int SUB_BUCKETS = 1 << SUB_BITS;
+		private static final int LINEAR = 2*SUB_BUCKETS;
+		//values below LINEAR have a bucket each, above one bucket per eighth of a power of two
+		private static final int BUCKETS = LINEAR + (64 - SUB_BITS - 1)*SUB_BUCKETS;
+		
+		private AtomicLongArray buckets;
+		private AtomicLong count;
+		private AtomicLong max;
+		
+		Histogram(){
+			this.buckets = new AtomicLongArray(BUCKETS);
+			this.count = new AtomicLong(0);
+			this.max = new AtomicLong(0);
+		}
+		
+		void record(long value){
+			if (value < 0){
+				value = 0;
+			}
+			buckets.incrementAndGet(bucket(value));
+			count.incrementAndGet();
+			long current = max.get();
+			while(value > current && !max.compareAndSet(current, value)){
+				current = max.get();
+			}
+		}
+		
+		long getCount(){
+			return count.get();
+		}
+		
+		long getMax(){
+			return max.get();
+		}
+		
+		//lower bound of the bucket holding the requested percentile
+		long getPercentile(double percentile){
+			long total = count.get();
+			long rank = (long) Math.ceil(total*percentile);
+			long seen = 0;
+			for (int i = 0; i < BUCKETS; i++){
+				seen += buckets.get(i);
+				if (seen >= rank && seen > 0){
+					return lowerBound(i);
+				}
+			}
+			return max.get();
+		}
+		
+		void merge(Histogram other){
+			for (int i = 0; i < BUCKETS; i++){
+				buckets.addAndGet(i, other.buckets.get(i));
+			}
+			count.addAndGet(other.count.get());
+			long value = other.max.get();
+			long current = max.get();
+			while(value > current && !max.compareAndSet(current, value)){
+				current = max.get();
+			}
+		}
+		
+		void reset(){
+			for (int i = 0; i < BUCKETS; i++){
+				buckets.set(i, 0);
+			}
+			count.set(0);
+			max.set(0);
+		}
+		
+		private static int bucket(long value){
+			if (value < LINEAR){
+				return (int) value;
+			}
+			int exponent = 63 - Long.numberOfLeadingZeros(value);
+			int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+			return LINEAR + (exponent - SUB_BITS - 1)*SUB_BUCKETS + sub;
+		}
+		
+		private static long lowerBound(int bucket){
+			if (bucket < LINEAR){
+				return bucket;
+			}
+			int exponent = (bucket - LINEAR) / SUB_BUCKETS + SUB_BITS + 1;
+			int sub = (bucket - LINEAR) % SUB_BUCKETS;
+			return (1L << exponent) + ((long) sub << (exponent - SUB_BITS));
+		}
+	}
+}
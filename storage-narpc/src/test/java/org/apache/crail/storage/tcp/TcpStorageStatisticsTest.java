@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2015-2018, IBM Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.crail.storage.tcp;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TcpStorageStatisticsTest {
+	private static final long MS = 1L << 20;
+	
+	private TcpStorageStatistics statistics;
+	
+	@Before
+	public void init() {
+		this.statistics = new TcpStorageStatistics("test", 2);
+	}
+	
+	@Test
+	public void testSizeClasses() {
+		statistics.recordRequest(TcpStorageStatistics.READ, 4096, MS);
+		statistics.recordRequest(TcpStorageStatistics.READ, 4097, MS);
+		statistics.recordRequest(TcpStorageStatistics.READ, 4097, MS);
+		statistics.recordRequest(TcpStorageStatistics.WRITE, 1048576, MS);
+		statistics.recordRequest(TcpStorageStatistics.WRITE, 1048577, MS);
+		String stats = statistics.printStatistics();
+		Assert.assertTrue(stats, stats.contains("read<=4K [count 1,"));
+		Assert.assertTrue(stats, stats.contains("read<=64K [count 2,"));
+		Assert.assertTrue(stats, stats.contains("write<=1M [count 1,"));
+		Assert.assertTrue(stats, stats.contains("write<=max [count 1,"));
+		Assert.assertFalse(stats, stats.contains("read<=1M"));
+	}
+	
+	@Test
+	public void testBucketBounds() {
+		//one bucket per eighth of a power of two, a sample is reported with the lower bound of its bucket
+		statistics.recordRequest(TcpStorageStatistics.READ, 4096, MS + MS/8 - 1);
+		statistics.recordRequest(TcpStorageStatistics.WRITE, 4096, MS + MS/8);
+		String stats = statistics.printStatistics();
+		Assert.assertTrue(stats, stats.contains("read<=4K [count 1, p50 " + MS/1000 + "us"));
+		Assert.assertTrue(stats, stats.contains("max " + (MS + MS/8 - 1)/1000 + "us"));
+		Assert.assertTrue(stats, stats.contains("write<=4K [count 1, p50 " + (MS + MS/8)/1000 + "us"));
+	}
+	
+	@Test
+	public void testPercentiles() {
+		for (int i = 0; i < 98; i++){
+			statistics.recordRequest(TcpStorageStatistics.READ, 4096, MS);
+		}
+		statistics.recordRequest(TcpStorageStatistics.READ, 4096, 16*MS);
+		statistics.recordRequest(TcpStorageStatistics.READ, 4096, 16*MS);
+		String stats = statistics.printStatistics();
+		Assert.assertTrue(stats, stats.contains("[count 100, p50 " + MS/1000 + "us, p99 " + 16*MS/1000 + "us, p999 " + 16*MS/1000 + "us, max " + 16*MS/1000 + "us]"));
+	}
+	
+	@Test
+	public void testMergeAndReset() {
+		TcpStorageStatistics other = new TcpStorageStatistics("other", 2);
+		statistics.recordRequest(TcpStorageStatistics.READ, 4096, MS);
+		statistics.recordRegion(TcpStorageStatistics.READ, 1, 4096);
+		statistics.recordQueueDepth(3);
+		other.recordRequest(TcpStorageStatistics.READ, 4096, 4*MS);
+		other.recordRegion(TcpStorageStatistics.READ, 1, 4096);
+		other.recordQueueDepth(5);
+		statistics.mergeStatistics(other);
+		String stats = statistics.printStatistics();
+		Assert.assertTrue(stats, stats.contains("maxQueueDepth 5"));
+		Assert.assertTrue(stats, stats.contains("read<=4K [count 2, p50 " + MS/1000 + "us"));
+		Assert.assertTrue(stats, stats.contains("max " + 4*MS/1000 + "us"));
+		Assert.assertTrue(stats, stats.contains("region 1 read [ops 2, bytes 8192]"));
+		
+		statistics.resetStatistics();
+		Assert.assertEquals("connections 0, maxQueueDepth 0", statistics.printStatistics());
+	}
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2015-2018, IBM Corporation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.crail.storage;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.crail.CrailBuffer;
+import org.apache.crail.conf.CrailConfiguration;
+import org.apache.crail.conf.CrailConstants;
+import org.apache.crail.memory.BufferCache;
+import org.apache.crail.metadata.BlockInfo;
+import org.apache.crail.metadata.DataNodeInfo;
+import org.apache.crail.rpc.RpcConnection;
+import org.apache.crail.rpc.RpcErrors;
+import org.apache.crail.rpc.RpcMigrateBlocks;
+import org.apache.crail.utils.CrailUtils;
+import org.slf4j.Logger;
+
+/*
+ * Moves the live blocks of a draining datanode to the targets picked by the namenode. The
+ * storage tier doubles as the client, blocks are read from this server and written to the
+ * target server through the same endpoints a file system client would use.
+ */
+public class BlockMigrator {
+	private static final Logger LOG = CrailUtils.getLogger();
+	
+	private StorageClient storageClient;
+	private BufferCache bufferCache;
+	private HashMap<Long, StorageEndpoint> endpoints;
+	
+	public BlockMigrator(StorageClient storageClient, CrailConfiguration conf) throws Exception {
+		this.storageClient = storageClient;
+		this.storageClient.init(conf, null);
+		this.bufferCache = BufferCache.createInstance(CrailConstants.CACHE_IMPL);
+		this.endpoints = new HashMap<Long, StorageEndpoint>();
+	}
+	
+	//drains the datanode on one namenode, returns the number of blocks that could not be moved for now
+	public int migrate(RpcConnection rpcConnection, DataNodeInfo dnInfo) throws Exception {
+		long[] fds = new long[CrailConstants.NAMENODE_BATCH_SIZE];
+		int[] indices = new int[CrailConstants.NAMENODE_BATCH_SIZE];
+		int count = 0;
+		int moved = 0;
+		while(true){
+			//the blocks copied in the last round are reported with the request for the next round
+			RpcMigrateBlocks res = rpcConnection.migrateBlocks(dnInfo, fds, indices, count).get(CrailConstants.RPC_TIMEOUT, TimeUnit.MILLISECONDS);
+			if (res.getError() != RpcErrors.ERR_OK){
+				LOG.info("migrateBlocks: " + RpcErrors.messages[res.getError()]);
+				throw new IOException("migrateBlocks: " + RpcErrors.messages[res.getError()]);
+			}
+			moved += count;
+			if (res.getCount() == 0){
+				if (moved > 0){
+					LOG.info("migrated " + moved + " blocks, remaining " + res.getRemaining());
+				}
+				return res.getRemaining();
+			}
+			
+			count = 0;
+			for (int i = 0; i < res.getCount(); i++){
+				try {
+					copy(res.getSource(i), res.getTarget(i));
+					fds[count] = res.getFd(i);
+					indices[count] = res.getIndex(i);
+					count++;
+				} catch(Exception e){
+					LOG.info("failed to migrate block " + res.getIndex(i) + " of fd " + res.getFd(i) + ", " + e.getMessage());
+				}
+			}
+			if (count == 0){
+				//nothing could be copied, the namenode gives the targets up with the next request
+				return res.getCount() + res.getRemaining();
+			}
+		}
+	}
+	
+	public void close() throws Exception {
+		for (StorageEndpoint endpoint : endpoints.values()){
+			endpoint.close();
+		}
+		endpoints.clear();
+		bufferCache.close();
+		storageClient.close();
+	}
+	
+	private void copy(BlockInfo source, BlockInfo target) throws Exception {
+		StorageEndpoint reader = getEndpoint(source.getDnInfo());
+		StorageEndpoint writer = getEndpoint(target.getDnInfo());
+		CrailBuffer buffer = bufferCache.getBuffer();
+		try {
+			long offset = 0;
+			while (offset < source.getLength()){
+				int length = (int) Math.min(buffer.capacity(), source.getLength() - offset);
+				buffer.clear().limit(length);
+				reader.read(buffer, source, offset).get(CrailConstants.DATA_TIMEOUT, TimeUnit.MILLISECONDS);
+				buffer.clear().limit(length);
+				writer.write(buffer, target, offset).get(CrailConstants.DATA_TIMEOUT, TimeUnit.MILLISECONDS);
+				offset += length;
+			}
+		} finally {
+			bufferCache.putBuffer(buffer);
+		}
+	}
+	
+	private StorageEndpoint getEndpoint(DataNodeInfo dnInfo) throws IOException {
+		StorageEndpoint endpoint = endpoints.get(dnInfo.key());
+		if (endpoint == null){
+			endpoint = storageClient.createEndpoint(dnInfo);
+			endpoints.put(dnInfo.key(), endpoint);
+		}
+		return endpoint;
+	}
+}
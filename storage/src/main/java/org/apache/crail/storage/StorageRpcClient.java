@@ -21,6 +21,7 @@ package org.apache.crail.storage;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.crail.CrailLocationClass;
@@ -31,6 +32,7 @@ import org.apache.crail.metadata.DataNodeInfo;
 import org.apache.crail.metadata.DataNodeStatistics;
 import org.apache.crail.rpc.RpcConnection;
 import org.apache.crail.rpc.RpcErrors;
+import org.apache.crail.rpc.RpcFuture;
 import org.apache.crail.rpc.RpcVoid;
 import org.apache.crail.utils.CrailUtils;
 import org.slf4j.Logger;
@@ -63,9 +65,41 @@ public class StorageRpcClient {
 		}
 	}
 	
-	public DataNodeStatistics getDataNode() throws Exception{
+	//registers consecutive regions starting at lba, all messages are sent before waiting for any reply.
+	//returns the number of messages sent
+	public int setBlocks(ArrayList<StorageResource> resources, long lba) throws Exception {
 		InetSocketAddress inetAddress = serverAddress;
 		DataNodeInfo dnInfo = new DataNodeInfo(storageType, storageClass.value(), locationClass.value(), inetAddress.getAddress().getAddress(), inetAddress.getPort());
-		return this.rpcConnection.getDataNode(dnInfo).get(CrailConstants.RPC_TIMEOUT, TimeUnit.MILLISECONDS).getStatistics();
+		BlockInfo[] regions = new BlockInfo[resources.size()];
+		for (int i = 0; i < regions.length; i++){
+			StorageResource resource = resources.get(i);
+			regions[i] = new BlockInfo(dnInfo, lba, resource.getAddress(), resource.getLength(), resource.getKey());
+			lba += (long) resource.getLength();
+		}
+		
+		ArrayList<RpcFuture<RpcVoid>> futures = new ArrayList<RpcFuture<RpcVoid>>();
+		for (int offset = 0; offset < regions.length; offset += CrailConstants.NAMENODE_BATCH_SIZE){
+			int count = Math.min(CrailConstants.NAMENODE_BATCH_SIZE, regions.length - offset);
+			futures.add(rpcConnection.setBlocks(regions, offset, count));
+		}
+		for (RpcFuture<RpcVoid> future : futures){
+			RpcVoid res = future.get(CrailConstants.RPC_TIMEOUT, TimeUnit.MILLISECONDS);
+			if (res.getError() != RpcErrors.ERR_OK){
+				LOG.info("setBlocks: " + RpcErrors.messages[res.getError()]);
+				throw new IOException("setBlocks: " + RpcErrors.messages[res.getError()]);
+			}
+		}
+		return futures.size();
+	}
+	
+	public DataNodeStatistics getDataNode(int inFlight) throws Exception{
+		InetSocketAddress inetAddress = serverAddress;
+		DataNodeInfo dnInfo = new DataNodeInfo(storageType, storageClass.value(), locationClass.value(), inetAddress.getAddress().getAddress(), inetAddress.getPort());
+		return this.rpcConnection.getDataNode(dnInfo, inFlight).get(CrailConstants.RPC_TIMEOUT, TimeUnit.MILLISECONDS).getStatistics();
 	}	
+	
+	public DataNodeInfo getDataNodeInfo() {
+		InetSocketAddress inetAddress = serverAddress;
+		return new DataNodeInfo(storageType, storageClass.value(), locationClass.value(), inetAddress.getAddress().getAddress(), inetAddress.getPort());
+	}
 }
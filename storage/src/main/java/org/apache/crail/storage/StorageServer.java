@@ -20,6 +20,7 @@
 package org.apache.crail.storage;
 
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.StringTokenizer;
@@ -47,6 +48,15 @@ public interface StorageServer extends Configurable, Runnable {
 	public abstract StorageResource allocateResource() throws Exception;
 	public abstract boolean isAlive();
 	public abstract InetSocketAddress getAddress();
+	//peak number of requests in flight since the last call, reported to the namenode for block placement
+	public default int getInFlight() {
+		return 0;
+	}
+	
+	//a server may be split into shards, each shard registers with the namenode as a datanode of its own
+	public default StorageServer[] getShards() {
+		return new StorageServer[]{ this };
+	}
 	
 	public static void main(String[] args) throws Exception {
 		Logger LOG = CrailUtils.getLogger();
@@ -123,8 +133,11 @@ public interface StorageServer extends Configurable, Runnable {
 		server.init(conf, extraParams);
 		server.printConf(LOG);
 		
-		Thread thread = new Thread(server);
-		thread.start();
+		StorageServer[] shards = server.getShards();
+		for (StorageServer shard : shards){
+			Thread thread = new Thread(shard);
+			thread.start();
+		}
 		
 		RpcClient rpcClient = RpcClient.createInstance(CrailConstants.NAMENODE_RPC_TYPE);
 		rpcClient.init(conf, args);
@@ -144,49 +157,103 @@ public interface StorageServer extends Configurable, Runnable {
 		LOG.info("connected to namenode(s) " + rpcConnection.toString());				
 		
 		
-		StorageRpcClient storageRpc = new StorageRpcClient(storageType, CrailStorageClass.get(storageClass), server.getAddress(), rpcConnection);
+		StorageRpcClient[] storageRpc = new StorageRpcClient[shards.length];
+		for (int i = 0; i < shards.length; i++){
+			storageRpc[i] = new StorageRpcClient(storageType, CrailStorageClass.get(storageClass), shards[i].getAddress(), rpcConnection);
+		}
 		
+		//free blocks are tracked per namenode and shard, the key is serviceId*shards + shard
 		HashMap<Long, Long> blockCount = new HashMap<Long, Long>();
 		long sumCount = 0;
-		long lba = 0;
-		while (server.isAlive()) {
-			StorageResource resource = server.allocateResource();
-			if (resource == null){
-				break;
-			} else {
-				storageRpc.setBlock(lba, resource.getAddress(), resource.getLength(), resource.getKey());
-				lba += (long) resource.getLength();
-				
-				DataNodeStatistics stats = storageRpc.getDataNode();
+		for (int i = 0; i < shards.length; i++){
+			//regions are allocated up front and registered in bulk
+			ArrayList<StorageResource> resources = new ArrayList<StorageResource>();
+			while (shards[i].isAlive()) {
+				StorageResource resource = shards[i].allocateResource();
+				if (resource == null){
+					break;
+				}
+				resources.add(resource);
+			}
+			if (resources.isEmpty()){
+				continue;
+			}
+			int messages = storageRpc[i].setBlocks(resources, 0);
+			
+			//one query per message, so that every namenode the regions went to is asked
+			for (int j = 0; j < messages; j++){
+				DataNodeStatistics stats = storageRpc[i].getDataNode(shards[i].getInFlight());
 				long newCount = stats.getFreeBlockCount();
-				long serviceId = stats.getServiceId();
+				long key = stats.getServiceId()*shards.length + i;
 				
 				long oldCount = 0;
-				if (blockCount.containsKey(serviceId)){
-					oldCount = blockCount.get(serviceId);
+				if (blockCount.containsKey(key)){
+					oldCount = blockCount.get(key);
 				}
 				long diffCount = newCount - oldCount;
-				blockCount.put(serviceId, newCount);
+				blockCount.put(key, newCount);
 				sumCount += diffCount;
-				LOG.info("datanode statistics, freeBlocks " + sumCount);		
 			}
+			LOG.info("datanode statistics, freeBlocks " + sumCount);
 		}
 		
+		BlockMigrator migrator = null;
+		Thread migration = null;
 		while (server.isAlive()) {
-			DataNodeStatistics stats = storageRpc.getDataNode();
-			long newCount = stats.getFreeBlockCount();
-			long serviceId = stats.getServiceId();
+			final ArrayList<Integer> drainingShards = new ArrayList<Integer>();
+			for (int i = 0; i < shards.length; i++){
+				DataNodeStatistics stats = storageRpc[i].getDataNode(shards[i].getInFlight());
+				long newCount = stats.getFreeBlockCount();
+				long key = stats.getServiceId()*shards.length + i;
+				
+				long oldCount = 0;
+				if (blockCount.containsKey(key)){
+					oldCount = blockCount.get(key);
+				}
+				long diffCount = newCount - oldCount;
+				blockCount.put(key, newCount);
+				sumCount += diffCount;			
+				
+				//a draining shard moves its blocks away, every namenode owns a part of the files
+				if (stats.isDraining()){
+					drainingShards.add(i);
+				}
+			}
 			
-			long oldCount = 0;
-			if (blockCount.containsKey(serviceId)){
-				oldCount = blockCount.get(serviceId);
+			//blocks are moved on a thread of their own so that the keepalives go on during a drain
+			if (!drainingShards.isEmpty() && (migration == null || !migration.isAlive())){
+				if (migrator == null){
+					migrator = new BlockMigrator(storageTier, conf);
+				}
+				final BlockMigrator shardMigrator = migrator;
+				migration = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						for (int i : drainingShards){
+							int remaining = 0;
+							for (RpcConnection connection : connectionList){
+								try {
+									remaining += shardMigrator.migrate(connection, storageRpc[i].getDataNodeInfo());
+								} catch(Exception e){
+									LOG.info("block migration failed, " + e.getMessage());
+								}
+							}
+							LOG.info("datanode draining, shard " + i + ", blocks remaining " + remaining);
+						}
+					}
+				}, "block-migration");
+				migration.setDaemon(true);
+				migration.start();
 			}
-			long diffCount = newCount - oldCount;
-			blockCount.put(serviceId, newCount);
-			sumCount += diffCount;			
 			
 			LOG.info("datanode statistics, freeBlocks " + sumCount);
 			Thread.sleep(CrailConstants.STORAGE_KEEPALIVE*1000);
 		}			
+		if (migration != null){
+			migration.join();
+		}
+		if (migrator != null){
+			migrator.close();
+		}
 	}
 }